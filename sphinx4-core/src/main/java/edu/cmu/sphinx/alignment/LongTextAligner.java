@@ -13,195 +13,231 @@ package edu.cmu.sphinx.alignment;
 import edu.cmu.sphinx.util.Range;
 import edu.cmu.sphinx.util.Utilities;
 
+import org.eclipse.collections.impl.list.mutable.primitive.IntArrayList;
+import org.eclipse.collections.impl.map.mutable.primitive.ObjectIntHashMap;
+
 import java.util.*;
 
 import static java.lang.Math.*;
 import static java.util.Arrays.fill;
-import static java.util.Collections.emptyList;
 
 /**
+ * Aligns sequences of words with a long database sequence by tuples of
+ * subsequent words.
+ * <p>
+ * The tuples are numbered, and only the positions where query tuples occur in
+ * the database take part in the search. The search is a dynamic program over
+ * the query tuples and these positions that finds an alignment of the least
+ * number of unmatched tuples. In each row it only looks at a band of cells
+ * around the cheapest cell of the previous row, so the band follows the
+ * alignment as it drifts away from the diagonal. It keeps two rows of costs
+ * and records the best move into each cell of the band in two bits, so long
+ * sequences align in memory linear in their length.
+ * <p>
+ * The band trades accuracy for memory: a query that skips or repeats more
+ * tuples at once than the band is wide can lose the words after the jump. A
+ * band as wide as the database searches the whole matrix. Even then the
+ * result may differ from the one of the A* search this aligner used before,
+ * which did not always find an alignment of the least cost, in about one
+ * percent of the words of noisy texts; the share of correctly aligned words
+ * stays the same.
  *
  * @author Alexander Solovets
  */
 public class LongTextAligner {
 
-    private final class Alignment {
+    /** The default number of cells the search looks at on each side of the cheapest cell of the previous row */
+    public final static int DEFAULT_BAND_WIDTH = 100;
 
-        public final class Node {
+    private final static int DIAGONAL = 0;
+    private final static int LEFT = 1;
+    private final static int UP = 2;
 
-            private final int databaseIndex;
-            private final int queryIndex;
+    private final class Alignment {
 
-            private Node(int row, int column) {
-                this.databaseIndex = column;
-                this.queryIndex = row;
-            }
+        /** Positions of the query tuples that occur in the database */
+        private final int[] indices;
+        /** Ids of these tuples */
+        private final int[] queryIds;
+        /** Positions of the database tuples that occur in the query, ascending */
+        private final int[] shifts;
 
-            public int getDatabaseIndex() {
-                return shifts.get(databaseIndex - 1);
-            }
+        /** The first column of the band in each row */
+        private final int[] lows;
+        /** The rows of the band start at these cells of the backtrace */
+        private final long[] rowOffsets;
+        private final long[] backtrace;
 
-            public int getQueryIndex() {
-                return indices.get(queryIndex - 1);
-            }
+        private int[] alignedQueryIndices;
+        private int[] alignedDatabaseIndices;
 
-            public String getQueryWord() {
-                if (queryIndex > 0)
-                    return query.get(getQueryIndex());
-                return null;
+        public Alignment(List<String> query, Range range) {
+            int[] ids = new int[query.size()];
+            int numKnown = 0;
+            for (int i = 0; i < ids.length; i++) {
+                ids[i] = tupleIds.getIfAbsent(query.get(i), -1);
+                if (ids[i] >= 0)
+                    numKnown++;
             }
-
-            public String getDatabaseWord() {
-                if (databaseIndex > 0)
-                    return reftup.get(getDatabaseIndex());
-                return null;
+            indices = new int[numKnown];
+            queryIds = new int[numKnown];
+            int lower = max(0, range.lowerEndpoint());
+            int upper = min(reftup.size(), range.upperEndpoint());
+            BitSet shiftSet = new BitSet(max(0, upper - lower));
+            for (int i = 0, k = 0; i < ids.length; i++) {
+                if (ids[i] < 0)
+                    continue;
+                indices[k] = i;
+                queryIds[k++] = ids[i];
+                for (int j = positionOffsets[ids[i]]; j < positionOffsets[ids[i] + 1]; j++) {
+                    int shift = positions[j];
+                    if (shift >= lower && shift < upper)
+                        shiftSet.set(shift - lower);
+                }
             }
-
-            public int getValue() {
-                if (isBoundary())
-                    return max(queryIndex, databaseIndex);
-                return hasMatch() ? 0 : 1;
+            shifts = new int[shiftSet.cardinality()];
+            for (int i = shiftSet.nextSetBit(0), k = 0; i >= 0; i = shiftSet.nextSetBit(i + 1))
+                shifts[k++] = i + lower;
+
+            int rows = indices.length;
+            int columns = shifts.length;
+            if (rows == 0 || columns == 0) {
+                lows = null;
+                rowOffsets = null;
+                backtrace = null;
+                alignedQueryIndices = new int[0];
+                alignedDatabaseIndices = new int[0];
+                return;
             }
 
-            public boolean hasMatch() {
-                return getQueryWord().equals(getDatabaseWord());
-            }
+            // every row but the last is at most 2 * bandWidth + 1 cells wide
+            lows = new int[rows + 1];
+            rowOffsets = new long[rows + 2];
+            backtrace = new long[(int) (((long) rows * (2 * bandWidth + 1) + columns + 1 + 31) / 32)];
+            search();
+        }
 
-            public boolean isBoundary() {
-                return queryIndex == 0 || databaseIndex == 0;
-            }
+        private boolean isMatch(int q, int d) {
+            return queryIds[q - 1] == refIds[shifts[d - 1]];
+        }
 
-            public boolean isTarget() {
-                return queryIndex == indices.size() &&
-                       databaseIndex == shifts.size();
+        private void search() {
+            int rows = indices.length;
+            int columns = shifts.length;
+            long[] previous = new long[0];
+            long[] current = new long[2 * bandWidth + 2];
+            int previousLow = 0;
+            int previousHigh = -1;
+            int best = -1;
+            for (int q = 0; q <= rows; q++) {
+                // the band follows the best cell of the previous row
+                int low = q == 0 ? 0 : min(max(previousLow, best + 1 - bandWidth), previousHigh);
+                int high = q == rows ? columns : min(columns, max(best + 1 + bandWidth, low));
+                lows[q] = low;
+                rowOffsets[q + 1] = rowOffsets[q] + high - low + 1;
+                if (current.length < high - low + 1)
+                    current = new long[high - low + 1];
+
+                best = low;
+                for (int d = low; d <= high; d++) {
+                    long cost;
+                    int move;
+                    if (q > 0 && d > 0 && d - 1 >= previousLow && d - 1 <= previousHigh) {
+                        cost = previous[d - 1 - previousLow];
+                        move = DIAGONAL;
+                    } else {
+                        cost = q == 0 && d == 0 ? 0 : Long.MAX_VALUE;
+                        move = DIAGONAL;
+                    }
+                    if (d > low && current[d - 1 - low] < cost) {
+                        cost = current[d - 1 - low];
+                        move = LEFT;
+                    }
+                    if (q > 0 && d <= previousHigh && previous[d - previousLow] < cost) {
+                        cost = previous[d - previousLow];
+                        move = UP;
+                    }
+                    if (q == 0 || d == 0)
+                        cost += max(q, d);
+                    else if (!isMatch(q, d))
+                        cost += 1;
+                    current[d - low] = cost;
+                    if (cost < current[best - low])
+                        best = d;
+                    setMove(rowOffsets[q] + d - low, move);
+                }
+                long[] swap = previous;
+                previous = current;
+                current = swap;
+                previousLow = low;
+                previousHigh = high;
             }
 
-            public List<Node> adjacent() {
-                List<Node> result = new ArrayList<>(3);
-                if (queryIndex < indices.size() &&
-                    databaseIndex < shifts.size()) {
-                    result.add(new Node(queryIndex + 1, databaseIndex + 1));
-                }
-                if (databaseIndex < shifts.size()) {
-                    result.add(new Node(queryIndex, databaseIndex + 1));
+            // back from the end, collecting the matches
+            int[] queryIndices = new int[rows + columns];
+            int[] databaseIndices = new int[rows + columns];
+            int count = 0;
+            int q = rows;
+            int d = columns;
+            while (q > 0 || d > 0) {
+                if (q > 0 && d > 0 && isMatch(q, d)) {
+                    queryIndices[count] = indices[q - 1];
+                    databaseIndices[count++] = shifts[d - 1];
                 }
-                if (queryIndex < indices.size()) {
-                    result.add(new Node(queryIndex + 1, databaseIndex));
+                switch (getMove(rowOffsets[q] + d - lows[q])) {
+                    case DIAGONAL:
+                        q--;
+                        d--;
+                        break;
+                    case LEFT:
+                        d--;
+                        break;
+                    default:
+                        q--;
                 }
-
-                return result;
-            }
-
-            @Override
-            public boolean equals(Object object) {
-                if (!(object instanceof Node))
-                    return false;
-
-                Node other = (Node) object;
-                return queryIndex == other.queryIndex &&
-                       databaseIndex == other.databaseIndex;
             }
-
-            @Override
-            public int hashCode() {
-                return 31 * (31 * queryIndex + databaseIndex);
-            }
-
-            @Override
-            public String toString() {
-                return String.format("[%d %d]", queryIndex, databaseIndex);
+            alignedQueryIndices = new int[count];
+            alignedDatabaseIndices = new int[count];
+            for (int i = 0; i < count; i++) {
+                alignedQueryIndices[i] = queryIndices[count - 1 - i];
+                alignedDatabaseIndices[i] = databaseIndices[count - 1 - i];
             }
         }
 
-        private final List<Integer> shifts;
-        private final List<String> query;
-        private final List<Integer> indices;
-        private final List<Node> alignment;
-
-        public Alignment(List<String> query, Range range) {
-            this.query = query;
-            indices = new ArrayList<>();
-            Set<Integer> shiftSet = new TreeSet<>();
-            for (int i = 0; i < query.size(); i++) {
-                if (tupleIndex.containsKey(query.get(i))) {
-                    indices.add(i);
-                    for (Integer shift : tupleIndex.get(query.get(i))) {
-                        if (range.contains(shift))
-                            shiftSet.add(shift);
-                    }                    
-                }
-            }
-
-            shifts = new ArrayList<>(shiftSet);
-
-            final Map<Node, Integer> cost = new HashMap<>();
-            PriorityQueue<Node> openSet = new PriorityQueue<>(1, (o1, o2) -> cost.get(o1).compareTo(cost.get(o2)));
-            Collection<Node> closedSet = new HashSet<>();
-            Map<Node, Node> parents = new HashMap<>();
-
-            Node startNode = new Node(0, 0);
-            cost.put(startNode, 0);
-            openSet.add(startNode);
-
-            while (!openSet.isEmpty()) {
-                Node q = openSet.poll();
-                if (closedSet.contains(q))
-                    continue;
-
-                if (q.isTarget()) {
-                    List<Node> backtrace = new ArrayList<>();
-                    while (parents.containsKey(q)) {
-                        if (!q.isBoundary() && q.hasMatch())
-                            backtrace.add(q);
-                        q = parents.get(q);
-                    }
-                    alignment = new ArrayList<>(backtrace);
-                    Collections.reverse(alignment);
-                    return;
-                }
+        private void setMove(long cell, int move) {
+            int word = (int) (cell >>> 5);
+            int shift = (int) (cell & 31) << 1;
+            backtrace[word] = backtrace[word] & ~(3L << shift) | (long) move << shift;
+        }
 
-                closedSet.add(q);
-                for (Node nb : q.adjacent()) {
-                    
-                    if (closedSet.contains(nb))
-                        continue;
-                    
-                    // FIXME: move to appropriate location
-                    int l = abs(indices.size() - shifts.size() - q.queryIndex +
-                                q.databaseIndex) -
-                            abs(indices.size() - shifts.size() -
-                                nb.queryIndex +
-                                nb.databaseIndex);
-
-                    Integer oldScore = cost.get(nb);
-                    Integer qScore = cost.get(q);
-                    if (oldScore == null)
-                        oldScore = Integer.MAX_VALUE;
-                    if (qScore == null)
-                        qScore = Integer.MAX_VALUE;
-                    
-                    int newScore = qScore + nb.getValue() - l;
-                    if (newScore < oldScore) {
-                        cost.put(nb, newScore);
-                        openSet.add(nb);
-                        parents.put(nb, q);
-                    }
-                }
-            }
+        private int getMove(long cell) {
+            return (int) (backtrace[(int) (cell >>> 5)] >>> ((int) (cell & 31) << 1)) & 3;
+        }
 
-            alignment = emptyList();
+        /** @return the positions of the aligned query tuples, ascending */
+        public int[] getQueryIndices() {
+            return alignedQueryIndices;
         }
 
-        public List<Node> getIndices() {
-            return alignment;
+        /** @return the positions of the database tuples they are aligned to */
+        public int[] getDatabaseIndices() {
+            return alignedDatabaseIndices;
         }
     }
 
     private final int tupleSize;
+    private final int bandWidth;
     private final List<String> reftup;
-    private final HashMap<String, ArrayList<Integer>> tupleIndex;
     private final List<String> refWords;
 
+    /** Ids of the tuples */
+    private final ObjectIntHashMap<String> tupleIds;
+    /** Id of the tuple at each position of the database */
+    private final int[] refIds;
+    /** The positions of tuple i are positions[positionOffsets[i]] .. positions[positionOffsets[i + 1] - 1] */
+    private final int[] positionOffsets;
+    private final int[] positions;
+
     /**
      * Constructs new text aligner that servers requests for alignment of
      * sequence of words with the provided database sequence. Sequences are
@@ -211,24 +247,49 @@ public class LongTextAligner {
      * @param tupleSize size of a tuple, must be greater or equal to 1
      */
     public LongTextAligner(List<String> words, int tupleSize) {
+        this(words, tupleSize, DEFAULT_BAND_WIDTH);
+    }
+
+    /**
+     * Constructs new text aligner that servers requests for alignment of
+     * sequence of words with the provided database sequence. Sequences are
+     * aligned by tuples comprising one or more subsequent words.
+     *
+     * @param words list of words forming the database
+     * @param tupleSize size of a tuple, must be greater or equal to 1
+     * @param bandWidth the number of cells the search looks at on each side
+     *                  of the cheapest cell of the previous row
+     */
+    public LongTextAligner(List<String> words, int tupleSize, int bandWidth) {
         assert words != null;
         assert tupleSize > 0;
 
         this.tupleSize = tupleSize;
+        this.bandWidth = max(1, bandWidth);
         this.refWords = words;
 
-        int offset = 0;
         reftup = getTuples(words);
 
-        tupleIndex = new HashMap<>();
-        for (String tuple : reftup) {
-            ArrayList<Integer> indexes = tupleIndex.get(tuple);
-            if (indexes == null) {
-                indexes = new ArrayList<>();
-                tupleIndex.put(tuple, indexes);
+        tupleIds = new ObjectIntHashMap<>();
+        refIds = new int[reftup.size()];
+        IntArrayList counts = new IntArrayList();
+        for (int i = 0; i < refIds.length; i++) {
+            int id = tupleIds.getIfAbsent(reftup.get(i), -1);
+            if (id < 0) {
+                id = counts.size();
+                tupleIds.put(reftup.get(i), id);
+                counts.add(0);
             }
-            indexes.add(offset++);
+            refIds[i] = id;
+            counts.set(id, counts.get(id) + 1);
         }
+        positionOffsets = new int[counts.size() + 1];
+        for (int i = 0; i < counts.size(); i++)
+            positionOffsets[i + 1] = positionOffsets[i] + counts.get(i);
+        positions = new int[refIds.length];
+        int[] fill = Arrays.copyOf(positionOffsets, counts.size());
+        for (int i = 0; i < refIds.length; i++)
+            positions[fill[refIds[i]]++] = i;
     }
 
     /**
@@ -257,13 +318,13 @@ public class LongTextAligner {
         int[] result = new int[words.size()];
         fill(result, -1);
         int lastIndex = 0;
-        for (Alignment.Node node : new Alignment(getTuples(words), range)
-                .getIndices()) {
-            // for (int j = 0; j < tupleSize; ++j)
-            lastIndex = max(lastIndex, node.getQueryIndex());
-            for (; lastIndex < node.getQueryIndex() + tupleSize; ++lastIndex)
-                result[lastIndex] = node.getDatabaseIndex() + lastIndex -
-                                    node.getQueryIndex();
+        Alignment alignment = new Alignment(getTuples(words), range);
+        int[] queryIndices = alignment.getQueryIndices();
+        int[] databaseIndices = alignment.getDatabaseIndices();
+        for (int i = 0; i < queryIndices.length; i++) {
+            lastIndex = max(lastIndex, queryIndices[i]);
+            for (; lastIndex < queryIndices[i] + tupleSize; ++lastIndex)
+                result[lastIndex] = databaseIndices[i] + lastIndex - queryIndices[i];
         }
         return result;
     }
@@ -53,6 +53,20 @@ public class Context {
      * @throws IOException           if failed to load configuration file
      */
     public Context(String path, Configuration config)
+        throws IOException {
+        this(path, config, true);
+    }
+
+    /**
+     * Constructs builder using user-supplied XML configuration, optionally
+     * without building the component graph yet.
+     *
+     * @param  path path to XML-resource with configuration
+     * @param  config configuration
+     * @param  build build the whole graph, which enables lookup by class
+     * @throws IOException if failed to load configuration file
+     */
+    Context(String path, Configuration config, boolean build)
         throws IOException {
         configurationManager = new ConfigurationManager(resourceToURL(path));
 
@@ -68,9 +82,36 @@ public class Context {
 
         // Force ConfigurationManager to build the whole graph
         // in order to enable instance lookup by class.
+        if (build)
+            configurationManager.lookup("recognizer");
+    }
+
+    /**
+     * Constructs another context with the configuration of the given one.
+     *
+     * The components that are already instantiated in the given context, see
+     * {@link #share(String)}, are shared with the new context. All others
+     * are instantiated separately.
+     *
+     * @param template context to copy
+     * @see ConfigurationManager#copy()
+     */
+    Context(Context template) {
+        configurationManager = template.configurationManager.copy();
         configurationManager.lookup("recognizer");
     }
 
+    /**
+     * Instantiates a component along with the components it depends on, so
+     * that contexts copied from this one share them.
+     *
+     * @param name name of the component
+     */
+    void share(String name) {
+        if (configurationManager.lookup(name) == null)
+            throw new IllegalArgumentException("No component " + name + " to share");
+    }
+
     /**
      * Sets acoustic model location.
      *
@@ -24,34 +24,104 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
 import java.util.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.logging.Logger;
 
+/**
+ * Aligns audio to its transcript.
+ * <p>
+ * The audio is first decoded with a language model built from the
+ * transcript, and the recognized words are aligned to the transcript. The
+ * ranges of the transcript that could not be aligned lie between words that
+ * were, which anchor them in time, so they are decoded again with a grammar of
+ * just their words, restricted to the audio between their anchors. This is
+ * repeated a few times.
+ * <p>
+ * The decoding is spread over several workers, each with its own recognizer,
+ * grammar and language model, that share the acoustic model. The first pass
+ * splits the audio into chunks of {@link #setChunkLength(long) chunk length},
+ * the later passes decode the unaligned ranges, longest first. The alignment
+ * of the recognized words to the transcript and the merge of the timings
+ * happen in order once a pass is decoded, so the result does not depend on
+ * the number of workers, except for the words cut at chunk boundaries in the
+ * first pass, which are decoded again later.
+ */
 public class SpeechAligner {
     private final Logger logger = Logger.getLogger(getClass().getSimpleName());
 
     private static final int TUPLE_SIZE = 3;
 
-    private final Context context;
-    private final Recognizer recognizer;
-    private final AlignerGrammar grammar;
-    private final DynamicTrigramModel languageModel;
+    /** The default length of the chunks of the first pass, in milliseconds */
+    public static final long DEFAULT_CHUNK_LENGTH = 300000;
+
+    private final List<Worker> workers = new ArrayList<>();
+    private final int sampleRate;
+    private long chunkLength = DEFAULT_CHUNK_LENGTH;
 
     private TextTokenizer tokenizer;
 
+    /** A recognizer with the components it is configured with */
+    private static class Worker {
+        final Context context;
+        final Recognizer recognizer;
+        final AlignerGrammar grammar;
+        final DynamicTrigramModel languageModel;
+
+        Worker(Context context) {
+            this.context = context;
+            recognizer = context.getInstance(Recognizer.class);
+            grammar = context.getInstance(AlignerGrammar.class);
+            languageModel = context.getInstance(DynamicTrigramModel.class);
+        }
+    }
+
+    /** A range of the transcript and the time frame it is aligned in */
+    private static class Gap {
+        final List<String> text;
+        final TimeFrame frame;
+        final Range range;
+
+        Gap(List<String> text, TimeFrame frame, Range range) {
+            this.text = text;
+            this.frame = frame;
+            this.range = range;
+        }
+    }
+
     public SpeechAligner(String amPath, String dictPath, String g2pPath) throws IOException {
+        this(amPath, dictPath, g2pPath, 1);
+    }
+
+    /**
+     * Creates an aligner that decodes with several workers
+     *
+     * @param amPath acoustic model path
+     * @param dictPath dictionary path
+     * @param g2pPath g2p model path, or null
+     * @param numThreads the number of workers
+     * @throws IOException if the models could not be loaded
+     */
+    public SpeechAligner(String amPath, String dictPath, String g2pPath, int numThreads) throws IOException {
         Configuration configuration = new Configuration();
         configuration.setAcousticModelPath(amPath);
         configuration.setDictionaryPath(dictPath);
+        sampleRate = configuration.getSampleRate();
 
-        context = new Context(configuration);
+        Context template = new Context("resource:/edu/cmu/sphinx/api/default.config.xml", configuration, false);
         if (g2pPath != null) {
-            context.setLocalProperty("dictionary->g2pModelPath", g2pPath);
-            context.setLocalProperty("dictionary->g2pMaxPron", "2");
+            template.setLocalProperty("dictionary->g2pModelPath", g2pPath);
+            template.setLocalProperty("dictionary->g2pMaxPron", "2");
         }
-        context.setLocalProperty("lexTreeLinguist->languageModel", "dynamicTrigramModel");
-        recognizer = context.getInstance(Recognizer.class);
-        grammar = context.getInstance(AlignerGrammar.class);
-        languageModel = context.getInstance(DynamicTrigramModel.class);
+        template.setLocalProperty("lexTreeLinguist->languageModel", "dynamicTrigramModel");
+        // the dictionary is not shared, it is reloaded on every allocation
+        template.share("acousticModel");
+        for (int i = 0; i < Math.max(1, numThreads); i++)
+            workers.add(new Worker(new Context(template)));
         setTokenizer(new SimpleTokenizer());
     }
 
@@ -73,83 +143,164 @@ public class SpeechAligner {
 
         LongTextAligner aligner = new LongTextAligner(transcript, TUPLE_SIZE);
         Map<Integer, WordResult> alignedWords = new TreeMap<>();
-        Queue<Range> ranges = new LinkedList<>();
-        Queue<List<String>> texts = new ArrayDeque<>();
-        Queue<TimeFrame> timeFrames = new ArrayDeque<>();
-
-        ranges.offer(new Range(0, transcript.size()));
-        texts.offer(transcript);
-        TimeFrame totalTimeFrame = TimeFrame.INFINITE;
-        timeFrames.offer(totalTimeFrame);
         long lastFrame = TimeFrame.INFINITE.end;
 
-        languageModel.setText(sentenceTranscript);
-        
-        for (int i = 0; i < 4; ++i) {
-            if (i == 1) {
-                context.setLocalProperty("decoder->searchManager", "alignerSearchManager");
-            }
+        for (Worker worker : workers)
+            worker.languageModel.setText(sentenceTranscript);
 
-            while (!texts.isEmpty()) {
-                assert texts.size() == ranges.size();
-                assert texts.size() == timeFrames.size();
+        ExecutorService executor = Executors.newFixedThreadPool(workers.size());
+        try {
+            for (int i = 0; i < 4; ++i) {
+                List<Gap> gaps;
+                if (i == 0) {
+                    gaps = splitAudio(audioUrl, transcript);
+                } else {
+                    if (i == 1) {
+                        for (Worker worker : workers)
+                            worker.context.setLocalProperty("decoder->searchManager", "alignerSearchManager");
+                    }
+                    gaps = scheduleNextAlignment(transcript, alignedWords, lastFrame);
+                }
 
-                List<String> text = texts.poll();
-                TimeFrame frame = timeFrames.poll();
-                Range range = ranges.poll();
+                List<List<WordResult>> hypotheses = decode(executor, audioUrl, gaps, i >= 1);
 
+                if (i == 0) {
+                    // the chunks of the first pass are aligned as a whole
+                    List<WordResult> hypothesis = new ArrayList<>();
+                    for (List<WordResult> chunk : hypotheses)
+                        hypothesis.addAll(chunk);
+                    if (hypothesis.size() > 0)
+                        lastFrame = hypothesis.get(hypothesis.size() - 1).timeFrame.end;
+                    align(aligner, transcript, hypothesis, gaps.get(0).range, alignedWords);
+                } else {
+                    for (int j = 0; j < gaps.size(); j++)
+                        align(aligner, transcript, hypotheses.get(j), gaps.get(j).range, alignedWords);
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
 
-                logger.info("Aligning frame " + frame + " to text " + text + " range " + range);
+        return new ArrayList<>(alignedWords.values());
+    }
 
-                recognizer.allocate();
+    /**
+     * Splits the audio into chunks for the first pass, one chunk unless there
+     * are several workers.
+     */
+    private List<Gap> splitAudio(URL audioUrl, List<String> transcript) throws IOException {
+        Range range = new Range(0, transcript.size());
+        List<Gap> chunks = new ArrayList<>();
+        long length = workers.size() > 1 && chunkLength > 0 ? getAudioLength(audioUrl) : 0;
+        long start = 0;
+        while (length - start > chunkLength + chunkLength / 2) {
+            chunks.add(new Gap(transcript, TimeFrame.time(start, start + chunkLength), range));
+            start += chunkLength;
+        }
+        chunks.add(new Gap(transcript, TimeFrame.time(start, TimeFrame.INFINITE.end), range));
+        return chunks;
+    }
 
-                if (i >= 1) {
-                    grammar.setWords(text);
-                }
+    /** Estimates the length of the audio in milliseconds from its size */
+    private long getAudioLength(URL audioUrl) throws IOException {
+        long bytes = 0;
+        byte[] buffer = new byte[65536];
+        try (InputStream stream = audioUrl.openStream()) {
+            int read;
+            while ((read = stream.read(buffer)) != -1)
+                bytes += read;
+        }
+        // 16 bit samples
+        return bytes * 1000 / (2L * sampleRate);
+    }
 
-                InputStream stream = audioUrl.openStream();
+    /**
+     * Decodes the gaps with the workers, longest first
+     *
+     * @return the words recognized in each gap
+     */
+    private List<List<WordResult>> decode(ExecutorService executor, URL audioUrl, List<Gap> gaps,
+            boolean useGrammar) throws IOException {
+        Integer[] order = new Integer[gaps.size()];
+        for (int i = 0; i < order.length; i++)
+            order[i] = i;
+        Arrays.sort(order, (i1, i2) -> Long.compare(gaps.get(i2).frame.length(), gaps.get(i1).frame.length()));
+
+        BlockingQueue<Worker> idle = new LinkedBlockingQueue<>(workers);
+        List<Future<List<WordResult>>> futures = new ArrayList<>(gaps.size());
+        for (int i = 0; i < gaps.size(); i++)
+            futures.add(null);
+        for (int i : order) {
+            Gap gap = gaps.get(i);
+            futures.set(i, executor.submit(() -> {
+                Worker worker = idle.take();
                 try {
-                    context.setSpeechSource(stream, frame);
+                    return decode(worker, audioUrl, gap, useGrammar);
+                } finally {
+                    idle.put(worker);
+                }
+            }));
+        }
 
-                    List<WordResult> hypothesis = new ArrayList<>();
-                    Result result;
-                    while (null != (result = recognizer.recognize())) {
-                        logger.info("Utterance result " + result.getTimedBestResult(true));
-                        hypothesis.addAll(result.getTimedBestResult(false));
-                    }
+        List<List<WordResult>> hypotheses = new ArrayList<>(gaps.size());
+        try {
+            for (Future<List<WordResult>> future : futures)
+                hypotheses.add(future.get());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while aligning " + audioUrl);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException)
+                throw (IOException) e.getCause();
+            throw new Error(e.getCause());
+        }
+        return hypotheses;
+    }
 
-                    if (i == 0) {
-                        if (hypothesis.size() > 0) {
-                            lastFrame = hypothesis.get(hypothesis.size() - 1).timeFrame.end;
-                        }
-                    }
+    private List<WordResult> decode(Worker worker, URL audioUrl, Gap gap, boolean useGrammar) throws IOException {
+        logger.info("Aligning frame " + gap.frame + " to text " + gap.text + " range " + gap.range);
 
-                    List<String> words = new ArrayList<>(hypothesis.size());
-                    for (WordResult wr : hypothesis) {
-                        words.add(wr.word.spelling);
-                    }
-                    int[] alignment = aligner.align(words, range);
+        worker.recognizer.allocate();
 
-                    logger.info("Decoding result is " + hypothesis);
+        if (useGrammar) {
+            worker.grammar.setWords(gap.text);
+        }
 
-                    // dumpAlignment(transcript, alignment, results);
-                    dumpAlignmentStats(transcript, alignment, hypothesis);
+        InputStream stream = audioUrl.openStream();
+        try {
+            worker.context.setSpeechSource(stream, gap.frame);
 
-                    for (int j = 0; j < alignment.length; j++) {
-                        if (alignment[j] != -1) {
-                            alignedWords.put(alignment[j], hypothesis.get(j));
-                        }
-                    }
-                } finally {
-                    stream.close();
-                    recognizer.deallocate();
-                }
+            List<WordResult> hypothesis = new ArrayList<>();
+            Result result;
+            while (null != (result = worker.recognizer.recognize())) {
+                logger.info("Utterance result " + result.getTimedBestResult(true));
+                hypothesis.addAll(result.getTimedBestResult(false));
             }
+            return hypothesis;
+        } finally {
+            stream.close();
+            worker.recognizer.deallocate();
+        }
+    }
 
-            scheduleNextAlignment(transcript, alignedWords, ranges, texts, timeFrames, lastFrame);
+    private void align(LongTextAligner aligner, List<String> transcript, List<WordResult> hypothesis, Range range,
+            Map<Integer, WordResult> alignedWords) {
+        List<String> words = new ArrayList<>(hypothesis.size());
+        for (WordResult wr : hypothesis) {
+            words.add(wr.word.spelling);
         }
+        int[] alignment = aligner.align(words, range);
 
-        return new ArrayList<>(alignedWords.values());
+        logger.info("Decoding result is " + hypothesis);
+
+        // dumpAlignment(transcript, alignment, results);
+        dumpAlignmentStats(transcript, alignment, hypothesis);
+
+        for (int j = 0; j < alignment.length; j++) {
+            if (alignment[j] != -1) {
+                alignedWords.put(alignment[j], hypothesis.get(j));
+            }
+        }
     }
 
     public static List<String> sentenceToWords(List<String> sentenceTranscript) {
@@ -189,20 +340,22 @@ public class SpeechAligner {
                 (insertions + deletions) / ((float) size) * 100f));
     }
 
-    private void scheduleNextAlignment(List<String> transcript, Map<Integer, WordResult> alignedWords, Queue<Range> ranges,
-            Queue<List<String>> texts, Queue<TimeFrame> timeFrames, long lastFrame) {
+    private List<Gap> scheduleNextAlignment(List<String> transcript, Map<Integer, WordResult> alignedWords,
+            long lastFrame) {
+        List<Gap> gaps = new ArrayList<>();
         int prevKey = 0;
         long prevStart = 0;
         for (Map.Entry<Integer, WordResult> e : alignedWords.entrySet()) {
             if (e.getKey() - prevKey > 1) {
-                checkedOffer(transcript, texts, timeFrames, ranges, prevKey, e.getKey() + 1, prevStart, e.getValue().timeFrame.end);
+                checkedOffer(transcript, gaps, prevKey, e.getKey() + 1, prevStart, e.getValue().timeFrame.end);
             }
             prevKey = e.getKey();
             prevStart = e.getValue().timeFrame.start;
         }
         if (transcript.size() - prevKey > 1) {
-            checkedOffer(transcript, texts, timeFrames, ranges, prevKey, transcript.size(), prevStart, lastFrame);
+            checkedOffer(transcript, gaps, prevKey, transcript.size(), prevStart, lastFrame);
         }
+        return gaps;
     }
 
     public void dumpAlignment(List<String> transcript, int[] alignment, List<WordResult> results) {
@@ -231,8 +384,8 @@ public class SpeechAligner {
         }
     }
 
-    private void checkedOffer(List<String> transcript, Queue<List<String>> texts, Queue<TimeFrame> timeFrames,
-            Queue<Range> ranges, int start, int end, long timeStart, long timeEnd) {
+    private void checkedOffer(List<String> transcript, List<Gap> gaps, int start, int end, long timeStart,
+            long timeEnd) {
 
         double wordDensity = ((double) (timeEnd - timeStart)) / (end - start);
 
@@ -243,9 +396,18 @@ public class SpeechAligner {
             return;
         }
 
-        texts.offer(transcript.subList(start, end));
-        timeFrames.offer(TimeFrame.time(timeStart, timeEnd));
-        ranges.offer(new Range(start, end - 1));
+        gaps.add(new Gap(transcript.subList(start, end), TimeFrame.time(timeStart, timeEnd),
+                new Range(start, end - 1)));
+    }
+
+    /**
+     * Sets the length of the chunks the audio is split into for the first
+     * pass when there are several workers
+     *
+     * @param chunkLength the length in milliseconds
+     */
+    public void setChunkLength(long chunkLength) {
+        this.chunkLength = chunkLength;
     }
 
     public TextTokenizer getTokenizer() {
@@ -5,10 +5,17 @@ import edu.cmu.sphinx.decoder.search.Token;
 import edu.cmu.sphinx.frontend.*;
 import edu.cmu.sphinx.frontend.endpoint.SpeechEndSignal;
 import edu.cmu.sphinx.frontend.util.DataUtil;
+import edu.cmu.sphinx.linguist.HMMSearchState;
+import edu.cmu.sphinx.linguist.SearchState;
+import edu.cmu.sphinx.linguist.acoustic.HMMState;
+import edu.cmu.sphinx.linguist.acoustic.tiedstate.ScoreCachingSenone;
+import edu.cmu.sphinx.linguist.acoustic.tiedstate.Senone;
+import edu.cmu.sphinx.linguist.acoustic.tiedstate.SenoneHMMState;
 import edu.cmu.sphinx.util.props.ConfigurableAdapter;
 import edu.cmu.sphinx.util.props.PropertyException;
 import edu.cmu.sphinx.util.props.PropertySheet;
 import edu.cmu.sphinx.util.props.S4Component;
+import edu.cmu.sphinx.util.props.S4Integer;
 
 import java.util.LinkedList;
 import java.util.concurrent.atomic.AtomicReference;
@@ -18,6 +25,16 @@ import java.util.concurrent.atomic.AtomicReference;
  * acoustic scoring implementation which scores within the current thread, that
  * can be changed by overriding the {@link #doScoring} method.
  * <p>
+ * If {@link #LOOKAHEAD_FRAMES} is greater than one, the scorer works on blocks
+ * of that many frames. At the first frame of a block it reads the rest of the
+ * block ahead into its stored data queue, scores each senone of the active
+ * list for all frames of the block at once and keeps the scores in the senone
+ * score cache, so that the Gaussian parameters are loaded once per block
+ * instead of once per frame. Senones that become active later in the block
+ * are scored frame by frame. Frames are still handed to the search manager
+ * one at a time, and a block ends early at a signal. Look-ahead is meant for
+ * {@link #calculateScores} and should not be mixed with
+ * {@link #calculateScoresAndStoreData}.
  * <p>
  * Note that all scores are maintained in LogMath log base.
  *
@@ -41,6 +58,17 @@ public class SimpleAcousticScorer extends ConfigurableAdapter implements Acousti
     public final static String SCORE_NORMALIZER = "scoreNormalizer";
     protected ScoreNormalizer scoreNormalizer;
 
+    /**
+     * The number of frames scored together for each active senone. The
+     * default of 1 disables look-ahead scoring.
+     */
+    @S4Integer(defaultValue = 1)
+    public final static String LOOKAHEAD_FRAMES = "lookAheadFrames";
+    protected int lookAheadFrames = 1;
+    private Data[] lookAheadFeatures;
+    private float[] lookAheadScores;
+    private int blockFramesLeft;
+
     private LinkedList<Data> storedData;
     private boolean seenEnd = false;
 
@@ -49,6 +77,7 @@ public class SimpleAcousticScorer extends ConfigurableAdapter implements Acousti
         super.newProperties(ps);
         this.frontEnd = (BaseDataProcessor) ps.getComponent(FEATURE_FRONTEND);
         this.scoreNormalizer = (ScoreNormalizer) ps.getComponent(SCORE_NORMALIZER);
+        setLookAheadFrames(ps.getInt(LOOKAHEAD_FRAMES));
         storedData = new LinkedList<>();
     }
 
@@ -59,9 +88,23 @@ public class SimpleAcousticScorer extends ConfigurableAdapter implements Acousti
      *                        and the token scores will be returned unchanged.
      */
     public SimpleAcousticScorer(BaseDataProcessor frontEnd, ScoreNormalizer scoreNormalizer) {
+        this(frontEnd, scoreNormalizer, 1);
+    }
+
+    /**
+     * @param frontEnd        the frontend to retrieve features from for scoring
+     * @param scoreNormalizer optional post-processor for computed scores that will
+     *                        normalize scores. If not set, no normalization will applied
+     *                        and the token scores will be returned unchanged.
+     * @param lookAheadFrames the number of frames scored together for each active
+     *                        senone, 1 disables look-ahead scoring
+     */
+    public SimpleAcousticScorer(BaseDataProcessor frontEnd, ScoreNormalizer scoreNormalizer,
+                                int lookAheadFrames) {
         initLogger();
         this.frontEnd = frontEnd;
         this.scoreNormalizer = scoreNormalizer;
+        setLookAheadFrames(lookAheadFrames);
         storedData = new LinkedList<>();
     }
 
@@ -77,8 +120,8 @@ public class SimpleAcousticScorer extends ConfigurableAdapter implements Acousti
      */
     public Data calculateScores(ActiveList scoreableList) {
         Data data;
-        if (storedData.isEmpty()) {
-            while ((data = getNextData()) instanceof Signal) {
+        if (storedData.isEmpty() || lookAheadFrames > 1) {
+            while ((data = nextData()) instanceof Signal) {
                 if (data instanceof SpeechEndSignal) {
                     seenEnd = true;
                     break;
@@ -96,6 +139,16 @@ public class SimpleAcousticScorer extends ConfigurableAdapter implements Acousti
             data = storedData.poll();
         }
 
+        if (lookAheadFrames > 1 && !(data instanceof Signal)) {
+            if (data instanceof DoubleData)
+                data = DataUtil.DoubleData2FloatData((DoubleData) data);
+            if (blockFramesLeft == 0) {
+                readAhead();
+                blockFramesLeft = cacheLookAheadScores(scoreableList, data);
+            }
+            blockFramesLeft--;
+        }
+
         return calculateScoresForData(scoreableList, data);
     }
 
@@ -149,8 +202,83 @@ public class SimpleAcousticScorer extends ConfigurableAdapter implements Acousti
         return data;
     }
 
+    /**
+     * Returns the next frame or signal, taking the frames read ahead first.
+     */
+    private Data nextData() {
+        return storedData.isEmpty() ? getNextData() : storedData.poll();
+    }
+
+    /**
+     * Reads frames into the stored data until lookAheadFrames - 1 frames are
+     * buffered behind the current one. Signals are stored as they come and
+     * reading stops after the end of a segment.
+     */
+    private void readAhead() {
+        int frames = 0;
+        for (Data data : storedData) {
+            if (data instanceof Signal)
+                return;
+            frames++;
+        }
+        while (frames < lookAheadFrames - 1) {
+            Data data = getNextData();
+            if (data == null)
+                return;
+            if (data instanceof DoubleData)
+                data = DataUtil.DoubleData2FloatData((DoubleData) data);
+            storedData.add(data);
+            if (data instanceof SpeechEndSignal || data instanceof DataEndSignal)
+                return;
+            if (!(data instanceof Signal))
+                frames++;
+        }
+    }
+
+    /**
+     * Scores the senone of every active token for the given frame and the
+     * frames buffered behind it, and leaves the scores in the senone caches.
+     *
+     * @param scoreableList the active list
+     * @param data          the frame about to be scored
+     * @return the number of frames in the block, the given one included
+     */
+    private int cacheLookAheadScores(ActiveList scoreableList, Data data) {
+        int count = 0;
+        lookAheadFeatures[count++] = data;
+        for (Data stored : storedData) {
+            if (count == lookAheadFrames || stored instanceof Signal)
+                break;
+            lookAheadFeatures[count++] = stored;
+        }
+        if (count == 1)
+            return count;
+
+        for (Token token : scoreableList) {
+            if (token == null)
+                continue;
+            SearchState state = token.getSearchState();
+            if (!(state instanceof HMMSearchState))
+                continue;
+            HMMState hmmState = ((HMMSearchState) state).getHMMState();
+            if (!(hmmState instanceof SenoneHMMState))
+                continue;
+            Senone senone = ((SenoneHMMState) hmmState).getSenone();
+            if (senone instanceof ScoreCachingSenone)
+                ((ScoreCachingSenone) senone).cacheScores(lookAheadFeatures, count, lookAheadScores);
+        }
+        return count;
+    }
+
+    private void setLookAheadFrames(int lookAheadFrames) {
+        this.lookAheadFrames = Math.max(1, lookAheadFrames);
+        lookAheadFeatures = new Data[this.lookAheadFrames];
+        lookAheadScores = new float[this.lookAheadFrames];
+    }
+
     public void startRecognition() {
         storedData.clear();
+        blockFramesLeft = 0;
     }
 
     public void stopRecognition() {
@@ -46,6 +46,10 @@ public abstract class ActiveListFactory implements Configurable {
     protected int absoluteBeamWidth;
     protected float logRelativeBeamWidth;
 
+    // the beams as configured, the current ones may be narrower, see adaptBeams
+    private int configuredAbsoluteBeamWidth;
+    private float configuredLogRelativeBeamWidth;
+
     /**
      * 
      * @param absoluteBeamWidth beam for absolute pruning
@@ -55,6 +59,8 @@ public abstract class ActiveListFactory implements Configurable {
 
         this.absoluteBeamWidth = absoluteBeamWidth;
         this.logRelativeBeamWidth = LogMath.linearToLog(relativeBeamWidth);
+        configuredAbsoluteBeamWidth = this.absoluteBeamWidth;
+        configuredLogRelativeBeamWidth = this.logRelativeBeamWidth;
     }
 
     public ActiveListFactory() {
@@ -66,6 +72,37 @@ public abstract class ActiveListFactory implements Configurable {
         double relativeBeamWidth = ps.getDouble(PROP_RELATIVE_BEAM_WIDTH);
 
         logRelativeBeamWidth = LogMath.linearToLog(relativeBeamWidth);
+        configuredAbsoluteBeamWidth = absoluteBeamWidth;
+        configuredLogRelativeBeamWidth = logRelativeBeamWidth;
+    }
+
+
+    /**
+     * Narrows the beams of the lists created from now on, relative to the
+     * configured ones. Lists that are reused take the new beams when they are
+     * cleared. Called by the search thread only.
+     *
+     * @param maxTokens     the largest absolute beam, the configured one is kept if it is smaller
+     * @param relativeScale the fraction of the configured relative beam (in the log domain) to keep, 1 for all of it
+     */
+    public void adaptBeams(int maxTokens, float relativeScale) {
+        if (configuredAbsoluteBeamWidth > 0)
+            absoluteBeamWidth = Math.min(configuredAbsoluteBeamWidth, Math.max(1, maxTokens));
+        else
+            absoluteBeamWidth = maxTokens == Integer.MAX_VALUE ? configuredAbsoluteBeamWidth : Math.max(1, maxTokens);
+        logRelativeBeamWidth = configuredLogRelativeBeamWidth * relativeScale;
+    }
+
+
+    /** @return the current absolute beam, non-positive if there is none */
+    public int getAbsoluteBeamWidth() {
+        return absoluteBeamWidth;
+    }
+
+
+    /** @return the current relative beam in the log domain */
+    public float getLogRelativeBeamWidth() {
+        return logRelativeBeamWidth;
     }
 
 
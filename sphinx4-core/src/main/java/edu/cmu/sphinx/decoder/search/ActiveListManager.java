@@ -75,5 +75,17 @@ public interface ActiveListManager extends Configurable {
      */
     void setNumStateOrder(int numStateOrder);
 
+
+    /**
+     * Narrows the beams of all managed lists relative to the configured ones. Managers that do not support adapting
+     * their beams keep the configured ones.
+     *
+     * @param maxTokens     the largest absolute beam of a list
+     * @param relativeScale the fraction of the configured relative beams to keep
+     * @see ActiveListFactory#adaptBeams(int, float)
+     */
+    default void adaptBeams(int maxTokens, float relativeScale) {
+    }
+
 }
 
@@ -0,0 +1,219 @@
+/*
+ * Copyright 2014 Carnegie Mellon University.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * See the file "license.terms" for information on usage and
+ * redistribution of this file, and for a DISCLAIMER OF ALL
+ * WARRANTIES.
+ *
+ */
+package edu.cmu.sphinx.decoder.search;
+
+import edu.cmu.sphinx.util.props.*;
+
+/**
+ * Narrows and widens the beams of a search manager to keep it within a
+ * real-time factor and a latency budget.
+ * <p>
+ * After every frame the search manager reports the time it spent scoring,
+ * pruning and growing and the number of tokens it kept. The controller
+ * smooths the time per frame, the audio time per frame and the number of
+ * tokens, and compares their ratio with the target real-time factor. It also
+ * measures how far the search is behind real time since the start of the
+ * utterance.
+ * <p>
+ * When the search is too slow or too late, the controller caps the absolute
+ * beams at the number of tokens the target affords at the current cost per
+ * token, and narrows the relative beams by a fixed step. When the search is
+ * well within the target, it widens both again step by step, up to the
+ * configured beams. The caps never drop below {@link #PROP_MIN_ACTIVE_TOKENS}
+ * tokens and the relative beams never below {@link #PROP_MIN_RELATIVE_BEAM_SCALE}
+ * of their configured width, which bounds the loss of accuracy.
+ * <p>
+ * The controller keeps the state of one stream, so every search manager
+ * needs a controller of its own. The beams carry over from one utterance to
+ * the next.
+ */
+public class AdaptiveBeamController implements Configurable {
+
+    /** The property that defines the real-time factor to keep the search below. */
+    @S4Double(defaultValue = 0.8)
+    public final static String PROP_TARGET_REAL_TIME_FACTOR = "targetRealTimeFactor";
+
+    /**
+     * The property that defines how far in milliseconds the search may fall
+     * behind real time before the beams are narrowed. Non-positive for no
+     * limit.
+     */
+    @S4Integer(defaultValue = 500)
+    public final static String PROP_LATENCY_BUDGET = "latencyBudget";
+
+    /** The property that defines the smallest absolute beam the controller narrows to. */
+    @S4Integer(defaultValue = 1000)
+    public final static String PROP_MIN_ACTIVE_TOKENS = "minActiveTokens";
+
+    /**
+     * The property that defines the smallest fraction of the configured
+     * relative beams, in the log domain, the controller narrows to.
+     */
+    @S4Double(defaultValue = 0.5)
+    public final static String PROP_MIN_RELATIVE_BEAM_SCALE = "minRelativeBeamScale";
+
+    /** the weight of the current frame in the smoothed values */
+    private final static double SMOOTHING = 0.1;
+    /** the factor to narrow the beams by */
+    private final static double TIGHTEN = 0.9;
+    /** the factor to widen the beams by */
+    private final static double RELAX = 1.02;
+    /** the fraction of the target to fall below before the beams are widened */
+    private final static double RELAX_MARGIN = 0.8;
+
+    private double targetRealTimeFactor;
+    private int latencyBudget;
+    private int minActiveTokens;
+    private float minRelativeBeamScale;
+
+    private int maxActiveTokens = Integer.MAX_VALUE;
+    private float relativeBeamScale = 1;
+    private double frameTime;
+    private double frameDuration;
+    private double activeTokens;
+
+    // the state of the current utterance
+    private boolean utteranceStarted;
+    private long startWallTime;
+    private long startCollectTime;
+    private long lastCollectTime;
+
+    /**
+     * Creates a controller
+     *
+     * @param targetRealTimeFactor the real-time factor to keep the search below
+     * @param latencyBudget        how far the search may fall behind real time in milliseconds, non-positive for no limit
+     * @param minActiveTokens      the smallest absolute beam
+     * @param minRelativeBeamScale the smallest fraction of the configured relative beams
+     */
+    public AdaptiveBeamController(double targetRealTimeFactor, int latencyBudget, int minActiveTokens,
+                                  double minRelativeBeamScale) {
+        init(targetRealTimeFactor, latencyBudget, minActiveTokens, minRelativeBeamScale);
+    }
+
+    public AdaptiveBeamController() {
+    }
+
+    /*
+    * (non-Javadoc)
+    *
+    * @see edu.cmu.sphinx.util.props.Configurable#newProperties(edu.cmu.sphinx.util.props.PropertySheet)
+    */
+    public void newProperties(PropertySheet ps) throws PropertyException {
+        init(ps.getDouble(PROP_TARGET_REAL_TIME_FACTOR), ps.getInt(PROP_LATENCY_BUDGET),
+                ps.getInt(PROP_MIN_ACTIVE_TOKENS), ps.getDouble(PROP_MIN_RELATIVE_BEAM_SCALE));
+    }
+
+    private void init(double targetRealTimeFactor, int latencyBudget, int minActiveTokens,
+                      double minRelativeBeamScale) {
+        if (targetRealTimeFactor <= 0)
+            throw new IllegalArgumentException("Bad target real-time factor " + targetRealTimeFactor);
+        if (minActiveTokens < 1)
+            throw new IllegalArgumentException("Bad minimum number of active tokens " + minActiveTokens);
+        if (minRelativeBeamScale <= 0 || minRelativeBeamScale > 1)
+            throw new IllegalArgumentException("Bad minimum relative beam scale " + minRelativeBeamScale);
+        this.targetRealTimeFactor = targetRealTimeFactor;
+        this.latencyBudget = latencyBudget;
+        this.minActiveTokens = minActiveTokens;
+        this.minRelativeBeamScale = (float) minRelativeBeamScale;
+    }
+
+    /** @return the current cap of the absolute beams, {@link Integer#MAX_VALUE} if there is none */
+    public int getMaxActiveTokens() {
+        return maxActiveTokens;
+    }
+
+    /** @return the current fraction of the configured relative beams */
+    public float getRelativeBeamScale() {
+        return relativeBeamScale;
+    }
+
+    /** @return the smoothed real-time factor of the search, zero before the second frame */
+    public double getRealTimeFactor() {
+        return frameDuration > 0 ? frameTime / (frameDuration * 1e6) : 0;
+    }
+
+    /** Called by the search manager when an utterance starts */
+    void startUtterance() {
+        utteranceStarted = false;
+    }
+
+    /**
+     * Takes the work done in a frame into account. Called by the search
+     * manager only.
+     *
+     * @param collectTime  the audio time of the frame in milliseconds
+     * @param time         the time spent scoring, pruning and growing in nanoseconds
+     * @param activeTokens the number of tokens kept after pruning
+     * @return true if the beams changed
+     */
+    boolean update(long collectTime, long time, int activeTokens) {
+        long now = System.nanoTime();
+        if (!utteranceStarted) {
+            utteranceStarted = true;
+            startWallTime = now;
+            startCollectTime = collectTime;
+            lastCollectTime = collectTime;
+        }
+        long latency = (now - startWallTime) / 1000000 - (collectTime - startCollectTime);
+        long duration = collectTime - lastCollectTime;
+        lastCollectTime = collectTime;
+        return adapt(time, duration, activeTokens, latency);
+    }
+
+    /**
+     * Adapts the beams to the work done in a frame
+     *
+     * @param time         the time spent on the frame in nanoseconds
+     * @param duration     the audio time of the frame in milliseconds, non-positive if not known
+     * @param activeTokens the number of tokens kept after pruning
+     * @param latency      how far the search is behind real time in milliseconds
+     * @return true if the beams changed
+     */
+    boolean adapt(long time, long duration, int activeTokens, long latency) {
+        if (this.activeTokens == 0) {
+            frameTime = time;
+            this.activeTokens = Math.max(1, activeTokens);
+        } else {
+            frameTime += SMOOTHING * (time - frameTime);
+            this.activeTokens += SMOOTHING * (activeTokens - this.activeTokens);
+        }
+        if (duration > 0)
+            frameDuration = frameDuration == 0 ? duration : frameDuration + SMOOTHING * (duration - frameDuration);
+        if (frameDuration == 0)
+            return false;
+
+        double realTimeFactor = getRealTimeFactor();
+        boolean late = latencyBudget > 0 && latency > latencyBudget;
+        int newMaxActiveTokens = maxActiveTokens;
+        float newRelativeBeamScale = relativeBeamScale;
+        if (late || realTimeFactor > targetRealTimeFactor) {
+            // the tokens the target affords at the current cost per token, at least one step fewer
+            double affordable = this.activeTokens * Math.min(TIGHTEN, targetRealTimeFactor / realTimeFactor);
+            newMaxActiveTokens = (int) Math.max(minActiveTokens, Math.min(maxActiveTokens, affordable));
+            newRelativeBeamScale = (float) Math.max(minRelativeBeamScale, relativeBeamScale * TIGHTEN);
+        } else if (realTimeFactor < targetRealTimeFactor * RELAX_MARGIN
+                && (latencyBudget <= 0 || latency < latencyBudget / 2)) {
+            if (maxActiveTokens != Integer.MAX_VALUE) {
+                // drops the cap once it no longer limits the lists
+                if (maxActiveTokens > 2 * this.activeTokens)
+                    newMaxActiveTokens = Integer.MAX_VALUE;
+                else
+                    newMaxActiveTokens = Math.max(maxActiveTokens + 1, (int) (maxActiveTokens * RELAX));
+            }
+            newRelativeBeamScale = (float) Math.min(1, relativeBeamScale * RELAX);
+        }
+
+        boolean changed = newMaxActiveTokens != maxActiveTokens || newRelativeBeamScale != relativeBeamScale;
+        maxActiveTokens = newMaxActiveTokens;
+        relativeBeamScale = newRelativeBeamScale;
+        return changed;
+    }
+}
@@ -0,0 +1,340 @@
+/*
+ * Copyright 2014 Carnegie Mellon University.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * See the file "license.terms" for information on usage and
+ * redistribution of this file, and for a DISCLAIMER OF ALL
+ * WARRANTIES.
+ *
+ */
+package edu.cmu.sphinx.decoder.search;
+
+import edu.cmu.sphinx.util.props.Configurable;
+import edu.cmu.sphinx.util.props.PropertyException;
+import edu.cmu.sphinx.util.props.PropertySheet;
+import edu.cmu.sphinx.util.props.S4Integer;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * A ring buffer of per-frame records of a search manager.
+ * <p>
+ * The search manager records every frame it searches: the number of tokens it
+ * scored and kept, the beam threshold and best score of the active list, the
+ * time spent scoring, pruning and growing, the language model cache hits and
+ * misses and how far the search is behind real time. Another thread drains the
+ * records, see {@link edu.cmu.sphinx.instrumentation.TelemetryExporter}. The
+ * cache hits and misses are taken from the metrics registry of the search
+ * manager, so the language model has to count them in the same registry.
+ * <p>
+ * The buffer has one writer and one reader and does not lock. The records are
+ * kept in preallocated arrays, so recording does not allocate. When the reader
+ * falls behind and the buffer is full, new records are dropped and counted
+ * instead of holding up the search.
+ * <p>
+ * The time behind real time is measured from the first frame of each
+ * utterance: it is the wall clock time passed since that frame was searched
+ * minus the audio time between that frame and the current one. It grows while
+ * the search is slower than real time.
+ */
+public class FrameTelemetry implements Configurable {
+
+    /** The property that defines the number of records the buffer holds, rounded up to a power of two. */
+    @S4Integer(defaultValue = 4096)
+    public final static String PROP_CAPACITY = "capacity";
+
+    private String name;
+    private int mask;
+    private int[] frames;
+    private long[] collectTimes;
+    private int[] activeTokens;
+    private int[] scoredTokens;
+    private float[] beamThresholds;
+    private float[] bestScores;
+    private long[] scoreTimes;
+    private long[] pruneTimes;
+    private long[] growTimes;
+    private long[] lmCacheHits;
+    private long[] lmCacheMisses;
+    private long[] latencies;
+
+    /** the sequence number of the next record to read */
+    private final AtomicLong head = new AtomicLong();
+    /** the sequence number of the next record to write */
+    private final AtomicLong tail = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+
+    // writer state
+    private boolean utteranceStarted;
+    private long startWallTime;
+    private long startCollectTime;
+    private long lastLmCacheHits;
+    private long lastLmCacheMisses;
+
+    /**
+     * Creates a buffer
+     *
+     * @param capacity the number of records the buffer holds, rounded up to a power of two
+     */
+    public FrameTelemetry(int capacity) {
+        this.name = getClass().getSimpleName();
+        init(capacity);
+    }
+
+    public FrameTelemetry() {
+    }
+
+    /*
+    * (non-Javadoc)
+    *
+    * @see edu.cmu.sphinx.util.props.Configurable#newProperties(edu.cmu.sphinx.util.props.PropertySheet)
+    */
+    public void newProperties(PropertySheet ps) throws PropertyException {
+        name = ps.getInstanceName();
+        init(ps.getInt(PROP_CAPACITY));
+    }
+
+    private void init(int capacity) {
+        if (capacity < 1 || capacity > 1 << 30)
+            throw new IllegalArgumentException("Bad capacity " + capacity);
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity)
+            size <<= 1;
+        mask = size - 1;
+        frames = new int[size];
+        collectTimes = new long[size];
+        activeTokens = new int[size];
+        scoredTokens = new int[size];
+        beamThresholds = new float[size];
+        bestScores = new float[size];
+        scoreTimes = new long[size];
+        pruneTimes = new long[size];
+        growTimes = new long[size];
+        lmCacheHits = new long[size];
+        lmCacheMisses = new long[size];
+        latencies = new long[size];
+    }
+
+    /** @return the name of this buffer, used to tell the streams apart */
+    public String getName() {
+        return name;
+    }
+
+    /** @return the number of records the buffer holds */
+    public int getCapacity() {
+        return mask + 1;
+    }
+
+    /** @return the number of records dropped because the buffer was full */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /** Called by the search manager when an utterance starts */
+    void startUtterance() {
+        utteranceStarted = false;
+    }
+
+    /**
+     * Records a frame. Called by the search manager only.
+     *
+     * @param frame          the frame number
+     * @param collectTime    the audio time of the frame in milliseconds
+     * @param active         the number of tokens kept after pruning
+     * @param scored         the number of tokens scored
+     * @param beamThreshold  the beam threshold of the active list
+     * @param bestScore      the best score of the active list
+     * @param scoreTime      the time spent scoring in nanoseconds
+     * @param pruneTime      the time spent pruning in nanoseconds
+     * @param growTime       the time spent growing in nanoseconds
+     * @param lmCacheHits    the total number of language model cache hits
+     * @param lmCacheMisses  the total number of language model cache misses
+     */
+    void record(int frame, long collectTime, int active, int scored, float beamThreshold, float bestScore,
+                long scoreTime, long pruneTime, long growTime, long lmCacheHits, long lmCacheMisses) {
+        long now = System.nanoTime();
+        if (!utteranceStarted) {
+            utteranceStarted = true;
+            startWallTime = now;
+            startCollectTime = collectTime;
+            lastLmCacheHits = lmCacheHits;
+            lastLmCacheMisses = lmCacheMisses;
+        }
+        long latency = (now - startWallTime) / 1000000 - (collectTime - startCollectTime);
+
+        long sequence = tail.get();
+        if (sequence - head.get() > mask) {
+            dropped.incrementAndGet();
+        } else {
+            int i = (int) sequence & mask;
+            frames[i] = frame;
+            collectTimes[i] = collectTime;
+            activeTokens[i] = active;
+            scoredTokens[i] = scored;
+            beamThresholds[i] = beamThreshold;
+            bestScores[i] = bestScore;
+            scoreTimes[i] = scoreTime;
+            pruneTimes[i] = pruneTime;
+            growTimes[i] = growTime;
+            this.lmCacheHits[i] = lmCacheHits - lastLmCacheHits;
+            this.lmCacheMisses[i] = lmCacheMisses - lastLmCacheMisses;
+            latencies[i] = latency;
+            // publishes the record to the reader
+            tail.lazySet(sequence + 1);
+        }
+        lastLmCacheHits = lmCacheHits;
+        lastLmCacheMisses = lmCacheMisses;
+    }
+
+    /**
+     * Passes the records written so far to the given consumer and frees
+     * their space. Only one thread may drain the buffer.
+     *
+     * @param consumer the consumer of the records
+     * @return the number of records drained
+     */
+    public int drain(Consumer<Frame> consumer) {
+        long first = head.get();
+        long last = tail.get();
+        for (long sequence = first; sequence < last; sequence++) {
+            int i = (int) sequence & mask;
+            Frame frame = new Frame(frames[i], collectTimes[i], activeTokens[i], scoredTokens[i],
+                    beamThresholds[i], bestScores[i], scoreTimes[i], pruneTimes[i], growTimes[i], lmCacheHits[i],
+                    lmCacheMisses[i], latencies[i]);
+            // frees the slot before the consumer runs, the record is copied
+            head.lazySet(sequence + 1);
+            consumer.accept(frame);
+        }
+        return (int) (last - first);
+    }
+
+
+    /** The record of one frame */
+    public static class Frame {
+
+        private final int frame;
+        private final long collectTime;
+        private final int activeTokens;
+        private final int scoredTokens;
+        private final float beamThreshold;
+        private final float bestScore;
+        private final long scoreTime;
+        private final long pruneTime;
+        private final long growTime;
+        private final long lmCacheHits;
+        private final long lmCacheMisses;
+        private final long latency;
+
+        Frame(int frame, long collectTime, int activeTokens, int scoredTokens, float beamThreshold,
+              float bestScore, long scoreTime, long pruneTime, long growTime, long lmCacheHits, long lmCacheMisses,
+              long latency) {
+            this.frame = frame;
+            this.collectTime = collectTime;
+            this.activeTokens = activeTokens;
+            this.scoredTokens = scoredTokens;
+            this.beamThreshold = beamThreshold;
+            this.bestScore = bestScore;
+            this.scoreTime = scoreTime;
+            this.pruneTime = pruneTime;
+            this.growTime = growTime;
+            this.lmCacheHits = lmCacheHits;
+            this.lmCacheMisses = lmCacheMisses;
+            this.latency = latency;
+        }
+
+        /** @return the frame number */
+        public int getFrame() {
+            return frame;
+        }
+
+        /** @return the audio time of the frame in milliseconds */
+        public long getCollectTime() {
+            return collectTime;
+        }
+
+        /** @return the number of tokens kept after pruning */
+        public int getActiveTokens() {
+            return activeTokens;
+        }
+
+        /** @return the number of tokens scored */
+        public int getScoredTokens() {
+            return scoredTokens;
+        }
+
+        /** @return the beam threshold of the active list */
+        public float getBeamThreshold() {
+            return beamThreshold;
+        }
+
+        /** @return the best score of the active list */
+        public float getBestScore() {
+            return bestScore;
+        }
+
+        /** @return the time spent scoring in nanoseconds, the front end included */
+        public long getScoreTime() {
+            return scoreTime;
+        }
+
+        /** @return the time spent pruning in nanoseconds */
+        public long getPruneTime() {
+            return pruneTime;
+        }
+
+        /** @return the time spent growing in nanoseconds */
+        public long getGrowTime() {
+            return growTime;
+        }
+
+        /** @return the language model cache hits during the frame */
+        public long getLmCacheHits() {
+            return lmCacheHits;
+        }
+
+        /** @return the language model cache misses during the frame */
+        public long getLmCacheMisses() {
+            return lmCacheMisses;
+        }
+
+        /** @return how far the search is behind real time in milliseconds, negative if it is ahead */
+        public long getLatency() {
+            return latency;
+        }
+
+        /**
+         * Formats the record as a JSON object
+         *
+         * @param stream the name of the stream, or null
+         * @return the JSON text, on one line
+         */
+        public String toJson(String stream) {
+            StringBuilder sb = new StringBuilder("{");
+            if (stream != null)
+                sb.append("\"stream\":\"").append(stream.replace("\\", "\\\\").replace("\"", "\\\"")).append("\",");
+            sb.append("\"frame\":").append(frame);
+            sb.append(",\"time\":").append(collectTime);
+            sb.append(",\"active\":").append(activeTokens);
+            sb.append(",\"scored\":").append(scoredTokens);
+            sb.append(",\"beam\":").append(toJson(beamThreshold));
+            sb.append(",\"best\":").append(toJson(bestScore));
+            sb.append(",\"scoreNs\":").append(scoreTime);
+            sb.append(",\"pruneNs\":").append(pruneTime);
+            sb.append(",\"growNs\":").append(growTime);
+            sb.append(",\"lmHits\":").append(lmCacheHits);
+            sb.append(",\"lmMisses\":").append(lmCacheMisses);
+            sb.append(",\"latencyMs\":").append(latency);
+            return sb.append('}').toString();
+        }
+
+        private static String toJson(float value) {
+            return Float.isNaN(value) || Float.isInfinite(value) ? "null" : Float.toString(value);
+        }
+
+        @Override
+        public String toString() {
+            return toJson(null);
+        }
+    }
+}
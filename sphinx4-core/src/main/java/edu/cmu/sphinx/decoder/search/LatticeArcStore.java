@@ -0,0 +1,257 @@
+/*
+ * Copyright 2014 Carnegie Mellon University.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * See the file "license.terms" for information on usage and
+ * redistribution of this file, and for a DISCLAIMER OF ALL
+ * WARRANTIES.
+ *
+ */
+
+package edu.cmu.sphinx.decoder.search;
+
+import edu.cmu.sphinx.linguist.dictionary.Word;
+import org.eclipse.collections.impl.list.mutable.primitive.FloatArrayList;
+import org.eclipse.collections.impl.list.mutable.primitive.IntArrayList;
+import org.eclipse.collections.impl.list.mutable.primitive.LongArrayList;
+import org.eclipse.collections.impl.map.mutable.primitive.ObjectIntHashMap;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Collects the word lattice of an utterance while it is searched.
+ * <p>
+ * Each time the search enters a word state, it passes the word token and its
+ * predecessor to {@link #addArc(Token, Token, float, boolean)}. The path back to
+ * the previous word is collapsed into a single arc between the two words right
+ * away, so when the utterance ends the lattice only has to be read out of the
+ * store, starting from the final word, instead of being rebuilt from the token
+ * tree. As in the token tree, equal word tokens, that is word tokens of equal
+ * search states, share a node.
+ * <p>
+ * The nodes and arcs are kept in primitive arrays. The arcs entering a node are
+ * chained through {@link #getNextArc(int)}. A node keeps at most
+ * <code>maxEdges</code> entering arcs and at most one arc from each
+ * predecessor node, the best ones by path score.
+ */
+public class LatticeArcStore {
+
+    private final int maxEdges;
+
+    private final ObjectIntHashMap<Token> nodeIds = new ObjectIntHashMap<>();
+    private final List<Word> nodeWords = new ArrayList<>();
+    private final LongArrayList nodeBeginTimes = new LongArrayList();
+    private final LongArrayList nodeEndTimes = new LongArrayList();
+    private final IntArrayList firstArcs = new IntArrayList();
+    private final IntArrayList numArcs = new IntArrayList();
+    private int initialNode = -1;
+
+    private final IntArrayList arcSources = new IntArrayList();
+    private final IntArrayList nextArcs = new IntArrayList();
+    private final FloatArrayList arcScores = new FloatArrayList();
+    private final FloatArrayList arcAcousticScores = new FloatArrayList();
+    private final FloatArrayList arcLanguageScores = new FloatArrayList();
+
+
+    /**
+     * Creates an empty store
+     *
+     * @param maxEdges the maximum number of arcs entering a node
+     */
+    public LatticeArcStore(int maxEdges) {
+        this.maxEdges = Math.max(1, maxEdges);
+    }
+
+
+    /**
+     * Adds the arc from the word before the predecessor of a word token to the
+     * word token
+     *
+     * @param token       the word token
+     * @param predecessor the predecessor of the word token on this path
+     * @param score       the score of the word token on this path
+     * @param best        true if this is the best path to the token so far, in
+     *                    which case it determines the time frame of the node
+     */
+    public synchronized void addArc(Token token, Token predecessor, float score, boolean best) {
+        if (predecessor == null)
+            return;
+        float acousticScore = token.getAcousticScore() + token.getInsertionScore();
+        float languageScore = token.getLanguageScore();
+        Token previousWord = predecessor;
+        while (previousWord != null && !previousWord.isWord()) {
+            acousticScore += previousWord.getAcousticScore() + previousWord.getInsertionScore();
+            languageScore += previousWord.getLanguageScore();
+            previousWord = previousWord.predecessor();
+        }
+        if (previousWord == null)
+            return;
+
+        int from = getOrAddNode(previousWord, false);
+        int to = getOrAddNode(token, best);
+
+        // replace the arc from the same node, or the worst arc if the node is full
+        int worst = -1;
+        for (int arc = firstArcs.get(to); arc >= 0; arc = nextArcs.get(arc)) {
+            if (arcSources.get(arc) == from) {
+                if (score > arcScores.get(arc))
+                    setArc(arc, from, score, acousticScore, languageScore);
+                return;
+            }
+            if (worst < 0 || arcScores.get(arc) < arcScores.get(worst))
+                worst = arc;
+        }
+        if (numArcs.get(to) >= maxEdges) {
+            if (score > arcScores.get(worst))
+                setArc(worst, from, score, acousticScore, languageScore);
+            return;
+        }
+
+        arcSources.add(from);
+        arcScores.add(score);
+        arcAcousticScores.add(acousticScore);
+        arcLanguageScores.add(languageScore);
+        nextArcs.add(firstArcs.get(to));
+        firstArcs.set(to, arcSources.size() - 1);
+        numArcs.set(to, numArcs.get(to) + 1);
+    }
+
+
+    private void setArc(int arc, int from, float score, float acousticScore, float languageScore) {
+        arcSources.set(arc, from);
+        arcScores.set(arc, score);
+        arcAcousticScores.set(arc, acousticScore);
+        arcLanguageScores.set(arc, languageScore);
+    }
+
+
+    private int getOrAddNode(Token token, boolean best) {
+        int node = nodeIds.getIfAbsent(token, -1);
+        if (node < 0) {
+            node = nodeWords.size();
+            nodeIds.put(token, node);
+            nodeWords.add(token.word());
+            nodeBeginTimes.add(0);
+            nodeEndTimes.add(0);
+            firstArcs.add(-1);
+            numArcs.add(0);
+            best = true;
+            if (token.predecessor() == null)
+                initialNode = node;
+        }
+        if (best) {
+            nodeBeginTimes.set(node, getBeginTime(token));
+            nodeEndTimes.set(node, token.getCollectTime());
+        }
+        return node;
+    }
+
+
+    /** The collect time of the first token after the previous word, as in the token tree lattice */
+    private static long getBeginTime(Token token) {
+        long beginTime = token.getCollectTime();
+        for (Token t = token.predecessor(); t != null && !t.isWord(); t = t.predecessor())
+            beginTime = t.getCollectTime();
+        return beginTime;
+    }
+
+
+    /** @return the number of nodes */
+    public synchronized int getNumNodes() {
+        return nodeWords.size();
+    }
+
+
+    /** @return the number of arcs */
+    public synchronized int getNumArcs() {
+        return arcSources.size();
+    }
+
+
+    /**
+     * @param token a word token
+     * @return the node of the token, or -1 if the store has none
+     */
+    public synchronized int getNode(Token token) {
+        return nodeIds.getIfAbsent(token, -1);
+    }
+
+
+    /** @return the node of the first word of the utterance, or -1 if there is none yet */
+    public synchronized int getInitialNode() {
+        return initialNode;
+    }
+
+
+    /**
+     * @param node a node
+     * @return the word of the node
+     */
+    public synchronized Word getWord(int node) {
+        return nodeWords.get(node);
+    }
+
+
+    /**
+     * @param node a node
+     * @return the time the word of the node begins
+     */
+    public synchronized long getBeginTime(int node) {
+        return nodeBeginTimes.get(node);
+    }
+
+
+    /**
+     * @param node a node
+     * @return the time the word of the node ends
+     */
+    public synchronized long getEndTime(int node) {
+        return nodeEndTimes.get(node);
+    }
+
+
+    /**
+     * @param node a node
+     * @return the first arc entering the node, or -1 if there is none
+     */
+    public synchronized int getFirstArc(int node) {
+        return firstArcs.get(node);
+    }
+
+
+    /**
+     * @param arc an arc
+     * @return the next arc entering the same node, or -1 if there is none
+     */
+    public synchronized int getNextArc(int arc) {
+        return nextArcs.get(arc);
+    }
+
+
+    /**
+     * @param arc an arc
+     * @return the node the arc leaves
+     */
+    public synchronized int getArcSource(int arc) {
+        return arcSources.get(arc);
+    }
+
+
+    /**
+     * @param arc an arc
+     * @return the acoustic score of the arc, including the insertion scores
+     */
+    public synchronized float getArcAcousticScore(int arc) {
+        return arcAcousticScores.get(arc);
+    }
+
+
+    /**
+     * @param arc an arc
+     * @return the language score of the arc
+     */
+    public synchronized float getArcLanguageScore(int arc) {
+        return arcLanguageScores.get(arc);
+    }
+}
@@ -0,0 +1,183 @@
+/*
+ * Copyright 2014 Carnegie Mellon University.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * See the file "license.terms" for information on usage and
+ * redistribution of this file, and for a DISCLAIMER OF ALL
+ * WARRANTIES.
+ *
+ */
+
+package edu.cmu.sphinx.decoder.search;
+
+import java.util.Arrays;
+
+/**
+ * Phone lookahead scores collected from a context independent phone loop.
+ * <p>
+ * For each of the last few frames the table keeps the best score of every CI
+ * phone, indexed by the base id of the unit, in a single flat array used as a
+ * ring of frames. Whenever a frame is added or dropped the lookahead penalty of
+ * every phone is recomputed: the best difference, over the frames in the
+ * window, between the score of the phone and the best phone score of that
+ * frame. A search can then ask for the penalty of the phone it is about to
+ * enter with a plain array read and prune the entry if even the most optimistic
+ * continuation falls below the beam.
+ * <p>
+ * Phones that never scored in the window get a very low penalty, frames in
+ * which no phone scored impose no penalty, and an empty window imposes none.
+ */
+public class PhoneLookaheadTable {
+
+    private final static int INITIAL_PHONES = 64;
+
+    private final int maxFrames;
+    private final float[] maxScores;
+    private float[] scores;
+    private float[] penalties;
+    private float unseenPenalty;
+    private int numPhones;
+    private int first;
+    private int size;
+
+    // the frame being filled by addScore
+    private float[] frameScores;
+    private float frameMaxScore;
+
+
+    /**
+     * Creates a table
+     *
+     * @param maxFrames the maximum number of frames kept at once
+     */
+    public PhoneLookaheadTable(int maxFrames) {
+        this.maxFrames = maxFrames;
+        this.numPhones = INITIAL_PHONES;
+        maxScores = new float[maxFrames];
+        scores = new float[maxFrames * numPhones];
+        penalties = new float[numPhones];
+        frameScores = new float[numPhones];
+        clear();
+    }
+
+
+    /** Removes all frames. */
+    public void clear() {
+        first = 0;
+        size = 0;
+        startFrame();
+        updatePenalties();
+    }
+
+
+    /**
+     * Records the score of a phone in the current frame, keeping the best
+     * score seen for it.
+     *
+     * @param baseId the base id of the CI phone
+     * @param score  the score
+     */
+    public void addScore(int baseId, float score) {
+        if (baseId >= numPhones)
+            grow(baseId + 1);
+        if (frameScores[baseId] < score)
+            frameScores[baseId] = score;
+        if (frameMaxScore < score)
+            frameMaxScore = score;
+    }
+
+
+    /**
+     * Appends the scores recorded since the last call as the newest frame of
+     * the window, dropping the oldest frame if the window is full.
+     */
+    public void endFrame() {
+        if (size == maxFrames) {
+            first = (first + 1) % maxFrames;
+            size--;
+        }
+        int frame = (first + size) % maxFrames;
+        System.arraycopy(frameScores, 0, scores, frame * numPhones, numPhones);
+        maxScores[frame] = frameMaxScore;
+        size++;
+        startFrame();
+        updatePenalties();
+    }
+
+
+    /** Drops the oldest frame of the window, if any. */
+    public void removeFirstFrame() {
+        if (size == 0)
+            return;
+        first = (first + 1) % maxFrames;
+        size--;
+        updatePenalties();
+    }
+
+
+    /**
+     * Returns the lookahead penalty of a phone over the current window. The
+     * penalty is zero or negative.
+     *
+     * @param baseId the base id of the CI phone
+     * @return the penalty in the log math log domain
+     */
+    public float getPenalty(int baseId) {
+        return baseId < numPhones ? penalties[baseId] : unseenPenalty;
+    }
+
+
+    /**
+     * @return the number of frames in the window
+     */
+    public int getFrameCount() {
+        return size;
+    }
+
+
+    private void startFrame() {
+        Arrays.fill(frameScores, -Float.MAX_VALUE);
+        frameMaxScore = -Float.MAX_VALUE;
+    }
+
+
+    private void updatePenalties() {
+        if (size == 0) {
+            Arrays.fill(penalties, 0.0f);
+            unseenPenalty = 0.0f;
+            return;
+        }
+        Arrays.fill(penalties, -Float.MAX_VALUE);
+        unseenPenalty = -Float.MAX_VALUE;
+        for (int i = 0; i < size; i++) {
+            int frame = (first + i) % maxFrames;
+            float maxScore = maxScores[frame];
+            int offset = frame * numPhones;
+            for (int baseId = 0; baseId < numPhones; baseId++) {
+                float diff = scores[offset + baseId] - maxScore;
+                if (diff > penalties[baseId])
+                    penalties[baseId] = diff;
+            }
+            float diff = -Float.MAX_VALUE - maxScore;
+            if (diff > unseenPenalty)
+                unseenPenalty = diff;
+        }
+    }
+
+
+    private void grow(int minPhones) {
+        int newPhones = numPhones;
+        while (newPhones < minPhones)
+            newPhones *= 2;
+        float[] newScores = new float[maxFrames * newPhones];
+        Arrays.fill(newScores, -Float.MAX_VALUE);
+        for (int frame = 0; frame < maxFrames; frame++)
+            System.arraycopy(scores, frame * numPhones, newScores, frame * newPhones, numPhones);
+        scores = newScores;
+        frameScores = Arrays.copyOf(frameScores, newPhones);
+        Arrays.fill(frameScores, numPhones, newPhones, -Float.MAX_VALUE);
+        numPhones = newPhones;
+        penalties = new float[newPhones];
+        updatePenalties();
+    }
+}
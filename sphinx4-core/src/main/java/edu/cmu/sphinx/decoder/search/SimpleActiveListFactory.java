@@ -54,7 +54,9 @@ public class SimpleActiveListFactory extends ActiveListFactory {
     */
     @Override
     public ActiveList newInstance() {
-        return new SimpleActiveList(absoluteBeamWidth, logRelativeBeamWidth);
+        SimpleActiveList list = new SimpleActiveList(absoluteBeamWidth, logRelativeBeamWidth);
+        list.factory = this;
+        return list;
     }
 
 
@@ -68,8 +70,10 @@ public class SimpleActiveListFactory extends ActiveListFactory {
      */
     public static class SimpleActiveList implements ActiveList {
 
-        private final int absoluteBeamWidth;
-        private final float logRelativeBeamWidth;
+        private int absoluteBeamWidth;
+        private float logRelativeBeamWidth;
+        // the factory to take adapted beams from when the list is reused
+        private ActiveListFactory factory;
         private Token bestToken;
         private final List<Token> tokenList = new ArrayList<>();
 
@@ -241,6 +245,10 @@ public class SimpleActiveListFactory extends ActiveListFactory {
         public ActiveList newInstance() {
             //return SimpleActiveListFactory.this.newInstance();
             clear();
+            if (factory != null) {
+                absoluteBeamWidth = factory.absoluteBeamWidth;
+                logRelativeBeamWidth = factory.logRelativeBeamWidth;
+            }
             return this;
         }
     }
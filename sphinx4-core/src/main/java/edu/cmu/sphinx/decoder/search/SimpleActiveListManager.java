@@ -118,6 +118,17 @@ public class SimpleActiveListManager implements ActiveListManager {
     }
 
 
+    /*
+    * (non-Javadoc)
+    *
+    * @see edu.cmu.sphinx.decoder.search.ActiveListManager#adaptBeams(int, float)
+    */
+    public void adaptBeams(int maxTokens, float relativeScale) {
+        for (ActiveListFactory factory : activeListFactories)
+            factory.adaptBeams(maxTokens, relativeScale);
+    }
+
+
     /**
      * Adds the given token to the list
      *
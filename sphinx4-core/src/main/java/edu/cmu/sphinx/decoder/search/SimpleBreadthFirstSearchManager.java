@@ -20,6 +20,7 @@ import edu.cmu.sphinx.linguist.SearchStateArc;
 import edu.cmu.sphinx.linguist.WordSearchState;
 import edu.cmu.sphinx.result.Result;
 import edu.cmu.sphinx.util.LogMath;
+import edu.cmu.sphinx.util.MetricsRegistry;
 import edu.cmu.sphinx.util.StatisticsVariable;
 import edu.cmu.sphinx.util.Timer;
 import edu.cmu.sphinx.util.TimerPool;
@@ -40,7 +41,6 @@ import java.util.logging.Logger;
  * For information about breadth first search please refer to "Spoken Language Processing", X. Huang, PTR
  */
 
-// TODO - need to add in timing code.
 public class SimpleBreadthFirstSearchManager extends TokenSearchManager {
 
     /** The property that defines the name of the linguist to be used by this search manager. */
@@ -106,15 +106,16 @@ public class SimpleBreadthFirstSearchManager extends TokenSearchManager {
     // monitoring data
     // ------------------------------------
 
-    private Timer scoreTimer; // TODO move these timers out
-    private Timer pruneTimer;
-    protected Timer growTimer;
-    private StatisticsVariable totalTokensScored;
-    private StatisticsVariable tokensPerSecond;
-    private StatisticsVariable curTokensScored;
-    private StatisticsVariable tokensCreated;
-    private StatisticsVariable viterbiPruned;
-    private StatisticsVariable beamPruned;
+    private MetricsRegistry.Histogram scoreTimes;
+    private MetricsRegistry.Histogram pruneTimes;
+    protected MetricsRegistry.Histogram growTimes;
+    private MetricsRegistry.Counter framesSearched;
+    private MetricsRegistry.Counter totalTokensScored;
+    private MetricsRegistry.Counter curTokensScored;
+    private MetricsRegistry.Counter tokensCreated;
+    private MetricsRegistry.Counter viterbiPruned;
+    private MetricsRegistry.Counter beamPruned;
+    private Timer growTimer; // only kept once asked for by getGrowTimer
 
     // ------------------------------------
     // Working data
@@ -124,8 +125,8 @@ public class SimpleBreadthFirstSearchManager extends TokenSearchManager {
     private boolean wantEntryPruning;
     protected Map<SearchState, Token> bestTokenMap;
     private float logRelativeWordBeamWidth;
+    private float configuredLogRelativeWordBeamWidth;
     private int totalHmms;
-    private double startTime;
     private float threshold;
     private float wordThreshold;
     private int growSkipInterval;
@@ -163,6 +164,7 @@ public class SimpleBreadthFirstSearchManager extends TokenSearchManager {
         this.growSkipInterval = growSkipInterval;
         this.wantEntryPruning = wantEntryPruning;
         this.logRelativeWordBeamWidth = LogMath.linearToLog(relativeWordBeamWidth);
+        this.configuredLogRelativeWordBeamWidth = logRelativeWordBeamWidth;
         this.keepAllTokens = true;
     }
 
@@ -183,6 +185,7 @@ public class SimpleBreadthFirstSearchManager extends TokenSearchManager {
         growSkipInterval = ps.getInt(PROP_GROW_SKIP_INTERVAL);
         wantEntryPruning = ps.getBoolean(PROP_WANT_ENTRY_PRUNING);
         logRelativeWordBeamWidth = LogMath.linearToLog(relativeWordBeamWidth);
+        configuredLogRelativeWordBeamWidth = logRelativeWordBeamWidth;
         
         this.keepAllTokens = true;      
     }
@@ -195,10 +198,9 @@ public class SimpleBreadthFirstSearchManager extends TokenSearchManager {
         linguist.startRecognition();
         pruner.startRecognition();
         scorer.startRecognition();
+        if (linguistProfiler != null)
+            linguistProfiler.startUtterance();
         localStart();
-        if (startTime == 0.0) {
-            startTime = System.currentTimeMillis();
-        }
     }
 
 
@@ -278,6 +280,8 @@ public class SimpleBreadthFirstSearchManager extends TokenSearchManager {
     /** Terminates a recognition */
     public void stopRecognition() {
         localStop();
+        if (linguistProfiler != null)
+            linguistProfiler.endUtterance();
         scorer.stopRecognition();
         pruner.stopRecognition();
         linguist.stopRecognition();
@@ -295,11 +299,15 @@ public class SimpleBreadthFirstSearchManager extends TokenSearchManager {
         boolean more = scoreTokens(); // score emitting tokens
         if (more) {
             pruneBranches(); // eliminate poor branches
+            int activeTokens = activeList.size();
+            float beamThreshold = activeList.getBeamThreshold();
+            float bestScore = activeList.bestScore();
             currentFrameNumber++;
             if (growSkipInterval == 0
                     || (currentFrameNumber % growSkipInterval) != 0) {
                 growBranches(); // extend remaining branches
             }
+            endFrame(currentFrameNumber, currentCollectTime, activeTokens, beamThreshold, bestScore);
         }
         return !more;
     }
@@ -308,7 +316,8 @@ public class SimpleBreadthFirstSearchManager extends TokenSearchManager {
     /** Gets the initial grammar node from the linguist and creates a GrammarNodeToken */
     protected void localStart() {
         currentFrameNumber = 0;
-        curTokensScored.value = 0;
+        curTokensScored.reset();
+        startFrames();
         ActiveList newActiveList = activeListFactory.newInstance();
         SearchState state = linguist.getSearchGraph().getInitialState();
         newActiveList.add(new Token(state, -1));
@@ -323,6 +332,14 @@ public class SimpleBreadthFirstSearchManager extends TokenSearchManager {
     }
 
 
+    /** Narrows the beams of the active lists and the word beam, the new lists of the next frame take them */
+    @Override
+    protected void adaptBeams(int maxTokens, float relativeScale) {
+        activeListFactory.adaptBeams(maxTokens, relativeScale);
+        logRelativeWordBeamWidth = configuredLogRelativeWordBeamWidth * relativeScale;
+    }
+
+
     /**
      * Goes through the active list of tokens and expands each token, finding the set of successor tokens until all the
      * successor tokens are emitting tokens.
@@ -332,7 +349,9 @@ public class SimpleBreadthFirstSearchManager extends TokenSearchManager {
         if (mapSize == 0) {
             mapSize = 1;
         }
-        growTimer.start();
+        long growStart = System.nanoTime();
+        if (growTimer != null)
+            growTimer.start();
         bestTokenMap = new HashMap<>(mapSize);
         ActiveList oldActiveList = activeList;
         resultList = new LinkedList<>();
@@ -342,7 +361,9 @@ public class SimpleBreadthFirstSearchManager extends TokenSearchManager {
 
         oldActiveList.forEach(this::collectSuccessorTokens);
 
-        growTimer.stop();
+        frameGrowTime += growTimes.recordSince(growStart);
+        if (growTimer != null)
+            growTimer.stop();
         if (logger.isLoggable(Level.FINE)) {
             int hmms = activeList.size();
             totalHmms += hmms;
@@ -360,9 +381,9 @@ public class SimpleBreadthFirstSearchManager extends TokenSearchManager {
     protected boolean scoreTokens() {
         boolean hasMoreFrames = false;
 
-        scoreTimer.start();
+        long scoreStart = System.nanoTime();
         Data data = scorer.calculateScores(activeList);
-        scoreTimer.stop();
+        frameScoreTime += scoreTimes.recordSince(scoreStart);
         //Data data = activeList.best();
         
         Token bestToken = null;
@@ -375,41 +396,26 @@ public class SimpleBreadthFirstSearchManager extends TokenSearchManager {
         if (bestToken != null) {
             hasMoreFrames = true;
             currentCollectTime = bestToken.getCollectTime();
+            framesSearched.increment();
         }
 
         // update statistics
         int s = activeList.size();
-        curTokensScored.value += s;
-        totalTokensScored.value += s;
-        tokensPerSecond.value = totalTokensScored.value / getTotalTime();
-
-//        if (logger.isLoggable(Level.FINE)) {
-//            logger.fine(currentFrameNumber + " " + activeList.size()
-//                    + " " + curTokensScored.value + " "
-//                    + (int) tokensPerSecond.value);
-//        }
+        curTokensScored.add(s);
+        totalTokensScored.add(s);
+        frameTokensScored += s;
 
         return hasMoreFrames;
     }
 
 
-    /**
-     * Returns the total time since we start4ed
-     *
-     * @return the total time (in seconds)
-     */
-    private double getTotalTime() {
-        return (System.currentTimeMillis() - startTime) / 1000.0;
-    }
-
-
     /** Removes unpromising branches from the active list */
     protected void pruneBranches() {
         int startSize = activeList.size();
-        pruneTimer.start();
+        long pruneStart = System.nanoTime();
         activeList = activeList.commit();
-        beamPruned.value += startSize - activeList.size();
-        pruneTimer.stop();
+        beamPruned.add(startSize - activeList.size());
+        framePruneTime += pruneTimes.recordSince(pruneStart);
     }
 
 
@@ -463,7 +469,7 @@ public class SimpleBreadthFirstSearchManager extends TokenSearchManager {
                 && token.score() < wordThreshold) {
             return;
         }
-        SearchStateArc[] arcs = state.getSuccessors();
+        SearchStateArc[] arcs = getSuccessors(state);
         // For each successor
         // calculate the entry score for the token based upon the
         // predecessor token score and the transition probabilities
@@ -500,7 +506,7 @@ public class SimpleBreadthFirstSearchManager extends TokenSearchManager {
                         arc.getInsertionProbability(),
                         arc.getLanguageProbability(), 
                         currentCollectTime);
-                tokensCreated.value++;
+                tokensCreated.increment();
                 if (!isVisited(newToken)) {
                     collectSuccessorTokens(newToken);
                 }
@@ -513,7 +519,7 @@ public class SimpleBreadthFirstSearchManager extends TokenSearchManager {
                         arc.getInsertionProbability(),
                         arc.getLanguageProbability(), 
                         currentFrameNumber);
-                tokensCreated.value++;
+                tokensCreated.increment();
                 setBestToken(newToken, nextState);
                 activeList.add(newToken);
             } else {
@@ -522,9 +528,9 @@ public class SimpleBreadthFirstSearchManager extends TokenSearchManager {
                             arc.getInsertionProbability(),
                             arc.getLanguageProbability(), 
                             currentCollectTime);
-                    viterbiPruned.value++;
+                    viterbiPruned.increment();
                 } else {
-                    viterbiPruned.value++;
+                    viterbiPruned.increment();
                 }
             }
         }
@@ -616,22 +622,51 @@ public class SimpleBreadthFirstSearchManager extends TokenSearchManager {
 
 
     /**
-     * Returns the Timer for growing.
+     * Returns the histogram of the grow times.
+     *
+     * @return the histogram of the grow times in nanoseconds
+     */
+    public MetricsRegistry.Histogram getGrowTimes() {
+        return growTimes;
+    }
+
+
+    /**
+     * Returns the Timer for growing. The timer is taken from the global pool and runs from the first call on.
      *
      * @return the Timer for growing
+     * @deprecated use {@link #getGrowTimes()}
      */
+    @Deprecated
     public Timer getGrowTimer() {
+        if (growTimer == null)
+            growTimer = TimerPool.getTimer(this, "Grow");
         return growTimer;
     }
 
 
     /**
-     * Returns the tokensCreated StatisticsVariable.
+     * Returns the counter of the tokens created.
+     *
+     * @return the counter of the tokens created
+     */
+    public MetricsRegistry.Counter getTokensCreatedCounter() {
+        return tokensCreated;
+    }
+
+
+    /**
+     * Returns the tokensCreated StatisticsVariable. The variable holds the number of tokens created at the time of the
+     * call.
      *
      * @return the tokensCreated StatisticsVariable.
+     * @deprecated use {@link #getTokensCreatedCounter()}
      */
+    @Deprecated
     public StatisticsVariable getTokensCreated() {
-        return tokensCreated;
+        StatisticsVariable variable = StatisticsVariable.the("tokensCreated");
+        variable.value = tokensCreated.get();
+        return variable;
     }
 
 
@@ -641,17 +676,12 @@ public class SimpleBreadthFirstSearchManager extends TokenSearchManager {
     * @see edu.cmu.sphinx.decoder.search.SearchManager#allocate()
     */
     public void allocate() {
-        totalTokensScored = StatisticsVariable
-                .the("totalTokensScored");
-        tokensPerSecond = StatisticsVariable
-                .the("tokensScoredPerSecond");
-        curTokensScored = StatisticsVariable
-                .the("curTokensScored");
-        tokensCreated = StatisticsVariable
-                .the("tokensCreated");
-        viterbiPruned = StatisticsVariable
-                .the("viterbiPruned");
-        beamPruned = StatisticsVariable.the("beamPruned");
+        framesSearched = metrics.counter(MetricsRegistry.FRAMES);
+        totalTokensScored = metrics.counter(MetricsRegistry.TOKENS_SCORED);
+        curTokensScored = metrics.counter(MetricsRegistry.CUR_TOKENS_SCORED);
+        tokensCreated = metrics.counter(MetricsRegistry.TOKENS_CREATED);
+        viterbiPruned = metrics.counter(MetricsRegistry.VITERBI_PRUNED);
+        beamPruned = metrics.counter(MetricsRegistry.BEAM_PRUNED);
 
 
         try {
@@ -662,9 +692,9 @@ public class SimpleBreadthFirstSearchManager extends TokenSearchManager {
             throw new RuntimeException("Allocation of search manager resources failed", e);
         }
 
-        scoreTimer = TimerPool.getTimer(this, "Score");
-        pruneTimer = TimerPool.getTimer(this, "Prune");
-        growTimer = TimerPool.getTimer(this, "Grow");
+        scoreTimes = metrics.histogram(MetricsRegistry.SCORE);
+        pruneTimes = metrics.histogram(MetricsRegistry.PRUNE);
+        growTimes = metrics.histogram(MetricsRegistry.GROW);
     }
 
 
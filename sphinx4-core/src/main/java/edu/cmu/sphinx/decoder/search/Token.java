@@ -151,7 +151,9 @@ public class Token implements Scoreable {
 
     @Override
     public final boolean equals(Object obj) {
-
+        // tokens only holding the scores between two words have no state
+        if (searchState == null)
+            return this == obj;
         return searchState.equals(((Token) obj).searchState);
     }
 
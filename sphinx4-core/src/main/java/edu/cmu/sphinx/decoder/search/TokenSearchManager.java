@@ -1,8 +1,13 @@
 package edu.cmu.sphinx.decoder.search;
 
+import edu.cmu.sphinx.linguist.SearchState;
+import edu.cmu.sphinx.linguist.SearchStateArc;
+import edu.cmu.sphinx.linguist.util.LinguistProfiler;
+import edu.cmu.sphinx.util.MetricsRegistry;
 import edu.cmu.sphinx.util.props.PropertyException;
 import edu.cmu.sphinx.util.props.PropertySheet;
 import edu.cmu.sphinx.util.props.S4Boolean;
+import edu.cmu.sphinx.util.props.S4Component;
 
 abstract public class TokenSearchManager implements SearchManager {
 
@@ -18,8 +23,42 @@ abstract public class TokenSearchManager implements SearchManager {
     @S4Boolean(defaultValue = false)
     public final static String PROP_KEEP_ALL_TOKENS = "keepAllTokens";
 
+    /** The property that defines an optional profiler of the successor expansions of the linguist. */
+    @S4Component(type = LinguistProfiler.class, mandatory = false)
+    public final static String PROP_LINGUIST_PROFILER = "linguistProfiler";
+
+    /**
+     * The property that defines the registry to record the timings and token
+     * counts of the search in. Without it the search manager keeps a registry
+     * of its own.
+     */
+    @S4Component(type = MetricsRegistry.class, mandatory = false)
+    public final static String PROP_METRICS = "metrics";
+
+    /** The property that defines an optional buffer to record every searched frame in. */
+    @S4Component(type = FrameTelemetry.class, mandatory = false)
+    public final static String PROP_TELEMETRY = "telemetry";
+
+    /**
+     * The property that defines an optional controller that narrows the beams
+     * to keep the search within a real-time factor. Every search manager needs
+     * a controller of its own.
+     */
+    @S4Component(type = AdaptiveBeamController.class, mandatory = false)
+    public final static String PROP_BEAM_CONTROLLER = "beamController";
+
     protected boolean buildWordLattice;
     protected boolean keepAllTokens;
+    protected LinguistProfiler linguistProfiler;
+    protected MetricsRegistry metrics = new MetricsRegistry();
+    protected FrameTelemetry telemetry;
+    protected AdaptiveBeamController beamController;
+
+    // the work done in the current frame
+    protected long frameScoreTime;
+    protected long framePruneTime;
+    protected long frameGrowTime;
+    protected int frameTokensScored;
 
     /*
      * (non-Javadoc)
@@ -31,6 +70,115 @@ abstract public class TokenSearchManager implements SearchManager {
     public void newProperties(PropertySheet ps) throws PropertyException {       
         buildWordLattice = ps.getBoolean(PROP_BUILD_WORD_LATTICE);
         keepAllTokens = ps.getBoolean(PROP_KEEP_ALL_TOKENS);
+        linguistProfiler = (LinguistProfiler) ps.getComponent(PROP_LINGUIST_PROFILER);
+        MetricsRegistry registry = (MetricsRegistry) ps.getComponent(PROP_METRICS);
+        if (registry != null)
+            metrics = registry;
+        telemetry = (FrameTelemetry) ps.getComponent(PROP_TELEMETRY);
+        beamController = (AdaptiveBeamController) ps.getComponent(PROP_BEAM_CONTROLLER);
+    }
+
+    /**
+     * Returns the registry the search records its timings and token counts in.
+     * 
+     * @return the metrics registry
+     */
+    public MetricsRegistry getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Returns the buffer every searched frame is recorded in.
+     * 
+     * @return the buffer, or null if frames are not recorded
+     */
+    public FrameTelemetry getTelemetry() {
+        return telemetry;
+    }
+
+    /**
+     * Sets the buffer to record every searched frame in.
+     * 
+     * @param telemetry
+     *            the buffer, or null to stop recording
+     */
+    public void setTelemetry(FrameTelemetry telemetry) {
+        this.telemetry = telemetry;
+    }
+
+    /**
+     * Returns the controller that adapts the beams of the search.
+     * 
+     * @return the controller, or null if the beams are fixed
+     */
+    public AdaptiveBeamController getBeamController() {
+        return beamController;
+    }
+
+    /** Resets the work done in the frame, called at the start of an utterance. */
+    protected void startFrames() {
+        frameScoreTime = 0;
+        framePruneTime = 0;
+        frameGrowTime = 0;
+        frameTokensScored = 0;
+        if (telemetry != null)
+            telemetry.startUtterance();
+        if (beamController != null)
+            beamController.startUtterance();
+    }
+
+    /**
+     * Records the work done in a frame, called once the frame is searched.
+     * 
+     * @param frame
+     *            the frame number
+     * @param collectTime
+     *            the audio time of the frame in milliseconds
+     * @param activeTokens
+     *            the number of tokens kept after pruning
+     * @param beamThreshold
+     *            the beam threshold of the pruned active list
+     * @param bestScore
+     *            the best score of the pruned active list
+     */
+    protected void endFrame(int frame, long collectTime, int activeTokens, float beamThreshold, float bestScore) {
+        if (telemetry != null) {
+            telemetry.record(frame, collectTime, activeTokens, frameTokensScored, beamThreshold, bestScore,
+                    frameScoreTime, framePruneTime, frameGrowTime,
+                    metrics.counter(MetricsRegistry.LM_CACHE_HITS).get(),
+                    metrics.counter(MetricsRegistry.LM_CACHE_MISSES).get());
+        }
+        if (beamController != null
+                && beamController.update(collectTime, frameScoreTime + framePruneTime + frameGrowTime, activeTokens))
+            adaptBeams(beamController.getMaxActiveTokens(), beamController.getRelativeBeamScale());
+        frameScoreTime = 0;
+        framePruneTime = 0;
+        frameGrowTime = 0;
+        frameTokensScored = 0;
+    }
+
+    /**
+     * Narrows the beams of the search relative to the configured ones, called
+     * when the beam controller changes them. The default does nothing.
+     * 
+     * @param maxTokens
+     *            the largest absolute beam of an active list
+     * @param relativeScale
+     *            the fraction of the configured relative beams to keep
+     */
+    protected void adaptBeams(int maxTokens, float relativeScale) {
+    }
+
+    /**
+     * Returns the successors of a search state, through the linguist profiler
+     * if there is one.
+     * 
+     * @param state
+     *            the state to expand
+     * @return the successor arcs
+     */
+    protected SearchStateArc[] getSuccessors(SearchState state) {
+        return linguistProfiler == null ? state.getSuccessors() : linguistProfiler.getSuccessors(state);
     }
 
     /**
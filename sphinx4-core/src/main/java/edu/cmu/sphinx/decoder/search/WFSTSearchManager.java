@@ -0,0 +1,451 @@
+/*
+ * Copyright 2014 Carnegie Mellon University.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * See the file "license.terms" for information on usage and
+ * redistribution of this file, and for a DISCLAIMER OF ALL
+ * WARRANTIES.
+ *
+ */
+
+package edu.cmu.sphinx.decoder.search;
+
+import edu.cmu.sphinx.frontend.*;
+import edu.cmu.sphinx.frontend.endpoint.SpeechEndSignal;
+import edu.cmu.sphinx.frontend.util.DataUtil;
+import edu.cmu.sphinx.linguist.wfst.WFSTGraph;
+import edu.cmu.sphinx.linguist.wfst.WFSTLinguist;
+import edu.cmu.sphinx.result.Result;
+import edu.cmu.sphinx.util.LogMath;
+import edu.cmu.sphinx.util.TimerPool;
+import edu.cmu.sphinx.util.props.*;
+import org.eclipse.collections.impl.list.mutable.primitive.FloatArrayList;
+import org.eclipse.collections.impl.list.mutable.primitive.IntArrayList;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A Viterbi search over the static graph of a {@link WFSTLinguist}.
+ * <p>
+ * Tokens are not objects: the search keeps the score and the back pointer of
+ * every active graph state in primitive arrays indexed by the state id. For each
+ * frame the emitting arcs of the surviving states are followed and scored with
+ * the HMM state of their transition id, then the arcs that consume no frame are
+ * followed from the states that were reached. Arcs that end a word append a
+ * record to a word trace, and a state only remembers the last word record of
+ * its best path. The Token objects expected by {@link Result} are created from
+ * the trace when a result is requested.
+ * <p>
+ * States are pruned against the best score of the previous frame using the
+ * relative beam, and the absolute beam limits the number of states that are
+ * expanded. The search reads features from the front end directly, so no
+ * acoustic scorer is configured.
+ */
+public class WFSTSearchManager implements SearchManager {
+
+    /** The property that defines the linguist that provides the graph */
+    @S4Component(type = WFSTLinguist.class)
+    public final static String PROP_LINGUIST = "linguist";
+
+    /** The property that defines the front end that provides the features */
+    @S4Component(type = BaseDataProcessor.class)
+    public final static String PROP_FRONTEND = "frontend";
+
+    /** The property that defines the maximum number of states expanded per frame, or 0 for no limit */
+    @S4Integer(defaultValue = 2000)
+    public final static String PROP_ABSOLUTE_BEAM_WIDTH = "absoluteBeamWidth";
+
+    /** The property that defines the relative beam width */
+    @S4Double(defaultValue = 0.0)
+    public final static String PROP_RELATIVE_BEAM_WIDTH = "relativeBeamWidth";
+
+    private WFSTLinguist linguist;
+    private BaseDataProcessor frontEnd;
+    private int absoluteBeamWidth;
+    private float logRelativeBeamWidth;
+    private Logger logger;
+
+    // the graph
+    private WFSTGraph graph;
+    private int[] arcOffsets;
+    private int[] arcTargets;
+    private int[] arcInputs;
+    private int[] arcOutputs;
+    private float[] arcWeights;
+
+    // the states active in the current frame
+    private int activeCount;
+    private int[] activeStates;
+    private float[] activeScores;
+    private int[] activeBackPointers;
+
+    // the states reached in the next frame, indexed by state
+    private int generation;
+    private int[] nextGenerations;
+    private float[] nextScores;
+    private int[] nextBackPointers;
+    private final IntArrayList nextStates = new IntArrayList();
+    private final IntArrayList queue = new IntArrayList();
+
+    // acoustic scores of the current frame, indexed by transition id
+    private float[] transitionScores;
+    private int[] transitionFrames;
+
+    // the word trace
+    private final IntArrayList tracePronunciations = new IntArrayList();
+    private final IntArrayList traceTargets = new IntArrayList();
+    private final IntArrayList tracePredecessors = new IntArrayList();
+    private final IntArrayList traceFrames = new IntArrayList();
+    private final FloatArrayList traceScores = new FloatArrayList();
+
+    private int currentFrameNumber;
+    private long activeStatesTotal;
+
+
+    /**
+     * Creates a search manager
+     *
+     * @param linguist          the linguist that provides the graph
+     * @param frontEnd          the front end that provides the features
+     * @param absoluteBeamWidth the maximum number of states expanded per frame, or 0 for no limit
+     * @param relativeBeamWidth the relative beam width
+     */
+    public WFSTSearchManager(WFSTLinguist linguist, BaseDataProcessor frontEnd, int absoluteBeamWidth,
+                             double relativeBeamWidth) {
+        this.logger = Logger.getLogger(getClass().getName());
+        this.linguist = linguist;
+        this.frontEnd = frontEnd;
+        this.absoluteBeamWidth = absoluteBeamWidth;
+        this.logRelativeBeamWidth = LogMath.linearToLog(relativeBeamWidth);
+    }
+
+    public WFSTSearchManager() {
+
+    }
+
+    /*
+    * (non-Javadoc)
+    *
+    * @see edu.cmu.sphinx.util.props.Configurable#newProperties(edu.cmu.sphinx.util.props.PropertySheet)
+    */
+    public void newProperties(PropertySheet ps) throws PropertyException {
+        logger = ps.getLogger();
+        linguist = (WFSTLinguist) ps.getComponent(PROP_LINGUIST);
+        frontEnd = (BaseDataProcessor) ps.getComponent(PROP_FRONTEND);
+        absoluteBeamWidth = ps.getInt(PROP_ABSOLUTE_BEAM_WIDTH);
+        logRelativeBeamWidth = LogMath.linearToLog(ps.getDouble(PROP_RELATIVE_BEAM_WIDTH));
+    }
+
+
+    /*
+    * (non-Javadoc)
+    *
+    * @see edu.cmu.sphinx.decoder.search.SearchManager#allocate()
+    */
+    public void allocate() {
+        try {
+            linguist.allocate();
+        } catch (IOException e) {
+            throw new RuntimeException("Allocation of search manager resources failed", e);
+        }
+
+        graph = linguist.getGraph();
+        arcOffsets = graph.getArcOffsets();
+        arcTargets = graph.getArcTargets();
+        arcInputs = graph.getArcInputs();
+        arcOutputs = graph.getArcOutputs();
+        arcWeights = graph.getArcWeights();
+
+        int numStates = graph.getNumStates();
+        activeStates = new int[16];
+        activeScores = new float[16];
+        activeBackPointers = new int[16];
+        nextGenerations = new int[numStates];
+        nextScores = new float[numStates];
+        nextBackPointers = new int[numStates];
+        transitionScores = new float[graph.getNumTransitionIds()];
+        transitionFrames = new int[graph.getNumTransitionIds()];
+    }
+
+
+    /*
+    * (non-Javadoc)
+    *
+    * @see edu.cmu.sphinx.decoder.search.SearchManager#deallocate()
+    */
+    public void deallocate() {
+        try {
+            linguist.deallocate();
+        } catch (IOException e) {
+            throw new RuntimeException("Deallocation of search manager resources failed", e);
+        }
+        graph = null;
+    }
+
+
+    /*
+    * (non-Javadoc)
+    *
+    * @see edu.cmu.sphinx.decoder.search.SearchManager#startRecognition()
+    */
+    public void startRecognition() {
+        linguist.startRecognition();
+        currentFrameNumber = 0;
+        activeStatesTotal = 0;
+        Arrays.fill(transitionFrames, -1);
+        tracePronunciations.clear();
+        traceTargets.clear();
+        tracePredecessors.clear();
+        traceFrames.clear();
+        traceScores.clear();
+
+        startFrame();
+        reach(graph.getInitialState(), 0.0f, -1);
+        expandNonEmitting(0.0f);
+        endFrame();
+    }
+
+
+    /*
+    * (non-Javadoc)
+    *
+    * @see edu.cmu.sphinx.decoder.search.SearchManager#stopRecognition()
+    */
+    public void stopRecognition() {
+        linguist.stopRecognition();
+        if (logger.isLoggable(Level.FINE) && currentFrameNumber > 0) {
+            logger.fine("Frames: " + currentFrameNumber + " average active states: "
+                    + activeStatesTotal / currentFrameNumber + " word records: " + tracePronunciations.size());
+        }
+    }
+
+
+    /**
+     * Performs the recognition for the given number of frames.
+     *
+     * @param nFrames the number of frames to recognize
+     * @return the current result
+     */
+    public Result recognize(int nFrames) {
+        boolean done = false;
+        for (int i = 0; i < nFrames && !done; i++)
+            done = !recognizeFrame();
+        return createResult(done);
+    }
+
+
+    /**
+     * Reads a feature and advances the search by one frame
+     *
+     * @return false if there are no more features
+     */
+    private boolean recognizeFrame() {
+        Data data = getNextFeature();
+        if (data == null)
+            return false;
+
+        TimerPool.getTimer(this, "Search").start();
+        float threshold = getThreshold();
+        currentFrameNumber++;
+        startFrame();
+        float bestScore = LogMath.LOG_ZERO;
+        for (int i = 0; i < activeCount; i++) {
+            float score = activeScores[i];
+            if (score < threshold)
+                continue;
+            int state = activeStates[i];
+            int backPointer = activeBackPointers[i];
+            for (int arc = arcOffsets[state]; arc < arcOffsets[state + 1]; arc++) {
+                int input = arcInputs[arc];
+                if (input == 0)
+                    continue;
+                float newScore = score + arcWeights[arc] + getAcousticScore(input, data);
+                if (reach(arcTargets[arc], newScore, backPointer) && newScore > bestScore)
+                    bestScore = newScore;
+            }
+        }
+        expandNonEmitting(bestScore + logRelativeBeamWidth);
+        endFrame();
+        activeStatesTotal += activeCount;
+        TimerPool.getTimer(this, "Search").stop();
+        return true;
+    }
+
+
+    /** Returns the score a state needs to be expanded in the current frame */
+    private float getThreshold() {
+        float best = LogMath.LOG_ZERO;
+        for (int i = 0; i < activeCount; i++)
+            best = Math.max(best, activeScores[i]);
+        float threshold = best + logRelativeBeamWidth;
+        if (absoluteBeamWidth > 0 && activeCount > absoluteBeamWidth) {
+            float[] scores = Arrays.copyOf(activeScores, activeCount);
+            Arrays.sort(scores);
+            threshold = Math.max(threshold, scores[activeCount - absoluteBeamWidth]);
+        }
+        return threshold;
+    }
+
+
+    private float getAcousticScore(int transitionId, Data data) {
+        if (transitionFrames[transitionId] != currentFrameNumber) {
+            transitionScores[transitionId] = graph.getTransitionState(transitionId).getScore(data);
+            transitionFrames[transitionId] = currentFrameNumber;
+        }
+        return transitionScores[transitionId];
+    }
+
+
+    private void startFrame() {
+        generation++;
+        nextStates.clear();
+    }
+
+
+    /**
+     * Updates the next score of a state if the given score is better
+     *
+     * @return true if the score was updated
+     */
+    private boolean reach(int state, float score, int backPointer) {
+        if (nextGenerations[state] == generation) {
+            if (score <= nextScores[state])
+                return false;
+        } else {
+            nextGenerations[state] = generation;
+            nextStates.add(state);
+        }
+        nextScores[state] = score;
+        nextBackPointers[state] = backPointer;
+        return true;
+    }
+
+
+    /**
+     * Follows the arcs that consume no frame from the states reached in this
+     * frame. A state is expanded again whenever its score improves.
+     *
+     * @param threshold the score below which arcs are not followed
+     */
+    private void expandNonEmitting(float threshold) {
+        queue.clear();
+        queue.addAll(nextStates);
+        for (int i = 0; i < queue.size(); i++) {
+            int state = queue.get(i);
+            float score = nextScores[state];
+            int backPointer = nextBackPointers[state];
+            for (int arc = arcOffsets[state]; arc < arcOffsets[state + 1]; arc++) {
+                if (arcInputs[arc] != 0)
+                    continue;
+                float newScore = score + arcWeights[arc];
+                if (newScore < threshold)
+                    continue;
+                int target = arcTargets[arc];
+                if (nextGenerations[target] == generation && newScore <= nextScores[target])
+                    continue;
+                int output = arcOutputs[arc];
+                reach(target, newScore, output == 0 ? backPointer : addTrace(output, target, backPointer, newScore));
+                queue.add(target);
+            }
+        }
+    }
+
+
+    private int addTrace(int pronunciation, int target, int predecessor, float score) {
+        tracePronunciations.add(pronunciation);
+        traceTargets.add(target);
+        tracePredecessors.add(predecessor);
+        traceFrames.add(currentFrameNumber);
+        traceScores.add(score);
+        return tracePronunciations.size() - 1;
+    }
+
+
+    /** Makes the states reached in this frame the active states */
+    private void endFrame() {
+        activeCount = nextStates.size();
+        if (activeStates.length < activeCount) {
+            int size = Math.max(activeCount, activeStates.length * 2);
+            activeStates = new int[size];
+            activeScores = new float[size];
+            activeBackPointers = new int[size];
+        }
+        for (int i = 0; i < activeCount; i++) {
+            int state = nextStates.get(i);
+            activeStates[i] = state;
+            activeScores[i] = nextScores[state];
+            activeBackPointers[i] = nextBackPointers[state];
+        }
+    }
+
+
+    /** Reads the next feature, or returns null at the end of the segment */
+    private Data getNextFeature() {
+        Data data;
+        while ((data = frontEnd.getData()) instanceof Signal) {
+            if (data instanceof SpeechEndSignal || data instanceof DataEndSignal)
+                return null;
+        }
+        if (data instanceof DoubleData)
+            data = DataUtil.DoubleData2FloatData((DoubleData) data);
+        return data;
+    }
+
+
+    /**
+     * Creates a result from the best state. At the end of the segment the best
+     * final state is preferred.
+     */
+    private Result createResult(boolean done) {
+        float[] finalWeights = graph.getFinalWeights();
+        int best = -1;
+        float bestScore = LogMath.LOG_ZERO;
+        boolean isFinal = false;
+        for (int i = 0; i < activeCount; i++) {
+            float finalWeight = finalWeights[activeStates[i]];
+            boolean stateFinal = done && finalWeight > LogMath.LOG_ZERO;
+            float score = stateFinal ? activeScores[i] + finalWeight : activeScores[i];
+            if (stateFinal && !isFinal || stateFinal == isFinal && score > bestScore) {
+                best = i;
+                bestScore = score;
+                isFinal = stateFinal;
+            }
+        }
+
+        List<Token> resultList = new ArrayList<>();
+        ActiveList activeList = new SimpleActiveListFactory(1, 0.0).newInstance();
+        if (best >= 0) {
+            Token token = createToken(activeBackPointers[best]);
+            if (isFinal) {
+                token = new Token(token, linguist.getFinalState(finalWeights[activeStates[best]]), bestScore, 0.0f,
+                        0.0f, currentFrameNumber);
+                resultList.add(token);
+            } else {
+                token = new Token(token, linguist.getSearchState(activeStates[best], 0.0f), bestScore, 0.0f, 0.0f,
+                        currentFrameNumber);
+                activeList.add(token);
+            }
+        }
+        return new Result(activeList, resultList, currentFrameNumber, done, false, false);
+    }
+
+
+    /** Creates the chain of word tokens that ends with the given trace record */
+    private Token createToken(int trace) {
+        IntArrayList records = new IntArrayList();
+        for (int i = trace; i >= 0; i = tracePredecessors.get(i))
+            records.add(i);
+        Token token = new Token(linguist.getSearchGraph().getInitialState(), 0);
+        for (int i = records.size() - 1; i >= 0; i--) {
+            int record = records.get(i);
+            token = new Token(token, linguist.getWordState(tracePronunciations.get(record), traceTargets.get(record),
+                    0.0f), traceScores.get(record), 0.0f, 0.0f, traceFrames.get(record));
+        }
+        return token;
+    }
+}
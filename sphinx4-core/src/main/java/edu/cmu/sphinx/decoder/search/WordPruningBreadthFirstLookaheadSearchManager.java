@@ -15,6 +15,7 @@ package edu.cmu.sphinx.decoder.search;
 import edu.cmu.sphinx.decoder.pruner.Pruner;
 import edu.cmu.sphinx.decoder.scorer.AcousticScorer;
 import edu.cmu.sphinx.frontend.Data;
+import edu.cmu.sphinx.linguist.HMMSearchState;
 import edu.cmu.sphinx.linguist.Linguist;
 import edu.cmu.sphinx.linguist.SearchState;
 import edu.cmu.sphinx.linguist.SearchStateArc;
@@ -22,13 +23,8 @@ import edu.cmu.sphinx.linguist.WordSearchState;
 import edu.cmu.sphinx.linguist.acoustic.tiedstate.Loader;
 import edu.cmu.sphinx.linguist.acoustic.tiedstate.Sphinx3Loader;
 import edu.cmu.sphinx.linguist.allphone.PhoneHmmSearchState;
-import edu.cmu.sphinx.linguist.lextree.LexTreeLinguist.LexTreeEndUnitState;
-import edu.cmu.sphinx.linguist.lextree.LexTreeLinguist.LexTreeHMMState;
-import edu.cmu.sphinx.linguist.lextree.LexTreeLinguist.LexTreeNonEmittingHMMState;
-import edu.cmu.sphinx.linguist.lextree.LexTreeLinguist.LexTreeWordState;
 import edu.cmu.sphinx.result.Result;
 import edu.cmu.sphinx.util.props.*;
-import org.eclipse.collections.impl.map.mutable.primitive.IntFloatHashMap;
 
 import java.util.*;
 
@@ -36,6 +32,14 @@ import java.util.*;
  * Provides the breadth first search with fast match heuristic included to
  * reduce amount of tokens created.
  * <p>
+ * The fast match linguist runs a context independent phone loop a few frames
+ * ahead of the main search. The best phone scores of those frames are kept in
+ * a {@link PhoneLookaheadTable}, and whenever the main search enters the first
+ * state of an HMM from a non-emitting state, the entry is dropped if the
+ * lookahead penalty of its base phone pushes it below the beam. This works with
+ * any linguist whose HMM states implement {@link HMMSearchState}, for example
+ * the lex tree and the dynamic flat linguist.
+ * <p>
  * All scores and probabilities are maintained in the log math log domain.
  */
 
@@ -66,9 +70,6 @@ public class WordPruningBreadthFirstLookaheadSearchManager extends WordPruningBr
     @S4Integer(defaultValue = 5)
     public final static String PROP_LOOKAHEAD_WINDOW = "lookaheadWindow";
 
-    /** see: https://github.com/cmusphinx/sphinx4/commit/c59a4b0be373c172b0950c8223f899968244fe6d */
-    public static final int FRAME_CI_SIZE = 1024; // TODO more precise range of baseIds, remove magic number
-
     // -----------------------------------
     // Configured Subcomponents
     // -----------------------------------
@@ -81,8 +82,7 @@ public class WordPruningBreadthFirstLookaheadSearchManager extends WordPruningBr
     // -----------------------------------
     private int lookaheadWindow;
     private float lookaheadWeight;
-    private IntFloatHashMap penalties;
-    private Deque<FrameCiScores> ciScores;
+    private PhoneLookaheadTable lookaheadTable;
 
     // -----------------------------------
     // Working data
@@ -119,9 +119,41 @@ public class WordPruningBreadthFirstLookaheadSearchManager extends WordPruningBr
             ActiveListFactory fastmatchActiveListFactory, boolean showTokenCount, double relativeWordBeamWidth,
             int growSkipInterval, boolean checkStateOrder, boolean buildWordLattice, int lookaheadWindow, float lookaheadWeight,
             int maxLatticeEdges, float acousticLookaheadFrames, boolean keepAllTokens) {
+        this(linguist, fastmatchLinguist, loader, pruner, scorer, activeListManager, fastmatchActiveListFactory,
+                showTokenCount, relativeWordBeamWidth, growSkipInterval, checkStateOrder, buildWordLattice,
+                lookaheadWindow, lookaheadWeight, maxLatticeEdges, acousticLookaheadFrames, keepAllTokens, false);
+    }
+
+    /**
+     * Creates a pruning manager with lookahead
+     * @param linguist a linguist for search space
+     * @param fastmatchLinguist a linguist for fast search space
+     * @param pruner pruner to drop tokens
+     * @param loader model loader
+     * @param scorer scorer to estimate token probability
+     * @param activeListManager active list manager to store tokens
+     * @param fastmatchActiveListFactory fast match active list factor to store phoneloop tokens
+     * @param showTokenCount show count during decoding
+     * @param relativeWordBeamWidth relative beam for lookahead pruning
+     * @param growSkipInterval skip interval for grown
+     * @param checkStateOrder check order of states during growth
+     * @param buildWordLattice build a lattice during decoding
+     * @param maxLatticeEdges max edges to keep in lattice
+     * @param acousticLookaheadFrames frames to do lookahead
+     * @param keepAllTokens keep tokens including emitting tokens
+     * @param lookaheadWindow window for lookahead
+     * @param lookaheadWeight weight for lookahead pruning
+     * @param streamLattice collect the lattice during the search
+     */
+    public WordPruningBreadthFirstLookaheadSearchManager(Linguist linguist, Linguist fastmatchLinguist, Loader loader,
+            Pruner pruner, AcousticScorer scorer, ActiveListManager activeListManager,
+            ActiveListFactory fastmatchActiveListFactory, boolean showTokenCount, double relativeWordBeamWidth,
+            int growSkipInterval, boolean checkStateOrder, boolean buildWordLattice, int lookaheadWindow, float lookaheadWeight,
+            int maxLatticeEdges, float acousticLookaheadFrames, boolean keepAllTokens, boolean streamLattice) {
 
         super(linguist, pruner, scorer, activeListManager, showTokenCount, relativeWordBeamWidth, growSkipInterval,
-                checkStateOrder, buildWordLattice, maxLatticeEdges, acousticLookaheadFrames, keepAllTokens);
+                checkStateOrder, buildWordLattice, maxLatticeEdges, acousticLookaheadFrames, keepAllTokens,
+                streamLattice);
 
         this.loader = loader;
         this.fastmatchLinguist = fastmatchLinguist;
@@ -131,8 +163,7 @@ public class WordPruningBreadthFirstLookaheadSearchManager extends WordPruningBr
         if (lookaheadWindow < 1 || lookaheadWindow > 10)
             throw new IllegalArgumentException("Unsupported lookahead window size: " + lookaheadWindow
                     + ". Value in range [1..10] is expected");
-        this.ciScores = new ArrayDeque<>();
-        this.penalties = new IntFloatHashMap();
+        this.lookaheadTable = new PhoneLookaheadTable(lookaheadWindow + 1);
         if (loader instanceof Sphinx3Loader && ((Sphinx3Loader) loader).hasTiedMixtures())
             ((Sphinx3Loader) loader).setGauScoresQueueLength(lookaheadWindow + 2);
     }
@@ -160,8 +191,7 @@ public class WordPruningBreadthFirstLookaheadSearchManager extends WordPruningBr
         if (lookaheadWindow < 1 || lookaheadWindow > 10)
             throw new PropertyException(WordPruningBreadthFirstLookaheadSearchManager.class.getName(), PROP_LOOKAHEAD_WINDOW,
                     "Unsupported lookahead window size: " + lookaheadWindow + ". Value in range [1..10] is expected");
-        ciScores = new ArrayDeque<>();
-        penalties = new IntFloatHashMap();
+        lookaheadTable = new PhoneLookaheadTable(lookaheadWindow + 1);
         if (loader instanceof Sphinx3Loader && ((Sphinx3Loader) loader).hasTiedMixtures())
             ((Sphinx3Loader) loader).setGauScoresQueueLength(lookaheadWindow + 2);
     }
@@ -182,12 +212,14 @@ public class WordPruningBreadthFirstLookaheadSearchManager extends WordPruningBr
         for (int i = 0; i < nFrames && !done; i++) {
             if (!fastmatchStreamEnd)
                 fastMatchRecognize();
-            penalties.clear();
-            ciScores.poll();
+            lookaheadTable.removeFirstFrame();
             done = recognize();
         }
 
-        if (!streamEnd) {
+        if (!streamEnd && latticeArcStore != null) {
+            result = new Result(latticeArcStore, activeList, resultList, currentCollectTime, done,
+                    linguist.getSearchGraph().getWordTokenFirst(), true);
+        } else if (!streamEnd) {
             result = new Result(loserManager, activeList, resultList, currentCollectTime, done,
                     linguist.getSearchGraph().getWordTokenFirst(), true);
         }
@@ -233,6 +265,8 @@ public class WordPruningBreadthFirstLookaheadSearchManager extends WordPruningBr
         if (loader instanceof Sphinx3Loader && ((Sphinx3Loader) loader).hasTiedMixtures())
             ((Sphinx3Loader) loader).clearGauScores();
 
+        lookaheadTable.clear();
+
         // prepare fast match active list
         fastmatchActiveList = fastmatchActiveListFactory.newInstance();
 
@@ -262,26 +296,19 @@ public class WordPruningBreadthFirstLookaheadSearchManager extends WordPruningBr
         float fastmathThreshold = oldActiveList.getBeamThreshold();
 
 
-        float[] frameCiScores = new float[FRAME_CI_SIZE];
-
-        Arrays.fill(frameCiScores, -Float.MAX_VALUE);
-        final float[] frameMaxCiScore = {-Float.MAX_VALUE};
         oldActiveList.forEach(token -> {
             float tokenScore = token.score();
             if (tokenScore < fastmathThreshold)
                 return;
-            // filling max ci scores array that will be used in general search
+            // filling max ci scores that will be used in general search
             // token score composing
             if (token.getSearchState() instanceof PhoneHmmSearchState) {
                 int baseId = ((PhoneHmmSearchState) token.getSearchState()).getBaseId();
-                if (frameCiScores[baseId] < tokenScore)
-                    frameCiScores[baseId] = tokenScore;
-                if (frameMaxCiScore[0] < tokenScore)
-                    frameMaxCiScore[0] = tokenScore;
+                lookaheadTable.addScore(baseId, tokenScore);
             }
             collectFastMatchSuccessorTokens(token);
         });
-        ciScores.add(new FrameCiScores(frameCiScores, frameMaxCiScore[0]));
+        lookaheadTable.endFrame();
         //growTimer.stop();
     }
 
@@ -308,8 +335,8 @@ public class WordPruningBreadthFirstLookaheadSearchManager extends WordPruningBr
         // System.out.println("BEST " + bestToken);
 
         int size = fastmatchActiveList.size();
-        curTokensScored.value += size;
-        totalTokensScored.value += size;
+        curTokensScored.add(size);
+        totalTokensScored.add(size);
 
         return moreTokens;
     }
@@ -349,7 +376,7 @@ public class WordPruningBreadthFirstLookaheadSearchManager extends WordPruningBr
             if (!nextState.isEmitting()) {
                 Token newToken = new Token(predecessor, nextState, logEntryScore, arc.getInsertionProbability(),
                         arc.getLanguageProbability(), currentFastMatchFrameNumber);
-                tokensCreated.value++;
+                tokensCreated.increment();
                 if (!isVisited(newToken)) {
                     collectFastMatchSuccessorTokens(newToken);
                 }
@@ -360,7 +387,7 @@ public class WordPruningBreadthFirstLookaheadSearchManager extends WordPruningBr
             if (bestToken == null) {
                 Token newToken = new Token(predecessor, nextState, logEntryScore, arc.getInsertionProbability(),
                         arc.getLanguageProbability(), currentFastMatchFrameNumber);
-                tokensCreated.value++;
+                tokensCreated.increment();
                 setFastMatchBestToken(newToken, nextState);
                 fastmatchActiveList.add(newToken);
             } else {
@@ -407,7 +434,7 @@ public class WordPruningBreadthFirstLookaheadSearchManager extends WordPruningBr
         }
 
         SearchState state = token.getSearchState();
-        SearchStateArc[] arcs = state.getSuccessors();
+        SearchStateArc[] arcs = getSuccessors(state);
         Token predecessor = getResultListPredecessor(token);
 
         // For each successor
@@ -420,8 +447,7 @@ public class WordPruningBreadthFirstLookaheadSearchManager extends WordPruningBr
         // otherwise recursively collect the new tokens successors.
 
         float tokenScore = token.score();
-        boolean stateProducesPhoneHmms = state instanceof LexTreeNonEmittingHMMState || state instanceof LexTreeWordState
-                || state instanceof LexTreeEndUnitState;
+        boolean stateProducesPhoneHmms = !state.isEmitting();
 
         final int[] added = {0};
         for (SearchStateArc arc : arcs) {
@@ -431,15 +457,10 @@ public class WordPruningBreadthFirstLookaheadSearchManager extends WordPruningBr
             SearchState nextState = arc.getState();
 
             // prune states using lookahead heuristics
-            if (stateProducesPhoneHmms) {
-                if (nextState instanceof LexTreeHMMState) {
-                    float penalty;
-                    int baseId = ((LexTreeHMMState) nextState).getHMMState().getHMM().getBaseUnit().baseID;
-                    if ((penalty = penalties.getIfAbsent(baseId, Float.NEGATIVE_INFINITY)) == Float.NEGATIVE_INFINITY)
-                        penalty = updateLookaheadPenalty(baseId);
-                    if ((tokenScore + lookaheadWeight * penalty) < beamThreshold)
-                        continue;
-                }
+            if (stateProducesPhoneHmms && nextState instanceof HMMSearchState && nextState.isEmitting()) {
+                int baseId = ((HMMSearchState) nextState).getHMMState().getHMM().getBaseUnit().baseID;
+                if ((tokenScore + lookaheadWeight * lookaheadTable.getPenalty(baseId)) < beamThreshold)
+                    continue;
             }
 
             if (checkStateOrder) {
@@ -457,10 +478,13 @@ public class WordPruningBreadthFirstLookaheadSearchManager extends WordPruningBr
                 Token newBestToken = new Token(predecessor, nextState, logEntryScore, arc.getInsertionProbability(),
                         arc.getLanguageProbability(), currentCollectTime);
                 if (activeListManager.add(newBestToken)) {
-                    tokensCreated.value++;
+                    tokensCreated.increment();
                     added[0]++;
 
                     bestTokens.putIfAbsent(nextState, newBestToken);
+                    if (latticeArcStore != null && nextState instanceof WordSearchState) {
+                        latticeArcStore.addArc(newBestToken, predecessor, logEntryScore, true);
+                    }
                 }
             } else {
                 if (bestToken.score() < logEntryScore) {
@@ -469,9 +493,13 @@ public class WordPruningBreadthFirstLookaheadSearchManager extends WordPruningBr
                     Token oldPredecessor = bestToken.predecessor;
                     bestToken.update(predecessor, logEntryScore, arc.getInsertionProbability(),
                             arc.getLanguageProbability(), currentCollectTime);
-                    if (buildWordLattice && nextState instanceof WordSearchState) {
+                    if (latticeArcStore != null && nextState instanceof WordSearchState) {
+                        latticeArcStore.addArc(bestToken, predecessor, logEntryScore, true);
+                    } else if (buildWordLattice && nextState instanceof WordSearchState) {
                         loserManager.addAlternatePredecessor(bestToken, oldPredecessor);
                     }
+                } else if (latticeArcStore != null && nextState instanceof WordSearchState) {
+                    latticeArcStore.addArc(bestToken, predecessor, logEntryScore, false);
                 } else if (buildWordLattice && nextState instanceof WordSearchState) {
                     if (predecessor != null) {
                         loserManager.addAlternatePredecessor(bestToken, predecessor);
@@ -514,27 +542,13 @@ public class WordPruningBreadthFirstLookaheadSearchManager extends WordPruningBr
         return added[0];
     }
 
-    private float updateLookaheadPenalty(int baseId) {
-        if (ciScores.isEmpty())
-            return 0.0f;
-        float penalty = -Float.MAX_VALUE;
-        for (FrameCiScores frameCiScores : ciScores) {
-            float diff = frameCiScores.scores[baseId] - frameCiScores.maxScore;
-            if (diff > penalty)
-                penalty = diff;
-        }
-        penalties.put(baseId, penalty);
-        return penalty;
-    }
-
-    private static final class FrameCiScores {
-        public final float[] scores;
-        public final float maxScore;
-
-        public FrameCiScores(float[] scores, float maxScore) {
-            this.scores = scores;
-            this.maxScore = maxScore;
-        }
+    /**
+     * Returns the phone lookahead scores of the frames ahead of the current one
+     *
+     * @return the lookahead table
+     */
+    public PhoneLookaheadTable getLookaheadTable() {
+        return lookaheadTable;
     }
 
 }
@@ -20,9 +20,7 @@ import edu.cmu.sphinx.frontend.Data;
 import edu.cmu.sphinx.linguist.*;
 import edu.cmu.sphinx.result.Result;
 import edu.cmu.sphinx.util.LogMath;
-import edu.cmu.sphinx.util.StatisticsVariable;
-import edu.cmu.sphinx.util.Timer;
-import edu.cmu.sphinx.util.TimerPool;
+import edu.cmu.sphinx.util.MetricsRegistry;
 import edu.cmu.sphinx.util.props.*;
 import org.eclipse.collections.impl.list.mutable.FastList;
 
@@ -95,6 +93,15 @@ public class WordPruningBreadthFirstSearchManager extends TokenSearchManager {
     @S4Integer(defaultValue = 100)
     public final static String PROP_MAX_LATTICE_EDGES = "maxLatticeEdges";
 
+    /**
+     * The property that controls whether the word lattice is collected while
+     * searching, in a {@link LatticeArcStore}, instead of being reconstructed
+     * from the token tree and the alternate predecessors when a result is
+     * requested.
+     */
+    @S4Boolean(defaultValue = false)
+    public final static String PROP_STREAM_LATTICE = "streamLattice";
+
     /**
      * The property that controls the amount of simple acoustic lookahead
      * performed. Setting the property to zero (the default) disables simple
@@ -134,18 +141,21 @@ public class WordPruningBreadthFirstSearchManager extends TokenSearchManager {
     protected boolean checkStateOrder;
     private int growSkipInterval;
     protected float relativeBeamWidth;
+    private float configuredRelativeBeamWidth;
     protected float acousticLookaheadFrames;
     private int maxLatticeEdges;
+    private boolean streamLattice;
 
     // -----------------------------------
     // Instrumentation
     // -----------------------------------
-    protected edu.cmu.sphinx.util.Timer scoreTimer;
-    protected edu.cmu.sphinx.util.Timer pruneTimer;
-    protected Timer growTimer;
-    protected StatisticsVariable totalTokensScored;
-    protected StatisticsVariable curTokensScored;
-    protected StatisticsVariable tokensCreated;
+    protected MetricsRegistry.Histogram scoreTimes;
+    protected MetricsRegistry.Histogram pruneTimes;
+    protected MetricsRegistry.Histogram growTimes;
+    protected MetricsRegistry.Counter framesSearched;
+    protected MetricsRegistry.Counter totalTokensScored;
+    protected MetricsRegistry.Counter curTokensScored;
+    protected MetricsRegistry.Counter tokensCreated;
     private long tokenSum;
     private int tokenCount;
 
@@ -158,6 +168,7 @@ public class WordPruningBreadthFirstSearchManager extends TokenSearchManager {
     protected final List<Token> resultList = new FastList(); // the current set of results
     protected final Map<SearchState, Token> bestTokens = new ConcurrentHashMap<>(DEFAULT_BESTTOKENMAP_SIZE);//, 0.3F);;
     protected AlternateHypothesisManager loserManager;
+    protected LatticeArcStore latticeArcStore;
     private int numStateOrder;
     // private TokenTracker tokenTracker;
     // private TokenTypeTracker tokenTypeTracker;
@@ -182,6 +193,30 @@ public class WordPruningBreadthFirstSearchManager extends TokenSearchManager {
                                          ActiveListManager activeListManager, boolean showTokenCount, double relativeWordBeamWidth, int growSkipInterval,
                                          boolean checkStateOrder, boolean buildWordLattice, int maxLatticeEdges, float acousticLookaheadFrames,
                                          boolean keepAllTokens) {
+        this(linguist, pruner, scorer, activeListManager, showTokenCount, relativeWordBeamWidth, growSkipInterval,
+                checkStateOrder, buildWordLattice, maxLatticeEdges, acousticLookaheadFrames, keepAllTokens, false);
+    }
+
+    /**
+     * Creates a pruning manager withs separate lists for tokens
+     * @param linguist a linguist for search space
+     * @param pruner pruner to drop tokens
+     * @param scorer scorer to estimate token probability
+     * @param activeListManager active list manager to store tokens
+     * @param showTokenCount show count during decoding
+     * @param relativeWordBeamWidth relative beam for lookahead pruning
+     * @param growSkipInterval skip interval for grown
+     * @param checkStateOrder check order of states during growth
+     * @param buildWordLattice build a lattice during decoding
+     * @param maxLatticeEdges max edges to keep in lattice
+     * @param acousticLookaheadFrames frames to do lookahead
+     * @param keepAllTokens keep tokens including emitting tokens
+     * @param streamLattice collect the lattice during the search
+     */
+    public WordPruningBreadthFirstSearchManager(Linguist linguist, Pruner pruner, AcousticScorer scorer,
+                                         ActiveListManager activeListManager, boolean showTokenCount, double relativeWordBeamWidth, int growSkipInterval,
+                                         boolean checkStateOrder, boolean buildWordLattice, int maxLatticeEdges, float acousticLookaheadFrames,
+                                         boolean keepAllTokens, boolean streamLattice) {
 
         this.logger = Logger.getLogger(getClass().getName());
         
@@ -196,8 +231,10 @@ public class WordPruningBreadthFirstSearchManager extends TokenSearchManager {
         this.maxLatticeEdges = maxLatticeEdges;
         this.acousticLookaheadFrames = acousticLookaheadFrames;
         this.keepAllTokens = keepAllTokens;
+        this.streamLattice = streamLattice;
 
         this.relativeBeamWidth = LogMath.linearToLog(relativeWordBeamWidth);
+        this.configuredRelativeBeamWidth = relativeBeamWidth;
     }
 
     WordPruningBreadthFirstSearchManager() {
@@ -226,9 +263,11 @@ public class WordPruningBreadthFirstSearchManager extends TokenSearchManager {
 
         checkStateOrder = ps.getBoolean(PROP_CHECK_STATE_ORDER);
         maxLatticeEdges = ps.getInt(PROP_MAX_LATTICE_EDGES);
+        streamLattice = ps.getBoolean(PROP_STREAM_LATTICE);
         acousticLookaheadFrames = ps.getFloat(PROP_ACOUSTIC_LOOKAHEAD_FRAMES);
 
         relativeBeamWidth = LogMath.linearToLog(ps.getDouble(PROP_RELATIVE_BEAM_WIDTH));
+        configuredRelativeBeamWidth = relativeBeamWidth;
     }
 
     /*
@@ -240,13 +279,14 @@ public class WordPruningBreadthFirstSearchManager extends TokenSearchManager {
         // tokenTracker = new TokenTracker();
         // tokenTypeTracker = new TokenTypeTracker();
 
-        scoreTimer = TimerPool.getTimer(this, "Score");
-        pruneTimer = TimerPool.getTimer(this, "Prune");
-        growTimer = TimerPool.getTimer(this, "Grow");
+        scoreTimes = metrics.histogram(MetricsRegistry.SCORE);
+        pruneTimes = metrics.histogram(MetricsRegistry.PRUNE);
+        growTimes = metrics.histogram(MetricsRegistry.GROW);
 
-        totalTokensScored = StatisticsVariable.the("totalTokensScored");
-        curTokensScored = StatisticsVariable.the("curTokensScored");
-        tokensCreated = StatisticsVariable.the("tokensCreated");
+        framesSearched = metrics.counter(MetricsRegistry.FRAMES);
+        totalTokensScored = metrics.counter(MetricsRegistry.TOKENS_SCORED);
+        curTokensScored = metrics.counter(MetricsRegistry.CUR_TOKENS_SCORED);
+        tokensCreated = metrics.counter(MetricsRegistry.TOKENS_CREATED);
 
         try {
 //            Stream.of(linguist, pruner, scorer).parallel().forEach((Configurable x) -> {
@@ -287,6 +327,8 @@ public class WordPruningBreadthFirstSearchManager extends TokenSearchManager {
         linguist.startRecognition();
         pruner.startRecognition();
         scorer.startRecognition();
+        if (linguistProfiler != null)
+            linguistProfiler.startUtterance();
         localStart();
     }
 
@@ -306,7 +348,10 @@ public class WordPruningBreadthFirstSearchManager extends TokenSearchManager {
             done = recognize();
         }
 
-        if (!streamEnd) {
+        if (!streamEnd && latticeArcStore != null) {
+            result = new Result(latticeArcStore, activeList, resultList, currentCollectTime, done, linguist
+                    .getSearchGraph().getWordTokenFirst(), true);
+        } else if (!streamEnd) {
             result = new Result(loserManager, activeList, resultList, currentCollectTime, done, linguist.getSearchGraph()
                     .getWordTokenFirst(), true);
         }
@@ -325,12 +370,16 @@ public class WordPruningBreadthFirstSearchManager extends TokenSearchManager {
 
         if (more) {
             pruneBranches();
+            int activeTokens = activeList.size();
+            float beamThreshold = activeList.getBeamThreshold();
+            float bestScore = activeList.bestScore();
             currentFrameNumber++;
             if (growSkipInterval == 0 || (currentFrameNumber % growSkipInterval) != 0) {
                 clearCollectors();
                 growEmittingBranches();
                 growNonEmittingBranches();
             }
+            endFrame(currentFrameNumber, currentCollectTime, activeTokens, beamThreshold, bestScore);
         }
         return !more;
     }
@@ -352,6 +401,8 @@ public class WordPruningBreadthFirstSearchManager extends TokenSearchManager {
     public void stopRecognition() {
 
         localStop();
+        if (linguistProfiler != null)
+            linguistProfiler.endUtterance();
         scorer.stopRecognition();
         pruner.stopRecognition();
         linguist.stopRecognition();
@@ -364,10 +415,15 @@ public class WordPruningBreadthFirstSearchManager extends TokenSearchManager {
     protected void localStart() {
         SearchGraph searchGraph = linguist.getSearchGraph();
         currentFrameNumber = 0;
-        curTokensScored.value = 0;
+        curTokensScored.reset();
+        startFrames();
         numStateOrder = searchGraph.getNumStateOrder();
         activeListManager.setNumStateOrder(numStateOrder);
-        if (buildWordLattice) {
+        loserManager = null;
+        latticeArcStore = null;
+        if (buildWordLattice && streamLattice) {
+            latticeArcStore = new LatticeArcStore(maxLatticeEdges);
+        } else if (buildWordLattice) {
             loserManager = new AlternateHypothesisManager(maxLatticeEdges);
         }
 
@@ -387,13 +443,23 @@ public class WordPruningBreadthFirstSearchManager extends TokenSearchManager {
         // tokenTracker.stopUtterance();
     }
 
+    /**
+     * Narrows the beams of all active lists and the acoustic lookahead beam,
+     * the lists take them when they are cleared
+     */
+    @Override
+    protected void adaptBeams(int maxTokens, float relativeScale) {
+        activeListManager.adaptBeams(maxTokens, relativeScale);
+        relativeBeamWidth = configuredRelativeBeamWidth * relativeScale;
+    }
+
     /**
      * Goes through the active list of tokens and expands each token, finding
      * the set of successor tokens until all the successor tokens are emitting
      * tokens.
      */
     protected void growBranches() {
-        growTimer.start();
+        long growStart = System.nanoTime();
         //float relativeBeamThreshold = activeList.getBeamThreshold();
 //        if (logger.isLoggable(Level.FINE)) {
 //            logger.fine("Frame: " + currentFrameNumber + " thresh : " + relativeBeamThreshold + " bs "
@@ -412,7 +478,7 @@ public class WordPruningBreadthFirstSearchManager extends TokenSearchManager {
                     }
 
                 });
-        growTimer.stop();
+        frameGrowTime += growTimes.recordSince(growStart);
     }
 
     /**
@@ -425,7 +491,7 @@ public class WordPruningBreadthFirstSearchManager extends TokenSearchManager {
             return;
         }
 
-        growTimer.start();
+        long growStart = System.nanoTime();
         final float[] bestScore = {-Float.MAX_VALUE};
 
         activeList.forEach( (Token t) -> {
@@ -445,7 +511,7 @@ public class WordPruningBreadthFirstSearchManager extends TokenSearchManager {
 
 //        for (Token t : activeList) {
 //        }
-        growTimer.stop();
+        frameGrowTime += growTimes.recordSince(growStart);
     }
 
     /**
@@ -472,9 +538,9 @@ public class WordPruningBreadthFirstSearchManager extends TokenSearchManager {
     protected boolean scoreTokens() {
         boolean moreTokens;
 
-        scoreTimer.start();
+        long scoreStart = System.nanoTime();
         Data data = scorer.calculateScores(activeList);
-        scoreTimer.stop();
+        frameScoreTime += scoreTimes.recordSince(scoreStart);
 
 
         Token bestToken = null;
@@ -486,6 +552,7 @@ public class WordPruningBreadthFirstSearchManager extends TokenSearchManager {
 
         if (bestToken != null) {
             currentCollectTime = bestToken.getCollectTime();
+            framesSearched.increment();
         }
         
         moreTokens = (bestToken != null);
@@ -496,8 +563,9 @@ public class WordPruningBreadthFirstSearchManager extends TokenSearchManager {
         // System.out.println("BEST " + bestToken);
 
         int s = activeList.size();
-        curTokensScored.value += s;
-        totalTokensScored.value += s;
+        curTokensScored.add(s);
+        totalTokensScored.add(s);
+        frameTokensScored += s;
 
         return moreTokens;
     }
@@ -561,9 +629,9 @@ public class WordPruningBreadthFirstSearchManager extends TokenSearchManager {
 
     /** Removes unpromising branches from the active list */
     protected void pruneBranches() {
-        pruneTimer.start();
+        long pruneStart = System.nanoTime();
         activeList = activeList.commit();
-        pruneTimer.stop();
+        framePruneTime += pruneTimes.recordSince(pruneStart);
     }
 
     /**
@@ -633,7 +701,7 @@ public class WordPruningBreadthFirstSearchManager extends TokenSearchManager {
         // otherwise recursively collect the new tokens successors.
 
         SearchState state = token.getSearchState();
-        SearchStateArc[] arcs = state.getSuccessors();
+        SearchStateArc[] arcs = getSuccessors(state);
         int added = 0;
         for (SearchStateArc arc : arcs) {
             SearchState nextState = arc.getState();
@@ -652,9 +720,12 @@ public class WordPruningBreadthFirstSearchManager extends TokenSearchManager {
                 Token newBestToken = new Token(predecessor, nextState, logEntryScore, arc.getInsertionProbability(),
                         arc.getLanguageProbability(), currentCollectTime);
                 if (activeListManager.add(newBestToken)) {
-                    tokensCreated.value++;
+                    tokensCreated.increment();
                     added++;
                     bestTokens.putIfAbsent(nextState, newBestToken);
+                    if (latticeArcStore != null && nextState instanceof WordSearchState) {
+                        latticeArcStore.addArc(newBestToken, predecessor, logEntryScore, true);
+                    }
                 }
 
             } else if (bestToken.score() < logEntryScore) {
@@ -663,9 +734,13 @@ public class WordPruningBreadthFirstSearchManager extends TokenSearchManager {
                 Token oldPredecessor = bestToken.predecessor();
                 bestToken.update(predecessor, logEntryScore, arc.getInsertionProbability(),
                         arc.getLanguageProbability(), currentCollectTime);
-                if (buildWordLattice && nextState instanceof WordSearchState) {
+                if (latticeArcStore != null && nextState instanceof WordSearchState) {
+                    latticeArcStore.addArc(bestToken, predecessor, logEntryScore, true);
+                } else if (buildWordLattice && nextState instanceof WordSearchState) {
                     loserManager.addAlternatePredecessor(bestToken, oldPredecessor);
                 }
+            } else if (latticeArcStore != null && nextState instanceof WordSearchState) {
+                latticeArcStore.addArc(bestToken, predecessor, logEntryScore, false);
             } else if (buildWordLattice && nextState instanceof WordSearchState) {
                 if (predecessor != null) {
                     loserManager.addAlternatePredecessor(bestToken, predecessor);
@@ -13,6 +13,7 @@ import edu.cmu.sphinx.frontend.transform.DiscreteCosineTransform;
 import edu.cmu.sphinx.frontend.transform.DiscreteCosineTransform2;
 import edu.cmu.sphinx.frontend.transform.KaldiDiscreteCosineTransform;
 import edu.cmu.sphinx.frontend.transform.Lifter;
+import edu.cmu.sphinx.frontend.util.DataConverter;
 import edu.cmu.sphinx.linguist.acoustic.tiedstate.KaldiLoader;
 import edu.cmu.sphinx.linguist.acoustic.tiedstate.Loader;
 import edu.cmu.sphinx.util.props.*;
@@ -39,6 +40,10 @@ import static java.lang.Integer.parseInt;
  * MelFrequencyFilterBank parameters (numberFilters, minimumFrequency and
  * maximumFrequency) are auto-configured based on the values found in
  * feat.params.
+ * <p>
+ * If {@link #PROP_FLOAT_OUTPUT} is set, the cepstrum is converted to
+ * {@link FloatData} right after the DCT (or lifter), so that CMN, feature
+ * extraction and scoring work on floats and the scorer never has to convert.
  * 
  * @author Horia Cucu
  */
@@ -55,6 +60,17 @@ public class AutoCepstrum extends BaseDataProcessor {
     public final static String PROP_LOADER = "loader";
     protected Loader loader;
 
+    /**
+     * The property specifying whether the cepstrum is emitted as
+     * <code>FloatData</code> instead of <code>DoubleData</code>. All
+     * processors following this one must then accept float data, as
+     * <code>LiveCMN</code>, <code>BatchCMN</code> and the feature extractors
+     * do.
+     */
+    @S4Boolean(defaultValue = false)
+    public final static String PROP_FLOAT_OUTPUT = "floatOutput";
+    protected boolean floatOutput;
+
     /**
      * The filter bank which will be used for creating the cepstrum. The filter
      * bank is always inserted in the pipeline and its minimum frequency,
@@ -98,8 +114,13 @@ public class AutoCepstrum extends BaseDataProcessor {
     protected List<DataProcessor> selectedDataProcessors;
 
     public AutoCepstrum(Loader loader) throws IOException {
+        this(loader, false);
+    }
+
+    public AutoCepstrum(Loader loader, boolean floatOutput) throws IOException {
         initLogger();
         this.loader = loader;
+        this.floatOutput = floatOutput;
         loader.load();
         initDataProcessors();
     }
@@ -117,6 +138,7 @@ public class AutoCepstrum extends BaseDataProcessor {
     public void newProperties(PropertySheet ps) throws PropertyException {
         super.newProperties(ps);
         loader = (Loader) ps.getComponent(PROP_LOADER);
+        floatOutput = ps.getBoolean(PROP_FLOAT_OUTPUT);
         try {
             loader.load();
         } catch (IOException e) {
@@ -211,6 +233,13 @@ public class AutoCepstrum extends BaseDataProcessor {
                         .get(selectedDataProcessors.size() - 1));
                 selectedDataProcessors.add(lifter);
             }
+
+            if (floatOutput) {
+                DataConverter converter = new DataConverter(DataConverter.CONVERT_D2F);
+                converter.setPredecessor(selectedDataProcessors
+                        .get(selectedDataProcessors.size() - 1));
+                selectedDataProcessors.add(converter);
+            }
             logger.info("Cepstrum component auto-configured as follows: "
                     + this);
         } catch (NoSuchFieldException exc) {
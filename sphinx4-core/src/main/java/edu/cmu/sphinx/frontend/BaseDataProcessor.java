@@ -13,11 +13,16 @@
 
 package edu.cmu.sphinx.frontend;
 
+import edu.cmu.sphinx.frontend.endpoint.SpeechEndSignal;
 import edu.cmu.sphinx.util.props.ConfigurableAdapter;
 
 /**
  * An abstract DataProcessor implementing elements common to all concrete DataProcessors, such as name, predecessor, and
  * timer.
+ * <p>
+ * Besides the frame-by-frame {@link #getData()}, processors can be asked for a {@link DataBlock} of several frames at
+ * once with {@link #getData(DataBlock, int)}. The default implementation adapts <code>getData()</code>, so every
+ * processor supports it; processors on the hot path override it to work on the whole block.
  */
 public abstract class BaseDataProcessor extends ConfigurableAdapter implements DataProcessor {
 
@@ -35,6 +40,64 @@ public abstract class BaseDataProcessor extends ConfigurableAdapter implements D
     public abstract Data getData() throws DataProcessingException;
 
 
+    /**
+     * Reads up to <code>maxFrames</code> frames into the given block, which is cleared first. Signals are stored in the
+     * side channel of the block. Reading stops early when no more data is available or after a {@link DataEndSignal}
+     * or {@link SpeechEndSignal}, so that a block never spans two segments.
+     *
+     * @param block     the block to fill
+     * @param maxFrames the maximum number of frames to read
+     * @return the number of frames read
+     * @throws DataProcessingException if a data processor error occurs
+     */
+    public int getData(DataBlock block, int maxFrames) throws DataProcessingException {
+        return readBlock(this, block, maxFrames);
+    }
+
+
+    /**
+     * Fills a block by calling <code>getData()</code> on the given processor frame by frame.
+     *
+     * @param source    the processor to read from
+     * @param block     the block to fill
+     * @param maxFrames the maximum number of frames to read
+     * @return the number of frames read
+     * @throws DataProcessingException if a data processor error occurs
+     */
+    protected static int readBlock(DataProcessor source, DataBlock block, int maxFrames)
+            throws DataProcessingException {
+        block.clear();
+        while (block.size() < maxFrames) {
+            Data data = source.getData();
+            if (data == null)
+                break;
+            if (data instanceof Signal) {
+                block.addSignal((Signal) data);
+                if (data instanceof DataEndSignal || data instanceof SpeechEndSignal)
+                    break;
+            } else {
+                block.add(data);
+            }
+        }
+        return block.size();
+    }
+
+
+    /**
+     * Reads a block from the predecessor, using its block path if it has one.
+     *
+     * @param block     the block to fill
+     * @param maxFrames the maximum number of frames to read
+     * @return the number of frames read
+     * @throws DataProcessingException if a data processor error occurs
+     */
+    protected int getPredecessorData(DataBlock block, int maxFrames) throws DataProcessingException {
+        if (predecessor instanceof BaseDataProcessor)
+            return ((BaseDataProcessor) predecessor).getData(block, maxFrames);
+        return readBlock(predecessor, block, maxFrames);
+    }
+
+
     /** Initializes this DataProcessor. This is typically called after the DataProcessor has been configured. */
     public void initialize() {
     }
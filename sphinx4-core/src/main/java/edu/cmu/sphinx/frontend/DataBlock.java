@@ -0,0 +1,222 @@
+/*
+ * Copyright 2014 Carnegie Mellon University.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * See the file "license.terms" for information on usage and
+ * redistribution of this file, and for a DISCLAIMER OF ALL
+ * WARRANTIES.
+ *
+ */
+
+package edu.cmu.sphinx.frontend;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A reusable block of consecutive frames moved between DataProcessors in one
+ * call, see {@link BaseDataProcessor#getData(DataBlock, int)}.
+ * <p>
+ * Frame values are kept in a single row-major float array of
+ * <code>size() * getDimension()</code> elements. {@link DoubleData} frames are
+ * narrowed to float when added. {@link Signal}s travel in a side channel
+ * together with the index of the frame they precede, so that a consumer can
+ * replay the original order of frames and signals.
+ * <p>
+ * A block grows as needed but never shrinks, so that a processor that keeps
+ * one block per stream does not allocate in steady state.
+ */
+public class DataBlock {
+
+    private float[] values;
+    private long[] firstSampleNumbers;
+    private long[] collectTimes;
+    private int dimension;
+    private int sampleRate;
+    private int size;
+
+    private final List<Signal> signals = new ArrayList<>();
+    private int[] signalPositions;
+
+    public DataBlock() {
+        this(0, 0);
+    }
+
+    /**
+     * Creates a block with the given initial capacity.
+     *
+     * @param capacity  the number of frames to allocate space for
+     * @param dimension the expected frame dimension, or 0 if not yet known
+     */
+    public DataBlock(int capacity, int dimension) {
+        this.dimension = dimension;
+        values = new float[capacity * dimension];
+        firstSampleNumbers = new long[capacity];
+        collectTimes = new long[capacity];
+        signalPositions = new int[4];
+    }
+
+    /** Removes all frames and signals, keeping the allocated storage. */
+    public void clear() {
+        size = 0;
+        signals.clear();
+    }
+
+    /**
+     * @return the number of frames in this block
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return true if this block holds neither frames nor signals
+     */
+    public boolean isEmpty() {
+        return size == 0 && signals.isEmpty();
+    }
+
+    /**
+     * @return the number of values per frame
+     */
+    public int getDimension() {
+        return dimension;
+    }
+
+    /**
+     * @return the sample rate of the frames in this block
+     */
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    /**
+     * Returns the backing value array. Frame <code>i</code> occupies the range
+     * <code>[i * getDimension(), (i + 1) * getDimension())</code>; elements
+     * past <code>size() * getDimension()</code> are undefined.
+     *
+     * @return the frame values in row-major order
+     */
+    public float[] getValues() {
+        return values;
+    }
+
+    /**
+     * @param frame the frame index
+     * @return the offset of the given frame in {@link #getValues()}
+     */
+    public int offset(int frame) {
+        return frame * dimension;
+    }
+
+    public long getFirstSampleNumber(int frame) {
+        return firstSampleNumbers[frame];
+    }
+
+    public long getCollectTime(int frame) {
+        return collectTimes[frame];
+    }
+
+    /**
+     * @return the signals of this block in arrival order
+     */
+    public List<Signal> getSignals() {
+        return signals;
+    }
+
+    /**
+     * @param i the index of the signal in {@link #getSignals()}
+     * @return the index of the frame the signal arrived before; equal to
+     *         {@link #size()} if it arrived after the last frame
+     */
+    public int getSignalPosition(int i) {
+        return signalPositions[i];
+    }
+
+    /**
+     * Appends a Signal after the frames added so far.
+     *
+     * @param signal the signal to add
+     */
+    public void addSignal(Signal signal) {
+        if (signals.size() == signalPositions.length)
+            signalPositions = Arrays.copyOf(signalPositions, signalPositions.length * 2);
+        signalPositions[signals.size()] = size;
+        signals.add(signal);
+    }
+
+    /**
+     * Appends a frame given as FloatData or DoubleData.
+     *
+     * @param data the frame to add
+     * @throws IllegalArgumentException if data is neither FloatData nor DoubleData
+     */
+    public void add(Data data) {
+        if (data instanceof FloatData) {
+            FloatData fd = (FloatData) data;
+            int offset = addFrame(fd.values.length, fd.sampleRate, fd.firstSampleNumber, fd.collectTime);
+            System.arraycopy(fd.values, 0, values, offset, dimension);
+        } else if (data instanceof DoubleData) {
+            DoubleData dd = (DoubleData) data;
+            double[] frame = dd.getValues();
+            int offset = addFrame(frame.length, dd.getSampleRate(), dd.getFirstSampleNumber(), dd.getCollectTime());
+            for (int i = 0; i < frame.length; i++)
+                values[offset + i] = (float) frame[i];
+        } else {
+            throw new IllegalArgumentException("data type '" + data.getClass() + "' is not supported");
+        }
+    }
+
+    /**
+     * Reserves room for one more frame and records its meta data. The caller
+     * fills in the values at the returned offset.
+     *
+     * @param frameDimension    the number of values of the frame
+     * @param frameSampleRate   the sample rate of the frame
+     * @param firstSampleNumber the position of the first sample in the original data
+     * @param collectTime       the time at which the frame was collected
+     * @return the offset of the new frame in {@link #getValues()}
+     */
+    public int addFrame(int frameDimension, int frameSampleRate, long firstSampleNumber, long collectTime) {
+        if (size == 0) {
+            dimension = frameDimension;
+            sampleRate = frameSampleRate;
+        } else if (frameDimension != dimension) {
+            throw new IllegalArgumentException("Frame dimension " + frameDimension
+                    + " does not match block dimension " + dimension);
+        }
+        ensureCapacity(size + 1);
+        firstSampleNumbers[size] = firstSampleNumber;
+        collectTimes[size] = collectTime;
+        return size++ * dimension;
+    }
+
+    private void ensureCapacity(int frames) {
+        if (firstSampleNumbers.length < frames) {
+            int capacity = Math.max(frames, firstSampleNumbers.length * 2);
+            firstSampleNumbers = Arrays.copyOf(firstSampleNumbers, capacity);
+            collectTimes = Arrays.copyOf(collectTimes, capacity);
+        }
+        if (values.length < frames * dimension)
+            values = Arrays.copyOf(values, firstSampleNumbers.length * dimension);
+    }
+
+    /**
+     * Copies the given frame into a new FloatData object, for consumers which
+     * still work frame by frame.
+     *
+     * @param frame the frame index
+     * @return the frame as FloatData
+     */
+    public FloatData getFrame(int frame) {
+        int offset = offset(frame);
+        return new FloatData(Arrays.copyOfRange(values, offset, offset + dimension),
+                sampleRate, collectTimes[frame], firstSampleNumbers[frame]);
+    }
+
+    @Override
+    public String toString() {
+        return "DataBlock: " + size + " frames of " + dimension + ", " + signals.size() + " signals";
+    }
+}
@@ -13,10 +13,10 @@
 
 package edu.cmu.sphinx.frontend;
 
-import edu.cmu.sphinx.util.Timer;
-import edu.cmu.sphinx.util.TimerPool;
+import edu.cmu.sphinx.util.MetricsRegistry;
 import edu.cmu.sphinx.util.props.PropertyException;
 import edu.cmu.sphinx.util.props.PropertySheet;
+import edu.cmu.sphinx.util.props.S4Component;
 import edu.cmu.sphinx.util.props.S4ComponentList;
 
 import java.util.Deque;
@@ -131,12 +131,20 @@ public class FrontEnd extends BaseDataProcessor {
     @S4ComponentList(type = DataProcessor.class)
     public final static String PROP_PIPELINE = "pipeline";
 
+    /**
+     * The property that defines the registry to record the time spent in the
+     * front end in. Without it the front end keeps a registry of its own.
+     */
+    @S4Component(type = MetricsRegistry.class, mandatory = false)
+    public final static String PROP_METRICS = "metrics";
+
 
     // ----------------------------
     // Configuration data
     // -----------------------------
     private List<DataProcessor> frontEndList;
-    private Timer timer;
+    private MetricsRegistry metrics = new MetricsRegistry();
+    private MetricsRegistry.Histogram times;
 
     private DataProcessor first;
     private DataProcessor last;
@@ -159,11 +167,14 @@ public class FrontEnd extends BaseDataProcessor {
     public void newProperties(PropertySheet ps) throws PropertyException {
         super.newProperties(ps);
         frontEndList = ps.getComponentList(PROP_PIPELINE, DataProcessor.class);
+        MetricsRegistry registry = (MetricsRegistry) ps.getComponent(PROP_METRICS);
+        if (registry != null)
+            metrics = registry;
         init();
     }
 
     private void init() {
-        this.timer = TimerPool.getTimer(this, "Frontend");
+        this.times = metrics.histogram(MetricsRegistry.FRONTEND);
         
         last = null;
         for (DataProcessor dp : frontEndList) {
@@ -204,6 +215,16 @@ public class FrontEnd extends BaseDataProcessor {
     }
 
 
+    /**
+     * Returns the registry the time spent in the front end is recorded in.
+     *
+     * @return the metrics registry
+     */
+    public MetricsRegistry getMetrics() {
+        return metrics;
+    }
+
+
     /** Returns the collection of <code>DataProcessor</code>s of this <code>FrontEnd</code>.
      * @return list of processors
      */
@@ -219,18 +240,42 @@ public class FrontEnd extends BaseDataProcessor {
      */
     @Override
     public Data getData() throws DataProcessingException {
-        timer.start();
+        long startTime = System.nanoTime();
         Data data = last.getData();
 
         // fire the signal listeners if its a signal
         if (data instanceof Signal) {
             fireSignalListeners((Signal) data);
         }
-        timer.stop();
+        times.recordSince(startTime);
         return data;
     }
 
 
+    /**
+     * Reads a block of frames from the last processor, see {@link BaseDataProcessor#getData(DataBlock, int)}. Signal
+     * listeners are fired for all signals of the block.
+     *
+     * @param block     the block to fill
+     * @param maxFrames the maximum number of frames to read
+     * @return the number of frames read
+     * @throws DataProcessingException if a data processor error occurs
+     */
+    @Override
+    public int getData(DataBlock block, int maxFrames) throws DataProcessingException {
+        long startTime = System.nanoTime();
+        int frames;
+        if (last instanceof BaseDataProcessor)
+            frames = ((BaseDataProcessor) last).getData(block, maxFrames);
+        else
+            frames = readBlock(last, block, maxFrames);
+        for (Signal signal : block.getSignals())
+            fireSignalListeners(signal);
+        times.recordSince(startTime);
+        return frames;
+    }
+
+
     /**
      * Sets the source of data for this front end. It basically calls <code>setDataSource(dataSource)</code>.
      *
@@ -10,16 +10,18 @@
 package edu.cmu.sphinx.frontend.denoise;
 
 import edu.cmu.sphinx.frontend.*;
+import edu.cmu.sphinx.util.Timer;
+import edu.cmu.sphinx.util.TimerPool;
 import edu.cmu.sphinx.util.props.PropertyException;
 import edu.cmu.sphinx.util.props.PropertySheet;
 import edu.cmu.sphinx.util.props.S4Double;
 import edu.cmu.sphinx.util.props.S4Integer;
 
 import java.util.Arrays;
+import java.util.List;
 
 import static java.lang.Math.max;
 import static java.lang.Math.min;
-import static java.lang.System.arraycopy;
 
 /**
  * The noise filter, same as implemented in sphinxbase/sphinxtrain/pocketsphinx.
@@ -34,15 +36,22 @@ import static java.lang.System.arraycopy;
  * Minimum-Mean-Square-Error Noise Reduction Algorithm On Mel-Frequency Cepstra
  * For Robust Speech Recognition by Dong Yu and others
  * 
+ * The per-band state is kept in arrays that are only reallocated when the
+ * spectrum length changes. Frames can also be denoised a block at a time
+ * through {@link #getData(DataBlock, int)}. The gains are always computed in
+ * double precision. Frames of doubles are scaled in place, while frames of
+ * floats and the frames of a block are copied to doubles first and the scaled
+ * values rounded back to floats. The processing time is reported by the
+ * "Denoise" timer in {@link TimerPool}.
  */
 public class Denoise extends BaseDataProcessor {
 
-    private transient double[] power = new double[0];
-    private transient double[] noise = new double[0];
-    private transient double[] floor = new double[0];
     private transient double[] peak = new double[0];
-    private transient double[] signal = new double[0];
+    private transient double[] input = new double[0];
     private transient double[] gain = new double[0];
+    private transient double[] smoothedGain = new double[0];
+
+    private Timer timer;
 
     @S4Double(defaultValue = 0.7)
     public final static String LAMBDA_POWER = "lambdaPower";
@@ -108,116 +117,163 @@ public class Denoise extends BaseDataProcessor {
         smoothWindow = ps.getInt(SMOOTH_WINDOW);
     }
 
+    @Override
+    public void initialize() {
+        super.initialize();
+        timer = TimerPool.getTimer(this, "Denoise");
+    }
+
     @Override
     public Data getData() throws DataProcessingException {
         Data inputData = getPredecessor().getData();
-        int i;
 
         if (inputData instanceof DataStartSignal) {
-            Arrays.fill(power, 0);
-            Arrays.fill(noise, 0);
-            Arrays.fill(floor, 0);
-            Arrays.fill(peak, 0);
+            reset();
             return inputData;
         }
-        if (!(inputData instanceof DoubleData)) {
-            return inputData;
+        if (inputData instanceof DoubleData) {
+            timer.start();
+            double[] input = ((DoubleData) inputData).getValues();
+            alloc(input.length);
+            updateGain(input);
+            smoothGain();
+            for (int i = 0; i < input.length; i++)
+                input[i] *= smoothedGain[i];
+            timer.stop();
+        } else if (inputData instanceof FloatData) {
+            timer.start();
+            float[] values = ((FloatData) inputData).values;
+            denoise(values, 0, values.length);
+            timer.stop();
         }
 
-        DoubleData inputDoubleData = (DoubleData) inputData;
-
-        double[] input = inputDoubleData.getValues();
-        int length = input.length;
-
-        alloc(input);
-
-        updatePower(input);
-
-        estimateEnvelope(power, noise);
+        return inputData;
+    }
 
-        for (i = 0; i < length; i++)
-            signal[i] = max(power[i] - noise[i], 0.0);
 
-        estimateEnvelope(signal, floor);
+    /**
+     * Denoises up to <code>maxFrames</code> frames of the predecessor in place
+     * in the given block. The noise statistics are reset at every
+     * {@link DataStartSignal} in the block, as in {@link #getData()}.
+     *
+     * @param block     the block to fill
+     * @param maxFrames the maximum number of frames to read
+     * @return the number of frames in the block
+     * @throws DataProcessingException if there is a data processing error
+     */
+    @Override
+    public int getData(DataBlock block, int maxFrames) throws DataProcessingException {
+        int size = getPredecessorData(block, maxFrames);
+
+        timer.start();
+        List<Signal> signals = block.getSignals();
+        int dimension = block.getDimension();
+        float[] values = block.getValues();
+        int signal = 0;
+        for (int frame = 0; frame < size; frame++) {
+            for (; signal < signals.size() && block.getSignalPosition(signal) <= frame; signal++) {
+                if (signals.get(signal) instanceof DataStartSignal)
+                    reset();
+            }
+            denoise(values, block.offset(frame), dimension);
+        }
+        for (; signal < signals.size(); signal++) {
+            if (signals.get(signal) instanceof DataStartSignal)
+                reset();
+        }
+        timer.stop();
 
-        tempMasking(signal);
+        return size;
+    }
 
-        powerBoosting(signal);
 
-        for (i = 0; i < length; i++)
-            gain[i] = min(max(
-                        signal[i] / (power[i] + EPS),
-                            1.0 / maxGain),
-                            maxGain);
+    /** Denoises a frame of float values in place, as the frame and the block path both do. */
+    private void denoise(float[] values, int offset, int dimension) {
+        alloc(dimension);
+        for (int i = 0; i < dimension; i++)
+            input[i] = values[offset + i];
+        updateGain(input);
+        smoothGain();
+        for (int i = 0; i < dimension; i++)
+            values[offset + i] *= smoothedGain[i];
+    }
 
-        smooth(gain, input);
 
-        return inputData;
+    private void reset() {
+        Arrays.fill(peak, 0);
     }
 
 
-    private void alloc(double[] input) {
-        int length = input.length;
-        if (signal.length != /* < */ length) {
-            signal = new double[length];
+    /** Reallocates the state arrays only when the spectrum length changes. */
+    private void alloc(int length) {
+        if (gain.length != length) {
+            input = new double[length];
             gain = new double[length];
-            floor = new double[length];
+            smoothedGain = new double[length];
             peak = new double[length];
-            power = new double[length];
-            noise = new double[length];
         }
-        arraycopy(input, 0, power, 0, length);
-        arraycopy(input, 0, noise, 0, length);
-        for (int i = 0; i < length; i++)
-            floor[i] = input[i] / maxGain;
     }
 
-    private void smooth(double[] gain, double[] target) {
-        for (int i = 0; i < gain.length; i++) {
-            int start = max(i - smoothWindow, 0);
-            int end = min(i + smoothWindow + 1, gain.length);
-            double sum = 0.0;
-            for (int j = start; j < end; j++) {
-                sum += gain[j];
-            }
-            double g = sum / (end - start); //sample gain
-            target[i] *= g;
-        }
-    }
 
-    private void powerBoosting(double[] signal) {
-        for (int i = 0; i < signal.length; i++) {
-            if (signal[i] < floor[i])
-                signal[i] = floor[i];
+    /**
+     * Computes the unsmoothed gain of every band of the given power spectrum.
+     * The envelope tracking of power and signal, temporal masking and power
+     * boosting only depend on the band itself, so they are done in a single
+     * pass over the spectrum.
+     */
+    private void updateGain(double[] input) {
+        double minGain = 1.0 / maxGain;
+        for (int i = 0; i < gain.length; i++) {
+            double in = input[i];
+
+            // power, noise and floor are seeded from each frame, as in the original
+            double p = in;
+            double n = envelope(p, in);
+            double s = max(p - n, 0.0);
+            double f = envelope(s, in / maxGain);
+
+            // temporal masking
+            double pk = peak[i] * lambdaT;
+            double masked = s;
+            if (s < lambdaT * pk)
+                masked = pk * muT;
+            if (s > pk)
+                pk = s;
+
+            // power boosting
+            if (masked < f)
+                masked = f;
+
+            peak[i] = pk;
+            gain[i] = min(max(masked / (p + EPS), minGain), maxGain);
         }
     }
 
-    private void tempMasking(double[] signal) {
-        for (int i = 0; i < signal.length; i++) {
-            double in = signal[i];
 
-            peak[i] *= lambdaT;
-            if (signal[i] < lambdaT * peak[i])
-                signal[i] = peak[i] * muT;
-
-            if (in > peak[i])
-                peak[i] = in;
-        }
+    private double envelope(double si, double ei) {
+        return (si > ei) ?
+                ((lambdaA * ei) + ((1 - lambdaA) * si)) :
+                ((lambdaB * ei) + ((1 - lambdaB) * si));
     }
 
-    private void updatePower(double[] input) {
-        for (int i = 0; i < input.length; i++) {
-            power[i] = lambdaPower * power[i] + (1 - lambdaPower) * input[i];
-        }
-    }
 
-    private void estimateEnvelope(double[] signal, double[] envelope) {
-        for (int i = 0; i < signal.length; i++) {
-            double si = signal[i];
-            double ei = envelope[i];
-            envelope[i] = (si > ei) ?
-                    ((lambdaA * ei) + ((1 - lambdaA) * si)) :
-                    ((lambdaB * ei) + ((1 - lambdaB) * si));
+    /**
+     * Averages the gain over a window of <code>smoothWindow</code> bands on
+     * either side, keeping a running sum instead of summing every window.
+     */
+    private void smoothGain() {
+        int length = gain.length;
+        double sum = 0.0;
+        for (int j = 0; j < min(smoothWindow, length); j++)
+            sum += gain[j];
+        for (int i = 0; i < length; i++) {
+            int start = i - smoothWindow;
+            int end = i + smoothWindow + 1;
+            if (end <= length)
+                sum += gain[end - 1];
+            if (start > 0)
+                sum -= gain[start - 1];
+            smoothedGain[i] = sum / (min(end, length) - max(start, 0));
         }
     }
 
@@ -17,13 +17,17 @@ import edu.cmu.sphinx.util.props.PropertyException;
 import edu.cmu.sphinx.util.props.PropertySheet;
 import edu.cmu.sphinx.util.props.S4Integer;
 
-import java.util.Arrays;
-import java.util.LinkedList;
+import java.util.ArrayDeque;
 
 /**
  * Abstract base class for windowed feature extractors like DeltasFeatureExtractor, ConcatFeatureExtractor
  * or S3FeatureExtractor. The main purpose of this it to collect window size cepstra frames in a buffer
  * and let the extractor compute the feature frame with them.
+ * <p>
+ * The cepstra are copied into a ring of preallocated float rows, whether they arrive as {@link FloatData}
+ * or {@link DoubleData}, so buffering does not allocate. Features are computed only when they are handed
+ * out: {@link #getData()} returns a new {@link FloatData} per feature, while
+ * {@link #getData(DataBlock, int)} writes the features straight into the caller's reusable block.
  */
 public abstract class AbstractFeatureExtractor extends BaseDataProcessor {
 
@@ -31,15 +35,21 @@ public abstract class AbstractFeatureExtractor extends BaseDataProcessor {
     @S4Integer(defaultValue = 3)
     public static final String PROP_FEATURE_WINDOW = "windowSize";
 
+    /** Placeholder in the output queue for a feature that is computed when it is dequeued. */
+    private static final Data PENDING_FEATURE = new Data() {
+    };
+
     private int bufferPosition;
     private Signal pendingSignal;
-    private LinkedList<Data> outputQueue;
+    private ArrayDeque<Data> outputQueue;
 
     protected int cepstraBufferEdge;
     protected int window;
     protected int currentPosition;
     protected int cepstraBufferSize;
-    protected DoubleData[] cepstraBuffer;
+    protected float[][] cepstraBuffer;
+    private long[] firstSampleNumbers;
+    private int sampleRate;
 
     public AbstractFeatureExtractor(int window) {
         initLogger();
@@ -70,9 +80,10 @@ public abstract class AbstractFeatureExtractor extends BaseDataProcessor {
     public void initialize() {
         super.initialize();
         cepstraBufferSize = 256;
-        cepstraBuffer = new DoubleData[cepstraBufferSize];
+        cepstraBuffer = new float[cepstraBufferSize][];
+        firstSampleNumbers = new long[cepstraBufferSize];
         cepstraBufferEdge = cepstraBufferSize - (window * 2 + 2);
-        outputQueue = new LinkedList<>();
+        outputQueue = new ArrayDeque<>();
         reset();
     }
 
@@ -92,38 +103,89 @@ public abstract class AbstractFeatureExtractor extends BaseDataProcessor {
      */
     @Override
     public Data getData() throws DataProcessingException {
-        if (outputQueue.isEmpty()) {
-            Data input = getNextData();
-            if (input != null) {
-                if (input instanceof DoubleData) {
-                    addCepstrum((DoubleData) input);
-                    computeFeatures(1);
-                } else if (input instanceof DataStartSignal) {
-                    pendingSignal = null;
-                    outputQueue.add(input);
-                    Data start = getNextData();
-                    int n = processFirstCepstrum(start);
-                    computeFeatures(n);
-                    if (pendingSignal != null) {
-                        outputQueue.add(pendingSignal);
-                    }
-                } else if (input instanceof SpeechEndSignal) {
-                    // when the DataEndSignal is right at the boundary
-                    int n = replicateLastCepstrum();
-                    computeFeatures(n);
-                    outputQueue.add(input);
-                } else if (input instanceof DataEndSignal) {
-                    outputQueue.add(input);
+        if (outputQueue.isEmpty())
+            fillOutputQueue();
+        if (outputQueue.isEmpty())
+            return null;
+
+        Data data = outputQueue.removeFirst();
+        if (data == PENDING_FEATURE) {
+            float[] feature = new float[getFeatureDimension(cepstraBuffer[currentPosition].length)];
+            long firstSampleNumber = firstSampleNumbers[currentPosition];
+            computeFeature(feature, 0);
+            return new FloatData(feature, sampleRate, firstSampleNumber);
+        }
+        return data;
+    }
+
+
+    /**
+     * Computes up to <code>maxFrames</code> features directly into the given block. Signals are passed on in the
+     * side channel of the block, and the block ends after a {@link DataEndSignal} or {@link SpeechEndSignal}.
+     *
+     * @param block     the block to fill
+     * @param maxFrames the maximum number of features to compute
+     * @return the number of features computed
+     * @throws DataProcessingException if there is a data processing error
+     */
+    @Override
+    public int getData(DataBlock block, int maxFrames) throws DataProcessingException {
+        block.clear();
+        while (block.size() < maxFrames) {
+            if (outputQueue.isEmpty())
+                fillOutputQueue();
+            if (outputQueue.isEmpty())
+                break;
+
+            Data data = outputQueue.removeFirst();
+            if (data == PENDING_FEATURE) {
+                long firstSampleNumber = firstSampleNumbers[currentPosition];
+                int offset = block.addFrame(getFeatureDimension(cepstraBuffer[currentPosition].length),
+                        sampleRate, firstSampleNumber, firstSampleNumber * 1000 / sampleRate);
+                computeFeature(block.getValues(), offset);
+            } else if (data instanceof Signal) {
+                block.addSignal((Signal) data);
+                if (data instanceof DataEndSignal || data instanceof SpeechEndSignal)
+                    break;
+            } else {
+                block.add(data);
+            }
+        }
+        return block.size();
+    }
+
+
+    /** Reads input until at least one feature or signal can be handed out. */
+    private void fillOutputQueue() throws DataProcessingException {
+        Data input = getNextData();
+        if (input != null) {
+            if (isCepstrum(input)) {
+                addCepstrum(input);
+                computeFeatures(1);
+            } else if (input instanceof DataStartSignal) {
+                pendingSignal = null;
+                outputQueue.add(input);
+                Data start = getNextData();
+                int n = processFirstCepstrum(start);
+                computeFeatures(n);
+                if (pendingSignal != null) {
+                    outputQueue.add(pendingSignal);
                 }
+            } else if (input instanceof SpeechEndSignal) {
+                // when the DataEndSignal is right at the boundary
+                int n = replicateLastCepstrum();
+                computeFeatures(n);
+                outputQueue.add(input);
+            } else if (input instanceof DataEndSignal) {
+                outputQueue.add(input);
             }
         }
-        return outputQueue.isEmpty() ? null : outputQueue.removeFirst();
     }
 
 
     private Data getNextData() throws DataProcessingException {
         Data d = getPredecessor().getData();
-        while (d != null && !(d instanceof DoubleData || d instanceof DataEndSignal || d instanceof DataStartSignal || d instanceof SpeechEndSignal)) {
+        while (d != null && !(isCepstrum(d) || d instanceof DataEndSignal || d instanceof DataStartSignal || d instanceof SpeechEndSignal)) {
             outputQueue.add(d);
             d = getPredecessor().getData();
         }
@@ -132,6 +194,11 @@ public abstract class AbstractFeatureExtractor extends BaseDataProcessor {
     }
 
 
+    private static boolean isCepstrum(Data data) {
+        return data instanceof FloatData || data instanceof DoubleData;
+    }
+
+
     /**
      * Replicate the given cepstrum Data object into the first window+1 number of frames in the cepstraBuffer. This is
      * the first cepstrum in the segment.
@@ -152,8 +219,9 @@ public abstract class AbstractFeatureExtractor extends BaseDataProcessor {
             // into window+1 frames, and then read the next "window" number
             // of frames. This will allow us to compute the delta-
             // double-delta of the first frame.
-            Arrays.fill(cepstraBuffer, 0, window + 1, cepstrum);
-            bufferPosition = window + 1;
+            bufferPosition = 0;
+            for (int i = 0; i < window + 1; i++)
+                addCepstrum(cepstrum);
             bufferPosition %= cepstraBufferSize;
             currentPosition = window;
             currentPosition %= cepstraBufferSize;
@@ -162,9 +230,9 @@ public abstract class AbstractFeatureExtractor extends BaseDataProcessor {
             for (int i = 0; i < window; i++) {
                 Data next = getNextData();
                 if (next != null) {
-                    if (next instanceof DoubleData) {
+                    if (isCepstrum(next)) {
                         // just a cepstra
-                        addCepstrum((DoubleData) next);
+                        addCepstrum(next);
                     } else if (next instanceof DataEndSignal || next instanceof SpeechEndSignal) {
                         // end of segment cepstrum
                         pendingSignal = (Signal) next;
@@ -182,65 +250,103 @@ public abstract class AbstractFeatureExtractor extends BaseDataProcessor {
 
 
     /**
-     * Adds the given DoubleData object to the cepstraBuffer.
+     * Copies the values of the given FloatData or DoubleData cepstrum into the next row of the cepstraBuffer.
      *
-     * @param cepstrum the DoubleData object to add
+     * @param cepstrum the cepstrum to add
      */
-    private void addCepstrum(DoubleData cepstrum) {
-        cepstraBuffer[bufferPosition++] = cepstrum;
+    private void addCepstrum(Data cepstrum) {
+        float[] row;
+        if (cepstrum instanceof FloatData) {
+            FloatData fd = (FloatData) cepstrum;
+            row = row(bufferPosition, fd.values.length);
+            System.arraycopy(fd.values, 0, row, 0, row.length);
+            sampleRate = fd.sampleRate;
+            firstSampleNumbers[bufferPosition] = fd.firstSampleNumber;
+        } else {
+            DoubleData dd = (DoubleData) cepstrum;
+            double[] values = dd.getValues();
+            row = row(bufferPosition, values.length);
+            for (int i = 0; i < values.length; i++)
+                row[i] = (float) values[i];
+            sampleRate = dd.getSampleRate();
+            firstSampleNumbers[bufferPosition] = dd.getFirstSampleNumber();
+        }
+        bufferPosition++;
         bufferPosition %= cepstraBufferSize;
     }
 
 
+    /** Returns the row at the given position, allocating it only on first use or when the dimension changes. */
+    private float[] row(int position, int length) {
+        float[] row = cepstraBuffer[position];
+        if (row == null || row.length != length) {
+            row = new float[length];
+            cepstraBuffer[position] = row;
+        }
+        return row;
+    }
+
+
     /**
      * Replicate the last frame into the last window number of frames in the cepstraBuffer.
      *
      * @return the number of replicated Cepstrum
      */
     private int replicateLastCepstrum() {
-        DoubleData last;
+        int last;
         if (bufferPosition > 0) {
-            last = cepstraBuffer[bufferPosition - 1];
+            last = bufferPosition - 1;
         } else if (bufferPosition == 0) {
-            last = cepstraBuffer[cepstraBuffer.length - 1];
+            last = cepstraBuffer.length - 1;
         } else {
             throw new Error("BufferPosition < 0");
         }
+        float[] lastRow = cepstraBuffer[last];
         for (int i = 0; i < window; i++) {
-            addCepstrum(last);
+            System.arraycopy(lastRow, 0, row(bufferPosition, lastRow.length), 0, lastRow.length);
+            firstSampleNumbers[bufferPosition] = firstSampleNumbers[last];
+            bufferPosition++;
+            bufferPosition %= cepstraBufferSize;
         }
         return window;
     }
 
 
     /**
-     * Converts the Cepstrum data in the cepstraBuffer into a FeatureFrame.
+     * Queues the given number of features. They are computed from the cepstraBuffer when they are handed out,
+     * which is always before the buffer receives more input.
      *
      * @param totalFeatures the number of Features that will be produced
      */
     private void computeFeatures(int totalFeatures) {
-        if (totalFeatures == 1) {
-            computeFeature();
-        } else {
-            // create the Features
-            for (int i = 0; i < totalFeatures; i++) {
-                computeFeature();
-            }
+        for (int i = 0; i < totalFeatures; i++) {
+            outputQueue.add(PENDING_FEATURE);
         }
     }
 
 
-    /** Computes the next Feature. */
-    private void computeFeature() {
-        Data feature = computeNextFeature();
-        outputQueue.add(feature);
+    /** Computes the feature at the current position and advances it. */
+    private void computeFeature(float[] feature, int offset) {
+        computeNextFeature(feature, offset);
+        currentPosition = (currentPosition + 1) % cepstraBufferSize;
     }
 
 
     /**
-     * Computes the next feature. Advances the pointers as well.
+     * Returns the size of the features computed from cepstra of the given length.
+     *
+     * @param cepstrumLength the length of the input cepstra
+     * @return the feature dimension
+     */
+    protected abstract int getFeatureDimension(int cepstrumLength);
+
+
+    /**
+     * Computes the feature for the cepstrum at <code>currentPosition</code>. The base class advances the position
+     * afterwards.
      *
-     * @return the feature Data computed
+     * @param feature the array to write the feature to
+     * @param offset  the index of the first feature value in the array
      */
-    protected abstract Data computeNextFeature();
+    protected abstract void computeNextFeature(float[] feature, int offset);
 }
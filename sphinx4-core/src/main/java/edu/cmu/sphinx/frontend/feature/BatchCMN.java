@@ -45,6 +45,8 @@ import java.util.Locale;
  * time, the mean is an estimate of the channel, which remains roughly constant. The channel is thus removed from the
  * cepstrum by subtracting the mean cepstral vector. Intuitively, the mean cepstral vector approximately describes the
  * spectral characteristics of the transmission channel (e.g., microphone).
+ * <p>
+ * Both {@link DoubleData} and {@link FloatData} cepstra are normalized in place.
  *
  * @see LiveCMN
  */
@@ -127,16 +129,20 @@ public class BatchCMN extends BaseDataProcessor {
             if (input != null) {
                 if (input instanceof DoubleData) {
                     double[] cepstrumData = ((DoubleData) input).getValues();
-                    if (sums == null) {
-                        sums = new double[cepstrumData.length];
-                    } else {
-                        if (sums.length != cepstrumData.length) {
-                            throw new Error
-                                    ("Inconsistent cepstrum lengths: sums: " +
-                                            sums.length + ", cepstrum: " +
-                                            cepstrumData.length);
+                    initSums(cepstrumData.length);
+                    if (cepstrumData[0] >= 0) {
+                        // add the cepstrum data to the sums
+                        for (int j = 0; j < cepstrumData.length; j++) {
+                            sums[j] += cepstrumData[j];
                         }
+                        numberDataCepstra++;
                     }
+
+                    cepstraList.add(input);
+
+                } else if (input instanceof FloatData) {
+                    float[] cepstrumData = ((FloatData) input).values;
+                    initSums(cepstrumData.length);
                     if (cepstrumData[0] >= 0) {
                         // add the cepstrum data to the sums
                         for (int j = 0; j < cepstrumData.length; j++) {
@@ -160,6 +166,23 @@ public class BatchCMN extends BaseDataProcessor {
     }
 
 
+    /**
+     * Creates the sums array on the first cepstrum of an utterance, or checks
+     * that the following cepstra have the same length.
+     *
+     * @param length the length of the current cepstrum
+     */
+    private void initSums(int length) {
+        if (sums == null) {
+            sums = new double[length];
+        } else if (sums.length != length) {
+            throw new Error
+                    ("Inconsistent cepstrum lengths: sums: " +
+                            sums.length + ", cepstrum: " + length);
+        }
+    }
+
+
     /** Normalizes the list of Data. */
     private void normalizeList() {
     	StringBuilder cmn = new StringBuilder();
@@ -177,6 +200,11 @@ public class BatchCMN extends BaseDataProcessor {
                 for (int j = 0; j < cepstrum.length; j++) {
                     cepstrum[j] -= sums[j]; // sums[] is now the means[]
                 }
+            } else if (data instanceof FloatData) {
+                float[] cepstrum = ((FloatData) data).values;
+                for (int j = 0; j < cepstrum.length; j++) {
+                    cepstrum[j] -= sums[j];
+                }
             }
         }
     }
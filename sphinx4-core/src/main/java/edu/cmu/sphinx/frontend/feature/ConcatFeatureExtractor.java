@@ -10,10 +10,6 @@
  */
 package edu.cmu.sphinx.frontend.feature;
 
-import edu.cmu.sphinx.frontend.Data;
-import edu.cmu.sphinx.frontend.DoubleData;
-import edu.cmu.sphinx.frontend.FloatData;
-
 /**
  * This component concatenate the cepstrum from the sequence of frames according to the window size.
  * It's not supposed to give high accuracy alone, but combined with LDA transform it can give the same
@@ -32,27 +28,26 @@ public class ConcatFeatureExtractor extends AbstractFeatureExtractor {
     public ConcatFeatureExtractor( ) {
     }
 
+    @Override
+    protected int getFeatureDimension(int cepstrumLength) {
+        return (window * 2 + 1) * cepstrumLength;
+    }
+
     /**
-     * Computes the next feature. Advances the pointers as well.
+     * Computes the next feature.
      *
-     * @return the feature Data computed
+     * @param feature the array to write the feature to
+     * @param offset  the index of the first feature value in the array
      */
     @Override
-    protected Data computeNextFeature() {
-        DoubleData currentCepstrum = cepstraBuffer[currentPosition];
-        float[] feature = new float[(window * 2 + 1) * currentCepstrum.getValues().length];
-        int j = 0;
+    protected void computeNextFeature(float[] feature, int offset) {
+        float[] current = cepstraBuffer[currentPosition];
+        int j = offset;
         for (int k = -window; k <= window; k++) {
         	int position = (currentPosition + k + cepstraBufferSize) % cepstraBufferSize;
-        	double[] buffer = cepstraBuffer[position].getValues();
-            for (double val : buffer) {
-                feature[j++] = (float)val;
-            }
+        	float[] buffer = cepstraBuffer[position];
+            System.arraycopy(buffer, 0, feature, j, buffer.length);
+            j += buffer.length;
         }
-        currentPosition = (currentPosition + 1) % cepstraBufferSize ;
-
-        return (new FloatData(feature,
-                currentCepstrum.getSampleRate(),
-                currentCepstrum.getFirstSampleNumber()));
     }
 }
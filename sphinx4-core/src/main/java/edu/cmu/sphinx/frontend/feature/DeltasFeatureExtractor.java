@@ -11,8 +11,6 @@
  */
 package edu.cmu.sphinx.frontend.feature;
 
-import edu.cmu.sphinx.frontend.Data;
-import edu.cmu.sphinx.frontend.DoubleData;
 import edu.cmu.sphinx.frontend.FloatData;
 
 /**
@@ -47,13 +45,19 @@ public class DeltasFeatureExtractor extends AbstractFeatureExtractor {
     public DeltasFeatureExtractor( ) {
     }
     
+    @Override
+    protected int getFeatureDimension(int cepstrumLength) {
+        return cepstrumLength * 3;
+    }
+
     /**
-     * Computes the next feature. Advances the pointers as well.
+     * Computes the next feature.
      *
-     * @return the feature Data computed
+     * @param feature the array to write the feature to
+     * @param offset  the index of the first feature value in the array
      */
     @Override
-    protected Data computeNextFeature() {
+    protected void computeNextFeature(float[] feature, int offset) {
 
     	int jp1 = (currentPosition - 1 + cepstraBufferSize) % cepstraBufferSize;
         int jp2 = (currentPosition - 2 + cepstraBufferSize) % cepstraBufferSize;
@@ -62,34 +66,25 @@ public class DeltasFeatureExtractor extends AbstractFeatureExtractor {
         int jf2 = (currentPosition + 2) % cepstraBufferSize;
         int jf3 = (currentPosition + 3) % cepstraBufferSize;
         
-    	DoubleData currentCepstrum = cepstraBuffer[currentPosition];
-        double[] mfc3f = cepstraBuffer[jf3].getValues();
-        double[] mfc2f = cepstraBuffer[jf2].getValues();
-        double[] mfc1f = cepstraBuffer[jf1].getValues();
-        double[] current = currentCepstrum.getValues();
-        double[] mfc1p = cepstraBuffer[jp1].getValues();
-        double[] mfc2p = cepstraBuffer[jp2].getValues();
-        double[] mfc3p = cepstraBuffer[jp3].getValues();
-        float[] feature = new float[current.length * 3];
-
-        currentPosition = (currentPosition + 1) % cepstraBufferSize;
+    	float[] current = cepstraBuffer[currentPosition];
+        float[] mfc3f = cepstraBuffer[jf3];
+        float[] mfc2f = cepstraBuffer[jf2];
+        float[] mfc1f = cepstraBuffer[jf1];
+        float[] mfc1p = cepstraBuffer[jp1];
+        float[] mfc2p = cepstraBuffer[jp2];
+        float[] mfc3p = cepstraBuffer[jp3];
 
         // CEP; copy all the cepstrum data
-        int j = 0;
-        for (double val : current) {
-            feature[j++] = (float)val;
-        }
-        // System.arraycopy(current, 0, feature, 0, j);
+        int j = offset;
+        System.arraycopy(current, 0, feature, j, current.length);
+        j += current.length;
         // DCEP: mfc[2] - mfc[-2]
         for (int k = 0; k < mfc2f.length; k++) {
-            feature[j++] = (float) (mfc2f[k] - mfc2p[k]);
+            feature[j++] = mfc2f[k] - mfc2p[k];
         }
         // D2CEP: (mfc[3] - mfc[-1]) - (mfc[1] - mfc[-3])
         for (int k = 0; k < mfc3f.length; k++) {
-            feature[j++] = (float) ((mfc3f[k] - mfc1p[k]) - (mfc1f[k] - mfc3p[k]));
+            feature[j++] = (mfc3f[k] - mfc1p[k]) - (mfc1f[k] - mfc3p[k]);
         }
-        return (new FloatData(feature,
-                currentCepstrum.getSampleRate(),
-                currentCepstrum.getFirstSampleNumber()));
     }
 }
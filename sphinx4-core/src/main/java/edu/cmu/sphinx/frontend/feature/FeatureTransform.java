@@ -15,6 +15,7 @@ package edu.cmu.sphinx.frontend.feature;
 
 import edu.cmu.sphinx.frontend.BaseDataProcessor;
 import edu.cmu.sphinx.frontend.Data;
+import edu.cmu.sphinx.frontend.DataBlock;
 import edu.cmu.sphinx.frontend.DataProcessingException;
 import edu.cmu.sphinx.frontend.FloatData;
 import edu.cmu.sphinx.linguist.acoustic.tiedstate.Loader;
@@ -27,6 +28,9 @@ import edu.cmu.sphinx.util.props.S4Component;
  *
  * It might be a dimension reduction or just a decorrelation transform. This
  * component requires a special model trained with LDA/MLLT transform.
+ * <p>
+ * The block path {@link #getData(DataBlock, int)} transforms all frames of a
+ * block into the output block without allocating per frame.
  */
 public class FeatureTransform extends BaseDataProcessor {
 
@@ -42,6 +46,8 @@ public class FeatureTransform extends BaseDataProcessor {
     int rows;
     int values;
 
+    private DataBlock inputBlock;
+
     public FeatureTransform(Loader loader) {
         initLogger();
         init(loader);
@@ -95,25 +101,83 @@ public class FeatureTransform extends BaseDataProcessor {
         FloatData floatData = (FloatData) data;
         float[] features = floatData.values;
 
-        if (features.length > transform[0].length + 1)
-            throw new IllegalArgumentException("dimenstion mismatch");
+        checkDimension(features.length);
 
         float[] result = new float[transform.length];
+        transform(features, 0, features.length, result, 0);
+
+        return new FloatData(result,
+                floatData.sampleRate,
+                floatData.firstSampleNumber);
+    }
+
+    /**
+     * Reads a block from the predecessor and writes the transformed frames
+     * into the given block. Signals are passed on at their original
+     * positions.
+     * 
+     * @param block
+     *            the block to fill
+     * @param maxFrames
+     *            the maximum number of frames to read
+     * @return the number of frames read
+     * @throws DataProcessingException
+     *             if there is a processing error
+     */
+    @Override
+    public int getData(DataBlock block, int maxFrames)
+            throws DataProcessingException {
+        if (null == transform)
+            return getPredecessorData(block, maxFrames);
+
+        if (inputBlock == null)
+            inputBlock = new DataBlock();
+        getPredecessorData(inputBlock, maxFrames);
+        block.clear();
+
+        int dimension = inputBlock.getDimension();
+        if (inputBlock.size() > 0)
+            checkDimension(dimension);
+
+        int signal = 0;
+        int numSignals = inputBlock.getSignals().size();
+        for (int frame = 0; frame < inputBlock.size(); frame++) {
+            while (signal < numSignals
+                    && inputBlock.getSignalPosition(signal) == frame)
+                block.addSignal(inputBlock.getSignals().get(signal++));
+            int offset = block.addFrame(transform.length,
+                    inputBlock.getSampleRate(),
+                    inputBlock.getFirstSampleNumber(frame),
+                    inputBlock.getCollectTime(frame));
+            transform(inputBlock.getValues(), inputBlock.offset(frame),
+                    dimension, block.getValues(), offset);
+        }
+        while (signal < numSignals)
+            block.addSignal(inputBlock.getSignals().get(signal++));
+
+        return block.size();
+    }
 
+    private void checkDimension(int length) {
+        if (length > transform[0].length + 1)
+            throw new IllegalArgumentException("dimenstion mismatch");
+    }
+
+    /**
+     * Multiplies one feature vector with the transform matrix.
+     */
+    private void transform(float[] features, int offset, int length,
+            float[] result, int resultOffset) {
+        boolean bias = length > transform[0].length;
         for (int i = 0; i < transform.length; ++i) {
             float[] ti = transform[i];
-            for (int j = 0; j < features.length; ++j) {
-                result[i] += ti[j] * features[j];
+            float sum = 0;
+            for (int j = 0; j < length; ++j) {
+                sum += ti[j] * features[offset + j];
             }
+            if (bias)
+                sum += ti[length];
+            result[resultOffset + i] = sum;
         }
-
-        if (features.length > transform[0].length) {
-            for (int i = 0; i < transform.length; ++i)
-                result[i] += transform[i][features.length];
-        }
-
-        return new FloatData(result,
-                floatData.sampleRate,
-                floatData.firstSampleNumber);
     }
 }
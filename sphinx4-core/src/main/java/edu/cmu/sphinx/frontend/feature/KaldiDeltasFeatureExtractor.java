@@ -9,10 +9,6 @@
  */
 package edu.cmu.sphinx.frontend.feature;
 
-import edu.cmu.sphinx.frontend.Data;
-import edu.cmu.sphinx.frontend.DoubleData;
-import edu.cmu.sphinx.frontend.FloatData;
-
 public class KaldiDeltasFeatureExtractor extends AbstractFeatureExtractor {
 
     public KaldiDeltasFeatureExtractor( int window ) {
@@ -23,7 +19,12 @@ public class KaldiDeltasFeatureExtractor extends AbstractFeatureExtractor {
     }
     
     @Override
-    protected Data computeNextFeature() {
+    protected int getFeatureDimension(int cepstrumLength) {
+        return cepstrumLength * 3;
+    }
+
+    @Override
+    protected void computeNextFeature(float[] feature, int offset) {
 
     	int jp1 = (currentPosition - 1 + cepstraBufferSize) % cepstraBufferSize;
         int jp2 = (currentPosition - 2 + cepstraBufferSize) % cepstraBufferSize;
@@ -34,34 +35,26 @@ public class KaldiDeltasFeatureExtractor extends AbstractFeatureExtractor {
         int jf3 = (currentPosition + 3) % cepstraBufferSize;
         int jf4 = (currentPosition + 4) % cepstraBufferSize;
         
-    	DoubleData currentCepstrum = cepstraBuffer[currentPosition];
-        double[] mfc4f = cepstraBuffer[jf4].getValues();
-        double[] mfc3f = cepstraBuffer[jf3].getValues();
-        double[] mfc2f = cepstraBuffer[jf2].getValues();
-        double[] mfc1f = cepstraBuffer[jf1].getValues();
-        double[] current = currentCepstrum.getValues();
-        double[] mfc1p = cepstraBuffer[jp1].getValues();
-        double[] mfc2p = cepstraBuffer[jp2].getValues();
-        double[] mfc3p = cepstraBuffer[jp3].getValues();
-        double[] mfc4p = cepstraBuffer[jp4].getValues();
-        float[] feature = new float[current.length * 3];
-
-        currentPosition = (currentPosition + 1) % cepstraBufferSize;
+    	float[] current = cepstraBuffer[currentPosition];
+        float[] mfc4f = cepstraBuffer[jf4];
+        float[] mfc3f = cepstraBuffer[jf3];
+        float[] mfc2f = cepstraBuffer[jf2];
+        float[] mfc1f = cepstraBuffer[jf1];
+        float[] mfc1p = cepstraBuffer[jp1];
+        float[] mfc2p = cepstraBuffer[jp2];
+        float[] mfc3p = cepstraBuffer[jp3];
+        float[] mfc4p = cepstraBuffer[jp4];
 
-        int j = 0;
-        for (double val : current) {
-            feature[j++] = (float)val;
-        }
+        int j = offset;
+        System.arraycopy(current, 0, feature, j, current.length);
+        j += current.length;
         for (int k = 0; k < mfc2f.length; k++) {
-            feature[j++] = (float) (2 * mfc2f[k] + mfc1f[k] - mfc1p[k] - 2 * mfc2p[k]) / 10.0f;
+            feature[j++] = (2 * mfc2f[k] + mfc1f[k] - mfc1p[k] - 2 * mfc2p[k]) / 10.0f;
         }
         
         for (int k = 0; k < mfc3f.length; k++) {
-            feature[j++] = (float) ((4 * mfc4f[k] + 4 * mfc3f[k] + mfc2f[k] - 4 * mfc1f[k]) - 10 * current[k] +
+            feature[j++] = ((4 * mfc4f[k] + 4 * mfc3f[k] + mfc2f[k] - 4 * mfc1f[k]) - 10 * current[k] +
         	    (4 * mfc4p[k] + 4 * mfc3p[k] + mfc2p[k] - 4 * mfc1p[k])) / 100.0f;
         }
-        return (new FloatData(feature,
-                currentCepstrum.getSampleRate(),
-                currentCepstrum.getFirstSampleNumber()));
     }
 }
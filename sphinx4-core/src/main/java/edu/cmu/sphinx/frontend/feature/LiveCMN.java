@@ -20,9 +20,9 @@ import edu.cmu.sphinx.util.props.S4Integer;
 
 import java.text.DecimalFormat;
 import java.text.DecimalFormatSymbols;
-import java.util.LinkedList;
-import java.util.List;
+import java.util.ArrayDeque;
 import java.util.Locale;
+import java.util.logging.Level;
 
 /**
  * Subtracts the mean of all the input so far from the Data objects.
@@ -49,6 +49,11 @@ import java.util.Locale;
  * <pre>
  * cmnWindow/(cmnWindow + number of frames since the last recalculation)
  * </pre>
+ * <p>
+ * Both {@link DoubleData} and {@link FloatData} cepstra are normalized in
+ * place, so a float front end stays float through this stage. The running
+ * sums are always kept in double precision, and the initial window is staged
+ * in an array deque, so the stage does not allocate in steady state.
  * 
  * @see BatchCMN
  */
@@ -78,7 +83,7 @@ public class LiveCMN extends BaseDataProcessor {
     private double[] sum; // array of current sums
     private int numberFrame; // total number of input Cepstrum
 
-    final List<Data> initialList = new LinkedList<>();
+    final ArrayDeque<Data> initialList = new ArrayDeque<>();
 
     public LiveCMN(double initialMean, int cmnWindow, int cmnShiftWindow, int initialCmnWindow) {
         initLogger();
@@ -113,25 +118,22 @@ public class LiveCMN extends BaseDataProcessor {
         int size = -1;
 
         for (Data data : initialList) {
-            if (!(data instanceof DoubleData))
+            int length;
+            if (data instanceof DoubleData)
+                length = ((DoubleData) data).getValues().length;
+            else if (data instanceof FloatData)
+                length = ((FloatData) data).values.length;
+            else
                 continue;
-        
-            double[] cepstrum = ((DoubleData) data).getValues();
 
             // Initialize arrays if needed
             if (size < 0) {
-                size = cepstrum.length;
+                size = length;
                 sum = new double[size];
                 numberFrame = 0;
             }
 
-            // Accumulate cepstrum, avoid counting zero energy in CMN
-            if (cepstrum[0] >= 0) {
-                for (int j = 0; j < size; j++) {
-                    sum[j] += cepstrum[j];
-                }
-                numberFrame++;
-            }
+            accumulate(data);
         }
 
         // If we didn't meet any data, do nothing
@@ -162,15 +164,17 @@ public class LiveCMN extends BaseDataProcessor {
         if (sum == null) {
             while (initialList.size() < initialCmnWindow) {
                 input = getPredecessor().getData();
+                if (input == null)
+                    break;
                 initialList.add(input);
                 if (input instanceof SpeechEndSignal || input instanceof DataEndSignal)
                     break;
             }
             initMeansSums();
-            output = initialList.remove(0);
+            output = initialList.poll();
         } else if (!initialList.isEmpty()) {
             // Return the previously collected data
-            output = initialList.remove(0);
+            output = initialList.poll();
         } else {
             // Process normal frame
             output = getPredecessor().getData();
@@ -189,43 +193,78 @@ public class LiveCMN extends BaseDataProcessor {
      */
     private void normalize(Data data) {
 
-        if (!(data instanceof DoubleData))
-            return;
-
-        double[] cepstrum = ((DoubleData) data).getValues();
+        if (data instanceof DoubleData) {
+            double[] cepstrum = ((DoubleData) data).getValues();
+            checkLength(cepstrum.length);
+            accumulate(data);
 
-        if (cepstrum.length != sum.length) {
-            throw new Error("Data length (" + cepstrum.length
-                    + ") not equal sum array length (" + sum.length + ')');
-        }
+            // Subtract current mean
+            for (int j = 0; j < cepstrum.length; j++) {
+                cepstrum[j] -= currentMean[j];
+            }
+        } else if (data instanceof FloatData) {
+            float[] cepstrum = ((FloatData) data).values;
+            checkLength(cepstrum.length);
+            accumulate(data);
 
-        // Accumulate cepstrum, avoid counting zero energy in CMN
-        if (cepstrum[0] >= 0) {
+            // Subtract current mean
             for (int j = 0; j < cepstrum.length; j++) {
-                sum[j] += cepstrum[j];
+                cepstrum[j] -= currentMean[j];
             }
-            numberFrame++;
-        }
-        
-        // Subtract current mean
-        for (int j = 0; j < cepstrum.length; j++) {
-            cepstrum[j] -= currentMean[j];
+        } else {
+            return;
         }
 
         if (numberFrame > cmnShiftWindow) {
             
-            StringBuilder cmn = new StringBuilder();
-            // calculate the mean first
-            for (double aCurrentMean : currentMean) {
-                cmn.append(formatter.format(aCurrentMean));
-                cmn.append(' ');
+            if (logger.isLoggable(Level.INFO)) {
+                StringBuilder cmn = new StringBuilder();
+                // calculate the mean first
+                for (double aCurrentMean : currentMean) {
+                    cmn.append(formatter.format(aCurrentMean));
+                    cmn.append(' ');
+                }
+                logger.info(cmn.toString());
             }
-            logger.info(cmn.toString());
             
             updateMeanSumBuffers();
         }
     }
 
+    private void checkLength(int length) {
+        if (length != sum.length) {
+            throw new Error("Data length (" + length
+                    + ") not equal sum array length (" + sum.length + ')');
+        }
+    }
+
+    /**
+     * Adds the given cepstrum to the sum array. Frames with negative energy
+     * are not counted, so that silence does not bias the mean.
+     * 
+     * @param data
+     *            a DoubleData or FloatData cepstrum
+     */
+    private void accumulate(Data data) {
+        if (data instanceof DoubleData) {
+            double[] cepstrum = ((DoubleData) data).getValues();
+            if (cepstrum[0] >= 0) {
+                for (int j = 0; j < cepstrum.length; j++) {
+                    sum[j] += cepstrum[j];
+                }
+                numberFrame++;
+            }
+        } else {
+            float[] cepstrum = ((FloatData) data).values;
+            if (cepstrum[0] >= 0) {
+                for (int j = 0; j < cepstrum.length; j++) {
+                    sum[j] += cepstrum[j];
+                }
+                numberFrame++;
+            }
+        }
+    }
+
     /**
      * Updates the currentMean buffer with the values in the sum buffer. Then
      * decay the sum buffer exponentially, i.e., divide the sum with
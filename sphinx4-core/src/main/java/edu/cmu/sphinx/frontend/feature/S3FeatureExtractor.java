@@ -11,8 +11,6 @@
  */
 package edu.cmu.sphinx.frontend.feature;
 
-import edu.cmu.sphinx.frontend.Data;
-import edu.cmu.sphinx.frontend.DoubleData;
 import edu.cmu.sphinx.frontend.FloatData;
 
 /**
@@ -28,13 +26,19 @@ import edu.cmu.sphinx.frontend.FloatData;
  */
 public class S3FeatureExtractor extends AbstractFeatureExtractor {
 
+    @Override
+    protected int getFeatureDimension(int cepstrumLength) {
+        return cepstrumLength * 3;
+    }
+
     /**
-     * Computes the next feature. Advances the pointers as well.
+     * Computes the next feature.
      *
-     * @return the feature Data computed
+     * @param feature the array to write the feature to
+     * @param offset  the index of the first feature value in the array
      */
     @Override
-    protected Data computeNextFeature() {
+    protected void computeNextFeature(float[] feature, int offset) {
 
     	int jp1 = (currentPosition - 1 + cepstraBufferSize) % cepstraBufferSize;
         int jp2 = (currentPosition - 2 + cepstraBufferSize) % cepstraBufferSize;
@@ -43,41 +47,32 @@ public class S3FeatureExtractor extends AbstractFeatureExtractor {
         int jf2 = (currentPosition + 2) % cepstraBufferSize;
         int jf3 = (currentPosition + 3) % cepstraBufferSize;
 
-    	DoubleData currentCepstrum = cepstraBuffer[currentPosition];
-        double[] mfc3f = cepstraBuffer[jf3].getValues();
-        double[] mfc2f = cepstraBuffer[jf2].getValues();
-        double[] mfc1f = cepstraBuffer[jf1].getValues();
-        double[] current = currentCepstrum.getValues();
-        double[] mfc1p = cepstraBuffer[jp1].getValues();
-        double[] mfc2p = cepstraBuffer[jp2].getValues();
-        double[] mfc3p = cepstraBuffer[jp3].getValues();
-        float[] feature = new float[current.length * 3];
-
-        currentPosition = (currentPosition + 1)% cepstraBufferSize;
+    	float[] current = cepstraBuffer[currentPosition];
+        float[] mfc3f = cepstraBuffer[jf3];
+        float[] mfc2f = cepstraBuffer[jf2];
+        float[] mfc1f = cepstraBuffer[jf1];
+        float[] mfc1p = cepstraBuffer[jp1];
+        float[] mfc2p = cepstraBuffer[jp2];
+        float[] mfc3p = cepstraBuffer[jp3];
 
         // CEP; skip C[0]
-        int j = 0;
+        int j = offset;
         for (int k = 1; k < current.length; k++) {
-            feature[j++] = (float) current[k];
+            feature[j++] = current[k];
         }
 
         // DCEP: mfc[2] - mfc[-2], skip DC[0]
         for (int k = 1; k < mfc2f.length; k++) {
-            feature[j++] = (float) (mfc2f[k] - mfc2p[k]);
+            feature[j++] = mfc2f[k] - mfc2p[k];
         }
 
         // POW: C0, DC0
-        feature[j++] = (float) current[0];
-        feature[j++] = (float) (mfc2f[0] - mfc2p[0]);
+        feature[j++] = current[0];
+        feature[j++] = mfc2f[0] - mfc2p[0];
 
         // D2CEP: (mfc[3] - mfc[-1]) - (mfc[1] - mfc[-3])
         for (int k = 0; k < mfc3f.length; k++) {
-            feature[j++] = (float)
-                    ((mfc3f[k] - mfc1p[k]) - (mfc1f[k] - mfc3p[k]));
+            feature[j++] = (mfc3f[k] - mfc1p[k]) - (mfc1f[k] - mfc3p[k]);
         }
-
-        return (new FloatData(feature,
-                currentCepstrum.getSampleRate(),
-                currentCepstrum.getFirstSampleNumber()));
     }
 }
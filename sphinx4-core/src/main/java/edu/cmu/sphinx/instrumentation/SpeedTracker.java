@@ -283,6 +283,7 @@ public class SpeedTracker
         if (status == State.DEALLOCATING) {
             if (showTimers) {
                 TimerPool.dumpAll(logger);
+                logger.info("Metrics:\n" + recognizer.getMetrics().snapshot());
             }
         }
 
@@ -0,0 +1,170 @@
+/*
+ * Copyright 2014 Carnegie Mellon University.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * See the file "license.terms" for information on usage and
+ * redistribution of this file, and for a DISCLAIMER OF ALL
+ * WARRANTIES.
+ *
+ */
+package edu.cmu.sphinx.instrumentation;
+
+import edu.cmu.sphinx.decoder.search.FrameTelemetry;
+import edu.cmu.sphinx.recognizer.Recognizer;
+import edu.cmu.sphinx.recognizer.Recognizer.State;
+import edu.cmu.sphinx.recognizer.StateListener;
+import edu.cmu.sphinx.util.CustomThreadFactory;
+import edu.cmu.sphinx.util.props.*;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Exports the frame records of a search manager as JSON lines. While the
+ * recognizer is allocated, a background thread drains the
+ * {@link FrameTelemetry} buffer periodically and writes one JSON object per
+ * frame to a file, or to the logger if no file is given. To record the frames,
+ * the same buffer is set as the <code>telemetry</code> property of the search
+ * manager.
+ */
+public class TelemetryExporter extends ConfigurableAdapter implements StateListener, Monitor {
+
+    /** The property that defines which recognizer to monitor */
+    @S4Component(type = Recognizer.class)
+    public final static String PROP_RECOGNIZER = "recognizer";
+
+    /** The property that defines the buffer the search manager records the frames in */
+    @S4Component(type = FrameTelemetry.class)
+    public final static String PROP_TELEMETRY = "telemetry";
+
+    /** The property that defines the file to append the records to, the logger is used if not set */
+    @S4String(mandatory = false)
+    public final static String PROP_FILE = "file";
+
+    /** The property that defines the interval between two exports in milliseconds */
+    @S4Integer(defaultValue = 100)
+    public final static String PROP_PERIOD = "period";
+
+    private Recognizer recognizer;
+    private FrameTelemetry telemetry;
+    private String file;
+    private int period;
+
+    private ScheduledExecutorService executor;
+    private Writer writer;
+    private long dropped;
+
+    public TelemetryExporter(Recognizer recognizer, FrameTelemetry telemetry, String file, int period) {
+        initLogger();
+        initRecognizer(recognizer);
+        this.telemetry = telemetry;
+        this.file = file;
+        this.period = period;
+    }
+
+    public TelemetryExporter() {
+    }
+
+    /*
+    * (non-Javadoc)
+    *
+    * @see edu.cmu.sphinx.util.props.Configurable#newProperties(edu.cmu.sphinx.util.props.PropertySheet)
+    */
+    @Override
+    public void newProperties(PropertySheet ps) throws PropertyException {
+        super.newProperties(ps);
+        initRecognizer((Recognizer) ps.getComponent(PROP_RECOGNIZER));
+        telemetry = (FrameTelemetry) ps.getComponent(PROP_TELEMETRY);
+        file = ps.getString(PROP_FILE);
+        period = ps.getInt(PROP_PERIOD);
+    }
+
+    private void initRecognizer(Recognizer newRecognizer) {
+        if (recognizer == null) {
+            recognizer = newRecognizer;
+            recognizer.addStateListener(this);
+        } else if (recognizer != newRecognizer) {
+            recognizer.removeStateListener(this);
+            recognizer = newRecognizer;
+            recognizer.addStateListener(this);
+        }
+    }
+
+    public void statusChanged(Recognizer.State status) {
+        if (status == State.ALLOCATED) {
+            start();
+        } else if (status == State.DEALLOCATING) {
+            stop();
+        }
+    }
+
+    private synchronized void start() {
+        if (executor != null)
+            return;
+        try {
+            writer = file == null ? null
+                    : new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, true),
+                            StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            logger.warning("Can't open " + file + ": " + e.getMessage());
+            return;
+        }
+        executor = Executors.newSingleThreadScheduledExecutor(
+                new CustomThreadFactory(getName(), true, Thread.NORM_PRIORITY));
+        executor.scheduleWithFixedDelay(this::export, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    private synchronized void stop() {
+        if (executor == null)
+            return;
+        executor.shutdown();
+        try {
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        executor = null;
+        export();
+        if (writer != null) {
+            try {
+                writer.close();
+            } catch (IOException e) {
+                logger.warning("Can't close " + file + ": " + e.getMessage());
+            }
+            writer = null;
+        }
+    }
+
+    /** Drains the buffer, runs on the export thread only, or after it stopped */
+    private void export() {
+        String stream = telemetry.getName();
+        try {
+            telemetry.drain(frame -> write(frame.toJson(stream)));
+            if (writer != null)
+                writer.flush();
+        } catch (IOException | UncheckedIOException e) {
+            logger.warning("Can't write the frame records: " + e.getMessage());
+        }
+        long newDropped = telemetry.getDropped();
+        if (newDropped > dropped) {
+            logger.warning("Dropped " + (newDropped - dropped) + " frame records of " + stream);
+            dropped = newDropped;
+        }
+    }
+
+    private void write(String line) {
+        if (writer == null) {
+            logger.info(line);
+            return;
+        }
+        try {
+            writer.write(line);
+            writer.write('\n');
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
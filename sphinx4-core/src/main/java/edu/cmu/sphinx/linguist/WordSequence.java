@@ -37,7 +37,7 @@ public final class WordSequence implements Comparable<WordSequence> {
             (o1, o2) -> o1.getOldest().compareTo(o2.getOldest());
 
     /** an empty word sequence, that is, it has no words. */
-    public final static WordSequence EMPTY = new WordSequence(0);
+    public final static WordSequence EMPTY = new WordSequence();
 
     public static WordSequence asWordSequence(final Dictionary dictionary,
             String... words) {
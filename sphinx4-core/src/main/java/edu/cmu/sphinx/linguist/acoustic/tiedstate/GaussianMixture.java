@@ -128,6 +128,27 @@ public class GaussianMixture extends ScoreCachingSenone {
     }
 
 
+    /**
+     * Scores several features with the components in the outer loop, so that
+     * the means and variances of each component are loaded once for all
+     * features.
+     */
+    @Override
+    protected void calculateScores(Data[] features, int count, float[] logTotals) {
+        for (int k = 0; k < count; k++)
+            logTotals[k] = LogMath.LOG_ZERO;
+
+        for (int i = 0; i < mixtureComponents.length; i++) {
+            MixtureComponent component = mixtureComponents[i];
+            float logWeight = mixtureWeights.get(id, 0, i);
+            for (int k = 0; k < count; k++) {
+                logTotals[k] = LogMath.addAsLinear(logTotals[k],
+                        component.getScore(FloatData.toFloatData(features[k]).values) + logWeight);
+            }
+        }
+    }
+
+
     /**
      * Calculates the scores for each component in the senone.
      *
@@ -12,6 +12,12 @@ import java.util.concurrent.ConcurrentHashMap;
  * which is called by the {@link #getScore} method to calculate the score
  * for each cache miss.
  * <p>
+ * Scores for several upcoming features can be put into the cache at once with
+ * {@link #cacheScores}, which lets subclasses load their parameters once for
+ * all of them, see {@link #calculateScores}. The caller provides the buffer
+ * for the scores, so senones shared between threads need no buffers of their
+ * own.
+ * <p>
  * Note: this implementation is thread-safe and can be safely used
  * across different threads without external synchronization.
  *
@@ -60,6 +66,29 @@ public abstract class ScoreCachingSenone implements Senone {
         //return calculateScore(feature);
     }
 
+    /**
+     * Calculates the scores for the given features and caches them, so that
+     * later calls of {@link #getScore} are cache hits. If some of the features
+     * are cached already, the others are scored one by one.
+     *
+     * @param features the features to score, usually a block of upcoming frames
+     * @param count    the number of valid entries in features
+     * @param scores   the buffer for the scores, at least count long
+     */
+    public void cacheScores(Data[] features, int count, float[] scores) {
+        for (int i = 0; i < count; i++) {
+            if (scoreCache.containsKey(features[i])) {
+                for (int j = 0; j < count; j++)
+                    getScore(features[j]);
+                return;
+            }
+        }
+
+        calculateScores(features, count, scores);
+        for (int i = 0; i < count; i++)
+            scoreCache.putIfAbsent(features[i], scores[i]);
+    }
+
     /**
      * Calculates the score for this senone based upon the given feature.
      *
@@ -68,4 +97,17 @@ public abstract class ScoreCachingSenone implements Senone {
      */
     protected abstract float calculateScore(Data feature);
 
+    /**
+     * Calculates the scores for several features. The default implementation
+     * calls {@link #calculateScore} for each of them.
+     *
+     * @param features the feature vectors to score this senone against
+     * @param count    the number of valid entries in features
+     * @param scores   receives the scores for this senone in LogMath log base, one per feature
+     */
+    protected void calculateScores(Data[] features, int count, float[] scores) {
+        for (int i = 0; i < count; i++)
+            scores[i] = calculateScore(features[i]);
+    }
+
 }
@@ -23,6 +23,7 @@ import org.eclipse.collections.impl.list.mutable.FastList;
 
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Logger;
 
 /**
@@ -86,7 +87,7 @@ public class TiedStateAcousticModel implements AcousticModel {
     // ----------------------------
     // internal variables
     // -----------------------------
-    final transient private Map<Unit, SenoneSequence> compositeSenoneSequenceCache = new HashMap<>();
+    final transient private Map<Unit, SenoneSequence> compositeSenoneSequenceCache = new ConcurrentHashMap<>();
     private boolean allocated;
 
     public TiedStateAcousticModel( Loader loader, UnitManager unitManager, boolean useComposites) {
@@ -62,6 +62,14 @@ public class SetBasedGaussianMixture extends GaussianMixture {
         return ascore;
     }
 
+    /**
+     * Does nothing. The top components of the shared set are tracked frame by
+     * frame, so scoring ahead of the current frame would only thrash them.
+     */
+    @Override
+    public void cacheScores(Data[] features, int count, float[] scores) {
+    }
+
     /**
      * Calculates the scores for each component in the senone.
      *
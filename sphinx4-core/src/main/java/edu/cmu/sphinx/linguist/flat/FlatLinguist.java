@@ -28,8 +28,10 @@ import edu.cmu.sphinx.util.StatisticsVariable;
 import edu.cmu.sphinx.util.TimerPool;
 import edu.cmu.sphinx.util.props.*;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.*;
+import java.util.logging.Logger;
 
 /**
  * A simple form of the linguist.
@@ -109,6 +111,23 @@ public class FlatLinguist implements Linguist, Configurable {
     public final static String PROP_SPREAD_WORD_PROBABILITIES_ACROSS_PRONUNCIATIONS =
             "spreadWordProbabilitiesAcrossPronunciations";
 
+    /**
+     * Property that names a directory to keep compiled search graphs in. If it is set, a graph compiled for a
+     * grammar, dictionary and acoustic model is written to this directory and read back instead of being compiled
+     * again the next time the same combination is used.
+     */
+    @S4String(mandatory = false)
+    public final static String PROP_GRAPH_CACHE_DIRECTORY = "graphCacheDirectory";
+
+    /**
+     * Property that enables incremental compilation. If it is set, the expansion of each word node is kept after the
+     * search graph is compiled. When the grammar changes, a word node whose word and left and right contexts did not
+     * change takes over the states of the previous expansion instead of being expanded again, so that only the
+     * changed part of the grammar is expanded. This keeps the bookkeeping of the expansion in memory.
+     */
+    @S4Boolean(defaultValue = false)
+    public final static String PROP_INCREMENTAL_COMPILATION = "incrementalCompilation";
+
     protected final static float logOne = LogMath.LOG_ONE;
 
     // note: some fields are protected to allow to override FlatLinguist.compileGrammar()
@@ -141,6 +160,10 @@ public class FlatLinguist implements Linguist, Configurable {
     private boolean spreadWordProbabilitiesAcrossPronunciations;
     private boolean dumpGStates;
     private float languageWeight;
+    private File graphCacheDirectory;
+    private boolean incrementalCompilation;
+    private Map<List<Object>, List<GState>> expandedGStates;
+    private Logger logger;
 
     // -----------------------------------
     // Data for monitoring performance
@@ -178,7 +201,33 @@ public class FlatLinguist implements Linguist, Configurable {
             double unitInsertionProbability, float languageWeight, boolean dumpGStates, boolean showCompilationProgress,
             boolean spreadWordProbabilitiesAcrossPronunciations, boolean addOutOfGrammarBranch,
             double outOfGrammarBranchProbability, double phoneInsertionProbability, AcousticModel phoneLoopAcousticModel    ) {
+        this(acousticModel, grammar, unitManager, wordInsertionProbability, silenceInsertionProbability,
+                fillerInsertionProbability, unitInsertionProbability, languageWeight, dumpGStates,
+                showCompilationProgress, spreadWordProbabilitiesAcrossPronunciations, addOutOfGrammarBranch,
+                outOfGrammarBranchProbability, phoneInsertionProbability, phoneLoopAcousticModel, null);
+    }
+
+    public FlatLinguist(AcousticModel acousticModel, Grammar grammar, UnitManager unitManager,
+            double wordInsertionProbability, double silenceInsertionProbability, double fillerInsertionProbability,
+            double unitInsertionProbability, float languageWeight, boolean dumpGStates, boolean showCompilationProgress,
+            boolean spreadWordProbabilitiesAcrossPronunciations, boolean addOutOfGrammarBranch,
+            double outOfGrammarBranchProbability, double phoneInsertionProbability, AcousticModel phoneLoopAcousticModel,
+            File graphCacheDirectory) {
+        this(acousticModel, grammar, unitManager, wordInsertionProbability, silenceInsertionProbability,
+                fillerInsertionProbability, unitInsertionProbability, languageWeight, dumpGStates,
+                showCompilationProgress, spreadWordProbabilitiesAcrossPronunciations, addOutOfGrammarBranch,
+                outOfGrammarBranchProbability, phoneInsertionProbability, phoneLoopAcousticModel,
+                graphCacheDirectory, false);
+    }
+
+    public FlatLinguist(AcousticModel acousticModel, Grammar grammar, UnitManager unitManager,
+            double wordInsertionProbability, double silenceInsertionProbability, double fillerInsertionProbability,
+            double unitInsertionProbability, float languageWeight, boolean dumpGStates, boolean showCompilationProgress,
+            boolean spreadWordProbabilitiesAcrossPronunciations, boolean addOutOfGrammarBranch,
+            double outOfGrammarBranchProbability, double phoneInsertionProbability, AcousticModel phoneLoopAcousticModel,
+            File graphCacheDirectory, boolean incrementalCompilation) {
 
+        this.logger = Logger.getLogger(getClass().getName());
         this.acousticModel = acousticModel;
         this.grammar = grammar;
         this.unitManager = unitManager;
@@ -201,6 +250,8 @@ public class FlatLinguist implements Linguist, Configurable {
             this.phoneLoopAcousticModel = phoneLoopAcousticModel;
         }
 
+        this.graphCacheDirectory = graphCacheDirectory;
+        this.incrementalCompilation = incrementalCompilation;
         this.name = null;
     }
 
@@ -214,6 +265,7 @@ public class FlatLinguist implements Linguist, Configurable {
     * @see edu.cmu.sphinx.util.props.Configurable#newProperties(edu.cmu.sphinx.util.props.PropertySheet)
     */
     public void newProperties(PropertySheet ps) throws PropertyException {
+        logger = ps.getLogger();
 
         acousticModel = (AcousticModel) ps.getComponent(PROP_ACOUSTIC_MODEL);
         grammar = (Grammar) ps.getComponent(PROP_GRAMMAR);
@@ -237,6 +289,10 @@ public class FlatLinguist implements Linguist, Configurable {
             phoneLoopAcousticModel = (AcousticModel)ps.getComponent(PROP_PHONE_LOOP_ACOUSTIC_MODEL);
         }
 
+        String cacheDirectory = ps.getString(PROP_GRAPH_CACHE_DIRECTORY);
+        graphCacheDirectory = cacheDirectory == null ? null : new File(cacheDirectory);
+        incrementalCompilation = ps.getBoolean(PROP_INCREMENTAL_COMPILATION);
+
         name = ps.getInstanceName();
     }
 
@@ -289,6 +345,7 @@ public class FlatLinguist implements Linguist, Configurable {
             acousticModel.deallocate();
         }
         grammar.deallocate();
+        expandedGStates = null;
     }
 
 
@@ -319,11 +376,9 @@ public class FlatLinguist implements Linguist, Configurable {
     }
 
     /**
-     * Compiles the grammar into a sentence HMM. A GrammarJob is created for the
-     * initial grammar node and added to the GrammarJob queue. While there are
-     * jobs left on the grammar job queue, a job is removed from the queue and
-     * the associated grammar node is expanded and attached to the tails.
-     * GrammarJobs for the successors are added to the grammar job queue.
+     * Compiles the grammar into a sentence HMM. If a graph cache directory is configured and holds a graph for the
+     * current grammar, dictionary and acoustic model, that graph is read back instead, otherwise the graph is
+     * expanded with {@link #expandGrammar()} and stored in the cache.
      * @return collection of states
      */
     protected Collection<SentenceHMMState> compileGrammar() {
@@ -332,9 +387,75 @@ public class FlatLinguist implements Linguist, Configurable {
         nodeStateMap = new HashMap<>();
         arcPool = new Cache<>();
 
-        List<GState> gstateList = new ArrayList<>();
         TimerPool.getTimer(this, "Compile").start();
 
+        SearchGraphCache graphCache = null;
+        String graphKey = null;
+        SentenceHMMState initialState = null;
+        if (graphCacheDirectory != null) {
+            graphCache = new SearchGraphCache(graphCacheDirectory, grammar, unitManager, acousticModel);
+            TimerPool.getTimer(this, "Load Graph").start();
+            try {
+                graphKey = graphCache.computeKey(logWordInsertionProbability, logSilenceInsertionProbability,
+                        logFillerInsertionProbability, logUnitInsertionProbability, languageWeight,
+                        spreadWordProbabilitiesAcrossPronunciations);
+                initialState = graphCache.read(graphKey);
+            } catch (IOException | RuntimeException e) {
+                // a truncated or otherwise corrupt file fails anywhere in the parse, drop it and compile
+                logger.warning("Can't read cached search graph: " + e);
+                if (graphKey != null && !graphCache.delete(graphKey))
+                    logger.warning("Can't delete cached search graph " + graphKey);
+            }
+            TimerPool.getTimer(this, "Load Graph").stop();
+        }
+
+        if (initialState == null) {
+            initialState = expandGrammar();
+            if (graphKey != null) {
+                try {
+                    if (!graphCache.write(graphKey, initialState))
+                        logger.warning("Search graph contains states that can't be cached");
+                } catch (IOException e) {
+                    logger.warning("Can't cache search graph: " + e.getMessage());
+                }
+            }
+        } else {
+            logger.info("Loaded search graph " + graphKey + " from " + graphCacheDirectory);
+        }
+
+        // add an out-of-grammar branch if configured to do so
+        if (addOutOfGrammarBranch) {
+            CIPhoneLoop phoneLoop = new CIPhoneLoop(phoneLoopAcousticModel, logPhoneInsertionProbability);
+            SentenceHMMState firstBranchState = (SentenceHMMState)
+                    phoneLoop.getSearchGraph().getInitialState();
+            initialState.connect(getArc(firstBranchState, logOne, logOutOfGrammarBranchProbability));
+        }
+
+        searchGraph = new FlatSearchGraph(initialState);
+        TimerPool.getTimer(this, "Compile").stop();
+        // Now that we are all done, dump out some interesting
+        // information about the process
+        if (dumpGStates && !nodeStateMap.isEmpty()) {
+            for (GrammarNode grammarNode : grammar.getGrammarNodes()) {
+                GState gstate = getGState(grammarNode);
+                gstate.dumpInfo();
+            }
+        }
+        nodeStateMap = null;
+        arcPool = null;
+        return SentenceHMMState.collectStates(initialState);
+    }
+
+
+    /**
+     * Expands the grammar into a sentence HMM. A GState is created for every
+     * grammar node; the gstates collect their contexts, are expanded into
+     * states and are finally connected to each other.
+     * @return the initial state of the sentence HMM
+     */
+    protected SentenceHMMState expandGrammar() {
+        List<GState> gstateList = new ArrayList<>();
+
         // get the nodes from the grammar and create states
         // for them. Add the non-empty gstates to the gstate list.
         TimerPool.getTimer(this, "Create States").start();
@@ -355,11 +476,30 @@ public class FlatLinguist implements Linguist, Configurable {
         TimerPool.getTimer(this, "Collect Contexts").stop();
 
         // now all gstates know all about their contexts, we can
-        // expand them fully
+        // expand them fully. With incremental compilation, word
+        // gstates take over an unchanged expansion of the last
+        // compilation if there is one.
         TimerPool.getTimer(this, "Expand States").start();
-        for (GState gstate : gstateList)
-            gstate.expand();
+        Map<List<Object>, List<GState>> previousGStates = expandedGStates;
+        expandedGStates = incrementalCompilation ? new HashMap<>() : null;
+        int reused = 0;
+        for (GState gstate : gstateList) {
+            if (expandedGStates != null && gstate.isWordState()) {
+                if (previousGStates != null && gstate.reuseExpansion(previousGStates)) {
+                    reused++;
+                } else {
+                    gstate.expand();
+                    gstate.saveBoundaryArcs();
+                }
+                expandedGStates.computeIfAbsent(gstate.getExpansionKey(), k -> new ArrayList<>()).add(gstate);
+            } else {
+                gstate.expand();
+            }
+        }
         TimerPool.getTimer(this, "Expand States").stop();
+        if (expandedGStates != null) {
+            logger.fine("Reused " + reused + " of " + gstateList.size() + " grammar states");
+        }
 
         // now that all states are expanded fully, we can connect all
         // the states up
@@ -368,29 +508,7 @@ public class FlatLinguist implements Linguist, Configurable {
             gstate.connect();
         TimerPool.getTimer(this, "Connect Nodes").stop();
 
-        SentenceHMMState initialState = findStartingState();
-
-        // add an out-of-grammar branch if configured to do so
-        if (addOutOfGrammarBranch) {
-            CIPhoneLoop phoneLoop = new CIPhoneLoop(phoneLoopAcousticModel, logPhoneInsertionProbability);
-            SentenceHMMState firstBranchState = (SentenceHMMState)
-                    phoneLoop.getSearchGraph().getInitialState();
-            initialState.connect(getArc(firstBranchState, logOne, logOutOfGrammarBranchProbability));
-        }
-
-        searchGraph = new FlatSearchGraph(initialState);
-        TimerPool.getTimer(this, "Compile").stop();
-        // Now that we are all done, dump out some interesting
-        // information about the process
-        if (dumpGStates) {
-            for (GrammarNode grammarNode : grammar.getGrammarNodes()) {
-                GState gstate = getGState(grammarNode);
-                gstate.dumpInfo();
-            }
-        }
-        nodeStateMap = null;
-        arcPool = null;
-        return SentenceHMMState.collectStates(initialState);
+        return findStartingState();
     }
 
 
@@ -541,6 +659,7 @@ public class FlatLinguist implements Linguist, Configurable {
         private final Set<UnitContext> rightContexts = new HashSet<>();
         private final Set<UnitContext> leftContexts = new HashSet<>();
         private Set<UnitContext> startingContexts;
+        private Map<SentenceHMMState, SentenceHMMStateArc[]> boundaryArcs;
 
         private int exitConnections;
 //        private GrammarArc[] successors = null;
@@ -731,6 +850,91 @@ public class FlatLinguist implements Linguist, Configurable {
         }
 
 
+        /**
+         * Determines if this gstate expands a word. Only these gstates are reused by incremental compilation.
+         *
+         * @return <code>true</code> if the node has a word and is not final
+         */
+        boolean isWordState() {
+            return !node.isEmpty() && !node.isFinalNode();
+        }
+
+
+        /**
+         * Returns the key that identifies the expansion of this gstate. Two word gstates with the same key expand into
+         * the same states.
+         *
+         * @return the word and the left and right contexts
+         */
+        List<Object> getExpansionKey() {
+            return Arrays.asList(node.getWord(), leftContexts, rightContexts);
+        }
+
+
+        /**
+         * Remembers the successors of the entry and exit points, so that a later compilation can remove the arcs that
+         * connect them to other gstates.
+         */
+        void saveBoundaryArcs() {
+            boundaryArcs = new HashMap<>();
+            for (List<SearchState> states : entryPoints.values())
+                for (SearchState state : states)
+                    saveArcs((SentenceHMMState) state);
+            for (List<SearchState> states : exitPoints.values())
+                for (SearchState state : states)
+                    saveArcs((SentenceHMMState) state);
+        }
+
+
+        private void saveArcs(SentenceHMMState state) {
+            SearchStateArc[] arcs = state.getSuccessors();
+            boundaryArcs.put(state, Arrays.copyOf(arcs, arcs.length, SentenceHMMStateArc[].class));
+        }
+
+
+        /**
+         * Takes over the states of a gstate of the previous compilation with the same expansion key. The entry and exit
+         * points get back the successors they had before they were connected to other gstates.
+         *
+         * @param previousGStates the word gstates of the previous compilation, by expansion key. A gstate that is
+         *                        taken over is removed.
+         * @return <code>true</code> if a gstate was taken over
+         */
+        boolean reuseExpansion(Map<List<Object>, List<GState>> previousGStates) {
+            List<GState> candidates = previousGStates.get(getExpansionKey());
+            if (candidates == null || candidates.isEmpty()) {
+                return false;
+            }
+            GState previous = candidates.remove(candidates.size() - 1);
+            entryPoints.putAll(previous.entryPoints);
+            exitPoints.putAll(previous.exitPoints);
+            boundaryArcs = previous.boundaryArcs;
+            for (Map.Entry<SentenceHMMState, SentenceHMMStateArc[]> entry : boundaryArcs.entrySet()) {
+                entry.getKey().setSuccessors(entry.getValue());
+            }
+
+            // the pronunciation states are named after the grammar node, whose id may have changed. The names of
+            // the states below them are derived from their names.
+            for (List<SearchState> states : entryPoints.values()) {
+                for (SearchState state : states) {
+                    SentenceHMMState pronunciationState = (SentenceHMMState) state;
+                    String name = pronunciationState.getRawName();
+                    String previousSuffix = "-G" + previous.node.getID() + pronunciationState.getWhich();
+                    if (name.endsWith(previousSuffix)) {
+                        name = name.substring(0, name.length() - previousSuffix.length())
+                                + "-G" + node.getID() + pronunciationState.getWhich();
+                    }
+                    pronunciationState.restore(name, pronunciationState.getFields());
+                }
+            }
+            for (SentenceHMMState state : previous.existingStates.values()) {
+                state.restore(state.getRawName(), state.getFields());
+                existingStates.put(state.getSignature(), state);
+            }
+            return true;
+        }
+
+
         /**
          * Collects the right contexts for this node and pushes this nodes ending context into the next next set of
          * nodes.
@@ -1530,7 +1734,7 @@ class UnitContext {
      */
     @Override
     public String toString() {
-        return context.toString();
+        return Arrays.toString(context);
     }
 }
 
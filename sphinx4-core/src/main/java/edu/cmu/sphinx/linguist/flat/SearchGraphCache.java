@@ -0,0 +1,500 @@
+/*
+ * Copyright 2014 Carnegie Mellon University.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * See the file "license.terms" for information on usage and
+ * redistribution of this file, and for a DISCLAIMER OF ALL
+ * WARRANTIES.
+ *
+ */
+
+package edu.cmu.sphinx.linguist.flat;
+
+import edu.cmu.sphinx.linguist.SearchStateArc;
+import edu.cmu.sphinx.linguist.acoustic.*;
+import edu.cmu.sphinx.linguist.dictionary.Pronunciation;
+import edu.cmu.sphinx.linguist.dictionary.Word;
+import edu.cmu.sphinx.linguist.language.grammar.Grammar;
+import edu.cmu.sphinx.linguist.language.grammar.GrammarArc;
+import edu.cmu.sphinx.linguist.language.grammar.GrammarNode;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+/**
+ * Stores the search graph compiled by the {@link FlatLinguist} in a compact binary file, so that the next
+ * recognizer using the same grammar, dictionary and acoustic model can read it back instead of compiling it again.
+ * <p>
+ * The file holds a table of strings, the states in an order where every state follows its parent, the distinct
+ * arcs and, for every state, the indices of its successor arcs in their original order. Words, pronunciations,
+ * units and HMM states are stored by name and looked up again in the grammar, unit manager and acoustic model when
+ * the graph is read, so the file does not depend on the layout of the model files. The file is memory mapped for
+ * reading.
+ * <p>
+ * The file name is derived from a SHA-1 key over everything the compilation depends on: the grammar nodes with
+ * their words, pronunciations and transitions, the topology and transition probabilities of every HMM of the
+ * acoustic model and the settings of the linguist. A change to any of them selects a different file.
+ */
+class SearchGraphCache {
+
+    private final static int MAGIC = 0x53344647; // "S4FG"
+    private final static int VERSION = 1;
+    private final static String SUFFIX = ".graph";
+
+    private final static byte GRAMMAR_STATE = 1;
+    private final static byte BRANCH_STATE = 2;
+    private final static byte PRONUNCIATION_STATE = 3;
+    private final static byte UNIT_STATE = 4;
+    private final static byte HMM_STATE = 5;
+    private final static byte NON_EMITTING_HMM_STATE = 6;
+
+    private final File directory;
+    private final Grammar grammar;
+    private final UnitManager unitManager;
+    private final AcousticModel acousticModel;
+
+
+    /**
+     * Creates a cache of search graphs in the given directory
+     *
+     * @param directory     the directory of the cache files
+     * @param grammar       the grammar the graphs are compiled from
+     * @param unitManager   the unit manager used to recreate units
+     * @param acousticModel the acoustic model used to look up HMMs
+     */
+    SearchGraphCache(File directory, Grammar grammar, UnitManager unitManager, AcousticModel acousticModel) {
+        this.directory = directory;
+        this.grammar = grammar;
+        this.unitManager = unitManager;
+        this.acousticModel = acousticModel;
+    }
+
+
+    /**
+     * Computes the key of the graph compiled from the current grammar and acoustic model with the given linguist
+     * settings.
+     *
+     * @param settings the linguist settings that affect the graph
+     * @return the key as hex string
+     * @throws IOException if the key can not be computed
+     */
+    String computeKey(Object... settings) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new DigestOutputStream(new NullOutputStream(), digest)))) {
+            out.writeInt(VERSION);
+            for (Object setting : settings)
+                out.writeUTF(String.valueOf(setting));
+
+            List<GrammarNode> nodes = new ArrayList<>(grammar.getGrammarNodes());
+            nodes.sort(Comparator.comparingInt(GrammarNode::getID));
+            out.writeInt(grammar.getInitialNode().getID());
+            for (GrammarNode node : nodes) {
+                out.writeInt(node.getID());
+                out.writeBoolean(node.isFinalNode());
+                out.writeInt(node.getNumAlternatives());
+                for (Word[] alternative : node.getAlternatives()) {
+                    out.writeInt(alternative.length);
+                    for (Word word : alternative) {
+                        out.writeUTF(word.spelling);
+                        out.writeInt(word.pronunciations.length);
+                        for (Pronunciation pronunciation : word.pronunciations) {
+                            out.writeInt(pronunciation.units.length);
+                            for (Unit unit : pronunciation.units) {
+                                out.writeUTF(unit.name);
+                                out.writeBoolean(unit.filler);
+                            }
+                        }
+                    }
+                }
+                out.writeInt(node.getSuccessors().length);
+                for (GrammarArc arc : node.getSuccessors()) {
+                    out.writeInt(arc.getGrammarNode().getID());
+                    out.writeFloat(arc.getProbability());
+                }
+            }
+
+            out.writeInt(acousticModel.getLeftContextSize());
+            out.writeInt(acousticModel.getRightContextSize());
+            for (Iterator<HMM> i = acousticModel.getHMMIterator(); i.hasNext();) {
+                HMM hmm = i.next();
+                out.writeUTF(hmm.getUnit().toString());
+                out.writeUTF(hmm.getPosition().toString());
+                Set<Integer> visited = new HashSet<>();
+                Deque<HMMState> queue = new ArrayDeque<>();
+                queue.add(hmm.getInitialState());
+                while (!queue.isEmpty()) {
+                    HMMState hmmState = queue.poll();
+                    if (!visited.add(hmmState.getState()))
+                        continue;
+                    out.writeInt(hmmState.getState());
+                    out.writeBoolean(hmmState.isEmitting());
+                    for (HMMStateArc arc : hmmState.getSuccessors()) {
+                        out.writeInt(arc.getHMMState().getState());
+                        out.writeFloat(arc.getLogProbability());
+                        queue.add(arc.getHMMState());
+                    }
+                }
+            }
+        }
+        StringBuilder key = new StringBuilder();
+        for (byte b : digest.digest())
+            key.append(String.format("%02x", b));
+        return key.toString();
+    }
+
+
+    /**
+     * Reads the graph with the given key.
+     *
+     * @param key the key of the graph
+     * @return the initial state of the graph, or null if there is no graph with this key
+     * @throws IOException if the graph file can not be read
+     */
+    SentenceHMMState read(String key) throws IOException {
+        File file = new File(directory, key + SUFFIX);
+        if (!file.isFile())
+            return null;
+
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION || !key.equals(readString(buffer)))
+            throw new IOException("Not a search graph for key " + key + ": " + file);
+
+        String[] strings = new String[buffer.getInt()];
+        for (int i = 0; i < strings.length; i++)
+            strings[i] = readString(buffer);
+
+        Map<Integer, GrammarNode> nodes = new HashMap<>();
+        Map<String, Word> words = new HashMap<>();
+        for (GrammarNode node : grammar.getGrammarNodes()) {
+            nodes.put(node.getID(), node);
+            for (Word[] alternative : node.getAlternatives())
+                for (Word word : alternative)
+                    words.put(word.spelling, word);
+        }
+
+        SentenceHMMState[] states = new SentenceHMMState[buffer.getInt()];
+        HMM[] hmms = new HMM[states.length];
+        for (int i = 0; i < states.length; i++) {
+            byte type = buffer.get();
+            String name = strings[buffer.getInt()];
+            int fields = buffer.getInt();
+            SentenceHMMState state;
+            switch (type) {
+                case GRAMMAR_STATE:
+                    state = new GrammarState(nodes.get(buffer.getInt()));
+                    break;
+                case BRANCH_STATE:
+                    state = new BranchState("", "", buffer.getInt());
+                    break;
+                case PRONUNCIATION_STATE: {
+                    Word word = words.get(strings[buffer.getInt()]);
+                    int which = buffer.getInt();
+                    state = new PronunciationState("", word.pronunciations[which], which);
+                    break;
+                }
+                case UNIT_STATE: {
+                    PronunciationState parent = (PronunciationState) states[buffer.getInt()];
+                    int which = buffer.getInt();
+                    Unit unit = readUnit(buffer, strings);
+                    UnitState unitState = new ExtendedUnitState(parent, which, unit);
+                    hmms[i] = acousticModel.lookupNearestHMM(unit, unitState.getPosition(), false);
+                    state = unitState;
+                    break;
+                }
+                case HMM_STATE:
+                case NON_EMITTING_HMM_STATE: {
+                    int parent = buffer.getInt();
+                    HMMState hmmState = hmms[parent].state(buffer.getInt());
+                    state = type == HMM_STATE
+                            ? new HMMStateState(states[parent], hmmState)
+                            : new NonEmittingHMMState(states[parent], hmmState);
+                    break;
+                }
+                default:
+                    throw new IOException("Unknown state type " + type + " in " + file);
+            }
+            state.restore(name, fields);
+            states[i] = state;
+        }
+
+        SentenceHMMStateArc[] arcs = new SentenceHMMStateArc[buffer.getInt()];
+        for (int i = 0; i < arcs.length; i++)
+            arcs[i] = new SentenceHMMStateArc(states[buffer.getInt()], buffer.getFloat(), buffer.getFloat());
+
+        for (SentenceHMMState state : states) {
+            SentenceHMMStateArc[] successors = new SentenceHMMStateArc[buffer.getInt()];
+            for (int i = 0; i < successors.length; i++)
+                successors[i] = arcs[buffer.getInt()];
+            state.setSuccessors(successors);
+        }
+        return states[buffer.getInt()];
+    }
+
+
+    /**
+     * Deletes the graph with the given key, so that a graph that can not be read is compiled and written again.
+     *
+     * @param key the key of the graph
+     * @return true if there is no graph with this key anymore
+     */
+    boolean delete(String key) {
+        File file = new File(directory, key + SUFFIX);
+        return file.delete() || !file.exists();
+    }
+
+
+    /**
+     * Writes the graph reachable from the given initial state under the given key. The file is first written to a
+     * temporary file and then moved into place, so concurrent readers never see a partial graph.
+     *
+     * @param key          the key of the graph
+     * @param initialState the initial state of the graph
+     * @return false if the graph contains states that can not be stored, in which case nothing is written
+     * @throws IOException if the graph file can not be written
+     */
+    boolean write(String key, SentenceHMMState initialState) throws IOException {
+        Map<SentenceHMMState, Integer> stateIndex = new HashMap<>();
+        List<SentenceHMMState> states = new ArrayList<>();
+        for (SentenceHMMState state : SentenceHMMState.collectStates(initialState)) {
+            if (!addState(state, stateIndex, states))
+                return false;
+        }
+
+        Map<String, Integer> stringIndex = new LinkedHashMap<>();
+        Map<SentenceHMMStateArc, Integer> arcIndex = new IdentityHashMap<>();
+        List<SentenceHMMStateArc> arcs = new ArrayList<>();
+        for (SentenceHMMState state : states) {
+            index(stringIndex, state.getRawName());
+            if (state instanceof PronunciationState)
+                index(stringIndex, ((PronunciationState) state).getPronunciation().getWord().spelling);
+            if (state instanceof UnitState)
+                indexUnit(stringIndex, ((UnitState) state).getUnit());
+            for (SearchStateArc arc : state.getSuccessors()) {
+                if (!arcIndex.containsKey(arc)) {
+                    arcIndex.put((SentenceHMMStateArc) arc, arcs.size());
+                    arcs.add((SentenceHMMStateArc) arc);
+                }
+            }
+        }
+
+        if (!directory.isDirectory() && !directory.mkdirs())
+            throw new IOException("Can not create " + directory);
+        File file = new File(directory, key + SUFFIX);
+        File tmpFile = File.createTempFile(key, ".tmp", directory);
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                writeString(out, key);
+
+                out.writeInt(stringIndex.size());
+                for (String string : stringIndex.keySet())
+                    writeString(out, string);
+
+                out.writeInt(states.size());
+                for (SentenceHMMState state : states)
+                    writeState(out, state, stateIndex, stringIndex);
+
+                out.writeInt(arcs.size());
+                for (SentenceHMMStateArc arc : arcs) {
+                    out.writeInt(stateIndex.get(arc.getNextState()));
+                    out.writeFloat(arc.getLanguageProbability());
+                    out.writeFloat(arc.getInsertionProbability());
+                }
+
+                for (SentenceHMMState state : states) {
+                    SearchStateArc[] successors = state.getSuccessors();
+                    out.writeInt(successors.length);
+                    for (SearchStateArc arc : successors)
+                        out.writeInt(arcIndex.get(arc));
+                }
+                out.writeInt(stateIndex.get(initialState));
+            }
+            Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(tmpFile.toPath());
+        }
+        return true;
+    }
+
+
+    /**
+     * Assigns an index to the given state, after its parent.
+     *
+     * @return false if the state can not be stored
+     */
+    private static boolean addState(SentenceHMMState state, Map<SentenceHMMState, Integer> stateIndex,
+                                    List<SentenceHMMState> states) {
+        if (stateIndex.containsKey(state))
+            return true;
+        if (getType(state) == 0)
+            return false;
+        SentenceHMMState parent = state.getParent();
+        if (parent != null && !addState(parent, stateIndex, states))
+            return false;
+        stateIndex.put(state, states.size());
+        states.add(state);
+        return true;
+    }
+
+
+    /** Returns the type tag of the given state, or 0 if states of its class can not be stored. */
+    private static byte getType(SentenceHMMState state) {
+        Class<?> type = state.getClass();
+        if (type == GrammarState.class)
+            return GRAMMAR_STATE;
+        if (type == BranchState.class)
+            return BRANCH_STATE;
+        if (type == PronunciationState.class && state.getParent() == null)
+            return PRONUNCIATION_STATE;
+        if (type == ExtendedUnitState.class && state.getParent() instanceof PronunciationState)
+            return UNIT_STATE;
+        if (type == HMMStateState.class && state.getParent() instanceof ExtendedUnitState)
+            return HMM_STATE;
+        if (type == NonEmittingHMMState.class && state.getParent() instanceof ExtendedUnitState)
+            return NON_EMITTING_HMM_STATE;
+        return 0;
+    }
+
+
+    private static void writeState(DataOutputStream out, SentenceHMMState state,
+                                   Map<SentenceHMMState, Integer> stateIndex, Map<String, Integer> stringIndex)
+            throws IOException {
+        byte type = getType(state);
+        out.writeByte(type);
+        out.writeInt(stringIndex.get(state.getRawName()));
+        out.writeInt(state.getFields());
+        switch (type) {
+            case GRAMMAR_STATE:
+                out.writeInt(((GrammarState) state).getGrammarNode().getID());
+                break;
+            case BRANCH_STATE:
+                out.writeInt(state.getWhich());
+                break;
+            case PRONUNCIATION_STATE:
+                out.writeInt(stringIndex.get(((PronunciationState) state).getPronunciation().getWord().spelling));
+                out.writeInt(state.getWhich());
+                break;
+            case UNIT_STATE:
+                out.writeInt(stateIndex.get(state.getParent()));
+                out.writeInt(state.getWhich());
+                writeUnit(out, ((UnitState) state).getUnit(), stringIndex);
+                break;
+            default:
+                out.writeInt(stateIndex.get(state.getParent()));
+                out.writeInt(((HMMStateState) state).getHMMState().getState());
+        }
+    }
+
+
+    private static void indexUnit(Map<String, Integer> stringIndex, Unit unit) {
+        index(stringIndex, unit.name);
+        if (unit.context instanceof LeftRightContext) {
+            LeftRightContext context = (LeftRightContext) unit.context;
+            for (Unit u : context.left)
+                index(stringIndex, u.name);
+            for (Unit u : context.right)
+                index(stringIndex, u.name);
+        }
+    }
+
+
+    private static void writeUnit(DataOutputStream out, Unit unit, Map<String, Integer> stringIndex)
+            throws IOException {
+        out.writeInt(stringIndex.get(unit.name));
+        out.writeBoolean(unit.filler);
+        if (unit.context instanceof LeftRightContext) {
+            LeftRightContext context = (LeftRightContext) unit.context;
+            writeUnits(out, context.left, stringIndex);
+            writeUnits(out, context.right, stringIndex);
+        } else {
+            out.writeInt(-1);
+        }
+    }
+
+
+    private static void writeUnits(DataOutputStream out, Unit[] units, Map<String, Integer> stringIndex)
+            throws IOException {
+        out.writeInt(units.length);
+        for (Unit unit : units) {
+            out.writeInt(stringIndex.get(unit.name));
+            out.writeBoolean(unit.filler);
+        }
+    }
+
+
+    private Unit readUnit(ByteBuffer buffer, String[] strings) {
+        String name = strings[buffer.getInt()];
+        boolean filler = buffer.get() != 0;
+        Unit[] left = readUnits(buffer, strings);
+        if (left == null)
+            return unitManager.getUnit(name, filler);
+        Unit[] right = readUnits(buffer, strings);
+        return unitManager.unit(name, filler, LeftRightContext.get(left, right));
+    }
+
+
+    private Unit[] readUnits(ByteBuffer buffer, String[] strings) {
+        int length = buffer.getInt();
+        if (length < 0)
+            return null;
+        Unit[] units = new Unit[length];
+        for (int i = 0; i < length; i++) {
+            String name = strings[buffer.getInt()];
+            units[i] = unitManager.getUnit(name, buffer.get() != 0);
+        }
+        return units;
+    }
+
+
+    private static void index(Map<String, Integer> stringIndex, String string) {
+        if (!stringIndex.containsKey(string))
+            stringIndex.put(string, stringIndex.size());
+    }
+
+
+    private static void writeString(DataOutputStream out, String string) throws IOException {
+        byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+
+    private static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+
+    /** Discards everything written to it, for computing digests. */
+    private static class NullOutputStream extends OutputStream {
+
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+    }
+}
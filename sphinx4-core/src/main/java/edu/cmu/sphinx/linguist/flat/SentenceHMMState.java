@@ -295,9 +295,6 @@ public abstract class SentenceHMMState implements Serializable, SearchState {
      * @param arc the path to the next state
      */
     public void connect(SentenceHMMStateArc arc) {
-        if (successorArray != null) {
-            successorArray = null;
-        }
         rawConnect(arc);
     }
 
@@ -654,6 +651,51 @@ public abstract class SentenceHMMState implements Serializable, SearchState {
     }
 
 
+    /**
+     * Returns the name this state was created with, before subclasses decorate it
+     *
+     * @return the raw name
+     */
+    String getRawName() {
+        return name;
+    }
+
+
+    /**
+     * Returns the packed flags and index of this state
+     *
+     * @return the packed fields
+     */
+    int getFields() {
+        return fields;
+    }
+
+
+    /**
+     * Restores the name and the packed flags of a state read back by {@link SearchGraphCache}
+     *
+     * @param name   the raw name, as returned by {@link #getRawName()}
+     * @param fields the packed fields, as returned by {@link #getFields()}
+     */
+    void restore(String name, int fields) {
+        this.name = name;
+        this.fields = fields;
+        cachedName = null;
+        fullName = null;
+    }
+
+
+    /**
+     * Replaces the successors of this state, keeping their order
+     *
+     * @param successors the new successors
+     */
+    void setSuccessors(SentenceHMMStateArc[] successors) {
+        arcs = null;
+        successorArray = successors;
+    }
+
+
     /**
      * Returns the order of this particular state
      *
@@ -472,16 +472,27 @@ public abstract class Grammar implements Configurable, GrammarInterface {
      * nodes that have no words and have only a single exit and bypasses these nodes.
      */
     private void optimizeGrammar() {
-        Set<GrammarNode> nodes = grammarNodes;
-        for (GrammarNode node : nodes)
+        for (GrammarNode node : getNodesInOrder())
             node.optimize();
     }
 
 
+    /**
+     * Returns a copy of the grammar nodes sorted by their ID. Nodes are visited in this order when the grammar is
+     * modified, so that the nodes created by the modification get the same IDs every time the grammar is loaded.
+     *
+     * @return the sorted nodes
+     */
+    private List<GrammarNode> getNodesInOrder() {
+        List<GrammarNode> nodes = new ArrayList<>(grammarNodes);
+        nodes.sort(Comparator.comparingInt(GrammarNode::getID));
+        return nodes;
+    }
+
+
     /** Adds an optional silence word after every non-filler word in the grammar */
     private void addSilenceWords() {
-        HashSet<GrammarNode> nodes = new HashSet<>(grammarNodes);
-        for (GrammarNode g : nodes) {
+        for (GrammarNode g : getNodesInOrder()) {
             if (!g.isEmpty() && !g.getWord().filler) {
                 GrammarNode silNode = createGrammarNode(maxIdentity + 1,
                         dictionary.getSilenceWord().spelling);
@@ -499,15 +510,13 @@ public abstract class Grammar implements Configurable, GrammarInterface {
 
     /** Adds an optional filler word loop after every non-filler word in the grammar */
     private void addFillerWords() {
-        Set<GrammarNode> nodes = new HashSet<>(grammarNodes);
-
         Word[] fillers = getInterWordFillers();
 
         if (fillers.length == 0) {
             return;
         }
 
-        for (GrammarNode wordNode : nodes) {
+        for (GrammarNode wordNode : getNodesInOrder()) {
             if (!wordNode.isEmpty() && !wordNode.getWord().filler) {
                 GrammarNode wordExitNode = wordNode.splitNode(maxIdentity + 1);
                 add(wordExitNode);
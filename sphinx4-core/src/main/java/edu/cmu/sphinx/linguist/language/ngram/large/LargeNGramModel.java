@@ -21,8 +21,11 @@ import edu.cmu.sphinx.linguist.dictionary.Word;
 import edu.cmu.sphinx.linguist.language.ngram.LanguageModel;
 import edu.cmu.sphinx.linguist.util.LRUCache;
 import edu.cmu.sphinx.util.LogMath;
+import edu.cmu.sphinx.util.MetricsRegistry;
 import edu.cmu.sphinx.util.TimerPool;
 import edu.cmu.sphinx.util.props.*;
+import org.eclipse.collections.impl.list.mutable.primitive.FloatArrayList;
+import org.eclipse.collections.impl.list.mutable.primitive.IntArrayList;
 
 import java.io.*;
 import java.net.URL;
@@ -73,10 +76,28 @@ public class LargeNGramModel implements LanguageModel {
     @S4Double(defaultValue = 1.0f)
     public final static String PROP_WORD_INSERTION_PROBABILITY = "wordInsertionProbability";
 
+    /**
+     * The property that defines the registry to count the hits and misses of
+     * the ngram cache in. A model shared by several recognizers counts the
+     * lookups of all of them.
+     */
+    @S4Component(type = MetricsRegistry.class, mandatory = false)
+    public final static String PROP_METRICS = "metrics";
+
     /** If true, use full bigram information to determine smear */
     @S4Boolean(defaultValue = false)
     public final static String PROP_FULL_SMEAR = "fullSmear";
 
+    /**
+     * The property that defines the file holding the smear terms computed by
+     * {@link SmearTable#main(String[])}. If it is not set, the file next to
+     * the language model with the {@value SmearTable#EXTENSION} extension is
+     * used. If the file does not exist, the smear terms are computed when the
+     * model is allocated.
+     */
+    @S4String(mandatory = false)
+    public final static String PROP_SMEAR_FILE = "smearFile";
+
     /**
      * The number of bytes per N-gram in the LM file generated by the
      * CMU-Cambridge Statistical Language Modeling Toolkit.
@@ -84,7 +105,6 @@ public class LargeNGramModel implements LanguageModel {
     public static final int BYTES_PER_NGRAM = 4;
     public static final int BYTES_PER_NMAXGRAM = 2;
 
-    private final static int SMEAR_MAGIC = 0xC0CAC01A; // things go better
     private static final Pattern COMPILE = Pattern.compile("][", Pattern.LITERAL);
 
     // ------------------------------
@@ -99,6 +119,7 @@ public class LargeNGramModel implements LanguageModel {
     protected boolean clearCacheAfterUtterance;
 
     protected boolean fullSmear;
+    protected String smearFile;
 
     protected Dictionary dictionary;
     protected String format;
@@ -112,6 +133,8 @@ public class LargeNGramModel implements LanguageModel {
     // -------------------------------
     private int ngramMisses;
     private int ngramHits;
+    protected MetricsRegistry.Counter cacheHits = new MetricsRegistry().counter(MetricsRegistry.LM_CACHE_HITS);
+    protected MetricsRegistry.Counter cacheMisses = new MetricsRegistry().counter(MetricsRegistry.LM_CACHE_MISSES);
     private int smearTermCount;
     protected String ngramLogFile;
 
@@ -127,14 +150,14 @@ public class LargeNGramModel implements LanguageModel {
     private Map<Word, UnigramProbability> unigramIDMap;
     private Map<WordSequence, NGramBuffer>[] loadedNGramBuffers;
     private LRUCache<WordSequence, Float> ngramProbCache;
-    private Map<Long, Float> bigramSmearMap;
 
     private NGramBuffer[] loadedBigramBuffers;
     private UnigramProbability[] unigrams;
     private int[][] ngramSegmentTable;
     private float[][] ngramProbTable;
     private float[][] ngramBackoffTable;
-    private float[] unigramSmearTerm;
+    private Word[] unigramWords;
+    private SmearTable smearTable;
 
     public LargeNGramModel(String format, URL location, String ngramLogFile,
             int maxNGramCacheSize, boolean clearCacheAfterUtterance,
@@ -181,7 +204,13 @@ public class LargeNGramModel implements LanguageModel {
         languageWeight = ps.getFloat(PROP_LANGUAGE_WEIGHT);
         wip = ps.getDouble(PROP_WORD_INSERTION_PROBABILITY);
         unigramWeight = ps.getFloat(PROP_UNIGRAM_WEIGHT);
+        MetricsRegistry metrics = (MetricsRegistry) ps.getComponent(PROP_METRICS);
+        if (metrics != null) {
+            cacheHits = metrics.counter(MetricsRegistry.LM_CACHE_HITS);
+            cacheMisses = metrics.counter(MetricsRegistry.LM_CACHE_MISSES);
+        }
         fullSmear = ps.getBoolean(PROP_FULL_SMEAR);
+        smearFile = ps.getString(PROP_SMEAR_FILE);
     }
 
     /*
@@ -218,6 +247,7 @@ public class LargeNGramModel implements LanguageModel {
 
         unigramIDMap = new HashMap<>();
         unigrams = loader.getUnigrams();
+        unigramWords = new Word[unigrams.length];
         loadedNGramBuffers = new Map[loader.getMaxDepth()];
         ngramProbTable = new float[loader.getMaxDepth()][];
         ngramBackoffTable = new float[loader.getMaxDepth()][];
@@ -249,21 +279,8 @@ public class LargeNGramModel implements LanguageModel {
             logger.info(Integer.toString(i) + "-grams: "
                     + loader.getNumberNGrams(i));
 
-        if (fullSmear) {
-            System.out.println("Full Smear");
-            try {
-                System.out.println("... Reading ...");
-                readSmearInfo("smear.dat");
-                System.out.println("... Done ");
-            } catch (IOException e) {
-                System.out.println("... " + e);
-                System.out.println("... Calculating");
-                buildSmearInfo();
-                System.out.println("... Writing");
-                // writeSmearInfo("smear.dat");
-                System.out.println("... Done");
-            }
-        }
+        if (fullSmear)
+            smearTable = loadSmearTable();
 
         TimerPool.getTimer(this, "Load LM").stop();
     }
@@ -288,6 +305,7 @@ public class LargeNGramModel implements LanguageModel {
         String[] words = loader.getWords();
         for (int i = 0; i < words.length; i++) {
             Word word = dictionary.word(words[i]);
+            unigramWords[i] = word;
 
             if (word == null) {
                 if (logger.isLoggable(Level.FINE))
@@ -311,6 +329,7 @@ public class LargeNGramModel implements LanguageModel {
         String[] words = loader.getWords();
         for (int i = 0; i < words.length; i++) {
             Word word = new Word(words[i], null, false);
+            unigramWords[i] = word;
 
             unigramIDMap.put(word, unigrams[i]);
         }
@@ -372,9 +391,11 @@ public class LargeNGramModel implements LanguageModel {
 
             if (probability != null) {
                 ngramHits++;
+                cacheHits.increment();
                 return probability;
             }
             ngramMisses++;
+            cacheMisses.increment();
         }
 
         probability = getNGramProbability(wordSequence);
@@ -685,7 +706,7 @@ public class LargeNGramModel implements LanguageModel {
 
             if (length > 0) {
                 int wordID = getWordID(wordSequence.word(length - 1));
-                smearTerm = unigramSmearTerm[wordID];
+                smearTerm = smearTable.getUnigramSmear(wordID);
             }
         }
 
@@ -707,19 +728,15 @@ public class LargeNGramModel implements LanguageModel {
 
             if (length == 1) {
                 int wordID = getWordID(wordSequence.word(0));
-                smearTerm = unigramSmearTerm[wordID];
+                smearTerm = smearTable.getUnigramSmear(wordID);
             } else if (length >= 2) {
                 int size = wordSequence.size();
                 int wordID1 = getWordID(wordSequence.word(size - 2));
                 int wordID2 = getWordID(wordSequence.word(size - 1));
-                Float st = getSmearTerm(wordID1, wordID2);
+                smearTerm = smearTable.getSmear(wordID1, wordID2);
 
-                if (st == null)
-                    smearTerm = unigramSmearTerm[wordID2];
-                else {
-                    smearTerm = st;
+                if (smearTable.hasBigram(wordID1, wordID2))
                     smearBigramHit++;
-                }
             }
 
             if (smearCount % 100000 == 0)
@@ -796,8 +813,12 @@ public class LargeNGramModel implements LanguageModel {
      * @return the bigrams of the word
      */
     private NGramBuffer getBigramBuffer(int firstWordID) {
+        // also covers the sentinel entry at the end of the unigrams
+        if (getNumberBigramFollowers(firstWordID) == 0)
+            return null;
+
         Word[] wd = new Word[1];
-        wd[0] = dictionary.word(loader.getWords()[firstWordID]);
+        wd[0] = unigramWords[firstWordID];
         WordSequence ws = new WordSequence(wd);
 
         return loadNGramBuffer(ws);
@@ -816,24 +837,86 @@ public class LargeNGramModel implements LanguageModel {
      */
     private NGramBuffer loadTrigramBuffer(int firstWordID, int secondWordID) {
         Word[] wd = new Word[2];
-        wd[0] = dictionary.word(loader.getWords()[firstWordID]);
-        wd[1] = dictionary.word(loader.getWords()[secondWordID]);
+        wd[0] = unigramWords[firstWordID];
+        wd[1] = unigramWords[secondWordID];
         WordSequence ws = new WordSequence(wd);
 
         return loadNGramBuffer(ws);
     }
 
-    private void buildSmearInfo() {
+    /**
+     * Loads the smear table saved next to the model, or computes it if there
+     * is none.
+     * 
+     * @return the smear table
+     */
+    private SmearTable loadSmearTable() {
+        File file = null;
+        if (smearFile != null)
+            file = new File(smearFile);
+        else if (location.getProtocol() == null || location.getProtocol().equals("file"))
+            file = new File(location.getPath() + SmearTable.EXTENSION);
+
+        if (file != null && file.exists()) {
+            try {
+                SmearTable table = SmearTable.load(file);
+                if (table.getFingerprint() == getFingerprint() && table.getNumWords() == unigrams.length) {
+                    logger.info("Loaded smear terms from " + file);
+                    return table;
+                }
+                logger.warning("The smear terms in " + file + " were computed from another model or with "
+                        + "another unigram weight");
+            } catch (IOException e) {
+                logger.warning("Can't load smear terms: " + e.getMessage());
+            }
+        }
+
+        logger.info("Computing smear terms, use SmearTable to precompute them");
+        return computeSmearTable();
+    }
+
+    /**
+     * Returns a fingerprint of the model as loaded: a hash of the n-gram
+     * counts, of the words, probabilities, back-off weights and first bigrams
+     * of the unigrams and of the n-gram probability and back-off tables. The
+     * unigram probabilities depend on the unigram weight, the language weight
+     * and the word insertion probability the model was loaded with.
+     * 
+     * @return the fingerprint
+     */
+    public long getFingerprint() {
+        long hash = loader.getMaxDepth();
+        for (int i = 1; i <= loader.getMaxDepth(); i++)
+            hash = 31 * hash + loader.getNumberNGrams(i);
+        for (String word : loader.getWords())
+            hash = 31 * hash + word.hashCode();
+        for (int i = 0; i < unigrams.length; i++) {
+            hash = 31 * hash + Float.floatToIntBits(unigrams[i].getLogProbability());
+            hash = 31 * hash + Float.floatToIntBits(unigrams[i].getLogBackoff());
+            hash = 31 * hash + unigrams[i].getFirstBigramEntry();
+        }
+        for (float[] table : ngramProbTable)
+            hash = 31 * hash + Arrays.hashCode(table);
+        for (float[] table : ngramBackoffTable)
+            hash = 31 * hash + Arrays.hashCode(table);
+        return hash;
+    }
+
+    /**
+     * Computes the smear terms of all the unigrams and bigrams of the model.
+     * The model must be allocated.
+     * 
+     * @return the smear table
+     */
+    public SmearTable computeSmearTable() {
         double S0 = 0;
         double R0 = 0;
 
-        bigramSmearMap = new HashMap<>();
-
         double[] ugNumerator = new double[unigrams.length];
         double[] ugDenominator = new double[unigrams.length];
         double[] ugAvgLogProb = new double[unigrams.length];
 
-        unigramSmearTerm = new float[unigrams.length];
+        float[] unigramSmearTerm = new float[unigrams.length];
 
         for (UnigramProbability unigram : unigrams) {
             float logp = unigram.getLogProbability();
@@ -842,7 +925,8 @@ public class LargeNGramModel implements LanguageModel {
             R0 += p * logp * logp;
         }
 
-        System.out.println("R0 S0 " + R0 + ' ' + S0);
+        if (logger.isLoggable(Level.FINE))
+            logger.fine("R0 S0 " + R0 + ' ' + S0);
 
         for (int i = 0; i < loadedBigramBuffers.length; i++) {
             NGramBuffer bigram = getBigramBuffer(i);
@@ -895,15 +979,20 @@ public class LargeNGramModel implements LanguageModel {
             // System.out.println("ugs " + unigramSmearTerm[i]);
         }
 
+        // the bigram terms of each word, sorted by following word
+        int[] bigramOffsets = new int[unigrams.length + 1];
+        IntArrayList bigramFollowers = new IntArrayList();
+        FloatArrayList bigramSmear = new FloatArrayList();
         for (int i = 0; i < loadedBigramBuffers.length; i++) {
-            System.out.println("Processed " + i + " of "
-                    + loadedBigramBuffers.length);
+            bigramOffsets[i] = bigramFollowers.size();
             NGramBuffer bigram = getBigramBuffer(i);
 
             if (bigram == null)
                 continue;
 
-            for (int j = 0; j < bigram.getNumberNGrams(); j++) {
+            // the last entry of a bigram buffer only marks the end of the
+            // trigrams of the previous one
+            for (int j = 0; j < bigram.getNumberNGrams() - 1; j++) {
                 float smearTerm;
                 NGramProbability bgProb = bigram.getNGramProbability(j);
                 float logbgbackoff = ngramBackoffTable[2][bgProb.getBackoffID()];
@@ -944,11 +1033,14 @@ public class LargeNGramModel implements LanguageModel {
                     smearTermCount++;
                 }
 
-                putSmearTerm(i, k, smearTerm);
+                bigramFollowers.add(k);
+                bigramSmear.add(smearTerm);
             }
         }
+        bigramOffsets[unigrams.length] = bigramFollowers.size();
 
-        System.out.println("Smear count is " + smearTermCount);
+        logger.info("Smear count is " + smearTermCount);
+        return new SmearTable(getFingerprint(), unigramSmearTerm, bigramOffsets, bigramFollowers.toArray(), bigramSmear.toArray());
     }
 
     @SuppressWarnings("unused")
@@ -969,125 +1061,6 @@ public class LargeNGramModel implements LanguageModel {
         System.out.println("  " + ugNumerator[i] + ' ' + ugDenominator[i]);
     }
 
-    /**
-     * Writes the smear info to the given file
-     * 
-     * @param filename
-     *            the file to write the smear info to
-     * @throws IOException
-     *             if an error occurs on write
-     */
-    @SuppressWarnings("unused")
-    private void writeSmearInfo(String filename) throws IOException {
-        DataOutputStream out = new DataOutputStream(new FileOutputStream(
-                filename));
-        out.writeInt(SMEAR_MAGIC);
-        System.out.println("writing " + unigrams.length);
-        out.writeInt(unigrams.length);
-
-        for (int i = 0; i < unigrams.length; i++)
-            out.writeFloat(unigramSmearTerm[i]);
-
-        for (int i = 0; i < unigrams.length; i++) {
-            System.out.println("Writing " + i + " of " + unigrams.length);
-            NGramBuffer bigram = getBigramBuffer(i);
-
-            if (bigram == null) {
-                out.writeInt(0);
-                continue;
-            }
-
-            out.writeInt(bigram.getNumberNGrams());
-
-            for (int j = 0; j < bigram.getNumberNGrams(); j++) {
-                int k = bigram.getWordID(j);
-                Float smearTerm = getSmearTerm(i, k);
-                out.writeInt(k);
-                out.writeFloat(smearTerm.floatValue());
-            }
-        }
-
-        out.close();
-    }
-
-    /**
-     * Reads the smear info from the given file
-     * 
-     * @param filename
-     *            where to read the smear info from
-     * @throws IOException
-     *             if an inconsistent file is found or on any general I/O error
-     */
-    private void readSmearInfo(String filename) throws IOException {
-        DataInputStream in = new DataInputStream(new FileInputStream(filename));
-
-        if (in.readInt() != SMEAR_MAGIC) {
-            in.close();
-            throw new IOException("Bad smear format for " + filename);
-        }
-
-        if (in.readInt() != unigrams.length) {
-            in.close();
-            throw new IOException("Bad unigram length in " + filename);
-        }
-
-        bigramSmearMap = new HashMap<>();
-        unigramSmearTerm = new float[unigrams.length];
-        System.out.println("Reading " + unigrams.length);
-
-        for (int i = 0; i < unigrams.length; i++)
-            unigramSmearTerm[i] = in.readFloat();
-
-        for (int i = 0; i < unigrams.length; i++) {
-            System.out.println("Processed " + i + " of "
-                    + loadedBigramBuffers.length);
-            int numBigrams = in.readInt();
-            NGramBuffer bigram = getBigramBuffer(i);
-
-            if (bigram.getNumberNGrams() != numBigrams) {
-                in.close();
-                throw new IOException("Bad ngrams for unigram " + i + " Found "
-                        + numBigrams + " expected " + bigram.getNumberNGrams());
-            }
-
-            for (int j = 0; j < numBigrams; j++) {
-                int k = bigram.getWordID(j);
-                putSmearTerm(i, k, in.readFloat());
-            }
-        }
-
-        in.close();
-    }
-
-    /**
-     * Puts the smear term for the two words
-     * 
-     * @param word1
-     *            the first word
-     * @param word2
-     *            the second word
-     * @param smearTerm
-     *            the smear term
-     */
-    private void putSmearTerm(int word1, int word2, float smearTerm) {
-        long bigramID = (((long) word1) << 32) | word2;
-        bigramSmearMap.put(bigramID, smearTerm);
-    }
-
-    /**
-     * Retrieves the smear term for the two words
-     * 
-     * @param word1
-     *            the first word
-     * @param word2
-     *            the second word
-     * @return the smear term
-     */
-    private Float getSmearTerm(int word1, int word2) {
-        long bigramID = (((long) word1) << 32) | word2;
-        return bigramSmearMap.get(bigramID);
-    }
-
     /**
      * Retrieves the bigram probability for the two given words
      * 
@@ -16,6 +16,7 @@ package edu.cmu.sphinx.linguist.language.ngram.large;
 
 import edu.cmu.sphinx.linguist.dictionary.Dictionary;
 import edu.cmu.sphinx.linguist.language.ngram.LanguageModel;
+import edu.cmu.sphinx.util.MetricsRegistry;
 import edu.cmu.sphinx.util.props.ConfigurationManagerUtils;
 import edu.cmu.sphinx.util.props.PropertyException;
 import edu.cmu.sphinx.util.props.PropertySheet;
@@ -92,6 +93,11 @@ public class LargeTrigramModel extends LargeNGramModel {
         languageWeight = ps.getFloat(PROP_LANGUAGE_WEIGHT);
         wip = ps.getDouble(PROP_WORD_INSERTION_PROBABILITY);
         unigramWeight = ps.getFloat(PROP_UNIGRAM_WEIGHT);
+        MetricsRegistry metrics = (MetricsRegistry) ps.getComponent(PROP_METRICS);
+        if (metrics != null) {
+            cacheHits = metrics.counter(MetricsRegistry.LM_CACHE_HITS);
+            cacheMisses = metrics.counter(MetricsRegistry.LM_CACHE_MISSES);
+        }
         fullSmear = ps.getBoolean(PROP_FULL_SMEAR);
     }
 }
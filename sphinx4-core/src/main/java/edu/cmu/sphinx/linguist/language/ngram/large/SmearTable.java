@@ -0,0 +1,259 @@
+/*
+ * Copyright 2014 Carnegie Mellon University.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * See the file "license.terms" for information on usage and
+ * redistribution of this file, and for a DISCLAIMER OF ALL
+ * WARRANTIES.
+ *
+ */
+
+package edu.cmu.sphinx.linguist.language.ngram.large;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * The smear terms of a {@link LargeNGramModel}: one term per unigram and one
+ * per bigram. The bigram terms of a word are stored contiguously and sorted by
+ * the ID of the following word, so the whole table lives in four primitive
+ * arrays.
+ * <p>
+ * Computing the terms requires a pass over all the bigrams and trigrams of the
+ * model, which takes minutes for a large model. The table can be computed once
+ * with the {@link #main(String[])} tool and saved next to the model. The saved
+ * table is memory mapped when loaded, so it is neither parsed nor copied to the
+ * heap. It records the {@link LargeNGramModel#getFingerprint() fingerprint} of
+ * the model it was computed from, so a table left over from another model is
+ * not used.
+ */
+public class SmearTable {
+
+    /** The extension of the smear file that is looked up next to a language model */
+    public final static String EXTENSION = ".smear";
+
+    private final static int MAGIC = 0x534D4541;
+    private final static int VERSION = 2;
+    private final static int HEADER_SIZE = 24;
+
+    private final long fingerprint;
+    private final FloatBuffer unigramSmear;
+    private final IntBuffer bigramOffsets;
+    private final IntBuffer bigramFollowers;
+    private final FloatBuffer bigramSmear;
+
+
+    /**
+     * Creates a table from its arrays. The arrays are not copied.
+     *
+     * @param fingerprint     the fingerprint of the model the terms were computed from
+     * @param unigramSmear    the smear term of each word
+     * @param bigramOffsets   for each word, the index of its first bigram, followed by the number of bigrams
+     * @param bigramFollowers the ID of the second word of each bigram
+     * @param bigramSmear     the smear term of each bigram
+     */
+    public SmearTable(long fingerprint, float[] unigramSmear, int[] bigramOffsets, int[] bigramFollowers,
+                      float[] bigramSmear) {
+        this(fingerprint, FloatBuffer.wrap(unigramSmear), IntBuffer.wrap(bigramOffsets),
+                IntBuffer.wrap(bigramFollowers), FloatBuffer.wrap(bigramSmear));
+    }
+
+
+    private SmearTable(long fingerprint, FloatBuffer unigramSmear, IntBuffer bigramOffsets,
+                       IntBuffer bigramFollowers, FloatBuffer bigramSmear) {
+        if (bigramOffsets.limit() != unigramSmear.limit() + 1
+                || bigramFollowers.limit() != bigramSmear.limit()
+                || bigramOffsets.get(unigramSmear.limit()) != bigramSmear.limit())
+            throw new IllegalArgumentException("Inconsistent smear table sizes");
+        this.fingerprint = fingerprint;
+        this.unigramSmear = unigramSmear;
+        this.bigramOffsets = bigramOffsets;
+        this.bigramFollowers = bigramFollowers;
+        this.bigramSmear = bigramSmear;
+    }
+
+
+    /**
+     * @return the fingerprint of the model the terms were computed from
+     */
+    public long getFingerprint() {
+        return fingerprint;
+    }
+
+
+    /**
+     * @return the number of words of the table
+     */
+    public int getNumWords() {
+        return unigramSmear.limit();
+    }
+
+
+    /**
+     * @return the number of bigrams of the table
+     */
+    public int getNumBigrams() {
+        return bigramSmear.limit();
+    }
+
+
+    /**
+     * Returns the smear term of a word
+     *
+     * @param wordID the ID of the word
+     * @return the smear term
+     */
+    public float getUnigramSmear(int wordID) {
+        return unigramSmear.get(wordID);
+    }
+
+
+    /**
+     * Returns the smear term of a word pair, or the smear term of the second
+     * word if the pair is not a bigram
+     *
+     * @param wordID1 the ID of the first word
+     * @param wordID2 the ID of the second word
+     * @return the smear term
+     */
+    public float getSmear(int wordID1, int wordID2) {
+        int index = findBigram(wordID1, wordID2);
+        return index < 0 ? unigramSmear.get(wordID2) : bigramSmear.get(index);
+    }
+
+
+    /**
+     * Determines if a word pair has a smear term of its own
+     *
+     * @param wordID1 the ID of the first word
+     * @param wordID2 the ID of the second word
+     * @return true if the pair is a bigram of the table
+     */
+    public boolean hasBigram(int wordID1, int wordID2) {
+        return findBigram(wordID1, wordID2) >= 0;
+    }
+
+
+    private int findBigram(int wordID1, int wordID2) {
+        int low = bigramOffsets.get(wordID1);
+        int high = bigramOffsets.get(wordID1 + 1) - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int follower = bigramFollowers.get(mid);
+            if (follower < wordID2)
+                low = mid + 1;
+            else if (follower > wordID2)
+                high = mid - 1;
+            else
+                return mid;
+        }
+        return -1;
+    }
+
+
+    /**
+     * Saves the table
+     *
+     * @param file the file to write
+     * @throws IOException if the file can't be written
+     */
+    public void save(File file) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(getNumWords());
+            out.writeInt(getNumBigrams());
+            out.writeLong(fingerprint);
+            for (int i = 0; i < getNumWords(); i++)
+                out.writeFloat(unigramSmear.get(i));
+            for (int i = 0; i <= getNumWords(); i++)
+                out.writeInt(bigramOffsets.get(i));
+            for (int i = 0; i < getNumBigrams(); i++)
+                out.writeInt(bigramFollowers.get(i));
+            for (int i = 0; i < getNumBigrams(); i++)
+                out.writeFloat(bigramSmear.get(i));
+        }
+    }
+
+
+    /**
+     * Loads a table saved with {@link #save(File)} by mapping the file into memory
+     *
+     * @param file the file to load
+     * @return the table
+     * @throws IOException if the file can't be read or is not a smear table
+     */
+    public static SmearTable load(File file) throws IOException {
+        ByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if (buffer.limit() < HEADER_SIZE || buffer.getInt(0) != MAGIC)
+            throw new IOException("Bad smear table format in " + file);
+        if (buffer.getInt(4) != VERSION)
+            throw new IOException("Unsupported smear table version " + buffer.getInt(4) + " in " + file);
+        int numWords = buffer.getInt(8);
+        int numBigrams = buffer.getInt(12);
+        long fingerprint = buffer.getLong(16);
+        if (buffer.limit() != HEADER_SIZE + 4L * (2L * numWords + 1 + 2L * numBigrams))
+            throw new IOException("Bad smear table size in " + file);
+
+        int position = HEADER_SIZE;
+        FloatBuffer unigramSmear = slice(buffer, position, numWords).asFloatBuffer();
+        position += 4 * numWords;
+        IntBuffer bigramOffsets = slice(buffer, position, numWords + 1).asIntBuffer();
+        position += 4 * (numWords + 1);
+        IntBuffer bigramFollowers = slice(buffer, position, numBigrams).asIntBuffer();
+        position += 4 * numBigrams;
+        FloatBuffer bigramSmear = slice(buffer, position, numBigrams).asFloatBuffer();
+        try {
+            return new SmearTable(fingerprint, unigramSmear, bigramOffsets, bigramFollowers, bigramSmear);
+        } catch (IllegalArgumentException e) {
+            throw new IOException(e.getMessage() + " in " + file);
+        }
+    }
+
+
+    private static ByteBuffer slice(ByteBuffer buffer, int position, int numValues) {
+        ByteBuffer slice = buffer.duplicate();
+        slice.position(position);
+        slice.limit(position + 4 * numValues);
+        return slice.slice();
+    }
+
+
+    /**
+     * Computes the smear table of a binary language model and saves it.
+     * <p>
+     * Usage: SmearTable &lt;language model&gt; [&lt;smear file&gt;
+     * [&lt;unigram weight&gt;]]. The smear file defaults to the language model
+     * file with the {@value #EXTENSION} extension added, where
+     * {@link LargeNGramModel} looks for it. The terms depend on the unigram
+     * weight, which must be the one the recognizer loads the model with and
+     * defaults to 1.
+     *
+     * @param args the language model, optionally the smear file and the unigram weight
+     * @throws Exception if the model can't be read or the table can't be written
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1 || args.length > 3) {
+            System.out.println("Usage: SmearTable <language model> [<smear file> [<unigram weight>]]");
+            return;
+        }
+        File lmFile = new File(args[0]);
+        File smearFile = new File(args.length > 1 ? args[1] : args[0] + EXTENSION);
+        float unigramWeight = args.length > 2 ? Float.parseFloat(args[2]) : 1.0f;
+        LargeNGramModel model = new LargeNGramModel(null, lmFile.toURI().toURL(), null, 100000, false, -1, null,
+                false, 1.0f, 1.0, unigramWeight, false);
+        model.allocate();
+        SmearTable table = model.computeSmearTable();
+        table.save(smearFile);
+        model.deallocate();
+        System.out.println("Saved the smear terms of " + table.getNumWords() + " words and "
+                + table.getNumBigrams() + " bigrams to " + smearFile);
+    }
+}
@@ -6,6 +6,7 @@ import edu.cmu.sphinx.linguist.dictionary.Word;
 import edu.cmu.sphinx.linguist.language.ngram.LanguageModel;
 import edu.cmu.sphinx.linguist.util.LRUCache;
 import edu.cmu.sphinx.util.LogMath;
+import edu.cmu.sphinx.util.MetricsRegistry;
 import edu.cmu.sphinx.util.TimerPool;
 import edu.cmu.sphinx.util.props.*;
 import org.eclipse.collections.impl.map.mutable.primitive.ObjectIntHashMap;
@@ -61,6 +62,14 @@ public class NgramTrieModel implements LanguageModel {
     /** Word insertion probability property */
     @S4Double(defaultValue = 1.0f)
     public final static String PROP_WORD_INSERTION_PROBABILITY = "wordInsertionProbability";
+
+    /**
+     * The property that defines the registry to count the hits and misses of
+     * the ngram cache in. A model shared by several recognizers counts the
+     * lookups of all of them.
+     */
+    @S4Component(type = MetricsRegistry.class, mandatory = false)
+    public final static String PROP_METRICS = "metrics";
     private static final Pattern COMPILE = Pattern.compile("][", Pattern.LITERAL);
 
     // ------------------------------
@@ -88,6 +97,8 @@ public class NgramTrieModel implements LanguageModel {
     protected String ngramLogFile;
     private int ngramMisses;
     private int ngramHits;
+    private MetricsRegistry.Counter cacheHits = new MetricsRegistry().counter(MetricsRegistry.LM_CACHE_HITS);
+    private MetricsRegistry.Counter cacheMisses = new MetricsRegistry().counter(MetricsRegistry.LM_CACHE_MISSES);
 
     // -------------------------------
     // subcomponents
@@ -151,6 +162,11 @@ public class NgramTrieModel implements LanguageModel {
         languageWeight = ps.getFloat(PROP_LANGUAGE_WEIGHT);
         logWip = LogMath.linearToLog(ps.getDouble(PROP_WORD_INSERTION_PROBABILITY));
         unigramWeight = ps.getFloat(PROP_UNIGRAM_WEIGHT);
+        MetricsRegistry metrics = (MetricsRegistry) ps.getComponent(PROP_METRICS);
+        if (metrics != null) {
+            cacheHits = metrics.counter(MetricsRegistry.LM_CACHE_HITS);
+            cacheMisses = metrics.counter(MetricsRegistry.LM_CACHE_MISSES);
+        }
     }
 
     /**
@@ -358,9 +374,11 @@ public class NgramTrieModel implements LanguageModel {
 
             if (probability != null) {
                 ngramHits++;
+                cacheHits.increment();
                 return probability;
             }
             ngramMisses++;
+            cacheMisses.increment();
         }
         float probability = applyWeights(getProbabilityRaw(wordSequence));
         if (numberWords == maxDepth)
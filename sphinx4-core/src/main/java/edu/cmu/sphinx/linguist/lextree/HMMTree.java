@@ -21,12 +21,19 @@ import edu.cmu.sphinx.linguist.dictionary.Dictionary;
 import edu.cmu.sphinx.linguist.dictionary.Pronunciation;
 import edu.cmu.sphinx.linguist.dictionary.Word;
 import edu.cmu.sphinx.linguist.language.ngram.LanguageModel;
+import edu.cmu.sphinx.util.CustomThreadFactory;
 import edu.cmu.sphinx.util.LogMath;
 import edu.cmu.sphinx.util.Utilities;
 import org.eclipse.collections.impl.list.mutable.FastList;
+import org.eclipse.collections.impl.map.mutable.primitive.IntObjectHashMap;
 
 import java.util.*;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
 
@@ -41,23 +48,21 @@ import java.util.stream.Collectors;
 // nodes and quickly identify duplicate children nodes. After the tree
 // is built we just need to quickly identify successors.  We want the
 // flexibility of a map to manage successors at startup, but we don't
-// want the space penalty (at least 5 32 bit fields per map), instead
-// we'd like an array.  To support this dual mode, we manage the
-// successors in an Object which can either be a Map or a List
-// depending upon whether the node has been frozen or not.
+// want the space penalty (at least 5 32 bit fields per map), nor an
+// object per node. The nodes below are therefore only used while the
+// tree is built. When the tree is frozen every node becomes a record
+// in the parallel int arrays of the HMMTree, identified by its index,
+// and the node objects are dropped.
 
 class Node {
 
-    private final static AtomicInteger serial = new AtomicInteger(0);
-    private final int hash;
     //private static int nodeCount;
     //private static int successorCount;
     
-    /** 
-     * This can be either Map during tree construction or Array after
-     * tree freeze. Conversion to array helps to save memory.
-     */
-    private Object successors;
+    /** The successors while the tree is built, null after tree freeze. */
+    private Map<Object, Node> successorMap;
+    private int firstSuccessor;
+    private int successorCount;
     private float logUnigramProbability;
 
 
@@ -68,7 +73,6 @@ class Node {
      */
     Node(float probability) {
         logUnigramProbability = probability;
-        this.hash = serial.incrementAndGet();
         //nodeCount++;
 //        if ((nodeCount % 10000) == 0) {
 //             System.out.println("NC " + nodeCount);
@@ -76,11 +80,6 @@ class Node {
     }
 
 
-    @Override
-    public final int hashCode() {
-        return hash;
-    }
-
     @Override
     public final boolean equals(Object obj) {
         throw new UnsupportedOperationException("shouldnt be tested for equality");
@@ -114,8 +113,7 @@ class Node {
      * @return the node containing the successors
      */
     private Node getSuccessor(Object key) {
-        Map<Object, Node> successors = getSuccessorMap(false);
-        return successors!=null ? successors.get(key) : null;
+        return successorMap != null ? successorMap.get(key) : null;
     }
 
 
@@ -131,32 +129,60 @@ class Node {
 
 
     /**
-     * Gets the successor map for this node
+     * Gets the successor map for this node. Only available while the tree is built.
      *
      * @return the successor map
      */
-    @SuppressWarnings({"unchecked"})
     Map<Object, Node> getSuccessorMap(boolean create) {
-        if (successors == null && create) {
-            successors = new HashMap<Object, Node>(1);
+        if (successorMap == null && create) {
+            successorMap = new HashMap<Object, Node>(1);
         }
 
-        return (Map<Object, Node>) successors;
+        return successorMap;
     }
 
 
-    /** Freeze the node. Convert the successor map into an array list */
-    void freeze() {
-        if (successors instanceof Map<?,?>) {
-            Map<Object, Node> map = (Map)successors;
-            Collection<Node> values = map.values();
-            successors = values.toArray(new Node[map.size()]);
-            values.forEach(Node::freeze);
+    /**
+     * Freeze the node and all nodes below it. The successors are appended to the shared successor list and the
+     * successor map is dropped.
+     *
+     * @param successors the successors of all frozen nodes
+     */
+    void freeze(List<Node> successors) {
+        if (successorMap != null) {
+            Collection<Node> values = successorMap.values();
+            successorMap = null;
+            firstSuccessor = successors.size();
+            successorCount = values.size();
+            successors.addAll(values);
+            for (Node node : values) {
+                node.freeze(successors);
+            }
             //successorCount += map.size();
         }
     }
 
 
+    /**
+     * Returns the index of the first successor in the successor list of the frozen tree
+     *
+     * @return the index of the first successor
+     */
+    int getFirstSuccessor() {
+        return firstSuccessor;
+    }
+
+
+    /**
+     * Returns the number of successors of this node once the tree is frozen
+     *
+     * @return the number of successors
+     */
+    int getSuccessorCount() {
+        return successorCount;
+    }
+
+
 //    static void dumpNodeInfo() {
 //        System.out.println("Nodes: " + nodeCount + " successors " +
 //                successorCount + " avg " + (successorCount / nodeCount));
@@ -212,11 +238,6 @@ class Node {
     }
 
 
-    void addSuccessor(WordNode wordNode) {
-        putSuccessor(wordNode, wordNode);
-    }
-
-
     /**
      * Adds an EndNode to the set of successors for this node If a node similar to the child has already been added, we
      * use the previously added node, otherwise we add this.
@@ -260,19 +281,6 @@ class Node {
     }
 
 
-    /**
-     * Returns the successors for this node
-     *
-     * @return the set of successor nodes
-     */
-    Node[] getSuccessors() {
-        if (successors instanceof Map<?, ?>) {
-            freeze();
-        }
-        return (Node[])successors;
-    }
-
-
     /**
      * Returns the string representation for this object
      *
@@ -325,17 +333,6 @@ class WordNode extends Node {
     }
 
 
-    /**
-     * Returns the successors for this node
-     *
-     * @return the set of successor nodes
-     */
-    @Override
-    Node[] getSuccessors() {
-        throw new Error("Not supported");
-    }
-
-
     /**
      * Returns a string representation for this object
      *
@@ -463,8 +460,18 @@ class HMMNode extends UnitNode {
     HMMNode(HMM hmm, float probablilty) {
         super(probablilty);
         this.hmm = hmm;
+        this.type = typeOf(hmm);
+    }
 
-        Unit base = baseUnit();
+
+    /**
+     * Gets the unit type of a node holding the given hmm
+     *
+     * @param hmm the hmm
+     * @return the unit type
+     */
+    static int typeOf(HMM hmm) {
+        Unit base = hmm.getBaseUnit();
 
         int type = SIMPLE_UNIT;
         if (base.silence) {
@@ -474,7 +481,7 @@ class HMMNode extends UnitNode {
         } else if (hmm.getPosition().isWordBeginning()) {
             type = WORD_BEGINNING_UNIT;
         }
-        this.type = type;
+        return type;
     }
 
     @Override
@@ -540,9 +547,15 @@ class HMMNode extends UnitNode {
 
     /** Freeze this node. Convert the set into an array to reduce memory overhead */
     @Override
+    void freeze(List<Node> successors) {
+        super.freeze(successors);
+        freezeRC();
+    }
+
+
+    /** Converts the set of right contexts into an array */
     @SuppressWarnings({"unchecked"})
-    void freeze() {
-        super.freeze();
+    private void freezeRC() {
         if (rcSet instanceof Set) {
             Set<Unit> set = (Set<Unit>) rcSet;
             rcSet = set.toArray(new Unit[set.size()]);
@@ -573,7 +586,7 @@ class HMMNode extends UnitNode {
      */
     Unit[] getRC() {
         if (rcSet instanceof HashSet<?>) {
-            freeze();
+            freezeRC();
         }
         return (Unit[]) rcSet;
     }
@@ -584,7 +597,7 @@ class EndNode extends UnitNode {
 
     private final Unit baseUnit;
     private final Unit leftContext;
-    private final Integer key;
+    private final int key;
 
 
     /**
@@ -634,6 +647,16 @@ class EndNode extends UnitNode {
     }
 
 
+    /**
+     * Returns the key of this node as a primitive
+     *
+     * @return the key identifying the base unit and left context
+     */
+    int intKey() {
+        return key;
+    }
+
+
     @Override
     HMMPosition position() {
         return HMMPosition.END;
@@ -649,25 +672,27 @@ class EndNode extends UnitNode {
     public String toString() {
         return "EndNode base:" + baseUnit + " lc " + leftContext + ' ' + key;
     }
-
-
-    /** Freeze this node. Convert the set into an array to reduce memory overhead */
-    @Override
-    void freeze() {
-        super.freeze();
-    }
 }
 
 
 
 /**
  * Represents the vocabulary as a lex tree with nodes in the tree representing either words (WordNode) or units
- * (HMMNode). HMMNodes may be shared.
+ * (HMMNode). HMMNodes may be shared. Once the tree is built it is frozen into parallel arrays, and a node is the
+ * index of its record in these arrays. The hmm nodes that follow an end node are only added to the records when the
+ * search first reaches the end node.
  */
 class HMMTree {
 
+    /** The kind of a plain node, such as an entry point. The kind of an hmm node is the type of its unit. */
+    final static byte PLAIN_NODE = 0;
+    /** The kind of an end node */
+    final static byte END_NODE = 5;
+    /** The kind of a word node */
+    final static byte WORD_NODE = 6;
+
     private final HMMPool hmmPool;
-    protected InitialWordNode initialNode;
+    protected InitialWordNode initialWordNode;
     protected Dictionary dictionary;
 
     private LanguageModel lm;
@@ -679,10 +704,33 @@ class HMMTree {
     private boolean debug;
     private final float languageWeight;
     
-    private final Map<Object, HMMNode[]> endNodeMap;
     private final Map<Pronunciation, WordNode> wordNodeMap;
-    
-    private WordNode sentenceEndWordNode;
+    private Map<Word, Float> unigramProbabilities;
+    private volatile WordNode sentenceEndWordNode;
+
+    // the records of the frozen tree, indexed by node
+    private int numNodes;
+    private byte[] kinds;
+    private int[] values;               // the hmm, the pronunciation or the units of the node
+    private float[] probabilities;
+    private int[] firstSuccessors;
+    private int[] successorCounts;
+    private int[] successors;
+    private final IntObjectHashMap<Unit[]> rightContexts;
+    private final IntObjectHashMap<int[]> endNodeMap;
+
+    private HMM[] hmms;
+    private int numHMMs;
+    private final Map<HMM, Integer> hmmIDs;
+    private Pronunciation[] pronunciations;
+    private int numPronunciations;
+    private Unit[] unitsByBaseID;
+
+    private int initialNode = -1;
+    private int initialParent = -1;
+    private int sentenceEndNode = -1;
+
+    private final int numThreads;
     private final Logger logger;
 
 
@@ -694,16 +742,20 @@ class HMMTree {
      * @param lm             the source of the set of words to add to the lex tree
      * @param addFillerWords if <code>false</code> add filler words
      * @param languageWeight the languageWeight
+     * @param numThreads     the number of threads that build the tree
      */
     HMMTree(HMMPool pool, Dictionary dictionary, LanguageModel lm,
-            boolean addFillerWords, float languageWeight) {
+            boolean addFillerWords, float languageWeight, int numThreads) {
         this.hmmPool = pool;
         this.dictionary = dictionary;
         this.lm = lm;
-        this.endNodeMap = new HashMap<>();
-        this.wordNodeMap = new HashMap<>();
+        this.rightContexts = new IntObjectHashMap<>();
+        this.endNodeMap = new IntObjectHashMap<>();
+        this.hmmIDs = new HashMap<>();
+        this.wordNodeMap = new ConcurrentHashMap<>();
         this.addFillerWords = addFillerWords;
         this.languageWeight = languageWeight;
+        this.numThreads = Math.max(numThreads, 1);
         
         logger = Logger.getLogger(HMMTree.class.getSimpleName());
         compile();
@@ -711,49 +763,233 @@ class HMMTree {
 
 
     /**
-     * Given a base unit and a left context, return the set of entry points into the lex tree
+     * Given a base unit and a left context, return the node whose successors are the entry points into the lex tree
      *
      * @param lc   the left context
      * @param base the center unit
-     * @return the set of entry points
+     * @return the node holding the entry points
      */
-    Node[] getEntryPoint(Unit lc, Unit base) {
+    int getEntryPoint(Unit lc, Unit base) {
         EntryPoint ep = entryPointTable.getEntryPoint(base);
-        return ep.getEntryPointsFromLeftContext(lc).getSuccessors();
+        return ep.getEntryPointsFromLeftContext(lc);
+    }
+
+
+    /**
+     * Returns the number of successors of a node
+     *
+     * @param node the node
+     * @return the number of successors
+     */
+    int getSuccessorCount(int node) {
+        return successorCounts[node];
     }
 
 
     /**
-     * Gets the  set of hmm nodes associated with the given end node
+     * Returns a successor of a node
+     *
+     * @param node  the node
+     * @param index the index of the successor, less than {@link #getSuccessorCount(int)}
+     * @return the successor
+     */
+    int getSuccessor(int node, int index) {
+        return successors[firstSuccessors[node] + index];
+    }
+
+
+    /**
+     * Returns the kind of a node, either {@link #PLAIN_NODE}, {@link #END_NODE}, {@link #WORD_NODE} or the unit type
+     * of an hmm node
+     *
+     * @param node the node
+     * @return the kind of the node
+     */
+    int getKind(int node) {
+        return kinds[node];
+    }
+
+
+    /**
+     * Tells whether a node is a word node
+     *
+     * @param node the node
+     * @return true if the node represents a word
+     */
+    boolean isWord(int node) {
+        return kinds[node] == WORD_NODE;
+    }
+
+
+    /**
+     * Tells whether a node is an end node
+     *
+     * @param node the node
+     * @return true if the node represents the last unit of words
+     */
+    boolean isEnd(int node) {
+        return kinds[node] == END_NODE;
+    }
+
+
+    /**
+     * Tells whether a node is an hmm node
+     *
+     * @param node the node
+     * @return true if the node holds an hmm
+     */
+    boolean isHMM(int node) {
+        return kinds[node] > PLAIN_NODE && kinds[node] < END_NODE;
+    }
+
+
+    /**
+     * Gets the unit type of an hmm or end node (one of SIMPLE_UNIT, WORD_BEGINNING_UNIT, SILENCE_UNIT or FILLER_UNIT
+     * for hmm nodes, 0 for end nodes)
+     *
+     * @param node the node
+     * @return the unit type
+     */
+    int getUnitType(int node) {
+        return isHMM(node) ? kinds[node] : 0;
+    }
+
+
+    /**
+     * Returns the unigram probability of a node
+     *
+     * @param node the node
+     * @return the unigram probability
+     */
+    float getUnigramProbability(int node) {
+        return probabilities[node];
+    }
+
+
+    /**
+     * Returns the hmm of an hmm node
+     *
+     * @param node the hmm node
+     * @return the hmm
+     */
+    HMM getHMM(int node) {
+        return hmms[values[node]];
+    }
+
+
+    /**
+     * Returns the base unit of an hmm or end node
+     *
+     * @param node the node
+     * @return the base unit
+     */
+    Unit getBaseUnit(int node) {
+        return isEnd(node) ? unitsByBaseID[values[node] >>> 16] : getHMM(node).getBaseUnit();
+    }
+
+
+    /**
+     * Returns the left context of an end node
+     *
+     * @param node the end node
+     * @return the left context
+     */
+    Unit getLeftContext(int node) {
+        return unitsByBaseID[values[node] & 0xffff];
+    }
+
+
+    /**
+     * Returns the right contexts of an hmm node at the end of words
+     *
+     * @param node the hmm node
+     * @return the right contexts, or null if the hmm is not at the end of a word
+     */
+    Unit[] getRC(int node) {
+        return rightContexts.get(node);
+    }
+
+
+    /**
+     * Returns the pronunciation of a word node
+     *
+     * @param node the word node
+     * @return the pronunciation
+     */
+    Pronunciation getPronunciation(int node) {
+        return pronunciations[values[node]];
+    }
+
+
+    /**
+     * Gets the last unit of the word of a word node
+     *
+     * @param node the word node
+     * @return the last unit
+     */
+    Unit getLastUnit(int node) {
+        Unit[] units = getPronunciation(node).units;
+        return units[units.length - 1];
+    }
+
+
+    /**
+     * Tells whether a word node represents the sentence end word
+     *
+     * @param node the word node
+     * @return true if the word ends the sentence
+     */
+    boolean isFinal(int node) {
+        return getPronunciation(node).getWord().isSentenceEndWord();
+    }
+
+
+    /**
+     * Returns the key of an end node, which identifies its base unit and left context
+     *
+     * @param node the end node
+     * @return the key
+     */
+    private int getEndKey(int node) {
+        return getBaseUnit(node).baseID * 121 + getLeftContext(node).baseID;
+    }
+
+
+    /**
+     * Gets the  set of hmm nodes associated with the given end node. The nodes are created when they are first asked
+     * for.
      *
      * @param endNode the end node
      * @return an array of associated hmm nodes
      */
-    HMMNode[] getHMMNodes(EndNode endNode) {
-        HMMNode[] results = endNodeMap.get(endNode.key());
+    synchronized int[] getHMMNodes(int endNode) {
+        int key = getEndKey(endNode);
+        int[] results = endNodeMap.get(key);
         if (results == null) {
             // System.out.println("Filling cache for " + endNode.getKey()
             //        + " size " + endNodeMap.size());
-            Map<HMM, HMMNode> resultMap = new HashMap<>(entryPoints.size());
-            Unit baseUnit = endNode.baseUnit();
-            Unit lc = endNode.getLeftContext();
+            Map<HMM, List<Unit>> resultMap = new LinkedHashMap<>(entryPoints.size());
+            Unit baseUnit = getBaseUnit(endNode);
+            Unit lc = getLeftContext(endNode);
             for (Unit rc : entryPoints) {
                 HMM hmm = hmmPool.getHMM(baseUnit, lc, rc, HMMPosition.END);
-                HMMNode hmmNode = resultMap.get(hmm);
-                if (hmmNode == null) {
-                    hmmNode = new HMMNode(hmm, LogMath.LOG_ONE);
-                    resultMap.put(hmm, hmmNode);
-                }
-                hmmNode.addRC(rc);
-                for (Node node : endNode.getSuccessors()) {
-                    WordNode wordNode = (WordNode)node;
-                    hmmNode.addSuccessor(wordNode);
-                }
+                resultMap.computeIfAbsent(hmm, h -> new ArrayList<>()).add(rc);
+            }
+
+            // the word nodes following the end node follow each of its hmms
+            results = new int[resultMap.size()];
+            int i = 0;
+            for (Map.Entry<HMM, List<Unit>> entry : resultMap.entrySet()) {
+                HMM hmm = entry.getKey();
+                int hmmNode = addNode(HMMNode.typeOf(hmm), getHMMID(hmm), LogMath.LOG_ONE,
+                        firstSuccessors[endNode], successorCounts[endNode]);
+                List<Unit> rcs = entry.getValue();
+                rightContexts.put(hmmNode, rcs.toArray(new Unit[rcs.size()]));
+                results[i++] = hmmNode;
             }
 
             // cache it
-            results = resultMap.values().toArray(new HMMNode[resultMap.size()]);
-            endNodeMap.put(endNode.key(), results);
+            endNodeMap.put(key, results);
         }
 
         // System.out.println("GHN: " + endNode + " " + results.length);
@@ -766,9 +1002,27 @@ class HMMTree {
      *
      * @return the sentence end word node
      */
-    WordNode getSentenceEndWordNode() {
-        assert sentenceEndWordNode != null;
-        return sentenceEndWordNode;
+    int getSentenceEndWordNode() {
+        assert sentenceEndNode >= 0;
+        return sentenceEndNode;
+    }
+
+
+    /**
+     * Describes a node the way the node objects did before the tree was frozen
+     *
+     * @param node the node
+     * @return a string representation of the node
+     */
+    String toString(int node) {
+        if (isWord(node)) {
+            return "WordNode " + getPronunciation(node) + " p " + getUnigramProbability(node);
+        } else if (isEnd(node)) {
+            return "EndNode base:" + getBaseUnit(node) + " lc " + getLeftContext(node) + ' ' + getEndKey(node);
+        } else if (isHMM(node)) {
+            return "HMMNode " + getHMM(node) + " p " + getUnigramProbability(node);
+        }
+        return "Node ";
     }
 
 
@@ -779,20 +1033,64 @@ class HMMTree {
 //    }
 
 
-    /** Compiles the vocabulary into an HMM Tree */
+    /**
+     * Compiles the vocabulary into an HMM Tree. The subtrees below the entry points don't share any nodes, so each
+     * entry point is built by a single task, and the tasks run in parallel if there are several threads. Within an
+     * entry point words are added in the same order as by a sequential build, and the nodes are renumbered in a fixed
+     * order afterwards, so that the result does not depend on the number of threads.
+     */
     private void compile() {
         collectEntryAndExitUnits();
         entryPointTable = new EntryPointTable(entryPoints);
-        addWords();
-        entryPointTable.createEntryPointMaps();
+        computeUnigramProbabilities();
+        ExecutorService executor = numThreads > 1
+                ? Executors.newFixedThreadPool(numThreads,
+                        new CustomThreadFactory(HMMTree.class.getSimpleName(), true, Thread.NORM_PRIORITY))
+                : null;
+        try {
+            addWords(executor);
+            entryPointTable.createEntryPointMaps(executor);
+        } finally {
+            if (executor != null) {
+                executor.shutdown();
+            }
+        }
         freeze();
     }
 
 
+    /**
+     * Runs the given tasks, either on the executor or in the calling thread if there is no executor.
+     *
+     * @param executor the executor, may be null
+     * @param tasks    the tasks to run
+     */
+    private static void runTasks(ExecutorService executor, List<Callable<Void>> tasks) {
+        try {
+            if (executor == null) {
+                for (Callable<Void> task : tasks) {
+                    task.call();
+                }
+            } else {
+                for (Future<Void> future : executor.invokeAll(tasks)) {
+                    future.get();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new Error("Interrupted while building the lex tree", e);
+        } catch (ExecutionException e) {
+            throw new Error("Failed to build the lex tree", e.getCause());
+        } catch (Exception e) {
+            throw new Error("Failed to build the lex tree", e);
+        }
+    }
+
+
     /** Dumps the tree */
     void dumpTree() {
         System.out.println("Dumping Tree ...");
-        Map<Node, Node> dupNode = new HashMap<>();
+        BitSet dupNode = new BitSet(numNodes);
         dumpTree(0, initialNode, dupNode);
         System.out.println("... done Dumping Tree");
     }
@@ -803,16 +1101,14 @@ class HMMTree {
      *
      * @param level   the level of the dump
      * @param node    the root of the tree to dump
-     * @param dupNode map of visited nodes
-     */
-    private static void dumpTree(int level, Node node, Map<Node, Node> dupNode) {
-        if (dupNode.get(node) == null) {
-            dupNode.put(node, node);
-            System.out.println(Utilities.pad(level) + node);
-            if (!(node instanceof WordNode)) {
-                for (Node nextNode : node.getSuccessors()) {
-                    dumpTree(level + 1, nextNode, dupNode);
-                }
+     * @param dupNode the visited nodes
+     */
+    private void dumpTree(int level, int node, BitSet dupNode) {
+        if (!dupNode.get(node)) {
+            dupNode.set(node);
+            System.out.println(Utilities.pad(level) + toString(node));
+            for (int i = 0; i < getSuccessorCount(node); i++) {
+                dumpTree(level + 1, getSuccessor(node, i), dupNode);
             }
         }
     }
@@ -843,34 +1139,216 @@ class HMMTree {
      * added to the lex tree.
      */
     private void freeze() {
-        entryPointTable.freeze();
+        List<Node> successorList = new ArrayList<>();
+        List<Node> roots = entryPointTable.freeze(successorList);
+
+        // number the nodes in a fixed order, so that the numbers do not depend on the thread scheduling
+        Map<Node, Integer> ids = new IdentityHashMap<>();
+        List<Node> nodes = new ArrayList<>();
+        for (Node root : roots) {
+            number(root, ids, nodes);
+        }
+        for (Node node : successorList) {
+            number(node, ids, nodes);
+        }
+        if (initialWordNode != null) {
+            number(initialWordNode, ids, nodes);
+        }
+
+        // leave some room for the hmm nodes that follow the end nodes
+        int capacity = nodes.size() + nodes.size() / 8 + 16;
+        kinds = new byte[capacity];
+        values = new int[capacity];
+        probabilities = new float[capacity];
+        firstSuccessors = new int[capacity];
+        successorCounts = new int[capacity];
+        hmms = new HMM[64];
+        pronunciations = new Pronunciation[wordNodeMap.size() + 2];
+        unitsByBaseID = new Unit[64];
+        for (Node node : nodes) {
+            addNode(node);
+        }
+        successors = new int[successorList.size()];
+        for (int i = 0; i < successors.length; i++) {
+            successors[i] = ids.get(successorList.get(i));
+        }
+        entryPointTable.index(ids);
+        if (initialWordNode != null) {
+            initialNode = ids.get(initialWordNode);
+            initialParent = ids.get(initialWordNode.getParent());
+        }
+        if (sentenceEndWordNode != null) {
+            sentenceEndNode = ids.get(sentenceEndWordNode);
+        }
+
+        initialWordNode = null;
+        sentenceEndWordNode = null;
         dictionary = null;
         lm = null;
         exitPoints = null;
         allWords = null;
+        unigramProbabilities = null;
         wordNodeMap.clear();
-        endNodeMap.clear();
     }
 
 
-    /** Adds the given collection of words to the lex tree */
-    private void addWords() {
+    /**
+     * Gives a node the next number, unless it already has one
+     *
+     * @param node  the node
+     * @param ids   the numbers of the nodes
+     * @param nodes the nodes in the order of their numbers
+     */
+    private static void number(Node node, Map<Node, Integer> ids, List<Node> nodes) {
+        if (ids.putIfAbsent(node, nodes.size()) == null) {
+            nodes.add(node);
+        }
+    }
+
+
+    /**
+     * Adds the record of a node of the tree that is being frozen. The record gets the number of the node.
+     *
+     * @param node the node
+     */
+    private void addNode(Node node) {
+        int kind = PLAIN_NODE;
+        int value = 0;
+        if (node instanceof HMMNode) {
+            HMMNode hmmNode = (HMMNode) node;
+            kind = hmmNode.type();
+            value = getHMMID(hmmNode.getHMM());
+            if (hmmNode.getRC() != null) {
+                rightContexts.put(numNodes, hmmNode.getRC());
+            }
+        } else if (node instanceof EndNode) {
+            EndNode endNode = (EndNode) node;
+            kind = END_NODE;
+            value = getUnitID(endNode.baseUnit()) << 16 | getUnitID(endNode.getLeftContext());
+        } else if (node instanceof WordNode) {
+            kind = WORD_NODE;
+            value = getPronunciationID(((WordNode) node).pronunciation);
+        }
+        addNode(kind, value, node.getUnigramProbability(), node.getFirstSuccessor(), node.getSuccessorCount());
+    }
+
+
+    /**
+     * Adds the record of a node
+     *
+     * @param kind           the kind of the node
+     * @param value          the hmm, pronunciation or units of the node
+     * @param probability    the unigram probability of the node
+     * @param firstSuccessor the index of the first successor in the successor array
+     * @param successorCount the number of successors
+     * @return the new node
+     */
+    private int addNode(int kind, int value, float probability, int firstSuccessor, int successorCount) {
+        if (numNodes == kinds.length) {
+            int capacity = numNodes + numNodes / 2 + 16;
+            kinds = Arrays.copyOf(kinds, capacity);
+            values = Arrays.copyOf(values, capacity);
+            probabilities = Arrays.copyOf(probabilities, capacity);
+            firstSuccessors = Arrays.copyOf(firstSuccessors, capacity);
+            successorCounts = Arrays.copyOf(successorCounts, capacity);
+        }
+        kinds[numNodes] = (byte) kind;
+        values[numNodes] = value;
+        probabilities[numNodes] = probability;
+        firstSuccessors[numNodes] = firstSuccessor;
+        successorCounts[numNodes] = successorCount;
+        return numNodes++;
+    }
+
+
+    /**
+     * Gets the number of an hmm in the hmm table of the tree, adding the hmm if it is not there yet
+     *
+     * @param hmm the hmm
+     * @return the number of the hmm
+     */
+    private int getHMMID(HMM hmm) {
+        Integer id = hmmIDs.get(hmm);
+        if (id == null) {
+            if (numHMMs == hmms.length) {
+                hmms = Arrays.copyOf(hmms, numHMMs * 2);
+            }
+            id = numHMMs++;
+            hmms[id] = hmm;
+            hmmIDs.put(hmm, id);
+        }
+        return id;
+    }
+
+
+    /**
+     * Adds a pronunciation to the pronunciation table of the tree. Every word node has a pronunciation of its own.
+     *
+     * @param pronunciation the pronunciation
+     * @return the number of the pronunciation
+     */
+    private int getPronunciationID(Pronunciation pronunciation) {
+        if (numPronunciations == pronunciations.length) {
+            pronunciations = Arrays.copyOf(pronunciations, numPronunciations * 2 + 1);
+        }
+        pronunciations[numPronunciations] = pronunciation;
+        return numPronunciations++;
+    }
+
+
+    /**
+     * Adds a unit to the unit table of the tree, which is indexed by the base id of the units
+     *
+     * @param unit the unit
+     * @return the base id of the unit
+     */
+    private int getUnitID(Unit unit) {
+        assert unit.baseID >= 0 && unit.baseID <= 0xffff;
+        if (unit.baseID >= unitsByBaseID.length) {
+            unitsByBaseID = Arrays.copyOf(unitsByBaseID, Math.max(unit.baseID + 1, unitsByBaseID.length * 2));
+        }
+        unitsByBaseID[unit.baseID] = unit;
+        return unit.baseID;
+    }
+
+
+    /**
+     * Looks up the unigram probabilities of all words up front. The language model may not be safe to use from
+     * several threads.
+     */
+    private void computeUnigramProbabilities() {
         Set<Word> words = getAllWords();
-        words.forEach(this::addWord);
+        unigramProbabilities = new HashMap<>(words.size() * 2);
+        for (Word word : words) {
+            unigramProbabilities.put(word, computeWordUnigramProbability(word));
+        }
     }
 
 
     /**
-     * Adds a single word to the lex tree
+     * Adds the given collection of words to the lex tree. The pronunciations are grouped by their first unit, and
+     * each group is added by its own task.
      *
-     * @param word the word to add
+     * @param executor the executor to run the tasks, or null to add the words in the calling thread
      */
-    private void addWord(Word word) {
-        float prob = getWordUnigramProbability(word);
-        Pronunciation[] pronunciations = word.pronunciations;
-        for (Pronunciation pronunciation : pronunciations) {
-            addPronunciation(pronunciation, prob);
+    private void addWords(ExecutorService executor) {
+        Map<Unit, List<Pronunciation>> groups = new LinkedHashMap<>();
+        for (Word word : getAllWords()) {
+            for (Pronunciation pronunciation : word.pronunciations) {
+                groups.computeIfAbsent(pronunciation.units[0], u -> new ArrayList<>()).add(pronunciation);
+            }
+        }
+
+        List<Callable<Void>> tasks = new ArrayList<>(groups.size());
+        for (List<Pronunciation> group : groups.values()) {
+            tasks.add(() -> {
+                for (Pronunciation pronunciation : group) {
+                    addPronunciation(pronunciation, getWordUnigramProbability(pronunciation.getWord()));
+                }
+                return null;
+            });
         }
+        runTasks(executor, tasks);
     }
 
 
@@ -930,6 +1408,18 @@ class HMMTree {
      * @return the unigram probability for the word.
      */
     private float getWordUnigramProbability(Word word) {
+        Float prob = unigramProbabilities.get(word);
+        return prob != null ? prob : computeWordUnigramProbability(word);
+    }
+
+
+    /**
+     * Looks up the unigram probability for the given word in the language model
+     *
+     * @param word the word
+     * @return the unigram probability for the word.
+     */
+    private float computeWordUnigramProbability(Word word) {
         float prob = LogMath.LOG_ONE;
         if (!word.filler) {
             Word[] wordArray = new Word[1];
@@ -969,19 +1459,30 @@ class HMMTree {
 
 
     /**
-     * Returns the initial node for this lex tree
+     * Returns the initial node for this lex tree, the word node of the sentence start word
      *
-     * @return the initial lex node
+     * @return the initial lex node, or -1 if there is no sentence start word
      */
-    InitialWordNode getInitialNode() {
+    int getInitialNode() {
         return initialNode;
     }
 
 
+    /**
+     * Returns the hmm node the initial word node follows. It is the context of the initial word.
+     *
+     * @return the parent of the initial node
+     */
+    int getInitialParent() {
+        return initialParent;
+    }
+
+
     /** The EntryPoint table is used to manage the set of entry points into the lex tree. */
     class EntryPointTable {
 
-        private final Map<Unit, EntryPoint> entryPoints;
+        private Map<Unit, EntryPoint> entryPoints;
+        private EntryPoint[] entryPointsByBaseID;
 
 
         /**
@@ -1004,25 +1505,78 @@ class HMMTree {
          * @return the object that manages the entry point for the unit
          */
         EntryPoint getEntryPoint(Unit baseUnit) {
+            if (entryPointsByBaseID != null) {
+                return entryPointsByBaseID[baseUnit.baseID];
+            }
             return entryPoints.get(baseUnit);
         }
 
 
-        /** Creates the entry point maps for all entry points. */
-        void createEntryPointMaps() {
-            entryPoints.values().forEach((entryPoint) -> entryPoint.createEntryPointMap(HMMTree.this));
+        /**
+         * Creates the entry point maps for all entry points.
+         *
+         * @param executor the executor to run the tasks, or null to create the maps in the calling thread
+         */
+        void createEntryPointMaps(ExecutorService executor) {
+            List<Callable<Void>> tasks = new ArrayList<>(entryPoints.size());
+            for (EntryPoint entryPoint : entryPoints.values()) {
+                tasks.add(() -> {
+                    entryPoint.createEntryPointMap(HMMTree.this);
+                    return null;
+                });
+            }
+            runTasks(executor, tasks);
         }
 
 
-        /** Freezes the entry point table */
-        void freeze() {
-            entryPoints.values().forEach(EntryPoint::freeze);
+        /**
+         * Freezes the entry point table. The entry points are indexed by the id of their base unit from now on.
+         *
+         * @param successors the successors of all frozen nodes
+         * @return the entry point nodes
+         */
+        List<Node> freeze(List<Node> successors) {
+            int maxID = -1;
+            for (EntryPoint entryPoint : entryPoints.values()) {
+                maxID = Math.max(maxID, entryPoint.baseUnit.baseID);
+            }
+            entryPointsByBaseID = new EntryPoint[maxID + 1];
+            for (EntryPoint entryPoint : entryPoints.values()) {
+                entryPointsByBaseID[entryPoint.baseUnit.baseID] = entryPoint;
+            }
+            entryPoints = null;
+
+            List<Node> roots = new ArrayList<>();
+            for (EntryPoint entryPoint : entryPointsByBaseID) {
+                if (entryPoint != null) {
+                    roots.addAll(entryPoint.freeze(successors));
+                }
+            }
+            return roots;
+        }
+
+
+        /**
+         * Replaces the entry point nodes by their numbers
+         *
+         * @param ids the numbers of the nodes
+         */
+        void index(Map<Node, Integer> ids) {
+            for (EntryPoint entryPoint : entryPointsByBaseID) {
+                if (entryPoint != null) {
+                    entryPoint.index(ids);
+                }
+            }
         }
 
 
         /** Dumps the entry point table */
         void dump() {
-            entryPoints.values().forEach(EntryPoint::dump);
+            for (EntryPoint entryPoint : entryPointsByBaseID) {
+                if (entryPoint != null) {
+                    entryPoint.dump();
+                }
+            }
         }
     }
 
@@ -1032,8 +1586,10 @@ class HMMTree {
 
 
         final Unit baseUnit;
-        public final Node baseNode;      // second units and beyond start here
-        final Map<Unit, Node> unitToEntryPointMap;
+        public Node baseNode;      // second units and beyond start here, dropped on freeze
+        Map<Unit, Node> unitToEntryPointMap;
+        Node[] entryPointNodes;    // by left context while the tree is frozen
+        int[] entryPointsByLeftContext;
         List<Pronunciation> singleUnitWords;
         int nodeCount;
         Set<Unit> rcSet;
@@ -1060,8 +1616,8 @@ class HMMTree {
          * @param leftContext the left context of interest
          * @return the node representing the entry point
          */
-        Node getEntryPointsFromLeftContext(Unit leftContext) {
-            return unitToEntryPointMap.get(leftContext);
+        int getEntryPointsFromLeftContext(Unit leftContext) {
+            return entryPointsByLeftContext[leftContext.baseID];
         }
 
 
@@ -1087,11 +1643,48 @@ class HMMTree {
         }
 
 
-        /** Once we have built the full entry point we can eliminate some fields */
-        void freeze() {
-            unitToEntryPointMap.values().forEach(Node::freeze);
+        /**
+         * Once we have built the full entry point we can eliminate some fields. The entry point nodes are indexed by
+         * the id of their left context from now on.
+         *
+         * @param successors the successors of all frozen nodes
+         * @return the entry point nodes
+         */
+        List<Node> freeze(List<Node> successors) {
+            int maxID = -1;
+            for (Unit lc : unitToEntryPointMap.keySet()) {
+                maxID = Math.max(maxID, lc.baseID);
+            }
+            entryPointNodes = new Node[maxID + 1];
+            for (Map.Entry<Unit, Node> entry : unitToEntryPointMap.entrySet()) {
+                entryPointNodes[entry.getKey().baseID] = entry.getValue();
+            }
+            List<Node> roots = new ArrayList<>();
+            for (Node node : entryPointNodes) {
+                if (node != null) {
+                    node.freeze(successors);
+                    roots.add(node);
+                }
+            }
+            unitToEntryPointMap = null;
+            baseNode = null;
             singleUnitWords = null;
             rcSet = null;
+            return roots;
+        }
+
+
+        /**
+         * Replaces the entry point nodes by their numbers, -1 for the left contexts without entry point
+         *
+         * @param ids the numbers of the nodes
+         */
+        void index(Map<Node, Integer> ids) {
+            entryPointsByLeftContext = new int[entryPointNodes.length];
+            for (int i = 0; i < entryPointNodes.length; i++) {
+                entryPointsByLeftContext[i] = entryPointNodes[i] != null ? ids.get(entryPointNodes[i]) : -1;
+            }
+            entryPointNodes = null;
         }
 
 
@@ -1112,7 +1705,7 @@ class HMMTree {
          */
         private Collection<Unit> getEntryPointRC() {
             if (rcSet == null) {
-                Map<Object, Node> m = baseNode.getSuccessorMap(false);
+                Map<Object, Node> m = baseNode != null ? baseNode.getSuccessorMap(false) : null;
                 if (m!=null) {
                     rcSet = m.values().stream().map(
                             node -> ((UnitNode) node).baseUnit()
@@ -1183,7 +1776,7 @@ class HMMTree {
 
                     for (Pronunciation p : singleUnitWords) {
                         if (p.getWord() == hmmTree.dictionary.getSentenceStartWord()) {
-                            hmmTree.initialNode = new InitialWordNode(p, tailNode);
+                            hmmTree.initialWordNode = new InitialWordNode(p, tailNode);
                         } else {
                             float prob = hmmTree.getWordUnigramProbability(p.getWord());
                             wordNode = tailNode.addSuccessor(p, prob, hmmTree.wordNodeMap);
@@ -1206,7 +1799,7 @@ class HMMTree {
          * @param rc     the next unit
          */
         private void connectEntryPointNode(Node epNode, Unit rc) {
-            for (Node node : baseNode.getSuccessors()) {
+            for (Node node : baseNode.getSuccessorMap(false).values()) {
                 UnitNode successor = (UnitNode) node;
                 if (successor.baseUnit() == rc) {
                     epNode.addSuccessor(successor);
@@ -21,15 +21,13 @@ import edu.cmu.sphinx.linguist.dictionary.Pronunciation;
 import edu.cmu.sphinx.linguist.dictionary.Word;
 import edu.cmu.sphinx.linguist.language.grammar.Grammar;
 import edu.cmu.sphinx.linguist.language.ngram.LanguageModel;
-import edu.cmu.sphinx.linguist.util.LRUCache;
+import edu.cmu.sphinx.linguist.util.StripedClockCache;
 import edu.cmu.sphinx.util.LogMath;
 import edu.cmu.sphinx.util.TimerPool;
 import edu.cmu.sphinx.util.props.*;
 
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
@@ -153,7 +151,10 @@ public class LexTreeLinguist implements Linguist {
     @S4Component(type = Dictionary.class)
     public final static String PROP_DICTIONARY = "dictionary";
 
-    /** The property that defines the size of the arc cache (zero to disable the cache). */
+    /**
+     * The property that defines the size of the arc cache (zero to disable the cache). The cache is shared by all
+     * searches running on this linguist.
+     */
     @S4Integer(defaultValue = 0)
     public final static String PROP_CACHE_SIZE = "cacheSize";
 
@@ -190,6 +191,14 @@ public class LexTreeLinguist implements Linguist {
     @S4Double(defaultValue = 1.0)
     public final static String PROP_UNIGRAM_SMEAR_WEIGHT = "unigramSmearWeight";
 
+    /**
+     * The property that defines the number of threads used to build the lex tree. Words are sharded by their first
+     * unit, and the shards are built concurrently. Zero uses one thread per available processor. The tree is the same
+     * for any number of threads.
+     */
+    @S4Integer(defaultValue = 1)
+    public final static String PROP_BUILD_THREADS = "buildThreads";
+
 
     // just for detailed debugging
     private final static SearchStateArc[] EMPTY_ARC = new SearchStateArc[0];
@@ -215,6 +224,7 @@ public class LexTreeLinguist implements Linguist {
     private float unigramSmearWeight = 1.0f;
     //private boolean cacheEnabled;
     private int maxArcCacheSize;
+    private int buildThreads = 1;
 
     protected float languageWeight;
     private float logWordInsertionProbability;
@@ -230,19 +240,27 @@ public class LexTreeLinguist implements Linguist {
     private Word sentenceEndWord;
     private Word[] sentenceStartWordArray;
     private SearchGraph searchGraph;
-    private LRUCache<LexTreeState, SearchStateArc[]> arcCache;
+    private StripedClockCache<LexTreeState, SearchStateArc[]> arcCache;
     private int maxDepth;
 
     protected HMMTree hmmTree;
 
-    private int cacheTrys;
-    private int cacheHits;
-
     public LexTreeLinguist(AcousticModel acousticModel, UnitManager unitManager,
             LanguageModel languageModel, Dictionary dictionary, boolean fullWordHistories, boolean wantUnigramSmear,
             double wordInsertionProbability, double silenceInsertionProbability, double fillerInsertionProbability,
             double unitInsertionProbability, float languageWeight, boolean addFillerWords, boolean generateUnitStates,
             float unigramSmearWeight, int maxArcCacheSize) {
+        this(acousticModel, unitManager, languageModel, dictionary, fullWordHistories, wantUnigramSmear,
+                wordInsertionProbability, silenceInsertionProbability, fillerInsertionProbability,
+                unitInsertionProbability, languageWeight, addFillerWords, generateUnitStates, unigramSmearWeight,
+                maxArcCacheSize, 1);
+    }
+
+    public LexTreeLinguist(AcousticModel acousticModel, UnitManager unitManager,
+            LanguageModel languageModel, Dictionary dictionary, boolean fullWordHistories, boolean wantUnigramSmear,
+            double wordInsertionProbability, double silenceInsertionProbability, double fillerInsertionProbability,
+            double unitInsertionProbability, float languageWeight, boolean addFillerWords, boolean generateUnitStates,
+            float unigramSmearWeight, int maxArcCacheSize, int buildThreads) {
 
         logger = Logger.getLogger(getClass().getName());
 
@@ -262,13 +280,9 @@ public class LexTreeLinguist implements Linguist {
         this.generateUnitStates = generateUnitStates;
         this.unigramSmearWeight = unigramSmearWeight;
         this.maxArcCacheSize = maxArcCacheSize;
+        this.buildThreads = buildThreads;
 
-        //cacheEnabled = maxArcCacheSize > 0;
-        //if( cacheEnabled ) {
-            arcCache = new LRUCache<>(maxArcCacheSize);
-        ///} else {
-           // arcCache = null;
-        //}
+        arcCache = new StripedClockCache<>(maxArcCacheSize);
     }
 
     public LexTreeLinguist() {
@@ -298,11 +312,9 @@ public class LexTreeLinguist implements Linguist {
         generateUnitStates = (ps.getBoolean(PROP_GENERATE_UNIT_STATES));
         unigramSmearWeight = ps.getFloat(PROP_UNIGRAM_SMEAR_WEIGHT);
         maxArcCacheSize = ps.getInt(PROP_CACHE_SIZE);
+        buildThreads = ps.getInt(PROP_BUILD_THREADS);
 
-        //cacheEnabled = maxArcCacheSize > 0;
-        //if(cacheEnabled) {
-            arcCache = new LRUCache<>(maxArcCacheSize);
-        //}
+        arcCache = new StripedClockCache<>(maxArcCacheSize);
     }
 
 
@@ -353,6 +365,20 @@ public class LexTreeLinguist implements Linguist {
     /** Called after a recognition */
     public void stopRecognition() {
         languageModel.onUtteranceEnd();
+        if (maxArcCacheSize > 0 && logger.isLoggable(Level.FINE)) {
+            logger.fine("Arc cache: " + arcCache.size() + " of " + maxArcCacheSize + " entries, hit rate "
+                    + arcCache.getHitRate() + ", " + arcCache.getEvictions() + " evictions");
+        }
+    }
+
+
+    /**
+     * Returns the cache of successor arcs, which is shared by all searches running on this linguist.
+     *
+     * @return the arc cache
+     */
+    public StripedClockCache<?, SearchStateArc[]> getArcCache() {
+        return arcCache;
     }
 
 
@@ -377,12 +403,12 @@ public class LexTreeLinguist implements Linguist {
      * @return the initial language state
      */
     private SearchState getInitialSearchState() {
-        InitialWordNode node = hmmTree.getInitialNode();
+        int node = hmmTree.getInitialNode();
 
-        if (node == null)
+        if (node < 0)
     	    throw new RuntimeException("Language model has no entry for initial word <s>");
 
-        return new LexTreeWordState(node, node.getParent(), (new WordSequence(sentenceStartWordArray)).trim(
+        return new LexTreeWordState(node, hmmTree.getInitialParent(), (new WordSequence(sentenceStartWordArray)).trim(
                 maxDepth - 1), 0f, logOne, logOne);
     }
 
@@ -408,8 +434,11 @@ public class LexTreeLinguist implements Linguist {
 
     protected void generateHmmTree() {
         HMMPool hmmPool = new HMMPool(acousticModel, logger, unitManager);
+        int numThreads = buildThreads > 0 ? buildThreads : Runtime.getRuntime().availableProcessors();
         hmmTree = new HMMTree(hmmPool, dictionary, languageModel,
-                              addFillerWords, languageWeight);
+                              addFillerWords, languageWeight, numThreads);
+        // the states refer to the nodes of the tree by number, so the arcs of an earlier tree must go
+        arcCache.clear();
 
         hmmPool.dumpInfo();
     }
@@ -463,10 +492,13 @@ public class LexTreeLinguist implements Linguist {
      * correspond to the left, center and right contexts.
      * <p>
      * This is an abstract class, subclasses must implement the getSuccessorss method.
+     * <p>
+     * The states are flyweights, the node is the index of its record in the frozen lex tree, so states are equal if
+     * they refer to the same nodes.
      */
     abstract class LexTreeState implements SearchState, SearchStateArc {
 
-        protected final Node node;
+        protected final int node;
         public final WordSequence wordSequence;
         final float currentSmearTerm;
         final float currentSmearProb;
@@ -481,14 +513,14 @@ public class LexTreeLinguist implements Linguist {
 
 
          */
-        LexTreeState(Node node, WordSequence wordSequence, float smearTerm,
+        LexTreeState(int node, WordSequence wordSequence, float smearTerm,
                      float smearProb) {
             this.node = node;
             this.wordSequence = wordSequence;
             currentSmearTerm = smearTerm;
             currentSmearProb = smearProb;
 
-            this.hash = wordSequence.hashCode() * 37 + node.hashCode();
+            this.hash = wordSequence.hashCode() * 37 + node;
         }
 
 
@@ -499,7 +531,7 @@ public class LexTreeLinguist implements Linguist {
          * @return the signature
          */
         public String getSignature() {
-            return "lts-" + node.hashCode() + "-ws-" + wordSequence;
+            return "lts-" + node + "-ws-" + wordSequence;
         }
 
 
@@ -615,7 +647,7 @@ public class LexTreeLinguist implements Linguist {
         }
 
 
-        public Node getLexState() {
+        public Integer getLexState() {
             return node;
         }
 
@@ -641,22 +673,19 @@ public class LexTreeLinguist implements Linguist {
          * @param theNode node to get successors
          * @return a list of SearchState objects
          */
-        protected SearchStateArc[] getSuccessors(Node theNode) {
-            Node[] nodes = theNode.getSuccessors();
-            SearchStateArc[] arcs = new SearchStateArc[nodes.length];
+        protected SearchStateArc[] getSuccessors(int theNode) {
+            SearchStateArc[] arcs = new SearchStateArc[hmmTree.getSuccessorCount(theNode)];
             // System.out.println("Arc: "+ this);
-            int i = 0;
-            for (Node nextNode : nodes) {
+            for (int i = 0; i < arcs.length; i++) {
+                int nextNode = hmmTree.getSuccessor(theNode, i);
                 //  System.out.println(" " + nextNode);
-                if (nextNode instanceof WordNode) {
-                    arcs[i] = createWordStateArc((WordNode) nextNode,
-                            (HMMNode) node, this);
-                } else if (nextNode instanceof EndNode) {
-                    arcs[i] = createEndUnitArc((EndNode) nextNode, this);
+                if (hmmTree.isWord(nextNode)) {
+                    arcs[i] = createWordStateArc(nextNode, node, this);
+                } else if (hmmTree.isEnd(nextNode)) {
+                    arcs[i] = createEndUnitArc(nextNode, this);
                 } else {
-                    arcs[i] = createUnitStateArc((HMMNode) nextNode, this);
+                    arcs[i] = createUnitStateArc(nextNode, this);
                 }
-                i++;
             }
             return arcs;
         }
@@ -669,11 +698,11 @@ public class LexTreeLinguist implements Linguist {
          * @param previous previous state
          * @return the search state for the wordNode
          */
-        protected SearchStateArc createWordStateArc(WordNode wordNode,
-                                                    HMMNode lastUnit, LexTreeState previous) {
+        protected SearchStateArc createWordStateArc(int wordNode,
+                                                    int lastUnit, LexTreeState previous) {
             // System.out.println("CWSA " + wordNode + " fup " + fixupProb);
             float languageProbability = logOne;
-            Word nextWord = wordNode.getWord();
+            Word nextWord = hmmTree.getPronunciation(wordNode).getWord();
             float smearTerm = previous.currentSmearTerm;
 
             if (nextWord.filler && nextWord != sentenceEndWord) {
@@ -709,7 +738,7 @@ public class LexTreeLinguist implements Linguist {
 
          * @return the search state
          */
-        SearchStateArc createUnitStateArc(HMMNode hmmNode, LexTreeState previous) {
+        SearchStateArc createUnitStateArc(int hmmNode, LexTreeState previous) {
             SearchStateArc arc;
             // System.out.println("CUSA " + hmmNode);
             float insertionProbability = calculateInsertionProbability(hmmNode);
@@ -724,9 +753,9 @@ public class LexTreeLinguist implements Linguist {
                 arc = new LexTreeUnitState(hmmNode, wordSequence, previous.currentSmearTerm, smearProbability, languageProbability,
                         insertionProbability);
             } else {
-                HMM hmm = hmmNode.getHMM();
+                HMM hmm = hmmTree.getHMM(hmmNode);
                 arc = new LexTreeHMMState(hmmNode, wordSequence, previous.currentSmearTerm, smearProbability, hmm.getInitialState(),
-                        languageProbability, insertionProbability, null);
+                        languageProbability, insertionProbability, -1);
             }
             return arc;
         }
@@ -739,7 +768,7 @@ public class LexTreeLinguist implements Linguist {
          * @param previous the previous state
          * @return the search state
          */
-        SearchStateArc createEndUnitArc(EndNode endNode, LexTreeState previous) {
+        SearchStateArc createEndUnitArc(int endNode, LexTreeState previous) {
             float smearProbability = getUnigramSmear(endNode)
                     + previous.currentSmearTerm;
             float languageProbability = smearProbability - previous.currentSmearProb;
@@ -756,7 +785,7 @@ public class LexTreeLinguist implements Linguist {
          */
         @Override
         public String toString() {
-            return "lt-" + node + ' ' + getProbability() + '{' + wordSequence
+            return "lt-" + hmmTree.toString(node) + ' ' + getProbability() + '{' + wordSequence
                     + '}';
         }
 
@@ -777,20 +806,11 @@ public class LexTreeLinguist implements Linguist {
          * @return the next set of arcs for this state, or null if none can be found or if caching is disabled.
          */
         SearchStateArc[] getCachedArcs() {
-            //if (cacheEnabled) {
-                SearchStateArc[] arcs = arcCache.get(this);
-                if (arcs != null) {
-                    cacheHits++;
-                }
-                /*if (++cacheTrys % 1000 == 0) {
-                    System.out.println("Hits: " + cacheHits
-                            + " of " + cacheTrys + ' ' +
-                            ((float) cacheHits) / cacheTrys * 100f);
-                }*/
-                return arcs;
-            /*} else {
+            if (maxArcCacheSize > 0) {
+                return arcCache.get(this);
+            } else {
                 return null;
-            }*/
+            }
         }
 
 
@@ -800,9 +820,9 @@ public class LexTreeLinguist implements Linguist {
          * @param arcs the arcs to cache.
          */
         void putCachedArcs(SearchStateArc[] arcs) {
-            //if (cacheEnabled) {
+            if (maxArcCacheSize > 0) {
                 arcCache.put(this, arcs);
-            //}
+            }
         }
 
 
@@ -827,7 +847,7 @@ public class LexTreeLinguist implements Linguist {
 
 
          */
-        LexTreeEndUnitState(EndNode endNode, WordSequence wordSequence,
+        LexTreeEndUnitState(int endNode, WordSequence wordSequence,
                             float smearTerm, float smearProb, float languageProbability,
                             float insertionProbability) {
             super(endNode, wordSequence, smearTerm, smearProb);
@@ -844,7 +864,7 @@ public class LexTreeLinguist implements Linguist {
          * @return the base unit
          */
         public Unit getUnit() {
-            return getEndNode().baseUnit();
+            return hmmTree.getBaseUnit(node);
         }
 
 
@@ -893,16 +913,6 @@ public class LexTreeLinguist implements Linguist {
         }
 
 
-        /**
-         * Returns the unit node for this state
-         *
-         * @return the unit node
-         */
-        private EndNode getEndNode() {
-            return (EndNode) node;
-        }
-
-
         /**
          * Returns the list of successors to this state
          *
@@ -912,7 +922,7 @@ public class LexTreeLinguist implements Linguist {
         public SearchStateArc[] getSuccessors() {
             SearchStateArc[] arcs = getCachedArcs();
             if (arcs == null) {
-                HMMNode[] nodes = getHMMNodes(getEndNode());
+                int[] nodes = getHMMNodes(node);
                 arcs = new SearchStateArc[nodes.length];
 
                 if (generateUnitStates) {
@@ -924,7 +934,7 @@ public class LexTreeLinguist implements Linguist {
                     }
                 } else {
                     for (int i = 0; i < nodes.length; i++) {
-                        HMM hmm = nodes[i].getHMM();
+                        HMM hmm = hmmTree.getHMM(nodes[i]);
                         arcs[i] = new LexTreeHMMState(nodes[i],
                                 getWordHistory(), getSmearTerm(),
                                 getSmearProb(), hmm.getInitialState(),
@@ -955,7 +965,7 @@ public class LexTreeLinguist implements Linguist {
 
         private final float logInsertionProbability;
         private final float logLanguageProbability;
-        private final Node parentNode;
+        private final int parentNode;
         private int hashCode = -1;
 
 
@@ -964,11 +974,11 @@ public class LexTreeLinguist implements Linguist {
          *
          * @param wordSequence the history of words
          */
-        LexTreeUnitState(HMMNode hmmNode, WordSequence wordSequence,
+        LexTreeUnitState(int hmmNode, WordSequence wordSequence,
                          float smearTerm, float smearProb, float languageProbability,
                          float insertionProbability) {
             this(hmmNode, wordSequence, smearTerm, smearProb,
-                    languageProbability, insertionProbability, null);
+                    languageProbability, insertionProbability, -1);
         }
 
 
@@ -977,9 +987,9 @@ public class LexTreeLinguist implements Linguist {
          *
          * @param wordSequence the history of words
          */
-        LexTreeUnitState(HMMNode hmmNode, WordSequence wordSequence,
+        LexTreeUnitState(int hmmNode, WordSequence wordSequence,
                          float smearTerm, float smearProb, float languageProbability,
-                         float insertionProbability, Node parentNode) {
+                         float insertionProbability, int parentNode) {
             super(hmmNode, wordSequence, smearTerm, smearProb);
             this.logInsertionProbability = insertionProbability;
             this.logLanguageProbability = languageProbability;
@@ -993,7 +1003,7 @@ public class LexTreeLinguist implements Linguist {
          * @return the base unit
          */
         public Unit getUnit() {
-            return getHMMNode().baseUnit();
+            return hmmTree.getBaseUnit(node);
         }
 
 
@@ -1006,9 +1016,9 @@ public class LexTreeLinguist implements Linguist {
         public int hashCode() {
             if (hashCode == -1) {
                 hashCode = super.hashCode() * 17 + 421;
-                if (parentNode != null) {
+                if (parentNode >= 0) {
                     hashCode *= 432;
-                    hashCode += parentNode.hashCode();
+                    hashCode += parentNode;
                 }
             }
             return hashCode;
@@ -1034,16 +1044,6 @@ public class LexTreeLinguist implements Linguist {
         }
 
 
-        /**
-         * Returns the unit node for this state
-         *
-         * @return the unit node
-         */
-        private HMMNode getHMMNode() {
-            return (HMMNode) node;
-        }
-
-
         /**
          * Returns the list of successors to this state
          *
@@ -1052,8 +1052,8 @@ public class LexTreeLinguist implements Linguist {
         @Override
         public SearchStateArc[] getSuccessors() {
             SearchStateArc[] arcs = new SearchStateArc[1];
-            HMM hmm = getHMMNode().getHMM();
-            arcs[0] = new LexTreeHMMState(getHMMNode(), getWordHistory(),
+            HMM hmm = hmmTree.getHMM(node);
+            arcs[0] = new LexTreeHMMState(node, getWordHistory(),
                     getSmearTerm(), getSmearProb(), hmm.getInitialState(),
                     logOne, logOne, parentNode);
             return arcs;
@@ -1100,7 +1100,7 @@ public class LexTreeLinguist implements Linguist {
         public final HMMState hmmState;
         public final float logLanguageProbability;
         public final float logInsertionProbability;
-        public final Node parentNode;
+        public final int parentNode;
         int hashCode = -1;
 
 
@@ -1112,10 +1112,10 @@ public class LexTreeLinguist implements Linguist {
          * @param languageProbability  the probability of the transition
          * @param insertionProbability the probability of the transition
          */
-        LexTreeHMMState(HMMNode hmmNode, WordSequence wordSequence,
+        LexTreeHMMState(int hmmNode, WordSequence wordSequence,
                         float smearTerm, float smearProb, HMMState hmmState,
                         float languageProbability, float insertionProbability,
-                        Node parentNode) {
+                        int parentNode) {
             super(hmmNode, wordSequence, smearTerm, smearProb);
             this.hmmState = hmmState;
             this.parentNode = parentNode;
@@ -1155,9 +1155,9 @@ public class LexTreeLinguist implements Linguist {
             int hashCode = this.hashCode;
             if (hashCode == -1) {
                 hashCode = super.hashCode() * 29 + (hmmState.getState() + 1);
-                if (parentNode != null) {
+                if (parentNode >= 0) {
                     hashCode *= 377;
-                    hashCode += parentNode.hashCode();
+                    hashCode += parentNode;
                 }
                 this.hashCode = hashCode;
             }
@@ -1222,7 +1222,7 @@ public class LexTreeLinguist implements Linguist {
                 // new unit or to a word end.
 
                 if (hmmState.isExitState()) {
-                    if (parentNode == null) {
+                    if (parentNode < 0) {
                         nextStates = super.getSuccessors();
                     } else {
                         nextStates = super.getSuccessors(parentNode);
@@ -1244,14 +1244,14 @@ public class LexTreeLinguist implements Linguist {
                                 nextStates[i] = this;
                             } else {
                                 nextStates[i] = new LexTreeHMMState(
-                                        (HMMNode) node, getWordHistory(),
+                                        node, getWordHistory(),
                                         getSmearTerm(), getSmearProb(),
                                         arc.getHMMState(), logOne,
                                         arc.getLogProbability(), parentNode);
                             }
                         } else {
                             nextStates[i] = new LexTreeNonEmittingHMMState(
-                                    (HMMNode) node, getWordHistory(),
+                                    node, getWordHistory(),
                                     getSmearTerm(), getSmearProb(),
                                     arc.getHMMState(),
                                     arc.getLogProbability(), parentNode);
@@ -1307,9 +1307,9 @@ public class LexTreeLinguist implements Linguist {
          * @param probability  the probability of the transition occurring
 
          */
-        LexTreeNonEmittingHMMState(HMMNode hmmNode, WordSequence wordSequence,
+        LexTreeNonEmittingHMMState(int hmmNode, WordSequence wordSequence,
                                    float smearTerm, float smearProb, HMMState hmmState,
-                                   float probability, Node parentNode) {
+                                   float probability, int parentNode) {
             super(hmmNode, wordSequence, smearTerm, smearProb, hmmState,
                     logOne, probability, parentNode);
         }
@@ -1325,7 +1325,7 @@ public class LexTreeLinguist implements Linguist {
     public class LexTreeWordState extends LexTreeState implements WordSearchState {
 
         private final int hash;
-        private final HMMNode lastNode;
+        private final int lastNode;
         private final float logLanguageProbability;
 
 
@@ -1336,7 +1336,7 @@ public class LexTreeLinguist implements Linguist {
          * @param wordSequence   the sequence of words triphone context
          * @param languageProbability the probability of this word
          */
-        LexTreeWordState(WordNode wordNode, HMMNode lastNode,
+        LexTreeWordState(int wordNode, int lastNode,
                          WordSequence wordSequence, float smearTerm, float smearProb,
                          float languageProbability) {
 
@@ -1344,7 +1344,7 @@ public class LexTreeLinguist implements Linguist {
             // System.out.println("LTWS " + wordSequence);
             this.lastNode = lastNode;
             this.logLanguageProbability = languageProbability;
-            this.hash = super.hashCode() * 41 + lastNode.hashCode();
+            this.hash = super.hashCode() * 41 + lastNode;
         }
 
 
@@ -1354,7 +1354,7 @@ public class LexTreeLinguist implements Linguist {
          * @return the pronunciation for this word
          */
         public Pronunciation getPronunciation() {
-            return ((WordNode) node).pronunciation;
+            return hmmTree.getPronunciation(node);
         }
 
 
@@ -1365,7 +1365,7 @@ public class LexTreeLinguist implements Linguist {
          */
         @Override
         public boolean isFinal() {
-            return ((WordNode) node).isFinal;
+            return hmmTree.isFinal(node);
         }
 
 
@@ -1388,7 +1388,7 @@ public class LexTreeLinguist implements Linguist {
          */
         @Override
         public String getSignature() {
-            return super.getSignature() + "-ln-" + lastNode.hashCode();
+            return super.getSignature() + "-ln-" + lastNode;
         }
 
 
@@ -1432,24 +1432,25 @@ public class LexTreeLinguist implements Linguist {
             SearchStateArc[] arcs = getCachedArcs();
             if (arcs == null) {
                 arcs = EMPTY_ARC;
-                WordNode wordNode = (WordNode) node;
-
-                if (wordNode.getWord() != sentenceEndWord) {
+                if (getPronunciation().getWord() != sentenceEndWord) {
                     int index = 0;
-                    List<Node> list = new ArrayList<>();
-                    Unit[] rc = lastNode.getRC();
-                    Unit left = wordNode.getLastUnit();
-
-                    for (Unit unit : rc) {
-                        Node[] epList = hmmTree.getEntryPoint(left, unit);
-                        Collections.addAll(list, epList);
+                    Unit[] rc = hmmTree.getRC(lastNode);
+                    Unit left = hmmTree.getLastUnit(node);
+                    int[] epNodes = new int[rc.length];
+                    int count = 0;
+
+                    for (int i = 0; i < rc.length; i++) {
+                        epNodes[i] = hmmTree.getEntryPoint(left, rc[i]);
+                        count += hmmTree.getSuccessorCount(epNodes[i]);
                     }
 
                     // add a link to every possible entry point as well
                     // as link to the </s> node
-                    arcs = new SearchStateArc[list.size() + 1];
-                    for (Node node : list) {
-                         arcs[index++] = createUnitStateArc((HMMNode)node, this);
+                    arcs = new SearchStateArc[count + 1];
+                    for (int epNode : epNodes) {
+                        for (int i = 0; i < hmmTree.getSuccessorCount(epNode); i++) {
+                            arcs[index++] = createUnitStateArc(hmmTree.getSuccessor(epNode, i), this);
+                        }
                     }
 
                     // now add the link to the end of sentence arc:
@@ -1495,7 +1496,7 @@ public class LexTreeLinguist implements Linguist {
 
          * @param logProbability the probability of this word occurring
          */
-        LexTreeEndWordState(WordNode wordNode, HMMNode lastNode,
+        LexTreeEndWordState(int wordNode, int lastNode,
                             WordSequence wordSequence, float smearTerm, float smearProb,
                             float logProbability) {
             super(wordNode, lastNode, wordSequence, smearTerm, smearProb,
@@ -1517,8 +1518,8 @@ public class LexTreeLinguist implements Linguist {
      * @param unitNode the unit lex node
      * @return the insertion probability
      */
-    private float calculateInsertionProbability(UnitNode unitNode) {
-        int type = unitNode.type();
+    private float calculateInsertionProbability(int unitNode) {
+        int type = hmmTree.getUnitType(unitNode);
 
         if (type == UnitNode.SIMPLE_UNIT) {
             return logUnitInsertionProbability;
@@ -1537,10 +1538,10 @@ public class LexTreeLinguist implements Linguist {
      *
      * @return the unigram smear
      */
-    private float getUnigramSmear(Node node) {
+    private float getUnigramSmear(int node) {
         float prob;
         if (wantUnigramSmear) {
-            prob = node.getUnigramProbability() * unigramSmearWeight;
+            prob = hmmTree.getUnigramProbability(node) * unigramSmearWeight;
         } else {
             prob = logOne;
         }
@@ -1565,7 +1566,7 @@ public class LexTreeLinguist implements Linguist {
      * @param endNode the end node
      * @return an array of associated HMM nodes
      */
-    private HMMNode[] getHMMNodes(EndNode endNode) {
+    private int[] getHMMNodes(int endNode) {
         return hmmTree.getHMMNodes(endNode);
     }
 
@@ -0,0 +1,269 @@
+/*
+ * Copyright 2014 Carnegie Mellon University.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * See the file "license.terms" for information on usage and
+ * redistribution of this file, and for a DISCLAIMER OF ALL
+ * WARRANTIES.
+ *
+ */
+
+package edu.cmu.sphinx.linguist.util;
+
+import edu.cmu.sphinx.linguist.Linguist;
+import edu.cmu.sphinx.linguist.SearchState;
+import edu.cmu.sphinx.linguist.SearchStateArc;
+import edu.cmu.sphinx.linguist.lextree.LexTreeLinguist;
+import edu.cmu.sphinx.util.props.*;
+import org.eclipse.collections.impl.map.mutable.primitive.ObjectIntHashMap;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.*;
+import java.util.logging.Logger;
+
+/**
+ * Profiles the successor expansions a search performs on a linguist.
+ * <p>
+ * A search manager configured with a profiler asks it for the successors of
+ * each state it expands instead of asking the state directly. For each
+ * utterance the profiler counts the expansions and the arcs returned by search
+ * state class, measures the time spent in {@link SearchState#getSuccessors()},
+ * keeps the states that were expanded most often and, for a
+ * {@link LexTreeLinguist}, the hits and misses of the arc cache. Since the arc
+ * cache is shared, those counts include any other search running on the same
+ * linguist at the same time.
+ * <p>
+ * At the end of an utterance the profile is logged and, if a report file is
+ * configured, appended to it as a single line JSON object, so that the profiles
+ * of a test run can be loaded by other tools. A profiler is meant to be used by
+ * one search at a time.
+ */
+public class LinguistProfiler implements Configurable {
+
+    /** The property that defines the linguist to profile. */
+    @S4Component(type = Linguist.class)
+    public final static String PROP_LINGUIST = "linguist";
+
+    /** The property that defines how many of the most expanded states are reported. */
+    @S4Integer(defaultValue = 20)
+    public final static String PROP_TOP_STATES = "topStates";
+
+    /** The property that defines the file the reports are appended to. No file is written if it is not set. */
+    @S4String(mandatory = false)
+    public final static String PROP_REPORT_FILE = "reportFile";
+
+    private Logger logger;
+    private Linguist linguist;
+    private int topStates;
+    private String reportFile;
+
+    private final Map<Class<?>, ClassProfile> classProfiles = new HashMap<>();
+    private final ObjectIntHashMap<SearchState> stateExpansions = new ObjectIntHashMap<>();
+    private int utterance;
+    private long startTime;
+    private long startCacheHits;
+    private long startCacheMisses;
+    private String lastReport;
+
+
+    /**
+     * Creates a profiler
+     *
+     * @param linguist   the linguist to profile
+     * @param topStates  the number of most expanded states to report
+     * @param reportFile the file the reports are appended to, or null
+     */
+    public LinguistProfiler(Linguist linguist, int topStates, String reportFile) {
+        this.logger = Logger.getLogger(getClass().getName());
+        this.linguist = linguist;
+        this.topStates = topStates;
+        this.reportFile = reportFile;
+    }
+
+
+    public LinguistProfiler() {
+    }
+
+
+    /*
+    * (non-Javadoc)
+    *
+    * @see edu.cmu.sphinx.util.props.Configurable#newProperties(edu.cmu.sphinx.util.props.PropertySheet)
+    */
+    @Override
+    public void newProperties(PropertySheet ps) throws PropertyException {
+        logger = ps.getLogger();
+        linguist = (Linguist) ps.getComponent(PROP_LINGUIST);
+        topStates = ps.getInt(PROP_TOP_STATES);
+        reportFile = ps.getString(PROP_REPORT_FILE);
+    }
+
+
+    /** Starts the profile of an utterance. */
+    public void startUtterance() {
+        classProfiles.clear();
+        stateExpansions.clear();
+        utterance++;
+        StripedClockCache<?, ?> arcCache = getArcCache();
+        if (arcCache != null) {
+            startCacheHits = arcCache.getHits();
+            startCacheMisses = arcCache.getMisses();
+        }
+        startTime = System.nanoTime();
+    }
+
+
+    /**
+     * Expands a state and records the expansion
+     *
+     * @param state the state to expand
+     * @return the successors of the state
+     */
+    public SearchStateArc[] getSuccessors(SearchState state) {
+        long start = System.nanoTime();
+        SearchStateArc[] arcs = state.getSuccessors();
+        long time = System.nanoTime() - start;
+
+        ClassProfile profile = classProfiles.get(state.getClass());
+        if (profile == null) {
+            profile = new ClassProfile(state.getClass());
+            classProfiles.put(state.getClass(), profile);
+        }
+        profile.expansions++;
+        profile.arcs += arcs.length;
+        profile.nanos += time;
+        stateExpansions.addToValue(state, 1);
+        return arcs;
+    }
+
+
+    /**
+     * Ends the profile of an utterance, then logs and writes its report
+     *
+     * @return the report
+     */
+    public String endUtterance() {
+        lastReport = createReport(System.nanoTime() - startTime);
+        logger.info(lastReport);
+        if (reportFile != null) {
+            try (PrintWriter out = new PrintWriter(new FileWriter(reportFile, true))) {
+                out.println(lastReport);
+            } catch (IOException e) {
+                logger.warning("Can't write linguist profile to " + reportFile + ": " + e);
+            }
+        }
+        return lastReport;
+    }
+
+
+    /**
+     * @return the report of the last utterance, or null if no utterance ended yet
+     */
+    public String getLastReport() {
+        return lastReport;
+    }
+
+
+    private StripedClockCache<?, ?> getArcCache() {
+        return linguist instanceof LexTreeLinguist ? ((LexTreeLinguist) linguist).getArcCache() : null;
+    }
+
+
+    private String createReport(long utteranceTime) {
+        List<ClassProfile> profiles = new ArrayList<>(classProfiles.values());
+        profiles.sort((p1, p2) -> Long.compare(p2.nanos, p1.nanos));
+        long expansions = 0;
+        long arcs = 0;
+        long nanos = 0;
+        for (ClassProfile profile : profiles) {
+            expansions += profile.expansions;
+            arcs += profile.arcs;
+            nanos += profile.nanos;
+        }
+
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\"utterance\":").append(utterance);
+        sb.append(",\"linguist\":");
+        appendString(sb, linguist.getClass().getName());
+        sb.append(",\"utteranceMs\":").append(toMillis(utteranceTime));
+        sb.append(",\"expansions\":").append(expansions);
+        sb.append(",\"arcs\":").append(arcs);
+        sb.append(",\"successorMs\":").append(toMillis(nanos));
+
+        StripedClockCache<?, ?> arcCache = getArcCache();
+        if (arcCache != null) {
+            long hits = arcCache.getHits() - startCacheHits;
+            long misses = arcCache.getMisses() - startCacheMisses;
+            sb.append(",\"arcCache\":{\"hits\":").append(hits);
+            sb.append(",\"misses\":").append(misses);
+            sb.append(",\"hitRate\":").append(hits + misses == 0 ? 0.0 : (double) hits / (hits + misses));
+            sb.append('}');
+        }
+
+        sb.append(",\"classes\":[");
+        for (int i = 0; i < profiles.size(); i++) {
+            ClassProfile profile = profiles.get(i);
+            if (i > 0)
+                sb.append(',');
+            sb.append("{\"class\":");
+            appendString(sb, profile.type.getName());
+            sb.append(",\"expansions\":").append(profile.expansions);
+            sb.append(",\"arcs\":").append(profile.arcs);
+            sb.append(",\"successorMs\":").append(toMillis(profile.nanos));
+            sb.append('}');
+        }
+
+        List<SearchState> states = new ArrayList<>(stateExpansions.keySet());
+        states.sort((s1, s2) -> Integer.compare(stateExpansions.get(s2), stateExpansions.get(s1)));
+        sb.append("],\"topStates\":[");
+        for (int i = 0; i < Math.min(topStates, states.size()); i++) {
+            SearchState state = states.get(i);
+            if (i > 0)
+                sb.append(',');
+            sb.append("{\"state\":");
+            appendString(sb, state.toString());
+            sb.append(",\"class\":");
+            appendString(sb, state.getClass().getName());
+            sb.append(",\"expansions\":").append(stateExpansions.get(state));
+            sb.append('}');
+        }
+        sb.append("]}");
+        return sb.toString();
+    }
+
+
+    private static double toMillis(long nanos) {
+        return nanos / 1000 / 1000.0;
+    }
+
+
+    private static void appendString(StringBuilder sb, String s) {
+        sb.append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\')
+                sb.append('\\').append(c);
+            else if (c < ' ')
+                sb.append(String.format("\\u%04x", (int) c));
+            else
+                sb.append(c);
+        }
+        sb.append('"');
+    }
+
+
+    /** The expansions of the states of one class */
+    private static class ClassProfile {
+
+        final Class<?> type;
+        long expansions;
+        long arcs;
+        long nanos;
+
+        ClassProfile(Class<?> type) {
+            this.type = type;
+        }
+    }
+}
@@ -0,0 +1,228 @@
+/*
+ * Copyright 2014 Carnegie Mellon University.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * See the file "license.terms" for information on usage and
+ * redistribution of this file, and for a DISCLAIMER OF ALL
+ * WARRANTIES.
+ *
+ */
+
+package edu.cmu.sphinx.linguist.util;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A bounded cache that can be shared between threads.
+ * <p>
+ * The cache is split into segments by key hash. Lookups only read a
+ * {@link ConcurrentHashMap} and set the reference bit of the entry, so they
+ * take no lock and, unlike an access ordered {@link LRUCache}, do not modify
+ * any shared list. Insertions lock their segment and, if the segment is full,
+ * evict an entry with the CLOCK algorithm: the hand sweeps over the slots of
+ * the segment, clearing reference bits, and replaces the first entry that was
+ * not referenced since the hand last passed it.
+ * <p>
+ * Hits, misses and evictions are counted for monitoring.
+ *
+ * @param <K> the key type
+ * @param <V> the value type
+ */
+public class StripedClockCache<K, V> {
+
+    private final static int MAX_SEGMENTS = 16;
+
+    private final Segment<K, V>[] segments;
+    private final int segmentMask;
+    private final int maxSize;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+
+    /**
+     * Creates a cache with the given maximum size. A cache of size zero
+     * stores nothing.
+     *
+     * @param maxSize the maximum number of entries
+     */
+    @SuppressWarnings("unchecked")
+    public StripedClockCache(int maxSize) {
+        this.maxSize = Math.max(maxSize, 0);
+        int segmentCount = 1;
+        while (segmentCount < MAX_SEGMENTS && segmentCount * 2 * 64 <= this.maxSize)
+            segmentCount *= 2;
+        segments = (Segment<K, V>[]) new Segment<?, ?>[segmentCount];
+        for (int i = 0; i < segmentCount; i++) {
+            int capacity = this.maxSize / segmentCount + (i < this.maxSize % segmentCount ? 1 : 0);
+            segments[i] = new Segment<>(capacity);
+        }
+        segmentMask = segmentCount - 1;
+    }
+
+
+    /**
+     * Returns the value cached for the given key.
+     *
+     * @param key the key
+     * @return the value, or null if the key is not cached
+     */
+    public V get(K key) {
+        Entry<K, V> entry = segmentFor(key).map.get(key);
+        if (entry == null) {
+            misses.increment();
+            return null;
+        }
+        if (!entry.referenced)
+            entry.referenced = true;
+        hits.increment();
+        return entry.value;
+    }
+
+
+    /**
+     * Caches a value for the given key, evicting another entry if the
+     * segment of the key is full. If the key is already cached the cached
+     * value is kept.
+     *
+     * @param key   the key
+     * @param value the value
+     */
+    public void put(K key, V value) {
+        Segment<K, V> segment = segmentFor(key);
+        if (segment.capacity == 0 || segment.map.containsKey(key))
+            return;
+        synchronized (segment) {
+            if (segment.map.containsKey(key))
+                return;
+            Entry<K, V> entry = new Entry<>(key, value);
+            if (segment.used < segment.capacity) {
+                segment.ring[segment.used++] = entry;
+            } else {
+                Entry<K, V>[] ring = segment.ring;
+                while (ring[segment.hand].referenced) {
+                    ring[segment.hand].referenced = false;
+                    segment.hand = (segment.hand + 1) % ring.length;
+                }
+                segment.map.remove(ring[segment.hand].key);
+                ring[segment.hand] = entry;
+                segment.hand = (segment.hand + 1) % ring.length;
+                evictions.increment();
+            }
+            segment.map.put(key, entry);
+        }
+    }
+
+
+    /** Removes all entries, keeping the statistics. */
+    public void clear() {
+        for (Segment<K, V> segment : segments) {
+            synchronized (segment) {
+                segment.map.clear();
+                for (int i = 0; i < segment.used; i++)
+                    segment.ring[i] = null;
+                segment.used = 0;
+                segment.hand = 0;
+            }
+        }
+    }
+
+
+    /**
+     * @return the number of cached entries
+     */
+    public int size() {
+        int size = 0;
+        for (Segment<K, V> segment : segments)
+            size += segment.map.size();
+        return size;
+    }
+
+
+    /**
+     * @return the maximum number of cached entries
+     */
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+
+    /**
+     * @return the number of lookups that found a value
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+
+    /**
+     * @return the number of lookups that found no value
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+
+    /**
+     * @return the number of entries evicted to make room for new ones
+     */
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+
+    /**
+     * @return the fraction of lookups that found a value, or 0 if there were none
+     */
+    public double getHitRate() {
+        long hits = getHits();
+        long total = hits + getMisses();
+        return total == 0 ? 0.0 : (double) hits / total;
+    }
+
+
+    @Override
+    public String toString() {
+        return "StripedClockCache size: " + size() + '/' + maxSize + " hits: " + getHits() + " misses: "
+                + getMisses() + " evictions: " + getEvictions();
+    }
+
+
+    private Segment<K, V> segmentFor(K key) {
+        int h = key.hashCode();
+        h ^= (h >>> 16);
+        return segments[h & segmentMask];
+    }
+
+
+    private static class Segment<K, V> {
+
+        final ConcurrentHashMap<K, Entry<K, V>> map;
+        final Entry<K, V>[] ring;
+        final int capacity;
+        int used;
+        int hand;
+
+        @SuppressWarnings("unchecked")
+        Segment(int capacity) {
+            this.capacity = capacity;
+            map = new ConcurrentHashMap<>(Math.max(capacity, 1));
+            ring = (Entry<K, V>[]) new Entry<?, ?>[capacity];
+        }
+    }
+
+
+    private static class Entry<K, V> {
+
+        final K key;
+        final V value;
+        volatile boolean referenced;
+
+        Entry(K key, V value) {
+            this.key = key;
+            this.value = value;
+        }
+    }
+}
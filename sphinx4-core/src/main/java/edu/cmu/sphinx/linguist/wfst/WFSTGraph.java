@@ -0,0 +1,223 @@
+/*
+ * Copyright 2014 Carnegie Mellon University.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * See the file "license.terms" for information on usage and
+ * redistribution of this file, and for a DISCLAIMER OF ALL
+ * WARRANTIES.
+ *
+ */
+
+package edu.cmu.sphinx.linguist.wfst;
+
+import edu.cmu.sphinx.linguist.acoustic.HMMState;
+import edu.cmu.sphinx.linguist.dictionary.Pronunciation;
+import edu.cmu.sphinx.util.LogMath;
+
+/**
+ * A static weighted finite state transducer used as a decoding graph.
+ * <p>
+ * States are numbered from zero and the arcs leaving a state are stored
+ * contiguously, so the whole graph lives in a handful of primitive arrays. The
+ * input label of an arc is a transition id: a positive index into the table of
+ * HMM states, meaning that taking the arc consumes one frame scored by that HMM
+ * state, or zero for an arc that consumes nothing. The output label is a
+ * positive index into the table of pronunciations for an arc that ends a word,
+ * or zero. Weights and final weights are in the LogMath log domain and already
+ * include the language weight and insertion probabilities.
+ * <p>
+ * All the emitting arcs entering a state carry the same transition id, so a
+ * state can also be seen as an HMM state of the search space: states entered by
+ * an emitting arc are emitting, all others are not.
+ */
+public class WFSTGraph {
+
+    private final int initialState;
+    private final int[] arcOffsets;
+    private final int[] arcTargets;
+    private final int[] arcInputs;
+    private final int[] arcOutputs;
+    private final float[] arcWeights;
+    private final float[] finalWeights;
+    private final int[] stateInputs;
+    private final HMMState[] transitionStates;
+    private final Pronunciation[] pronunciations;
+
+
+    /**
+     * Creates a graph from its arrays. The arrays are not copied.
+     *
+     * @param initialState     the initial state
+     * @param arcOffsets       for each state, the index of its first arc, followed by the total number of arcs
+     * @param arcTargets       the target state of each arc
+     * @param arcInputs        the transition id of each arc
+     * @param arcOutputs       the pronunciation id of each arc
+     * @param arcWeights       the weight of each arc
+     * @param finalWeights     the final weight of each state
+     * @param transitionStates the HMM state of each transition id, starting at index 1
+     * @param pronunciations   the pronunciation of each pronunciation id, starting at index 1
+     */
+    public WFSTGraph(int initialState, int[] arcOffsets, int[] arcTargets, int[] arcInputs, int[] arcOutputs,
+                     float[] arcWeights, float[] finalWeights, HMMState[] transitionStates,
+                     Pronunciation[] pronunciations) {
+        this.initialState = initialState;
+        this.arcOffsets = arcOffsets;
+        this.arcTargets = arcTargets;
+        this.arcInputs = arcInputs;
+        this.arcOutputs = arcOutputs;
+        this.arcWeights = arcWeights;
+        this.finalWeights = finalWeights;
+        this.transitionStates = transitionStates;
+        this.pronunciations = pronunciations;
+
+        stateInputs = new int[getNumStates()];
+        for (int arc = 0; arc < arcTargets.length; arc++) {
+            int input = arcInputs[arc];
+            int target = arcTargets[arc];
+            if (input != 0) {
+                if (stateInputs[target] != 0 && stateInputs[target] != input)
+                    throw new Error("State " + target + " is entered with transition ids "
+                            + stateInputs[target] + " and " + input);
+                stateInputs[target] = input;
+            }
+        }
+    }
+
+
+    /**
+     * @return the initial state
+     */
+    public int getInitialState() {
+        return initialState;
+    }
+
+
+    /**
+     * @return the number of states
+     */
+    public int getNumStates() {
+        return arcOffsets.length - 1;
+    }
+
+
+    /**
+     * @return the number of arcs
+     */
+    public int getNumArcs() {
+        return arcTargets.length;
+    }
+
+
+    /**
+     * Returns the arc offsets. The arcs of state <code>s</code> are numbered
+     * from <code>offsets[s]</code> to <code>offsets[s + 1] - 1</code>. The
+     * array must not be modified.
+     *
+     * @return the arc offsets
+     */
+    public int[] getArcOffsets() {
+        return arcOffsets;
+    }
+
+
+    /**
+     * @return the target state of each arc. The array must not be modified.
+     */
+    public int[] getArcTargets() {
+        return arcTargets;
+    }
+
+
+    /**
+     * @return the transition id of each arc, zero for arcs that consume no
+     *         frame. The array must not be modified.
+     */
+    public int[] getArcInputs() {
+        return arcInputs;
+    }
+
+
+    /**
+     * @return the pronunciation id of each arc, zero for arcs that do not end
+     *         a word. The array must not be modified.
+     */
+    public int[] getArcOutputs() {
+        return arcOutputs;
+    }
+
+
+    /**
+     * @return the weight of each arc. The array must not be modified.
+     */
+    public float[] getArcWeights() {
+        return arcWeights;
+    }
+
+
+    /**
+     * @return the final weight of each state, {@link LogMath#LOG_ZERO} for
+     *         states that are not final. The array must not be modified.
+     */
+    public float[] getFinalWeights() {
+        return finalWeights;
+    }
+
+
+    /**
+     * Returns the transition id of the emitting arcs entering a state
+     *
+     * @param state the state
+     * @return the transition id, or zero if the state is not emitting
+     */
+    public int getStateInput(int state) {
+        return stateInputs[state];
+    }
+
+
+    /**
+     * @return the number of transition ids, including the unused id zero
+     */
+    public int getNumTransitionIds() {
+        return transitionStates.length;
+    }
+
+
+    /**
+     * Returns the HMM state that scores a transition id
+     *
+     * @param transitionId the transition id
+     * @return the HMM state
+     */
+    public HMMState getTransitionState(int transitionId) {
+        return transitionStates[transitionId];
+    }
+
+
+    /**
+     * Returns the pronunciation of a pronunciation id
+     *
+     * @param pronunciationId the pronunciation id
+     * @return the pronunciation
+     */
+    public Pronunciation getPronunciation(int pronunciationId) {
+        return pronunciations[pronunciationId];
+    }
+
+
+    /**
+     * Determines if a state is final
+     *
+     * @param state the state
+     * @return true if the state has a final weight
+     */
+    public boolean isFinal(int state) {
+        return finalWeights[state] > LogMath.LOG_ZERO;
+    }
+
+
+    @Override
+    public String toString() {
+        return "WFSTGraph states: " + getNumStates() + " arcs: " + getNumArcs() + " transition ids: "
+                + (transitionStates.length - 1) + " pronunciations: " + (pronunciations.length - 1);
+    }
+}
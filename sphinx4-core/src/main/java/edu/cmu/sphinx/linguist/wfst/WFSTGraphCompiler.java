@@ -0,0 +1,442 @@
+/*
+ * Copyright 2014 Carnegie Mellon University.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * See the file "license.terms" for information on usage and
+ * redistribution of this file, and for a DISCLAIMER OF ALL
+ * WARRANTIES.
+ *
+ */
+
+package edu.cmu.sphinx.linguist.wfst;
+
+import edu.cmu.sphinx.linguist.WordSequence;
+import edu.cmu.sphinx.linguist.acoustic.HMM;
+import edu.cmu.sphinx.linguist.acoustic.HMMPool;
+import edu.cmu.sphinx.linguist.acoustic.HMMPosition;
+import edu.cmu.sphinx.linguist.acoustic.HMMState;
+import edu.cmu.sphinx.linguist.acoustic.HMMStateArc;
+import edu.cmu.sphinx.linguist.acoustic.Unit;
+import edu.cmu.sphinx.linguist.acoustic.UnitManager;
+import edu.cmu.sphinx.linguist.dictionary.Dictionary;
+import edu.cmu.sphinx.linguist.dictionary.Pronunciation;
+import edu.cmu.sphinx.linguist.dictionary.Word;
+import edu.cmu.sphinx.linguist.language.ngram.SimpleNGramModel;
+import edu.cmu.sphinx.util.LogMath;
+import org.eclipse.collections.impl.list.mutable.primitive.FloatArrayList;
+import org.eclipse.collections.impl.list.mutable.primitive.IntArrayList;
+import org.eclipse.collections.impl.map.mutable.primitive.ObjectIntHashMap;
+
+import java.util.*;
+
+/**
+ * Compiles a dictionary, the HMMs of an acoustic model and a back-off n-gram
+ * model into a {@link WFSTGraph}.
+ * <p>
+ * The grammar part of the graph has one state per n-gram history of the model.
+ * A history state has a back-off arc to the state of its shortened history and
+ * a final weight if the model predicts the sentence end after it. The words
+ * predicted after a history are expanded into a tree of HMMs that shares common
+ * pronunciation prefixes, so the graph is deterministic on the transition ids
+ * leaving each history. The language scores are pushed towards the root of each
+ * tree, which lets the search prune on the best reachable language score. Each
+ * HMM state of the tree becomes a graph state whose emitting arcs are labeled
+ * with its transition id, and each HMM gets a non-emitting exit state from which
+ * the next HMMs are entered or the word is emitted. States are created bottom-up
+ * and merged when their labels and arcs are identical, which shares equal
+ * suffixes of the trees much like minimization would.
+ * <p>
+ * Cross word contexts are not expanded: the first and last units of a word are
+ * taken in the context of silence. Silence, and optionally the filler words, can
+ * be inserted after any word without changing the history.
+ */
+public class WFSTGraphCompiler {
+
+    private final static int SELF = -1;
+
+    private final Dictionary dictionary;
+    private final HMMPool hmmPool;
+    private final SimpleNGramModel languageModel;
+    private final float languageWeight;
+    private final float logWordInsertionProbability;
+    private final float logSilenceInsertionProbability;
+    private final float logFillerInsertionProbability;
+    private final boolean addFillerWords;
+
+    // the graph under construction
+    private int numStates;
+    private final IntArrayList arcSources = new IntArrayList();
+    private final IntArrayList arcTargets = new IntArrayList();
+    private final IntArrayList arcInputs = new IntArrayList();
+    private final IntArrayList arcOutputs = new IntArrayList();
+    private final FloatArrayList arcWeights = new FloatArrayList();
+    private final FloatArrayList finalWeights = new FloatArrayList();
+    private final Map<Signature, Integer> sharedStates = new HashMap<>();
+
+    private final Map<HMM, int[]> transitionIds = new HashMap<>();
+    private final List<HMMState> transitionStates = new ArrayList<>();
+    private final ObjectIntHashMap<Pronunciation> pronunciationIds = new ObjectIntHashMap<>();
+    private final List<Pronunciation> pronunciations = new ArrayList<>();
+
+
+    /**
+     * Creates a compiler
+     *
+     * @param dictionary                     the dictionary
+     * @param hmmPool                        the pool of HMMs of the acoustic model
+     * @param languageModel                  the language model
+     * @param languageWeight                 the language weight
+     * @param logWordInsertionProbability    the word insertion probability in the log math log domain
+     * @param logSilenceInsertionProbability the silence insertion probability in the log math log domain
+     * @param logFillerInsertionProbability  the filler insertion probability in the log math log domain
+     * @param addFillerWords                 if true, the filler words of the dictionary are added
+     */
+    public WFSTGraphCompiler(Dictionary dictionary, HMMPool hmmPool, SimpleNGramModel languageModel,
+                             float languageWeight, float logWordInsertionProbability,
+                             float logSilenceInsertionProbability, float logFillerInsertionProbability,
+                             boolean addFillerWords) {
+        this.dictionary = dictionary;
+        this.hmmPool = hmmPool;
+        this.languageModel = languageModel;
+        this.languageWeight = languageWeight;
+        this.logWordInsertionProbability = logWordInsertionProbability;
+        this.logSilenceInsertionProbability = logSilenceInsertionProbability;
+        this.logFillerInsertionProbability = logFillerInsertionProbability;
+        this.addFillerWords = addFillerWords;
+    }
+
+
+    /**
+     * Compiles the graph. A compiler can only be used once.
+     *
+     * @return the graph
+     */
+    public WFSTGraph compile() {
+        transitionStates.add(null);
+        pronunciations.add(null);
+
+        int maxDepth = languageModel.getMaxDepth();
+        List<WordSequence> ngrams = new ArrayList<>();
+        for (WordSequence ngram : languageModel.getNGrams()) {
+            if (ngram.size() <= maxDepth && !containsUnknownWord(ngram))
+                ngrams.add(ngram);
+        }
+
+        // one grammar state per history
+        Map<WordSequence, Integer> histories = new LinkedHashMap<>();
+        histories.put(WordSequence.EMPTY, newState());
+        for (WordSequence ngram : ngrams) {
+            if (ngram.size() < maxDepth && !ngram.word(ngram.size() - 1).isSentenceEndWord()
+                    && !histories.containsKey(ngram))
+                histories.put(ngram, newState());
+        }
+
+        List<List<WordEntry>> entries = new ArrayList<>();
+        for (int i = 0; i < histories.size(); i++)
+            entries.add(new ArrayList<>());
+
+        for (WordSequence ngram : ngrams) {
+            Integer history = histories.get(ngram.getOldest());
+            if (history == null)
+                continue;
+            Word word = ngram.word(ngram.size() - 1);
+            float logProbability = languageWeight * languageModel.getProbability(ngram);
+            if (word.isSentenceEndWord()) {
+                finalWeights.set(history, logProbability);
+            } else if (!word.isSentenceStartWord()) {
+                int target = getHistoryState(histories, ngram.trim(maxDepth - 1));
+                for (Pronunciation pronunciation : word.pronunciations)
+                    entries.get(history).add(new WordEntry(pronunciation,
+                            logProbability + logWordInsertionProbability, target));
+            }
+        }
+
+        List<Word> fillers = new ArrayList<>();
+        Word silence = dictionary.getSilenceWord();
+        if (silence != null)
+            fillers.add(silence);
+        if (addFillerWords) {
+            for (Word filler : dictionary.getFillerWords()) {
+                if (!filler.isSentenceStartWord() && !filler.isSentenceEndWord() && !filler.equals(silence))
+                    fillers.add(filler);
+            }
+        }
+        for (int history = 0; history < histories.size(); history++) {
+            for (Word filler : fillers) {
+                float logInsertion = filler == silence ? logSilenceInsertionProbability
+                        : logFillerInsertionProbability;
+                for (Pronunciation pronunciation : filler.pronunciations)
+                    entries.get(history).add(new WordEntry(pronunciation, logInsertion, history));
+            }
+        }
+
+        for (Map.Entry<WordSequence, Integer> history : histories.entrySet()) {
+            int state = history.getValue();
+            TreeNode root = new TreeNode(null);
+            for (WordEntry entry : entries.get(state)) {
+                // a pronunciation without units cannot consume any frame
+                if (entry.pronunciation.units.length > 0)
+                    root.add(entry, getHMMs(entry.pronunciation), 0);
+            }
+            root.computeBest();
+            for (TreeNode child : root.children.values())
+                addArc(state, addTree(child), transitionId(child.hmm, 0), 0, child.best);
+            if (history.getKey().size() > 0) {
+                float logBackoff = languageWeight * languageModel.getBackoff(history.getKey());
+                addArc(state, getHistoryState(histories, history.getKey().getNewest()), 0, 0, logBackoff);
+            }
+        }
+
+        Word start = dictionary.getSentenceStartWord();
+        Integer initialState = start == null ? null : histories.get(new WordSequence(start));
+        return build(initialState == null ? 0 : initialState);
+    }
+
+
+    /** Returns the state of the longest suffix of the given sequence that is a history. */
+    private static int getHistoryState(Map<WordSequence, Integer> histories, WordSequence sequence) {
+        Integer state;
+        while ((state = histories.get(sequence)) == null)
+            sequence = sequence.getNewest();
+        return state;
+    }
+
+
+    private static boolean containsUnknownWord(WordSequence sequence) {
+        for (Word word : sequence.getWords()) {
+            if (word == Word.UNKNOWN)
+                return true;
+        }
+        return false;
+    }
+
+
+    /** Returns the HMMs of a pronunciation, using silence as the context across word boundaries. */
+    private HMM[] getHMMs(Pronunciation pronunciation) {
+        Unit[] units = pronunciation.units;
+        HMM[] hmms = new HMM[units.length];
+        for (int i = 0; i < units.length; i++) {
+            Unit lc = i > 0 ? units[i - 1] : UnitManager.SILENCE;
+            Unit rc = i < units.length - 1 ? units[i + 1] : UnitManager.SILENCE;
+            HMMPosition position;
+            if (units.length == 1)
+                position = HMMPosition.SINGLE;
+            else if (i == 0)
+                position = HMMPosition.BEGIN;
+            else if (i == units.length - 1)
+                position = HMMPosition.END;
+            else
+                position = HMMPosition.INTERNAL;
+            hmms[i] = hmmPool.getHMM(units[i], lc, rc, position);
+            if (hmms[i] == null)
+                throw new Error("No HMM for " + units[i] + " in " + pronunciation);
+        }
+        return hmms;
+    }
+
+
+    /**
+     * Adds the states of a subtree, children first, and returns the state of
+     * the first HMM state of its root.
+     */
+    private int addTree(TreeNode node) {
+        IntArrayList arcs = new IntArrayList();
+        for (TreeNode child : node.children.values())
+            putArc(arcs, addTree(child), transitionId(child.hmm, 0), 0, child.best - node.best);
+        for (WordEntry entry : node.words)
+            putArc(arcs, entry.target, 0, pronunciationId(entry.pronunciation), entry.logProbability - node.best);
+        int exitState = addSharedState(0, arcs);
+
+        HMM hmm = node.hmm;
+        int[] states = new int[hmm.getOrder()];
+        for (int i = states.length - 1; i >= 0; i--) {
+            arcs = new IntArrayList();
+            for (HMMStateArc arc : hmm.state(i).getSuccessors()) {
+                HMMState next = arc.getHMMState();
+                if (!next.isEmitting()) {
+                    putArc(arcs, exitState, 0, 0, arc.getLogProbability());
+                } else if (next.getState() == i) {
+                    putArc(arcs, SELF, transitionId(hmm, i), 0, arc.getLogProbability());
+                } else if (next.getState() > i) {
+                    putArc(arcs, states[next.getState()], transitionId(hmm, next.getState()), 0,
+                            arc.getLogProbability());
+                } else {
+                    throw new Error("Unsupported backward transition in " + hmm);
+                }
+            }
+            states[i] = addSharedState(transitionId(hmm, i), arcs);
+        }
+        return states[0];
+    }
+
+
+    private static void putArc(IntArrayList arcs, int target, int input, int output, float weight) {
+        arcs.add(target);
+        arcs.add(input);
+        arcs.add(output);
+        arcs.add(Float.floatToIntBits(weight));
+    }
+
+
+    /** Returns an existing state with the same input and arcs, or creates one. */
+    private int addSharedState(int input, IntArrayList arcs) {
+        int[] values = new int[arcs.size() + 1];
+        values[0] = input;
+        for (int i = 0; i < arcs.size(); i++)
+            values[i + 1] = arcs.get(i);
+        Signature signature = new Signature(values);
+        Integer shared = sharedStates.get(signature);
+        if (shared != null)
+            return shared;
+
+        int state = newState();
+        for (int i = 0; i < arcs.size(); i += 4) {
+            int target = arcs.get(i);
+            addArc(state, target == SELF ? state : target, arcs.get(i + 1), arcs.get(i + 2),
+                    Float.intBitsToFloat(arcs.get(i + 3)));
+        }
+        sharedStates.put(signature, state);
+        return state;
+    }
+
+
+    private int newState() {
+        finalWeights.add(LogMath.LOG_ZERO);
+        return numStates++;
+    }
+
+
+    private void addArc(int source, int target, int input, int output, float weight) {
+        arcSources.add(source);
+        arcTargets.add(target);
+        arcInputs.add(input);
+        arcOutputs.add(output);
+        arcWeights.add(weight);
+    }
+
+
+    private int transitionId(HMM hmm, int state) {
+        int[] ids = transitionIds.get(hmm);
+        if (ids == null) {
+            ids = new int[hmm.getOrder()];
+            for (int i = 0; i < ids.length; i++) {
+                ids[i] = transitionStates.size();
+                transitionStates.add(hmm.state(i));
+            }
+            transitionIds.put(hmm, ids);
+        }
+        return ids[state];
+    }
+
+
+    private int pronunciationId(Pronunciation pronunciation) {
+        int id = pronunciationIds.getIfAbsent(pronunciation, 0);
+        if (id == 0) {
+            id = pronunciations.size();
+            pronunciations.add(pronunciation);
+            pronunciationIds.put(pronunciation, id);
+        }
+        return id;
+    }
+
+
+    /** Sorts the arcs by source state and creates the graph. */
+    private WFSTGraph build(int initialState) {
+        int numArcs = arcSources.size();
+        int[] offsets = new int[numStates + 1];
+        for (int i = 0; i < numArcs; i++)
+            offsets[arcSources.get(i) + 1]++;
+        for (int i = 0; i < numStates; i++)
+            offsets[i + 1] += offsets[i];
+
+        int[] next = Arrays.copyOf(offsets, numStates);
+        int[] targets = new int[numArcs];
+        int[] inputs = new int[numArcs];
+        int[] outputs = new int[numArcs];
+        float[] weights = new float[numArcs];
+        for (int i = 0; i < numArcs; i++) {
+            int arc = next[arcSources.get(i)]++;
+            targets[arc] = arcTargets.get(i);
+            inputs[arc] = arcInputs.get(i);
+            outputs[arc] = arcOutputs.get(i);
+            weights[arc] = arcWeights.get(i);
+        }
+        return new WFSTGraph(initialState, offsets, targets, inputs, outputs, weights, finalWeights.toArray(),
+                transitionStates.toArray(new HMMState[transitionStates.size()]),
+                pronunciations.toArray(new Pronunciation[pronunciations.size()]));
+    }
+
+
+    /** A word that can follow a history */
+    private static class WordEntry {
+
+        final Pronunciation pronunciation;
+        final float logProbability;
+        final int target;
+
+        WordEntry(Pronunciation pronunciation, float logProbability, int target) {
+            this.pronunciation = pronunciation;
+            this.logProbability = logProbability;
+            this.target = target;
+        }
+    }
+
+
+    /** A node of the pronunciation prefix tree of a history */
+    private static class TreeNode {
+
+        final HMM hmm;
+        final Map<HMM, TreeNode> children = new LinkedHashMap<>();
+        final List<WordEntry> words = new ArrayList<>();
+        float best;
+
+        TreeNode(HMM hmm) {
+            this.hmm = hmm;
+        }
+
+        void add(WordEntry entry, HMM[] hmms, int depth) {
+            if (depth == hmms.length) {
+                words.add(entry);
+                return;
+            }
+            TreeNode child = children.get(hmms[depth]);
+            if (child == null) {
+                child = new TreeNode(hmms[depth]);
+                children.put(hmms[depth], child);
+            }
+            child.add(entry, hmms, depth + 1);
+        }
+
+        float computeBest() {
+            best = LogMath.LOG_ZERO;
+            for (WordEntry entry : words)
+                best = Math.max(best, entry.logProbability);
+            for (TreeNode child : children.values())
+                best = Math.max(best, child.computeBest());
+            return best;
+        }
+    }
+
+
+    /** The input label and arcs of a state, used to merge identical states */
+    private static class Signature {
+
+        final int[] values;
+        final int hashCode;
+
+        Signature(int[] values) {
+            this.values = values;
+            this.hashCode = Arrays.hashCode(values);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Signature && Arrays.equals(values, ((Signature) o).values);
+        }
+    }
+}
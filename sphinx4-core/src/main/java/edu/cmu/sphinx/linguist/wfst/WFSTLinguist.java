@@ -0,0 +1,490 @@
+/*
+ * Copyright 2014 Carnegie Mellon University.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * See the file "license.terms" for information on usage and
+ * redistribution of this file, and for a DISCLAIMER OF ALL
+ * WARRANTIES.
+ *
+ */
+
+package edu.cmu.sphinx.linguist.wfst;
+
+import edu.cmu.sphinx.decoder.scorer.ScoreProvider;
+import edu.cmu.sphinx.frontend.Data;
+import edu.cmu.sphinx.linguist.*;
+import edu.cmu.sphinx.linguist.acoustic.AcousticModel;
+import edu.cmu.sphinx.linguist.acoustic.HMMPool;
+import edu.cmu.sphinx.linguist.acoustic.HMMState;
+import edu.cmu.sphinx.linguist.acoustic.UnitManager;
+import edu.cmu.sphinx.linguist.dictionary.Dictionary;
+import edu.cmu.sphinx.linguist.dictionary.Pronunciation;
+import edu.cmu.sphinx.linguist.language.ngram.LanguageModel;
+import edu.cmu.sphinx.linguist.language.ngram.SimpleNGramModel;
+import edu.cmu.sphinx.util.LogMath;
+import edu.cmu.sphinx.util.TimerPool;
+import edu.cmu.sphinx.util.props.*;
+
+import java.io.IOException;
+import java.util.logging.Logger;
+
+/**
+ * A linguist that compiles the dictionary, the acoustic model and an n-gram
+ * language model into a static {@link WFSTGraph} when it is allocated.
+ * <p>
+ * The graph is meant to be searched with the
+ * {@link edu.cmu.sphinx.decoder.search.WFSTSearchManager}, which passes tokens
+ * over the integer state ids of the graph. For other search managers the graph
+ * is also available as a regular {@link SearchGraph}, whose states are created
+ * on demand as views of the graph states.
+ * <p>
+ * The language model must be a {@link SimpleNGramModel}, since the compiler
+ * needs to enumerate its n-grams and back-off weights. See
+ * {@link WFSTGraphCompiler} for the structure of the graph.
+ */
+public class WFSTLinguist implements Linguist, Configurable {
+
+    /** The property that defines the acoustic model to use when building the graph */
+    @S4Component(type = AcousticModel.class)
+    public final static String PROP_ACOUSTIC_MODEL = "acousticModel";
+
+    /** The property that defines the unit manager to use when building the graph */
+    @S4Component(type = UnitManager.class, defaultClass = UnitManager.class)
+    public final static String PROP_UNIT_MANAGER = "unitManager";
+
+    /** The property that defines the language model to compile into the graph */
+    @S4Component(type = LanguageModel.class)
+    public final static String PROP_LANGUAGE_MODEL = "languageModel";
+
+    /** The property that defines the dictionary to use for this linguist */
+    @S4Component(type = Dictionary.class)
+    public final static String PROP_DICTIONARY = "dictionary";
+
+    /** The property that controls whether filler words are added to the graph */
+    @S4Boolean(defaultValue = false)
+    public final static String PROP_ADD_FILLER_WORDS = "addFillerWords";
+
+    private AcousticModel acousticModel;
+    private UnitManager unitManager;
+    private LanguageModel languageModel;
+    private Dictionary dictionary;
+
+    private Logger logger;
+    private boolean addFillerWords;
+    private float languageWeight;
+    private float logWordInsertionProbability;
+    private float logSilenceInsertionProbability;
+    private float logFillerInsertionProbability;
+
+    private WFSTGraph graph;
+    private SearchGraph searchGraph;
+
+
+    public WFSTLinguist(AcousticModel acousticModel, UnitManager unitManager, LanguageModel languageModel,
+                        Dictionary dictionary, double wordInsertionProbability, double silenceInsertionProbability,
+                        double fillerInsertionProbability, float languageWeight, boolean addFillerWords) {
+        logger = Logger.getLogger(getClass().getName());
+
+        this.acousticModel = acousticModel;
+        this.unitManager = unitManager;
+        this.languageModel = languageModel;
+        this.dictionary = dictionary;
+
+        this.logWordInsertionProbability = LogMath.linearToLog(wordInsertionProbability);
+        this.logSilenceInsertionProbability = LogMath.linearToLog(silenceInsertionProbability);
+        this.logFillerInsertionProbability = LogMath.linearToLog(fillerInsertionProbability);
+        this.languageWeight = languageWeight;
+        this.addFillerWords = addFillerWords;
+    }
+
+    public WFSTLinguist() {
+
+    }
+
+    /*
+    * (non-Javadoc)
+    *
+    * @see edu.cmu.sphinx.util.props.Configurable#newProperties(edu.cmu.sphinx.util.props.PropertySheet)
+    */
+    public void newProperties(PropertySheet ps) throws PropertyException {
+        logger = ps.getLogger();
+
+        acousticModel = (AcousticModel) ps.getComponent(PROP_ACOUSTIC_MODEL);
+        unitManager = (UnitManager) ps.getComponent(PROP_UNIT_MANAGER);
+        languageModel = (LanguageModel) ps.getComponent(PROP_LANGUAGE_MODEL);
+        dictionary = (Dictionary) ps.getComponent(PROP_DICTIONARY);
+
+        logWordInsertionProbability = LogMath.linearToLog(ps.getDouble(PROP_WORD_INSERTION_PROBABILITY));
+        logSilenceInsertionProbability = LogMath.linearToLog(ps.getDouble(PROP_SILENCE_INSERTION_PROBABILITY));
+        logFillerInsertionProbability = LogMath.linearToLog(ps.getDouble(PROP_FILLER_INSERTION_PROBABILITY));
+        languageWeight = ps.getFloat(PROP_LANGUAGE_WEIGHT);
+        addFillerWords = ps.getBoolean(PROP_ADD_FILLER_WORDS);
+    }
+
+
+    /*
+    * (non-Javadoc)
+    *
+    * @see edu.cmu.sphinx.linguist.Linguist#allocate()
+    */
+    public void allocate() throws IOException {
+        if (!(languageModel instanceof SimpleNGramModel))
+            throw new Error("WFSTLinguist needs a SimpleNGramModel, not " + languageModel.getClass().getName());
+        dictionary.allocate();
+        acousticModel.allocate();
+        languageModel.allocate();
+
+        TimerPool.getTimer(this, "Compile").start();
+        HMMPool hmmPool = new HMMPool(acousticModel, logger, unitManager);
+        graph = new WFSTGraphCompiler(dictionary, hmmPool, (SimpleNGramModel) languageModel, languageWeight,
+                logWordInsertionProbability, logSilenceInsertionProbability, logFillerInsertionProbability,
+                addFillerWords).compile();
+        TimerPool.getTimer(this, "Compile").stop();
+        logger.info("Compiled " + graph);
+
+        searchGraph = new WFSTSearchGraph();
+    }
+
+
+    /*
+    * (non-Javadoc)
+    *
+    * @see edu.cmu.sphinx.linguist.Linguist#deallocate()
+    */
+    public void deallocate() throws IOException {
+        if (acousticModel != null)
+            acousticModel.deallocate();
+        if (dictionary != null)
+            dictionary.deallocate();
+        if (languageModel != null)
+            languageModel.deallocate();
+        graph = null;
+        searchGraph = null;
+    }
+
+
+    /**
+     * Returns the compiled graph
+     *
+     * @return the graph, or null if the linguist is not allocated
+     */
+    public WFSTGraph getGraph() {
+        return graph;
+    }
+
+
+    /*
+    * (non-Javadoc)
+    *
+    * @see edu.cmu.sphinx.linguist.Linguist#getSearchGraph()
+    */
+    public SearchGraph getSearchGraph() {
+        return searchGraph;
+    }
+
+
+    /** Called before a recognition */
+    public void startRecognition() {
+    }
+
+
+    /** Called after a recognition */
+    public void stopRecognition() {
+    }
+
+
+    /**
+     * Returns a view of a graph state as a search state
+     *
+     * @param state       the graph state
+     * @param probability the probability of the arc entering the state
+     * @return the search state
+     */
+    public SearchState getSearchState(int state, float probability) {
+        if (graph.getStateInput(state) != 0)
+            return new WFSTHMMState(state, probability);
+        return new WFSTState(state, probability);
+    }
+
+
+    /**
+     * Returns a word search state for a pronunciation of the graph
+     *
+     * @param pronunciationId the pronunciation id
+     * @param target          the graph state following the word
+     * @param probability     the probability of the arc emitting the word
+     * @return the search state
+     */
+    public WordSearchState getWordState(int pronunciationId, int target, float probability) {
+        return new WFSTWordState(graph.getPronunciation(pronunciationId), target, probability);
+    }
+
+
+    /**
+     * Returns the state that ends a sentence
+     *
+     * @param probability the final weight of the state that was left
+     * @return the final state
+     */
+    public SearchState getFinalState(float probability) {
+        return new WFSTFinalState(probability);
+    }
+
+
+    class WFSTSearchGraph implements SearchGraph {
+
+        /*
+        * (non-Javadoc)
+        *
+        * @see edu.cmu.sphinx.linguist.SearchGraph#getInitialState()
+        */
+        public SearchState getInitialState() {
+            return getSearchState(graph.getInitialState(), 0.0f);
+        }
+
+
+        /*
+        * (non-Javadoc)
+        *
+        * @see edu.cmu.sphinx.linguist.SearchGraph#getNumStateOrder()
+        */
+        public int getNumStateOrder() {
+            return 3;
+        }
+
+
+        /*
+        * (non-Javadoc)
+        *
+        * @see edu.cmu.sphinx.linguist.SearchGraph#getWordTokenFirst()
+        */
+        public boolean getWordTokenFirst() {
+            return false;
+        }
+    }
+
+
+    /** Base class of the views of the graph, each view is also the arc that enters it */
+    abstract class WFSTSearchStateArc implements SearchState, SearchStateArc {
+
+        private final float probability;
+
+        WFSTSearchStateArc(float probability) {
+            this.probability = probability;
+        }
+
+        public SearchState getState() {
+            return this;
+        }
+
+        public float getProbability() {
+            return probability;
+        }
+
+        public float getLanguageProbability() {
+            return 0.0f;
+        }
+
+        public float getInsertionProbability() {
+            return 0.0f;
+        }
+
+        public boolean isEmitting() {
+            return false;
+        }
+
+        public boolean isFinal() {
+            return false;
+        }
+
+        public String toPrettyString() {
+            return toString();
+        }
+
+        public WordSequence getWordHistory() {
+            return WordSequence.EMPTY;
+        }
+
+        @Override
+        public String toString() {
+            return getSignature();
+        }
+    }
+
+
+    /** A view of a non-emitting graph state */
+    class WFSTState extends WFSTSearchStateArc {
+
+        final int state;
+
+        WFSTState(int state, float probability) {
+            super(probability);
+            this.state = state;
+        }
+
+        public SearchStateArc[] getSuccessors() {
+            int[] offsets = graph.getArcOffsets();
+            int first = offsets[state];
+            int count = offsets[state + 1] - first;
+            boolean isFinal = graph.isFinal(state);
+            SearchStateArc[] arcs = new SearchStateArc[isFinal ? count + 1 : count];
+            for (int i = 0; i < count; i++) {
+                int arc = first + i;
+                int target = graph.getArcTargets()[arc];
+                int output = graph.getArcOutputs()[arc];
+                float weight = graph.getArcWeights()[arc];
+                if (output != 0)
+                    arcs[i] = (SearchStateArc) getWordState(output, target, weight);
+                else
+                    arcs[i] = (SearchStateArc) getSearchState(target, weight);
+            }
+            if (isFinal)
+                arcs[count] = (SearchStateArc) getFinalState(graph.getFinalWeights()[state]);
+            return arcs;
+        }
+
+        public String getSignature() {
+            return "WFST-" + state;
+        }
+
+        public Object getLexState() {
+            return state;
+        }
+
+        public int getOrder() {
+            return 0;
+        }
+
+        @Override
+        public int hashCode() {
+            return state;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof WFSTState && ((WFSTState) o).state == state;
+        }
+    }
+
+
+    /** A view of an emitting graph state */
+    class WFSTHMMState extends WFSTState implements HMMSearchState, ScoreProvider {
+
+        WFSTHMMState(int state, float probability) {
+            super(state, probability);
+        }
+
+        public HMMState getHMMState() {
+            return graph.getTransitionState(graph.getStateInput(state));
+        }
+
+        public float getScore(Data data) {
+            return getHMMState().getScore(data);
+        }
+
+        public float[] getComponentScore(Data feature) {
+            return getHMMState().calculateComponentScore(feature);
+        }
+
+        @Override
+        public boolean isEmitting() {
+            return true;
+        }
+
+        @Override
+        public int getOrder() {
+            return 2;
+        }
+    }
+
+
+    /** A word emitted on an arc of the graph */
+    class WFSTWordState extends WFSTSearchStateArc implements WordSearchState {
+
+        private final Pronunciation pronunciation;
+        private final int target;
+
+        WFSTWordState(Pronunciation pronunciation, int target, float probability) {
+            super(probability);
+            this.pronunciation = pronunciation;
+            this.target = target;
+        }
+
+        public SearchStateArc[] getSuccessors() {
+            return new SearchStateArc[] {(SearchStateArc) getSearchState(target, 0.0f)};
+        }
+
+        public Pronunciation getPronunciation() {
+            return pronunciation;
+        }
+
+        public boolean isWordStart() {
+            return false;
+        }
+
+        public String getSignature() {
+            return "WFSTWord-" + pronunciation + '-' + target;
+        }
+
+        public Object getLexState() {
+            return pronunciation;
+        }
+
+        public int getOrder() {
+            return 1;
+        }
+
+        @Override
+        public int hashCode() {
+            return pronunciation.hashCode() * 31 + target;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof WFSTWordState))
+                return false;
+            WFSTWordState other = (WFSTWordState) o;
+            return other.pronunciation == pronunciation && other.target == target;
+        }
+    }
+
+
+    /** The end of a sentence */
+    class WFSTFinalState extends WFSTSearchStateArc {
+
+        WFSTFinalState(float probability) {
+            super(probability);
+        }
+
+        public SearchStateArc[] getSuccessors() {
+            return new SearchStateArc[0];
+        }
+
+        @Override
+        public boolean isFinal() {
+            return true;
+        }
+
+        public String getSignature() {
+            return "WFSTFinal";
+        }
+
+        public Object getLexState() {
+            return null;
+        }
+
+        public int getOrder() {
+            return 0;
+        }
+
+        @Override
+        public int hashCode() {
+            return -1;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof WFSTFinalState;
+        }
+    }
+}
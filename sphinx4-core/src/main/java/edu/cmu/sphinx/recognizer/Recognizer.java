@@ -16,10 +16,13 @@ import edu.cmu.sphinx.api.SpeechResult;
 import edu.cmu.sphinx.decoder.Decoder;
 import edu.cmu.sphinx.decoder.ResultListener;
 import edu.cmu.sphinx.decoder.ResultProducer;
+import edu.cmu.sphinx.decoder.search.SearchManager;
+import edu.cmu.sphinx.decoder.search.TokenSearchManager;
 import edu.cmu.sphinx.decoder.search.WordPruningBreadthFirstSearchManager;
 import edu.cmu.sphinx.instrumentation.Monitor;
 import edu.cmu.sphinx.instrumentation.Resetable;
 import edu.cmu.sphinx.result.Result;
+import edu.cmu.sphinx.util.MetricsRegistry;
 import edu.cmu.sphinx.util.props.*;
 
 import java.util.List;
@@ -61,6 +64,14 @@ public class Recognizer implements Configurable, ResultProducer {
     @S4ComponentList(type = Monitor.class)
     public final static String PROP_MONITORS = "monitors";
 
+    /**
+     * The property for the registry the components of this recognizer record
+     * their timings and token counts in. Without it the registry of the search
+     * manager is used.
+     */
+    @S4Component(type = MetricsRegistry.class, mandatory = false)
+    public final static String PROP_METRICS = "metrics";
+
 
 
     /** Defines the possible states of the recognizer. */
@@ -72,6 +83,7 @@ public class Recognizer implements Configurable, ResultProducer {
 
     private final List<StateListener> stateListeners = /*Collections.synchronizedList*/new CopyOnWriteArrayList<>();
     private List<Monitor> monitors;
+    private MetricsRegistry metrics;
 
 
 //    public Recognizer(Decoder decoder, List<Monitor> monitors) {
@@ -89,6 +101,12 @@ public class Recognizer implements Configurable, ResultProducer {
     public void newProperties(PropertySheet ps) throws PropertyException {
         decoder = (Decoder) ps.getComponent(PROP_DECODER);
         monitors = ps.getComponentList(PROP_MONITORS, Monitor.class);
+        metrics = (MetricsRegistry) ps.getComponent(PROP_METRICS);
+        if (metrics == null) {
+            SearchManager searchManager = decoder.search();
+            metrics = searchManager instanceof TokenSearchManager
+                    ? ((TokenSearchManager) searchManager).getMetrics() : new MetricsRegistry();
+        }
 
         name = ps.getInstanceName();
     }
@@ -252,6 +270,17 @@ public class Recognizer implements Configurable, ResultProducer {
     }
 
 
+    /**
+     * Returns the registry with the timings and token counts of this recognizer. Take a
+     * {@link MetricsRegistry#snapshot() snapshot} of it to export them.
+     *
+     * @return the metrics registry
+     */
+    public MetricsRegistry getMetrics() {
+        return metrics;
+    }
+
+
     /* (non-Javadoc)
     * @see java.lang.Object#toString()
     */
@@ -0,0 +1,394 @@
+/*
+ * Copyright 2014 Carnegie Mellon University.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * See the file "license.terms" for information on usage and
+ * redistribution of this file, and for a DISCLAIMER OF ALL
+ * WARRANTIES.
+ *
+ */
+
+package edu.cmu.sphinx.result;
+
+import edu.cmu.sphinx.util.LogMath;
+import org.eclipse.collections.impl.map.mutable.primitive.ObjectIntHashMap;
+
+import java.util.Arrays;
+
+/**
+ * A frozen copy of a {@link Lattice} laid out in arrays for fast scoring.
+ * <p>
+ * The nodes are numbered in topological order, so that every edge leads from a
+ * lower to a higher node number, and the edges leaving a node are stored
+ * contiguously: the edges of node <code>n</code> are the edges
+ * <code>getEdgesBegin(n)</code> up to, but not including,
+ * <code>getEdgesEnd(n)</code>. Forward-backward then is a pass over the edges
+ * in order and a pass in reverse order, without any hashing, sorting or
+ * recursion.
+ * <p>
+ * Lattices are usually acyclic, but since equal word tokens share a node, a
+ * word state that is entered again, like a filler loop, leads back to an
+ * earlier node. Such cycles are broken at an arbitrary node. The edges that
+ * lead back to the same or an earlier node are kept but ignored when scoring.
+ * <p>
+ * Changes to the lattice made after the compact lattice was created are not
+ * seen by it. The scores can be copied back to the nodes of the lattice with
+ * {@link #storeScores()}.
+ */
+public class CompactLattice {
+
+    private final Node[] nodes;
+    private final Edge[] edges;
+    private final int initialNode;
+    private final int terminalNode;
+
+    // edges of node n are edgeOffsets[n] .. edgeOffsets[n + 1] - 1
+    private final int[] edgeOffsets;
+    private final int[] edgeSources;
+    private final int[] edgeTargets;
+    private final double[] acousticScores;
+    private final double[] languageScores;
+
+    private final double[] forwardScores;
+    private final double[] backwardScores;
+    private final double[] viterbiScores;
+    private final double[] posteriors;
+    private final int[] bestPredecessors;
+
+
+    /**
+     * Creates a compact copy of a lattice
+     *
+     * @param lattice the lattice to copy
+     */
+    public CompactLattice(Lattice lattice) {
+        Node[] latticeNodes = lattice.getNodes().toArray(new Node[0]);
+        int numNodes = latticeNodes.length;
+        ObjectIntHashMap<Node> indices = new ObjectIntHashMap<>(numNodes);
+        for (int i = 0; i < numNodes; i++)
+            indices.put(latticeNodes[i], i);
+
+        int numEdges = lattice.getEdges().size();
+        int[] sources = new int[numEdges];
+        int[] targets = new int[numEdges];
+        int[] outDegrees = new int[numNodes];
+        int[] inDegrees = new int[numNodes];
+        int e = 0;
+        for (Edge edge : lattice.getEdges()) {
+            sources[e] = indexOf(indices, edge.getFromNode());
+            targets[e] = indexOf(indices, edge.getToNode());
+            outDegrees[sources[e]]++;
+            inDegrees[targets[e]]++;
+            e++;
+        }
+
+        // leaving edges by original index, needed for the sort
+        int[] offsets = new int[numNodes + 1];
+        for (int i = 0; i < numNodes; i++)
+            offsets[i + 1] = offsets[i] + outDegrees[i];
+        int[] leaving = new int[numEdges];
+        int[] fill = Arrays.copyOf(offsets, numNodes);
+        for (e = 0; e < numEdges; e++)
+            leaving[fill[sources[e]]++] = e;
+
+        // Kahn's algorithm, the initial node goes first
+        int[] order = new int[numNodes];
+        int[] ranks = new int[numNodes];
+        Arrays.fill(ranks, -1);
+        int head = 0;
+        int tail = 0;
+        int initial = lattice.getInitialNode() == null ? -1 : indexOf(indices, lattice.getInitialNode());
+        if (initial >= 0) {
+            order[tail++] = initial;
+            ranks[initial] = 0;
+        }
+        for (int i = 0; i < numNodes; i++) {
+            if (inDegrees[i] == 0 && i != initial) {
+                ranks[i] = tail;
+                order[tail++] = i;
+            }
+        }
+        int unsorted = 0;
+        while (head < numNodes) {
+            if (head == tail) {
+                // a cycle, break it at the first node that is left
+                while (ranks[unsorted] >= 0)
+                    unsorted++;
+                ranks[unsorted] = tail;
+                order[tail++] = unsorted;
+            }
+            int node = order[head++];
+            for (int i = offsets[node]; i < offsets[node + 1]; i++) {
+                int target = targets[leaving[i]];
+                if (--inDegrees[target] == 0 && ranks[target] < 0) {
+                    ranks[target] = tail;
+                    order[tail++] = target;
+                }
+            }
+        }
+
+        nodes = new Node[numNodes];
+        edgeOffsets = new int[numNodes + 1];
+        for (int i = 0; i < numNodes; i++) {
+            nodes[i] = latticeNodes[order[i]];
+            edgeOffsets[i + 1] = edgeOffsets[i] + outDegrees[order[i]];
+        }
+        edges = new Edge[numEdges];
+        edgeSources = new int[numEdges];
+        edgeTargets = new int[numEdges];
+        acousticScores = new double[numEdges];
+        languageScores = new double[numEdges];
+        Edge[] latticeEdges = lattice.getEdges().toArray(new Edge[0]);
+        e = 0;
+        for (int i = 0; i < numNodes; i++) {
+            int node = order[i];
+            for (int j = offsets[node]; j < offsets[node + 1]; j++) {
+                Edge edge = latticeEdges[leaving[j]];
+                edges[e] = edge;
+                edgeSources[e] = i;
+                edgeTargets[e] = ranks[targets[leaving[j]]];
+                acousticScores[e] = edge.getAcousticScore();
+                languageScores[e] = edge.getLMScore();
+                e++;
+            }
+        }
+
+        initialNode = initial < 0 ? -1 : ranks[initial];
+        terminalNode = lattice.getTerminalNode() == null ? -1 : ranks[indexOf(indices, lattice.getTerminalNode())];
+
+        forwardScores = new double[numNodes];
+        backwardScores = new double[numNodes];
+        viterbiScores = new double[numNodes];
+        posteriors = new double[numNodes];
+        bestPredecessors = new int[numNodes];
+        clearScores();
+    }
+
+
+    private static int indexOf(ObjectIntHashMap<Node> indices, Node node) {
+        int index = indices.getIfAbsent(node, -1);
+        if (index < 0)
+            throw new Error("Lattice has an edge to or from a missing node: " + node);
+        return index;
+    }
+
+
+    private void clearScores() {
+        Arrays.fill(forwardScores, LogMath.LOG_ZERO);
+        Arrays.fill(backwardScores, LogMath.LOG_ZERO);
+        Arrays.fill(viterbiScores, LogMath.LOG_ZERO);
+        Arrays.fill(posteriors, LogMath.LOG_ZERO);
+        Arrays.fill(bestPredecessors, -1);
+    }
+
+
+    /**
+     * Compute the utterance-level posterior for every node, i.e. the
+     * probability that this node occurs on any path through the lattice, along
+     * with the forward, backward and Viterbi scores.
+     *
+     * @param languageModelWeightAdjustment
+     *            the weight multiplier that will be applied to language score
+     *            already scaled by language weight
+     */
+    public void computeNodePosteriors(float languageModelWeightAdjustment) {
+        computeNodePosteriors(languageModelWeightAdjustment, false);
+    }
+
+
+    /**
+     * Compute the utterance-level posterior for every node, i.e. the
+     * probability that this node occurs on any path through the lattice, along
+     * with the forward, backward and Viterbi scores.
+     *
+     * @param languageModelWeightAdjustment
+     *            the weight multiplier that will be applied to language score
+     *            already scaled by language weight
+     * @param useAcousticScoresOnly
+     *            use only the acoustic scores to compute the posteriors, ignore
+     *            the language weight and scores
+     */
+    public void computeNodePosteriors(float languageModelWeightAdjustment, boolean useAcousticScoresOnly) {
+        clearScores();
+        if (initialNode < 0 || terminalNode < 0)
+            return;
+        double[] edgeScores = new double[edges.length];
+        for (int e = 0; e < edges.length; e++) {
+            edgeScores[e] = useAcousticScoresOnly ? acousticScores[e]
+                    : acousticScores[e] + languageScores[e] * languageModelWeightAdjustment;
+        }
+
+        // forward
+        forwardScores[initialNode] = LogMath.LOG_ONE;
+        viterbiScores[initialNode] = LogMath.LOG_ONE;
+        for (int e = 0; e < edges.length; e++) {
+            int from = edgeSources[e];
+            int to = edgeTargets[e];
+            if (to <= from)
+                continue;
+            forwardScores[to] = LogMath.addAsLinear((float) (forwardScores[from] + edgeScores[e]),
+                    (float) forwardScores[to]);
+            double vs = viterbiScores[from] + edgeScores[e];
+            if (bestPredecessors[to] < 0 || vs > viterbiScores[to]) {
+                bestPredecessors[to] = from;
+                viterbiScores[to] = vs;
+            }
+        }
+
+        // backward
+        backwardScores[terminalNode] = LogMath.LOG_ONE;
+        for (int e = edges.length - 1; e >= 0; e--) {
+            int from = edgeSources[e];
+            if (edgeTargets[e] <= from)
+                continue;
+            backwardScores[from] = LogMath.addAsLinear((float) (backwardScores[edgeTargets[e]] + edgeScores[e]),
+                    (float) backwardScores[from]);
+        }
+
+        // inner
+        double normalizationFactor = forwardScores[terminalNode];
+        for (int n = 0; n < nodes.length; n++)
+            posteriors[n] = forwardScores[n] + backwardScores[n] - normalizationFactor;
+    }
+
+
+    /**
+     * Copies the scores computed by the last call to
+     * {@link #computeNodePosteriors(float)} to the nodes of the lattice, where
+     * {@link Node#getPosterior()} and {@link WordResult} find them.
+     */
+    public void storeScores() {
+        for (int n = 0; n < nodes.length; n++) {
+            Node node = nodes[n];
+            node.setForwardScore(forwardScores[n]);
+            node.setBackwardScore(backwardScores[n]);
+            node.setViterbiScore(viterbiScores[n]);
+            node.setPosterior(posteriors[n]);
+            node.setBestPredecessor(bestPredecessors[n] < 0 ? null : nodes[bestPredecessors[n]]);
+        }
+    }
+
+
+    /** @return the number of nodes */
+    public int getNumNodes() {
+        return nodes.length;
+    }
+
+
+    /** @return the number of edges */
+    public int getNumEdges() {
+        return edges.length;
+    }
+
+
+    /** @return the number of the initial node, or -1 if the lattice has none */
+    public int getInitialNode() {
+        return initialNode;
+    }
+
+
+    /** @return the number of the terminal node, or -1 if the lattice has none */
+    public int getTerminalNode() {
+        return terminalNode;
+    }
+
+
+    /**
+     * @param node the number of a node
+     * @return the lattice node
+     */
+    public Node getNode(int node) {
+        return nodes[node];
+    }
+
+
+    /**
+     * @param edge the number of an edge
+     * @return the lattice edge
+     */
+    public Edge getEdge(int edge) {
+        return edges[edge];
+    }
+
+
+    /**
+     * @param node the number of a node
+     * @return the number of the first edge leaving the node
+     */
+    public int getEdgesBegin(int node) {
+        return edgeOffsets[node];
+    }
+
+
+    /**
+     * @param node the number of a node
+     * @return the number of the first edge after the edges leaving the node
+     */
+    public int getEdgesEnd(int node) {
+        return edgeOffsets[node + 1];
+    }
+
+
+    /**
+     * @param edge the number of an edge
+     * @return the number of the node the edge leaves
+     */
+    public int getEdgeSource(int edge) {
+        return edgeSources[edge];
+    }
+
+
+    /**
+     * @param edge the number of an edge
+     * @return the number of the node the edge enters
+     */
+    public int getEdgeTarget(int edge) {
+        return edgeTargets[edge];
+    }
+
+
+    /**
+     * @param node the number of a node
+     * @return the forward score of the node
+     */
+    public double getForwardScore(int node) {
+        return forwardScores[node];
+    }
+
+
+    /**
+     * @param node the number of a node
+     * @return the backward score of the node
+     */
+    public double getBackwardScore(int node) {
+        return backwardScores[node];
+    }
+
+
+    /**
+     * @param node the number of a node
+     * @return the score of the best path from the initial node to the node
+     */
+    public double getViterbiScore(int node) {
+        return viterbiScores[node];
+    }
+
+
+    /**
+     * @param node the number of a node
+     * @return the posterior of the node
+     */
+    public double getPosterior(int node) {
+        return posteriors[node];
+    }
+
+
+    /**
+     * @param node the number of a node
+     * @return the number of the predecessor of the node on its best path, or
+     *         -1 if it has none
+     */
+    public int getBestPredecessor(int node) {
+        return bestPredecessors[node];
+    }
+}
@@ -12,11 +12,13 @@
 package edu.cmu.sphinx.result;
 
 import edu.cmu.sphinx.decoder.search.AlternateHypothesisManager;
+import edu.cmu.sphinx.decoder.search.LatticeArcStore;
 import edu.cmu.sphinx.decoder.search.Token;
 import edu.cmu.sphinx.linguist.dictionary.Pronunciation;
 import edu.cmu.sphinx.linguist.dictionary.Word;
 import edu.cmu.sphinx.util.LogMath;
 import edu.cmu.sphinx.util.TimeFrame;
+import org.eclipse.collections.impl.list.mutable.primitive.IntArrayList;
 
 import java.io.*;
 import java.util.*;
@@ -139,8 +141,10 @@ public class Lattice {
     /**
      * Create a Lattice from a Result.
      * <p>
-     * The Lattice is created from the Token tree referenced by the Result. The
-     * Lattice is then optimized to all collapse equivalent paths.
+     * The Lattice is created from the Token tree referenced by the Result, or
+     * read from the arcs collected during the search if the search manager
+     * collected them. The Lattice is then optimized to all collapse equivalent
+     * paths.
      * 
      * @param result
      *            the result to convert into a lattice
@@ -149,7 +153,10 @@ public class Lattice {
         this(result.getAlternateHypothesisManager());
         assert result != null;
         Token token = result.getBestFinalToken();
-        if (token != null) {
+        if (token != null && result.getLatticeArcStore() != null) {
+            assert token.word().isSentenceEndWord();
+            readArcStore(result.getLatticeArcStore(), token);
+        } else if (token != null) {
             assert token.word().isSentenceEndWord();
             terminalNode = new Node(nodeID(token), token.word(), -1, -1);
             initialNode = terminalNode;
@@ -165,6 +172,45 @@ public class Lattice {
     }
 
 
+    /**
+     * Reads the part of a lattice collected during the search that leads to the
+     * final token.
+     * 
+     * @param arcStore
+     *            the arcs collected during the search
+     * @param finalToken
+     *            the best final token
+     */
+    private void readArcStore(LatticeArcStore arcStore, Token finalToken) {
+        int terminal = arcStore.getNode(finalToken);
+        terminalNode = new Node(Integer.toString(terminal), finalToken.word(), -1, -1);
+        initialNode = terminalNode;
+        addNode(terminalNode);
+        if (terminal < 0)
+            return;
+
+        Node[] storeNodes = new Node[arcStore.getNumNodes()];
+        storeNodes[terminal] = terminalNode;
+        IntArrayList stack = new IntArrayList();
+        stack.add(terminal);
+        while (!stack.isEmpty()) {
+            int to = stack.removeAtIndex(stack.size() - 1);
+            for (int arc = arcStore.getFirstArc(to); arc >= 0; arc = arcStore.getNextArc(arc)) {
+                int from = arcStore.getArcSource(arc);
+                if (storeNodes[from] == null) {
+                    storeNodes[from] = addNode(Integer.toString(from), arcStore.getWord(from),
+                            arcStore.getBeginTime(from), arcStore.getEndTime(from));
+                    stack.add(from);
+                }
+                addEdge(storeNodes[from], storeNodes[to], arcStore.getArcAcousticScore(arc),
+                        arcStore.getArcLanguageScore(arc));
+            }
+        }
+        int initial = arcStore.getInitialNode();
+        if (initial >= 0 && storeNodes[initial] != null)
+            initialNode = storeNodes[initial];
+    }
+
     private static TimeFrame getTimeFrameWordTokenLast(Token token) {
         TimeFrame capTimeFrame = TimeFrame.ZERO;
 
@@ -914,27 +960,15 @@ public class Lattice {
         return true;
     }
 
-    private static void sortHelper(Node n, List<Node> sorted, Set<Node> visited) {
-        assert(n!=null);
-        if (!visited.add(n))
-            return;
-
-        for (Edge e : n.getLeavingEdges())
-            sortHelper(e.getToNode(), sorted, visited);
-
-        sorted.add(n);
-    }
-
     /**
-     * Topologically sort the nodes in this lattice.
+     * Creates a compact copy of this lattice, with the nodes in topological
+     * order and the edges in arrays. The copy does not see later changes to
+     * this lattice.
      * 
-     * @return Topologically sorted list of nodes in this lattice.
+     * @return the compact lattice
      */
-    private List<Node> sortNodes() {
-        List<Node> sorted = new ArrayList<>(nodes.size());
-        sortHelper(initialNode, sorted, new HashSet<>());
-        Collections.reverse(sorted);
-        return sorted;
+    public CompactLattice compact() {
+        return new CompactLattice(this);
     }
 
     /**
@@ -973,47 +1007,9 @@ public class Lattice {
     private void computeNodePosteriors(float languageModelWeightAdjustment, boolean useAcousticScoresOnly) {
         if (initialNode == null)
             return;
-        // forward
-        initialNode.setForwardScore(LogMath.LOG_ONE);
-        initialNode.setViterbiScore(LogMath.LOG_ONE);
-        List<Node> sortedNodes = sortNodes();
-        assert sortedNodes.get(0) == initialNode;
-        for (Node currentNode : sortedNodes) {
-            for (Edge edge : currentNode.getLeavingEdges()) {
-                double forwardProb = edge.getFromNode().getForwardScore();
-                double edgeScore = computeEdgeScore(edge, languageModelWeightAdjustment, useAcousticScoresOnly);
-                forwardProb += edgeScore;
-                edge.getToNode().setForwardScore(
-                        LogMath.addAsLinear((float) forwardProb, (float) edge.getToNode().getForwardScore()));
-                double vs = edge.getFromNode().getViterbiScore() + edgeScore;
-                if (edge.getToNode().getBestPredecessor() == null || vs > edge.getToNode().getViterbiScore()) {
-                    edge.getToNode().setBestPredecessor(currentNode);
-                    edge.getToNode().setViterbiScore(vs);
-                }
-            }
-        }
-
-        // backward
-        terminalNode.setBackwardScore(LogMath.LOG_ONE);
-        //assert sortedNodes.get(sortedNodes.size() - 1) == terminalNode;
-        ListIterator<Node> n = sortedNodes.listIterator(sortedNodes.size() - 1);
-        while (n.hasPrevious()) {
-            Node currentNode = n.previous();
-            Collection<Edge> currentEdges = currentNode.getLeavingEdges();
-            for (Edge edge : currentEdges) {
-                double backwardProb = edge.getToNode().getBackwardScore();
-                backwardProb += computeEdgeScore(edge, languageModelWeightAdjustment, useAcousticScoresOnly);
-                Node f = edge.getFromNode();
-                f.setBackwardScore(
-                        LogMath.addAsLinear((float) backwardProb, (float) f.getBackwardScore()));
-            }
-        }
-
-        // inner
-        double normalizationFactor = terminalNode.getForwardScore();
-        for (Node node : nodes.values()) {
-            node.setPosterior((node.getForwardScore() + node.getBackwardScore()) - normalizationFactor);
-        }
+        CompactLattice compact = compact();
+        compact.computeNodePosteriors(languageModelWeightAdjustment, useAcousticScoresOnly);
+        compact.storeScores();
     }
 
     /**
@@ -1050,25 +1046,6 @@ public class Lattice {
         return wordResults;
     }
 
-    /**
-     * Computes the score of an edge. It multiplies on adjustment since language
-     * model score is already scaled by language model weight in linguist.
-     * 
-     * @param edge
-     *            the edge which score we want to compute
-     * @param languageModelWeightAdjustment
-     *            the weight multiplier that will be applied to language score
-     *            already scaled by language weight
-     * @return the score of an edge
-     */
-    private static double computeEdgeScore(Edge edge, float languageModelWeightAdjustment, boolean useAcousticScoresOnly) {
-        if (useAcousticScoresOnly) {
-            return edge.getAcousticScore();
-        } else {
-            return edge.getAcousticScore() + edge.getLMScore() * languageModelWeightAdjustment;
-        }
-    }
-
     /**
      * Returns true if the given Lattice is equivalent to this Lattice. Two
      * lattices are equivalent if all their nodes and edges are equivalent.
@@ -11,18 +11,26 @@
  */
 package edu.cmu.sphinx.result;
 
-import java.util.ArrayList;
-import java.util.List;
+import edu.cmu.sphinx.linguist.dictionary.Word;
+import org.eclipse.collections.impl.map.mutable.primitive.ObjectIntHashMap;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
 
 /**
  * Class used to collapse all equivalent paths in a Lattice.  Results in a Lattices that is deterministic (no Node has
  * Edges to two or more equivalent Nodes), and minimal (no Node has Edge from two or more equivalent Nodes).
+ * <p>
+ * Each direction is a single pass over the nodes in topological order. The nodes already seen are hashed by their
+ * label and the set of nodes on the side that is already optimized, so the equivalent node of a node is found by one
+ * lookup instead of comparing all pairs of siblings.
  */
 
 public class LatticeOptimizer {
 
     protected final Lattice lattice;
-    static final private Edge[] EmptyEdgeArray = new Edge[0];
 
 
     /**
@@ -73,106 +81,33 @@ public class LatticeOptimizer {
      * B and B' would not be equivalent because the incomming edges are different
      */
     private void optimizeForward() {
-        //System.err.println("*** Optimizing forward ***");
-
-        boolean moreChanges = true;
-        while (moreChanges) {
-            moreChanges = false;
-            // search for a node that can be optimized
-            // note that we use getCopyOfNodes to avoid concurrent changes to nodes
-            for (Node n : lattice.getCopyOfNodes()) {
-                // we are iterating down a list of node before optimization
-                // previous iterations may have removed nodes from the list
-                // therefore we have to check that the node stiff exists
-                if (lattice.hasNode(n)) {
-                    moreChanges |= optimizeNodeForward(n);
-                }
-            }
-        }
-    }
-
-
-    /**
-     * Look for 2 "to" edges to equivalent nodes.  Replace the edges with one edge to one node that is a merge of the
-     * equivalent nodes
-     * <p>
-     * nodes are equivalent if they have equivalent from edges, and the same label
-     * <p>
-     * merged nodes have a union of "from" and "to" edges
-     *
-     * @param n node
-     * @return true if Node n required an optimize forward
-     */
-    private boolean optimizeNodeForward(Node n) {
-        assert lattice.hasNode(n);
-
-        List<Edge> leavingEdges = new ArrayList<>(n.getLeavingEdges());
-        for (int j = 0; j < leavingEdges.size(); j++) {
-            Edge e = leavingEdges.get(j);
-            for (int k = j + 1; k < leavingEdges.size(); k++) {
-                Edge e2 = leavingEdges.get(k);
-
-                /*
-                 * If these are not the same edge, and they point to
-                 * equivalent nodes, we have a hit, return true
-                 */
-                assert e != e2;
-                if (equivalentNodesForward(e.getToNode(), e2.getToNode())) {
-                    mergeNodesAndEdgesForward(e, e2);
-                    return true;
-                }
-            }
+        CompactLattice sorted = lattice.compact();
+        ObjectIntHashMap<Node> ranks = getRanks(sorted);
+        Map<NodeSignature, Node> signatures = new HashMap<>();
+        // merges only change the nodes after the current one, so a single
+        // pass in topological order finds all the equivalent nodes
+        for (int i = 0; i < sorted.getNumNodes(); i++) {
+            Node n = sorted.getNode(i);
+            if (n.getEnteringEdges().isEmpty())
+                continue;
+            Node equivalent = signatures.putIfAbsent(new NodeSignature(n, n.getEnteringEdges(), ranks, true), n);
+            if (equivalent != null)
+                mergeNodesForward(equivalent, n);
         }
-        /*
-         * return false if we did not get a hit
-         */
-        return false;
-    }
-
-
-    /**
-     * nodes are equivalent forward if they have "from" edges from the same nodes, and have equivalent labels (Token,
-     * start/end times)
-     *
-     * @param n1 first node
-     * @param n2 second node
-     * @return true if n1 and n2 are "equivalent forwards"
-     */
-    private boolean equivalentNodesForward(Node n1, Node n2) {
-
-        //assert lattice.hasNode(n1) && lattice.hasNode(n2);
-
-        // do the labels match?
-        //    and
-        // if they have different number of "from" edges they are not equivalent
-        // or if there is a "from" edge with no match then the nodes are not
-        // equivalent
-        return equivalentNodeLabels(n1, n2) && n1.hasEquivalentEnteringEdges(n2);
     }
 
 
     /**
-     * given edges e1 and e2 from node n to nodes n1 and n2
+     * given nodes n1 and n2 that are equivalent forward
      * <p>
-     * merge e1 and e2, that is, merge the scores of e1 and e2 create n' that is a merge of n1 and n2 add n' add edge e'
-     * from n to n'
+     * merge the edges entering n1 and n2, that is, merge their scores, add the edges leaving n2 to n1
      * <p>
-     * remove n1 and n2 and all associated edges
+     * remove n2 and all associated edges
      *
-     * @param e1 first edge
-     * @param e2 second edge
+     * @param n1 the node that is kept
+     * @param n2 the node that is merged into n1
      */
-    private void mergeNodesAndEdgesForward(Edge e1, Edge e2) {
-//        assert lattice.hasNode(e1.getFromNode());
-//        assert lattice.hasEdge(e1);
-//        assert lattice.hasEdge(e2);
-//        assert e1.getFromNode() == e2.getFromNode();
-
-        Node n1 = e1.getToNode(), n2 = e2.getToNode();
-
-//        assert n1.hasEquivalentEnteringEdges(n2);
-//        assert n1.getWord().equals(n2.getWord());
-        
+    private void mergeNodesForward(Node n1, Node n2) {
         for (Edge edge : n2.getEnteringEdges()) {
             Edge anotherEdge = n1.getEdgeFromNode(edge.getFromNode());
             assert anotherEdge != null;
@@ -203,6 +138,10 @@ public class LatticeOptimizer {
         }
 
         // remove n2 and all associated edges
+        if (n2 == lattice.getTerminalNode())
+            lattice.setTerminalNode(n1);
+        if (n2 == lattice.getInitialNode())
+            lattice.setInitialNode(n1);
         lattice.removeNodeAndEdges(n2);
     }
 
@@ -230,56 +169,25 @@ public class LatticeOptimizer {
      * A and A' would not be equivalent because the outgoing edges are different
      */
     private void optimizeBackward() {
-        //System.err.println("*** Optimizing backward ***");
-
-        boolean moreChanges = true;
-        while (moreChanges) {
-            moreChanges = false;
-            // search for a node that can be optimized
-            // note that we use getCopyOfNodes to avoid concurrent changes to nodes
-            for (Node n : lattice.getCopyOfNodes()) {
-                // we are iterating down a list of node before optimization
-                // previous iterations may have removed nodes from the list
-                // therefore we have to check that the node stiff exists
-                if (lattice.hasNode(n)) {
-                    moreChanges |= optimizeNodeBackward(n);
-                }
-            }
+        CompactLattice sorted = lattice.compact();
+        ObjectIntHashMap<Node> ranks = getRanks(sorted);
+        Map<NodeSignature, Node> signatures = new HashMap<>();
+        for (int i = sorted.getNumNodes() - 1; i >= 0; i--) {
+            Node n = sorted.getNode(i);
+            if (n.getLeavingEdges().isEmpty())
+                continue;
+            Node equivalent = signatures.putIfAbsent(new NodeSignature(n, n.getLeavingEdges(), ranks, false), n);
+            if (equivalent != null)
+                mergeNodesBackward(equivalent, n);
         }
     }
 
 
-    /**
-     * Look for 2 entering edges from equivalent nodes.  Replace the edges with one edge to one new node that is a merge
-     * of the equivalent nodes Nodes are equivalent if they have equivalent to edges, and the same label. Merged nodes
-     * have a union of entering and leaving edges
-     *
-     * @param n node
-     * @return true if Node n required optimizing backwards
-     */
-    private boolean optimizeNodeBackward(Node n) {
-        Edge[] enteringEdges = n.getEnteringEdges().toArray(EmptyEdgeArray);
-        int es = enteringEdges.length;
-        for (int j = 0; j < es; j++) {
-            Edge jj = enteringEdges[j];
-            for (int k = j + 1; k < es; k++) {
-                Edge kk = enteringEdges[k];
-
-                /*
-                 * If these are not the same edge, and they point to
-                 * equivalent nodes, we have a hit, return true
-                 */
-                assert jj != kk;
-                if (equivalentNodesBackward(jj.getFromNode(), kk.getFromNode())) {
-                    mergeNodesAndEdgesBackward(jj, kk);
-                    return true;
-                }
-            }
-        }
-        /*
-         * return false if we did not get a hit
-         */
-        return false;
+    private static ObjectIntHashMap<Node> getRanks(CompactLattice sorted) {
+        ObjectIntHashMap<Node> ranks = new ObjectIntHashMap<>(sorted.getNumNodes());
+        for (int i = 0; i < sorted.getNumNodes(); i++)
+            ranks.put(sorted.getNode(i), i);
+        return ranks;
     }
 
 
@@ -320,27 +228,17 @@ public class LatticeOptimizer {
 
 
     /**
-     * given edges e1 and e2 to node n from nodes n1 and n2
+     * given nodes n1 and n2 that are equivalent backward
      * <p>
-     * merge e1 and e2, that is, merge the scores of e1 and e2 create n' that is a merge of n1 and n2 add n' add edge e'
-     * from n' to n
+     * merge the edges leaving n1 and n2, that is, merge their scores, add the edges entering n2 to n1
      * <p>
-     * remove n1 and n2 and all associated edges
+     * remove n2 and all associated edges
      *
-     * @param e1 first edge
-     * @param e2 second edge
+     * @param n1 the node that is kept
+     * @param n2 the node that is merged into n1
      */
-    private void mergeNodesAndEdgesBackward(Edge e1, Edge e2) {
-        assert lattice.hasNode(e1.getToNode());
-        assert lattice.hasEdge(e1);
-        assert lattice.hasEdge(e2);
-        assert e1.getToNode() == e2.getToNode();
-
-        Node n1 = e1.getFromNode();
-        Node n2 = e2.getFromNode();
-
-        assert n1.hasEquivalentLeavingEdges(n2);
-        assert n1.getWord().equals(n2.getWord());
+    private void mergeNodesBackward(Node n1, Node n2) {
+        assert equivalentNodesBackward(n1, n2);
 
         for (Edge edge : n2.getLeavingEdges()) {
             Edge anotherEdge = n1.getEdgeToNode(edge.getToNode());
@@ -370,6 +268,10 @@ public class LatticeOptimizer {
         }
 
         // remove n2 and all associated edges
+        if (n2 == lattice.getTerminalNode())
+            lattice.setTerminalNode(n1);
+        if (n2 == lattice.getInitialNode())
+            lattice.setInitialNode(n1);
         lattice.removeNodeAndEdges(n2);
     }
 
@@ -422,4 +324,42 @@ public class LatticeOptimizer {
         return Math.max(score1, score2);
     }
 
+
+
+    /** The label of a node and the nodes at the other end of its entering or leaving edges */
+    private static final class NodeSignature {
+
+        private final Word word;
+        private final long beginTime;
+        private final long endTime;
+        private final int[] neighbors;
+        private final int hashCode;
+
+        NodeSignature(Node node, Collection<Edge> edges, ObjectIntHashMap<Node> ranks, boolean entering) {
+            word = node.getWord();
+            beginTime = node.getBeginTime();
+            endTime = node.getEndTime();
+            neighbors = new int[edges.size()];
+            int i = 0;
+            for (Edge edge : edges)
+                neighbors[i++] = ranks.get(entering ? edge.getFromNode() : edge.getToNode());
+            Arrays.sort(neighbors);
+            hashCode = 31 * (31 * word.hashCode() + Long.hashCode(beginTime) + 7 * Long.hashCode(endTime))
+                    + Arrays.hashCode(neighbors);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof NodeSignature))
+                return false;
+            NodeSignature other = (NodeSignature) obj;
+            return word.equals(other.word) && beginTime == other.beginTime && endTime == other.endTime
+                    && Arrays.equals(neighbors, other.neighbors);
+        }
+    }
 }
@@ -12,83 +12,237 @@
 package edu.cmu.sphinx.result;
 
 import edu.cmu.sphinx.linguist.WordSequence;
-import edu.cmu.sphinx.linguist.dictionary.Word;
 import edu.cmu.sphinx.linguist.language.ngram.LanguageModel;
 import edu.cmu.sphinx.util.LogMath;
+import org.eclipse.collections.impl.list.mutable.primitive.IntArrayList;
+import org.eclipse.collections.impl.map.mutable.primitive.ObjectIntHashMap;
 
-import java.util.LinkedList;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
  * Class to rescore the lattice with the new Language model.
+ * <p>
+ * The language score of an edge is the best score of the word of its target
+ * node over all histories the edge can be reached with. Instead of following
+ * every path back from every edge, the histories are expanded once per node in
+ * topological order and truncated to the order of the model, so each node
+ * keeps only its unique histories. Fillers are transparent to the histories.
+ * Every distinct n-gram is then looked up once, in batches run on a fork-join
+ * pool, and the edges are scored in independent ranges on the same pool.
+ * <p>
+ * The language models of this package keep caches and other state that is not
+ * safe for concurrent lookups, so unless the model is declared concurrent, a
+ * batch holds the lock of the model while it is looked up. The rest of the
+ * work still runs in parallel.
  */
 
 public class LatticeRescorer {
 
+    /** The weight the language scores are scaled by */
+    public final static float LANGUAGE_WEIGHT = 8.0f;
+
+    /** The number of n-grams looked up by one task */
+    private final static int QUERY_BATCH_SIZE = 256;
+
+    /** The number of edges scored by one task */
+    private final static int EDGE_BATCH_SIZE = 1024;
+
     protected final Lattice lattice;
     protected final LanguageModel model;
     private final int depth;
+    private final ForkJoinPool pool;
+    private final boolean concurrentModel;
+    private final Logger logger = Logger.getLogger(LatticeRescorer.class.getName());
+
+    private int numQueries;
+    private double edgesPerSecond;
 
     /**
      * Create a new Lattice optimizer
-     * 
+     *
      * @param lattice lattice to rescore
      * @param model language model to rescore
      */
     public LatticeRescorer(Lattice lattice, LanguageModel model) {
+        this(lattice, model, ForkJoinPool.commonPool(), false);
+    }
+
+    /**
+     * Create a new Lattice rescorer
+     *
+     * @param lattice         lattice to rescore
+     * @param model           language model to rescore
+     * @param pool            the pool to run the lookups and the scoring on
+     * @param concurrentModel true if the model can be looked up from several
+     *                        threads at once
+     */
+    public LatticeRescorer(Lattice lattice, LanguageModel model, ForkJoinPool pool, boolean concurrentModel) {
         this.lattice = lattice;
         this.model = model;
-        depth = model.getMaxDepth();
+        this.pool = pool;
+        this.concurrentModel = concurrentModel;
+        depth = Math.max(1, model.getMaxDepth());
     }
 
 
     private void rescoreEdges() {
-        for (Edge edge : lattice.edges) {
+        long startTime = System.nanoTime();
+        CompactLattice compact = lattice.compact();
+        int numEdges = compact.getNumEdges();
+        List<Set<WordSequence>> histories = expandHistories(compact);
 
-            float maxProb = LogMath.LOG_ZERO;
-            if (Lattice.isFillerNode(edge.getToNode())) {
-                edge.setLMScore(maxProb);
-                continue;
+        // the distinct n-grams of the edges, edge e uses the n-grams
+        // edgeQueries[edgeQueryOffsets[e]] .. edgeQueries[edgeQueryOffsets[e + 1] - 1]
+        ObjectIntHashMap<WordSequence> queryIds = new ObjectIntHashMap<>();
+        List<WordSequence> queries = new ArrayList<>();
+        IntArrayList edgeQueries = new IntArrayList();
+        int[] edgeQueryOffsets = new int[numEdges + 1];
+        for (int e = 0; e < numEdges; e++) {
+            Node to = compact.getNode(compact.getEdgeTarget(e));
+            if (!Lattice.isFillerNode(to)) {
+                for (WordSequence history : histories.get(compact.getEdgeSource(e))) {
+                    WordSequence query = history.addWord(to.getWord(), depth);
+                    int id = queryIds.getIfAbsent(query, -1);
+                    if (id < 0) {
+                        id = queries.size();
+                        queryIds.put(query, id);
+                        queries.add(query);
+                    }
+                    edgeQueries.add(id);
+                }
             }
+            edgeQueryOffsets[e + 1] = edgeQueries.size();
+        }
 
-            List<String> paths = allPathsTo("", edge, depth);
-            for (String path : paths) {
-                List<Word> wordList = new LinkedList<>();
-                for (String pathWord : path.split(" ")) {
-                    wordList.add(new Word(pathWord, null, false));
+        float[] probabilities = new float[queries.size()];
+        pool.invoke(new RangeTask(0, queries.size(), QUERY_BATCH_SIZE, (begin, end) -> {
+            if (concurrentModel) {
+                lookUp(queries, probabilities, begin, end);
+            } else {
+                synchronized (model) {
+                    lookUp(queries, probabilities, begin, end);
                 }
-                wordList.add(edge.getToNode().getWord());
+            }
+        }));
+
+        pool.invoke(new RangeTask(0, numEdges, EDGE_BATCH_SIZE, (begin, end) -> {
+            for (int e = begin; e < end; e++) {
+                float maxProb = LogMath.LOG_ZERO;
+                for (int i = edgeQueryOffsets[e]; i < edgeQueryOffsets[e + 1]; i++) {
+                    float prob = probabilities[edgeQueries.get(i)] * LANGUAGE_WEIGHT;
+                    if (maxProb < prob)
+                        maxProb = prob;
+                }
+                compact.getEdge(e).setLMScore(maxProb);
+            }
+        }));
+
+        numQueries = queries.size();
+        double seconds = (System.nanoTime() - startTime) / 1e9;
+        edgesPerSecond = seconds > 0 ? numEdges / seconds : 0;
+        if (logger.isLoggable(Level.FINE)) {
+            logger.fine(String.format("Rescored %d edges with %d n-grams in %.3f s, %.0f edges/s", numEdges,
+                    numQueries, seconds, edgesPerSecond));
+        }
+    }
+
+
+    private void lookUp(List<WordSequence> queries, float[] probabilities, int begin, int end) {
+        for (int i = begin; i < end; i++)
+            probabilities[i] = model.getProbability(queries.get(i));
+    }
+
 
-                WordSequence seq = new WordSequence(wordList);
-                float languageWeigth = 8.0f;
-                float prob = model.getProbability(seq) * languageWeigth;
-                if (maxProb < prob)
-                    maxProb = prob;
+    /**
+     * Expands the nodes by history: for every node the distinct sequences of
+     * at most <code>depth - 1</code> words, fillers excluded, that paths from
+     * the initial node through the node end with.
+     */
+    private List<Set<WordSequence>> expandHistories(CompactLattice compact) {
+        int numNodes = compact.getNumNodes();
+        List<Set<WordSequence>> histories = new ArrayList<>(numNodes);
+        for (int n = 0; n < numNodes; n++)
+            histories.add(new LinkedHashSet<WordSequence>(2));
+        int initial = compact.getInitialNode();
+        if (initial < 0)
+            return histories;
+        histories.get(initial).add(extend(WordSequence.EMPTY, compact.getNode(initial)));
+
+        for (int n = 0; n < numNodes; n++) {
+            Set<WordSequence> nodeHistories = histories.get(n);
+            for (int e = compact.getEdgesBegin(n); e < compact.getEdgesEnd(n); e++) {
+                int to = compact.getEdgeTarget(e);
+                if (to <= n)
+                    continue;
+                Node toNode = compact.getNode(to);
+                for (WordSequence history : nodeHistories)
+                    histories.get(to).add(extend(history, toNode));
             }
-            edge.setLMScore(maxProb);
         }
+        return histories;
+    }
+
+
+    private WordSequence extend(WordSequence history, Node node) {
+        if (Lattice.isFillerNode(node))
+            return history;
+        return history.addWord(node.getWord(), depth - 1);
     }
 
-    protected List<String> allPathsTo(String path, Edge edge, int currentDepth) {
-        List<String> l = new LinkedList<>();
-        String p = path;
-        boolean isFiller = Lattice.isFillerNode(edge.getFromNode());
-        if (!isFiller)
-            p = edge.getFromNode().getWord().toString() + ' ' + p;
-
-        if (currentDepth == 2
-                || edge.getFromNode().equals(lattice.getInitialNode())) {
-            l.add(p);
-        } else {
-            int decrement = isFiller ? 0 : 1;
-            for (Edge e : edge.getFromNode().getEnteringEdges()) {
-                l.addAll(allPathsTo(p, e, currentDepth - decrement));
+
+    /** Runs an action on the subranges of a range, split until they are no longer than a threshold */
+    private static class RangeTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        interface RangeAction {
+            void run(int begin, int end);
+        }
+
+        private final int begin;
+        private final int end;
+        private final int threshold;
+        private final RangeAction action;
+
+        RangeTask(int begin, int end, int threshold, RangeAction action) {
+            this.begin = begin;
+            this.end = end;
+            this.threshold = threshold;
+            this.action = action;
+        }
+
+        @Override
+        protected void compute() {
+            if (end - begin <= threshold) {
+                action.run(begin, end);
+                return;
             }
+            int middle = (begin + end) >>> 1;
+            invokeAll(new RangeTask(begin, middle, threshold, action), new RangeTask(middle, end, threshold, action));
         }
-        return l;
     }
 
+
     public void rescore() {
         rescoreEdges();
     }
+
+
+    /** @return the number of distinct n-grams looked up by the last rescoring */
+    public int getNumQueries() {
+        return numQueries;
+    }
+
+
+    /** @return the number of edges rescored per second by the last rescoring */
+    public double getEdgesPerSecond() {
+        return edgesPerSecond;
+    }
 }
@@ -11,96 +11,251 @@
  */
 package edu.cmu.sphinx.result;
 
-import java.util.Collection;
-import java.util.HashSet;
+import edu.cmu.sphinx.linguist.dictionary.Word;
+import edu.cmu.sphinx.util.LogMath;
+
+import java.util.*;
 
 /**
  * NBest list with A*
+ * <p>
+ * The heuristic of a node is the score of its best path to the terminal node,
+ * computed by a backward Viterbi pass over the lattice. Since the heuristic is
+ * exact, complete paths come out of the queue best first. Partial paths are
+ * records that point to the path they extend, so paths with a common prefix
+ * share it. Paths are told apart by the words on them, fillers excluded: each
+ * record carries a hash of its words, and once a path ending in a node has been
+ * expanded, a later, worse path with the same words ending in the same node is
+ * dropped, since it could only lead to word sequences that were already found.
+ * <p>
+ * The queue holds at most <code>maxQueueSize</code> partial paths, dropping the
+ * worst ones.
  */
 
 public class Nbest {
 
+    /** The default maximum number of partial paths kept in the queue */
+    public final static int DEFAULT_MAX_QUEUE_SIZE = 100000;
+
     protected Lattice lattice;
+    private final int maxQueueSize;
 
     public Nbest(Lattice lattice) {
+        this(lattice, DEFAULT_MAX_QUEUE_SIZE);
+    }
+
+    /**
+     * Creates an N-best extractor
+     *
+     * @param lattice      the lattice to extract the paths from
+     * @param maxQueueSize the maximum number of partial paths kept in the queue
+     */
+    public Nbest(Lattice lattice, int maxQueueSize) {
         this.lattice = lattice;
+        this.maxQueueSize = maxQueueSize;
+    }
+
+    /** One hypothesis of the N-best list */
+    public static class Hypothesis {
+
+        private final List<Word> words;
+        private final double score;
+
+        Hypothesis(List<Word> words, double score) {
+            this.words = words;
+            this.score = score;
+        }
+
+        /**
+         * @return the words of the hypothesis, from &lt;s&gt; to &lt;/s&gt;,
+         *         without fillers
+         */
+        public List<Word> getWords() {
+            return words;
+        }
+
+        /**
+         * @return the sum of the acoustic and language scores of the path
+         */
+        public double getScore() {
+            return score;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            for (Word word : words) {
+                if (sb.length() > 0)
+                    sb.append(' ');
+                sb.append(word);
+            }
+            return sb.toString();
+        }
     }
 
+    /** A partial path, linked to the path it extends */
     static class NBestPath implements Comparable<NBestPath> {
-        final String path;
-        final Node node;
+        final NBestPath previous;
+        final int node;
+        final Word word;
+        final long wordHash;
         final double score;
         final double forwardScore;
+        final long serial;
 
-        public NBestPath(String path, Node node, double score,
-                double forwardScore) {
-            super();
-            this.path = path;
+        NBestPath(NBestPath previous, int node, Word word, double score, double forwardScore, long serial) {
+            this.previous = previous;
             this.node = node;
+            this.word = word;
+            long hash = previous == null ? 0 : previous.wordHash;
+            if (word != null)
+                hash = Long.rotateLeft((hash + word.spelling.hashCode()) * 0x9E3779B97F4A7C15L, 31);
+            this.wordHash = hash;
             this.score = score;
             this.forwardScore = forwardScore;
+            this.serial = serial;
         }
 
         public int compareTo(NBestPath o) {
-            return Double.compare(score, o.score);
+            int c = Double.compare(score, o.score);
+            // older paths first among equals
+            return c != 0 ? c : Long.compare(o.serial, serial);
+        }
+
+        List<Word> getWords() {
+            LinkedList<Word> words = new LinkedList<>();
+            for (NBestPath p = this; p != null; p = p.previous) {
+                if (p.word != null)
+                    words.addFirst(p.word);
+            }
+            return words;
+        }
+
+        boolean hasSameWords(NBestPath other) {
+            NBestPath p = this;
+            NBestPath q = other;
+            while (true) {
+                while (p != null && p.word == null)
+                    p = p.previous;
+                while (q != null && q.word == null)
+                    q = q.previous;
+                if (p == null || q == null)
+                    return p == q;
+                if (p == q)
+                    return true;
+                if (!p.word.equals(q.word))
+                    return false;
+                p = p.previous;
+                q = q.previous;
+            }
         }
 
         @Override
         public String toString() {
-            return path + " [" + score + ',' + forwardScore + ']';
+            return getWords() + " [" + score + ',' + forwardScore + ']';
         }
     }
 
+    /**
+     * Returns the n best word sequences of the lattice
+     *
+     * @param n the number of sequences
+     * @return the sequences as strings, best first
+     */
     public Collection<String> getNbest(int n) {
-        HashSet<String> result = new HashSet<>();
-        BoundedPriorityQueue<NBestPath> queue =
-                new BoundedPriorityQueue<>(n);
+        List<String> result = new ArrayList<>();
+        for (Hypothesis hypothesis : getNbestHypotheses(n))
+            result.add(hypothesis.toString());
+        return result;
+    }
+
+    /**
+     * Returns the n best word sequences of the lattice with their scores
+     *
+     * @param n the number of sequences
+     * @return the hypotheses, best first
+     */
+    public List<Hypothesis> getNbestHypotheses(int n) {
+        List<Hypothesis> result = new ArrayList<>();
+        if (lattice.getInitialNode() == null || lattice.getTerminalNode() == null)
+            return result;
+        CompactLattice compact = lattice.compact();
+        double[] heuristic = computeBackwardViterbiScores(compact);
+        int initial = compact.getInitialNode();
+        int terminal = compact.getTerminalNode();
+        if (heuristic[initial] == LogMath.LOG_ZERO)
+            return result;
 
-        queue.add(new NBestPath("<s>", lattice.getInitialNode(), 0, 0));
+        BoundedPriorityQueue<NBestPath> queue = new BoundedPriorityQueue<>(maxQueueSize);
+        Map<Long, List<NBestPath>> expanded = new HashMap<>();
+        long serial = 0;
+        queue.add(new NBestPath(null, initial, getWord(compact, initial), heuristic[initial], 0, serial++));
 
         while (result.size() < n && queue.size() > 0) {
             NBestPath path = queue.poll();
-            if (path.node.equals(lattice.terminalNode)) {
-                result.add(path.path);
+            if (!markExpanded(expanded, path))
+                continue;
+            if (path.node == terminal) {
+                result.add(new Hypothesis(path.getWords(), path.forwardScore));
                 continue;
             }
 
-            for (Edge e : path.node.getLeavingEdges()) {
-                Node newNode = e.getToNode();
-                
-                double newForwardScore = path.forwardScore
-                        + e.getAcousticScore() + e.getLMScore();
-
-                double newScore = newForwardScore + newNode.getBackwardScore();
-
-                String newPathString = getNewPathString(path, newNode);
-                
-                NBestPath newPath = new NBestPath(newPathString, newNode, newScore, newForwardScore);
-                
-                queue.add(newPath);
+            for (int e = compact.getEdgesBegin(path.node); e < compact.getEdgesEnd(path.node); e++) {
+                int newNode = compact.getEdgeTarget(e);
+                if (newNode <= path.node || heuristic[newNode] == LogMath.LOG_ZERO)
+                    continue;
+                double newForwardScore = path.forwardScore + getEdgeScore(compact.getEdge(e));
+                double newScore = newForwardScore + heuristic[newNode];
+                queue.add(new NBestPath(path, newNode, getWord(compact, newNode), newScore, newForwardScore,
+                        serial++));
             }
-            // printQueue(queue);
         }
-
         return result;
     }
 
-    private String getNewPathString(NBestPath path, Node newNode) {
-        String newPathString;
-        if (newNode.getWord().isSentenceEndWord())
-            newPathString = path.path + " </s>";
-        else if (newNode.getWord().filler)
-            newPathString = path.path;
-        else
-            newPathString = path.path + ' ' + newNode.getWord();
-        return newPathString;
+    /**
+     * Records that a path was expanded, unless a path with the same words
+     * ending in the same node already was. Since paths are expanded best first,
+     * that path was at least as good.
+     */
+    private static boolean markExpanded(Map<Long, List<NBestPath>> expanded, NBestPath path) {
+        long key = path.wordHash * 31 + path.node;
+        List<NBestPath> paths = expanded.get(key);
+        if (paths == null) {
+            paths = new ArrayList<>(1);
+            expanded.put(key, paths);
+        }
+        for (NBestPath other : paths) {
+            if (other.node == path.node && other.hasSameWords(path))
+                return false;
+        }
+        paths.add(path);
+        return true;
     }
 
-    @SuppressWarnings("unused")
-    private void printQueue(BoundedPriorityQueue<NBestPath> queue) {
-        System.out.println();
-        for (NBestPath p : queue) {
-            System.out.println(p);
+    private static Word getWord(CompactLattice compact, int node) {
+        Word word = compact.getNode(node).getWord();
+        return word.filler && !word.isSentenceStartWord() && !word.isSentenceEndWord() ? null : word;
+    }
+
+    private static double getEdgeScore(Edge edge) {
+        return edge.getAcousticScore() + edge.getLMScore();
+    }
+
+    /** The score of the best path from each node to the terminal node */
+    private static double[] computeBackwardViterbiScores(CompactLattice compact) {
+        double[] scores = new double[compact.getNumNodes()];
+        Arrays.fill(scores, LogMath.LOG_ZERO);
+        scores[compact.getTerminalNode()] = 0;
+        for (int e = compact.getNumEdges() - 1; e >= 0; e--) {
+            int from = compact.getEdgeSource(e);
+            int to = compact.getEdgeTarget(e);
+            if (to <= from || scores[to] == LogMath.LOG_ZERO)
+                continue;
+            double score = scores[to] + getEdgeScore(compact.getEdge(e));
+            if (score > scores[from])
+                scores[from] = score;
         }
+        return scores;
     }
 }
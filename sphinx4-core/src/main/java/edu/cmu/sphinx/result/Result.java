@@ -14,6 +14,7 @@ package edu.cmu.sphinx.result;
 
 import edu.cmu.sphinx.decoder.search.ActiveList;
 import edu.cmu.sphinx.decoder.search.AlternateHypothesisManager;
+import edu.cmu.sphinx.decoder.search.LatticeArcStore;
 import edu.cmu.sphinx.decoder.search.Token;
 import edu.cmu.sphinx.frontend.Data;
 import edu.cmu.sphinx.linguist.dictionary.Word;
@@ -42,6 +43,7 @@ public class Result {
     private final ActiveList activeList;
     private final List<Token> resultList;
     private AlternateHypothesisManager alternateHypothesisManager;
+    private LatticeArcStore latticeArcStore;
     private boolean isFinal;
     private final boolean wordTokenFirst;
     private final long currentCollectTime;
@@ -69,6 +71,27 @@ public class Result {
         this.alternateHypothesisManager = alternateHypothesisManager;
     }
 
+    /**
+     * Creates a result whose lattice was collected during the search
+     * 
+     * @param latticeArcStore the arcs of the word lattice
+     * @param activeList
+     *            the active list associated with this result
+     * @param resultList
+     *            the result list associated with this result
+     * @param collectTime
+     *            token time in a stream.
+     * @param isFinal
+     *            if true, the result is a final result
+     * @param wordTokenFirst if word token goes first.
+     * @param toCreateLattice create lattice or not.
+     */
+    public Result(LatticeArcStore latticeArcStore, ActiveList activeList, List<Token> resultList,
+            long collectTime, boolean isFinal, boolean wordTokenFirst, boolean toCreateLattice) {
+        this(activeList, resultList, collectTime, isFinal, wordTokenFirst, toCreateLattice);
+        this.latticeArcStore = latticeArcStore;
+    }
+
     /**
      * Creates a result
      * 
@@ -162,6 +185,16 @@ public class Result {
         return alternateHypothesisManager;
     }
 
+    /**
+     * Returns the arcs of the word lattice collected during the search, used
+     * instead of the AlternateHypothesisManager to construct a Lattice
+     * 
+     * @return the arc store, or null if the lattice was not collected
+     */
+    public LatticeArcStore getLatticeArcStore() {
+        return latticeArcStore;
+    }
+
     /**
      * Returns the current frame number
      * 
@@ -30,12 +30,14 @@ import java.util.List;
 public class Aligner {
 
     /**
-     * @param args acoustic model, dictionary, audio file, text
+     * @param args acoustic model, dictionary, audio file, text and optionally
+     *             the number of threads, by default one
      * @throws Exception if error occurs
      */
     public static void main(String args[]) throws Exception {
         File file = new File(args[2]);
-        SpeechAligner aligner = new SpeechAligner(args[0], args[1], null);
+        int numThreads = args.length > 4 ? Integer.parseInt(args[4]) : 1;
+        SpeechAligner aligner = new SpeechAligner(args[0], args[1], null, numThreads);
         splitStream(file, aligner.align(file.toURI().toURL(), args[3]));
     }
 
@@ -229,6 +229,27 @@ public class BatchModeRecognizer implements Configurable {
     }
 
 
+    /**
+     * @return the recognizer used to decode the batch
+     */
+    Recognizer getRecognizer() {
+        return recognizer;
+    }
+
+
+    /**
+     * Decodes a single batch item
+     *
+     * @param batchItem the item to decode
+     * @return the result
+     * @throws IOException if the audio file could not be read
+     */
+    Result recognize(BatchItem batchItem) throws IOException {
+        setInputStream(batchItem.getFilename());
+        return recognizer.recognize(batchItem.getTranscript());
+    }
+
+
     /**
      * Sets the input stream to the given filename
      *
@@ -619,7 +640,8 @@ public class BatchModeRecognizer implements Configurable {
             } else {
                 bmr.decode(batchFile);
             }
-            System.out.println("Tokens created: " + StatisticsVariable.the("totalTokensScored").value);
+            System.out.println("Tokens created: "
+                    + bmr.recognizer.getMetrics().snapshot().getCounter(MetricsRegistry.TOKENS_SCORED));
             /*
            } catch (IOException ioe) {
                System.err.println("I/O error: \n");
@@ -0,0 +1,271 @@
+/*
+ * Copyright 2014 Carnegie Mellon University.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * See the file "license.terms" for information on usage and
+ * redistribution of this file, and for a DISCLAIMER OF ALL
+ * WARRANTIES.
+ *
+ */
+
+package edu.cmu.sphinx.tools.batch;
+
+import edu.cmu.sphinx.result.Result;
+import edu.cmu.sphinx.util.BatchItem;
+import edu.cmu.sphinx.util.BatchManager;
+import edu.cmu.sphinx.util.SimpleBatchManager;
+import edu.cmu.sphinx.util.props.ConfigurationManager;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.logging.Logger;
+
+/**
+ * Decodes a batch file with several recognizers running in parallel in one
+ * process.
+ * <p>
+ * Each worker thread decodes with its own copy of the configured
+ * {@link BatchModeRecognizer}, made with {@link ConfigurationManager#copy()}.
+ * The components named as shared, typically the acoustic model, and
+ * everything they depend on are instantiated once and used by all the workers,
+ * so they must be thread safe. All other components, like the front end, the
+ * search manager, the dictionary and the language model, exist once per worker.
+ * <p>
+ * The utterances are scheduled longest first, using the size of their audio
+ * file as an estimate of their length, so that the batch does not end with a
+ * long utterance decoded on a single core. They are dealt out to one queue per
+ * worker; a worker takes the longest utterance of its own queue and, once it is
+ * empty, steals the shortest utterance of the fullest other queue. The
+ * hypotheses are written as soon as all the utterances before them are done,
+ * in the order of the batch file, in the format
+ * <code>hypothesis (utterance id)</code>.
+ */
+public class ParallelBatchRecognizer {
+
+    private final Logger logger = Logger.getLogger(getClass().getName());
+    private final ConfigurationManager cm;
+    private final String batchName;
+    private final List<String> sharedComponents;
+    private final int numThreads;
+
+
+
+    /**
+     * Creates a parallel batch recognizer
+     *
+     * @param cm               the configuration
+     * @param batchName        the name of the BatchModeRecognizer component of the configuration
+     * @param sharedComponents the names of the components shared by all the workers
+     * @param numThreads       the number of workers
+     */
+    public ParallelBatchRecognizer(ConfigurationManager cm, String batchName, List<String> sharedComponents,
+                                   int numThreads) {
+        this.cm = cm;
+        this.batchName = batchName;
+        this.sharedComponents = sharedComponents;
+        this.numThreads = numThreads;
+    }
+
+
+    /**
+     * Decodes all the items of a batch file
+     *
+     * @param batchFile the batch file
+     * @param hypFile   the file the hypotheses are written to
+     * @throws IOException if the batch file can't be read, the hypotheses
+     *                     can't be written or an audio file can't be read
+     */
+    public void decode(String batchFile, String hypFile) throws IOException {
+        List<BatchItem> items = new ArrayList<>();
+        BatchManager batchManager = new SimpleBatchManager(batchFile, 0, 0, 1);
+        batchManager.start();
+        BatchItem item;
+        while ((item = batchManager.getNextItem()) != null)
+            items.add(item);
+        batchManager.stop();
+
+        for (String name : sharedComponents) {
+            if (cm.lookup(name) == null)
+                throw new IllegalArgumentException("No component " + name + " to share");
+        }
+        List<ConfigurationManager> configurations = new ArrayList<>();
+        configurations.add(cm);
+        for (int i = 1; i < numThreads; i++)
+            configurations.add(cm.copy());
+
+        // allocate one at a time, shared components are allocated by the first
+        List<BatchModeRecognizer> recognizers = new ArrayList<>();
+        for (ConfigurationManager configuration : configurations) {
+            BatchModeRecognizer recognizer = configuration.lookup(batchName);
+            if (recognizer == null)
+                throw new IllegalArgumentException("No batch mode recognizer " + batchName);
+            recognizer.getRecognizer().allocate();
+            recognizers.add(recognizer);
+        }
+
+        long[] lengths = new long[items.size()];
+        for (int i = 0; i < items.size(); i++)
+            lengths[i] = new File(items.get(i).getFilename()).length();
+        List<Deque<Integer>> queues = schedule(lengths, numThreads);
+        long startTime = System.currentTimeMillis();
+        ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+        try (PrintWriter out = new PrintWriter(new File(hypFile), "UTF-8")) {
+            HypothesisWriter writer = new HypothesisWriter(out, items.size());
+            List<Future<Integer>> workers = new ArrayList<>();
+            for (int i = 0; i < numThreads; i++) {
+                BatchModeRecognizer recognizer = recognizers.get(i);
+                int worker = i;
+                workers.add(executor.submit(() -> decode(recognizer, items, queues, worker, writer)));
+            }
+            for (int i = 0; i < numThreads; i++)
+                logger.info("Worker " + i + " decoded " + workers.get(i).get() + " files");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while decoding " + batchFile);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException)
+                throw (IOException) e.getCause();
+            throw new Error(e.getCause());
+        } finally {
+            executor.shutdownNow();
+            for (BatchModeRecognizer recognizer : recognizers)
+                recognizer.getRecognizer().deallocate();
+        }
+        logger.info("Decoded " + items.size() + " files with " + numThreads + " threads in "
+                + (System.currentTimeMillis() - startTime) + " ms");
+    }
+
+
+    /**
+     * Deals out the items longest first to one queue per worker.
+     *
+     * @param lengths    the estimated length of each item
+     * @param numThreads the number of workers
+     * @return the queue of item indices of each worker, longest first
+     */
+    static List<Deque<Integer>> schedule(long[] lengths, int numThreads) {
+        Integer[] order = new Integer[lengths.length];
+        for (int i = 0; i < lengths.length; i++)
+            order[i] = i;
+        Arrays.sort(order, (i1, i2) -> Long.compare(lengths[i2], lengths[i1]));
+
+        List<Deque<Integer>> queues = new ArrayList<>();
+        for (int i = 0; i < numThreads; i++)
+            queues.add(new ConcurrentLinkedDeque<>());
+        for (int i = 0; i < order.length; i++)
+            queues.get(i % numThreads).addLast(order[i]);
+        return queues;
+    }
+
+
+    private int decode(BatchModeRecognizer recognizer, List<BatchItem> items, List<Deque<Integer>> queues,
+                       int worker, HypothesisWriter writer) throws IOException {
+        int count = 0;
+        Integer index;
+        while ((index = nextItem(queues, worker)) != null) {
+            BatchItem item = items.get(index);
+            Result result = recognizer.recognize(item);
+            String hypothesis = result == null ? "" : result.getBestFinalResultNoFiller();
+            logger.info("File  : " + item.getFilename());
+            logger.info("Result: " + hypothesis);
+            writer.add(index, hypothesis + " (" + getUtteranceId(item.getFilename()) + ')');
+            count++;
+        }
+        return count;
+    }
+
+
+    /**
+     * Takes the next item of a worker: the longest item of its own queue or,
+     * if it is empty, the shortest item of the fullest other queue.
+     *
+     * @param queues the queues of all the workers
+     * @param worker the worker
+     * @return the item index, or null if all the queues are empty
+     */
+    static Integer nextItem(List<Deque<Integer>> queues, int worker) {
+        Integer index = queues.get(worker).pollFirst();
+        while (index == null) {
+            Deque<Integer> victim = null;
+            for (Deque<Integer> queue : queues) {
+                if (!queue.isEmpty() && (victim == null || queue.size() > victim.size()))
+                    victim = queue;
+            }
+            if (victim == null)
+                return null;
+            index = victim.pollLast();
+        }
+        return index;
+    }
+
+
+    /** Writes the hypotheses in the order of the batch file as soon as all the ones before them are known. */
+    static class HypothesisWriter {
+
+        private final PrintWriter writer;
+        // the hypotheses that can't be written yet
+        private final String[] hypotheses;
+        private int nextHypothesis;
+
+        HypothesisWriter(PrintWriter writer, int numItems) {
+            this.writer = writer;
+            this.hypotheses = new String[numItems];
+        }
+
+        synchronized void add(int index, String hypothesis) {
+            hypotheses[index] = hypothesis;
+            while (nextHypothesis < hypotheses.length && hypotheses[nextHypothesis] != null) {
+                writer.println(hypotheses[nextHypothesis]);
+                hypotheses[nextHypothesis++] = null;
+            }
+            writer.flush();
+        }
+    }
+
+
+    private static String getUtteranceId(String filename) {
+        String name = new File(filename).getName();
+        int dot = name.lastIndexOf('.');
+        return dot > 0 ? name.substring(0, dot) : name;
+    }
+
+
+    /**
+     * Decodes a batch file in parallel.
+     *
+     * @param argv the configuration file, the batch file and the hypothesis
+     *             file, optionally followed by <code>-threads</code> and the
+     *             number of workers, <code>-shared</code> and a comma
+     *             separated list of shared components, and <code>-batch</code>
+     *             and the name of the batch mode recognizer component
+     */
+    public static void main(String[] argv) {
+        if (argv.length < 3) {
+            System.out.println("Usage: ParallelBatchRecognizer propertiesFile batchFile hypFile"
+                    + " [-threads n] [-shared acousticModel] [-batch batch]");
+            System.exit(1);
+        }
+        int numThreads = Runtime.getRuntime().availableProcessors();
+        List<String> shared = Collections.singletonList("acousticModel");
+        String batchName = "batch";
+        for (int i = 3; i < argv.length - 1; i++) {
+            if (argv[i].equals("-threads"))
+                numThreads = Integer.parseInt(argv[++i]);
+            else if (argv[i].equals("-shared"))
+                shared = Arrays.asList(argv[++i].split(","));
+            else if (argv[i].equals("-batch"))
+                batchName = argv[++i];
+        }
+
+        try {
+            ConfigurationManager cm = new ConfigurationManager(argv[0]);
+            new ParallelBatchRecognizer(cm, batchName, shared, numThreads).decode(argv[1], argv[2]);
+        } catch (Exception e) {
+            System.err.println("Error during decoding: \n  ");
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,375 @@
+/*
+ * Copyright 2014 Carnegie Mellon University.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * See the file "license.terms" for information on usage and
+ * redistribution of this file, and for a DISCLAIMER OF ALL
+ * WARRANTIES.
+ *
+ */
+package edu.cmu.sphinx.util;
+
+import edu.cmu.sphinx.util.props.Configurable;
+import edu.cmu.sphinx.util.props.PropertyException;
+import edu.cmu.sphinx.util.props.PropertySheet;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Named counters and latency histograms of one recognizer.
+ * <p>
+ * Unlike {@link StatisticsVariable} and {@link TimerPool}, which keep their
+ * values in global pools, a registry belongs to the components it is
+ * configured to, so recognizers running side by side do not mix their numbers.
+ * Counters are striped {@link LongAdder}s and histograms keep their counts in
+ * logarithmic buckets of {@value Histogram#SUB_BUCKETS} linear steps each, so
+ * recording never locks and values are kept with a relative error of about
+ * 3%. A {@link Snapshot} copies the current values for export.
+ * <p>
+ * The search managers, the front end and the recognizer take the registry as
+ * the optional property <code>metrics</code>. Components without one create a
+ * registry of their own.
+ */
+public class MetricsRegistry implements Configurable {
+
+    /** The histogram of the time spent in the front end, in nanoseconds */
+    public final static String FRONTEND = "frontend";
+
+    /** The histogram of the time spent scoring a frame, in nanoseconds */
+    public final static String SCORE = "score";
+
+    /** The histogram of the time spent pruning a frame, in nanoseconds */
+    public final static String PRUNE = "prune";
+
+    /** The histogram of the time spent growing a frame, in nanoseconds */
+    public final static String GROW = "grow";
+
+    /** The counter of the frames searched */
+    public final static String FRAMES = "frames";
+
+    /** The counter of the tokens scored */
+    public final static String TOKENS_SCORED = "totalTokensScored";
+
+    /** The counter of the tokens scored in the current utterance */
+    public final static String CUR_TOKENS_SCORED = "curTokensScored";
+
+    /** The counter of the tokens created */
+    public final static String TOKENS_CREATED = "tokensCreated";
+
+    /** The counter of the tokens replaced by better ones for the same state */
+    public final static String VITERBI_PRUNED = "viterbiPruned";
+
+    /** The counter of the tokens removed by the beams */
+    public final static String BEAM_PRUNED = "beamPruned";
+
+    /** The counter of the n-gram probabilities found in the cache of the language model */
+    public final static String LM_CACHE_HITS = "lmCacheHits";
+
+    /** The counter of the n-gram probabilities missing from the cache of the language model */
+    public final static String LM_CACHE_MISSES = "lmCacheMisses";
+
+    private final Map<String, Counter> counters = new ConcurrentHashMap<>();
+    private final Map<String, Histogram> histograms = new ConcurrentHashMap<>();
+
+    public MetricsRegistry() {
+    }
+
+    /*
+    * (non-Javadoc)
+    *
+    * @see edu.cmu.sphinx.util.props.Configurable#newProperties(edu.cmu.sphinx.util.props.PropertySheet)
+    */
+    public void newProperties(PropertySheet ps) throws PropertyException {
+    }
+
+    /**
+     * Returns the counter with the given name, creating it if needed
+     *
+     * @param name the name of the counter
+     * @return the counter
+     */
+    public Counter counter(String name) {
+        return counters.computeIfAbsent(name, n -> new Counter());
+    }
+
+    /**
+     * Returns the histogram with the given name, creating it if needed
+     *
+     * @param name the name of the histogram
+     * @return the histogram
+     */
+    public Histogram histogram(String name) {
+        return histograms.computeIfAbsent(name, n -> new Histogram());
+    }
+
+    /** Resets all counters and histograms */
+    public void reset() {
+        counters.values().forEach(Counter::reset);
+        histograms.values().forEach(Histogram::reset);
+    }
+
+    /**
+     * Copies the current values. Values recorded while the snapshot is taken
+     * may or may not be included.
+     *
+     * @return the snapshot
+     */
+    public Snapshot snapshot() {
+        Map<String, Long> counterValues = new TreeMap<>();
+        counters.forEach((name, counter) -> counterValues.put(name, counter.get()));
+        Map<String, HistogramSnapshot> histogramValues = new TreeMap<>();
+        histograms.forEach((name, histogram) -> histogramValues.put(name, histogram.snapshot()));
+        return new Snapshot(counterValues, histogramValues);
+    }
+
+    @Override
+    public String toString() {
+        return snapshot().toString();
+    }
+
+
+    /** A counter that can be updated from several threads without contention */
+    public static class Counter {
+
+        private final LongAdder value = new LongAdder();
+
+        Counter() {
+        }
+
+        public void increment() {
+            value.increment();
+        }
+
+        public void add(long delta) {
+            value.add(delta);
+        }
+
+        /** @return the current value */
+        public long get() {
+            return value.sum();
+        }
+
+        public void reset() {
+            value.reset();
+        }
+    }
+
+
+    /**
+     * A histogram of non-negative values. Values below {@value #SUB_BUCKETS}
+     * are counted exactly, larger values in buckets that split every power of
+     * two into {@value #SUB_BUCKETS} steps.
+     */
+    public static class Histogram {
+
+        private final static int SUB_BUCKET_BITS = 5;
+        final static int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+        private final static int NUM_BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+        private final AtomicLongArray counts = new AtomicLongArray(NUM_BUCKETS);
+        private final LongAdder sum = new LongAdder();
+        private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+        Histogram() {
+        }
+
+        /**
+         * Records a value, negative values are recorded as zero
+         *
+         * @param value the value
+         */
+        public void record(long value) {
+            if (value < 0)
+                value = 0;
+            counts.incrementAndGet(bucket(value));
+            sum.add(value);
+            max.accumulate(value);
+        }
+
+        /**
+         * Records the time passed since the given time
+         *
+         * @param startTime the start time as returned by {@link System#nanoTime()}
+         * @return the time passed in nanoseconds
+         */
+        public long recordSince(long startTime) {
+            long time = System.nanoTime() - startTime;
+            record(time);
+            return time;
+        }
+
+        public void reset() {
+            for (int i = 0; i < NUM_BUCKETS; i++)
+                counts.set(i, 0);
+            sum.reset();
+            max.reset();
+        }
+
+        public HistogramSnapshot snapshot() {
+            long[] copy = new long[NUM_BUCKETS];
+            for (int i = 0; i < NUM_BUCKETS; i++)
+                copy[i] = counts.get(i);
+            return new HistogramSnapshot(copy, sum.sum(), max.get());
+        }
+
+        static int bucket(long value) {
+            if (value < SUB_BUCKETS)
+                return (int) value;
+            int exponent = 63 - Long.numberOfLeadingZeros(value);
+            int shift = exponent - SUB_BUCKET_BITS;
+            return ((shift + 1) << SUB_BUCKET_BITS) + (int) ((value >>> shift) & (SUB_BUCKETS - 1));
+        }
+
+        static long lowestValue(int bucket) {
+            if (bucket < SUB_BUCKETS)
+                return bucket;
+            int shift = (bucket >> SUB_BUCKET_BITS) - 1;
+            return (long) (SUB_BUCKETS + (bucket & (SUB_BUCKETS - 1))) << shift;
+        }
+
+        static long highestValue(int bucket) {
+            return bucket + 1 < NUM_BUCKETS ? lowestValue(bucket + 1) - 1 : Long.MAX_VALUE;
+        }
+    }
+
+
+    /** The values of a histogram at one point in time */
+    public static class HistogramSnapshot {
+
+        private final long[] counts;
+        private final long count;
+        private final long sum;
+        private final long max;
+
+        HistogramSnapshot(long[] counts, long sum, long max) {
+            this.counts = counts;
+            long count = 0;
+            for (long c : counts)
+                count += c;
+            this.count = count;
+            this.sum = sum;
+            this.max = max;
+        }
+
+        /** @return the number of values recorded */
+        public long getCount() {
+            return count;
+        }
+
+        /** @return the sum of the values recorded */
+        public long getSum() {
+            return sum;
+        }
+
+        /** @return the largest value recorded */
+        public long getMax() {
+            return max;
+        }
+
+        /** @return the mean of the values recorded, zero if there are none */
+        public double getMean() {
+            return count == 0 ? 0 : (double) sum / count;
+        }
+
+        /**
+         * Returns the value that the given fraction of the recorded values
+         * does not exceed, up to the precision of the buckets
+         *
+         * @param quantile the fraction between 0 and 1
+         * @return the value, zero if there are no values
+         */
+        public long getQuantile(double quantile) {
+            if (count == 0)
+                return 0;
+            long rank = Math.max(1, (long) Math.ceil(quantile * count));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank)
+                    return Math.min(Histogram.highestValue(i), max);
+            }
+            return max;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("count=%d mean=%.0f p50=%d p90=%d p99=%d max=%d", count, getMean(),
+                    getQuantile(0.5), getQuantile(0.9), getQuantile(0.99), max);
+        }
+    }
+
+
+    /** The values of a registry at one point in time */
+    public static class Snapshot {
+
+        private final Map<String, Long> counters;
+        private final Map<String, HistogramSnapshot> histograms;
+
+        Snapshot(Map<String, Long> counters, Map<String, HistogramSnapshot> histograms) {
+            this.counters = Collections.unmodifiableMap(counters);
+            this.histograms = Collections.unmodifiableMap(histograms);
+        }
+
+        /** @return the counter values by name */
+        public Map<String, Long> getCounters() {
+            return counters;
+        }
+
+        /** @return the histograms by name */
+        public Map<String, HistogramSnapshot> getHistograms() {
+            return histograms;
+        }
+
+        /**
+         * @param name the name of the counter
+         * @return the value of the counter, zero if there is none
+         */
+        public long getCounter(String name) {
+            Long value = counters.get(name);
+            return value == null ? 0 : value;
+        }
+
+        /**
+         * @param name the name of the histogram
+         * @return the histogram, or null if there is none
+         */
+        public HistogramSnapshot getHistogram(String name) {
+            return histograms.get(name);
+        }
+
+        /**
+         * Returns the time spent scoring, pruning and growing relative to the
+         * duration of the frames searched. The front end runs while the frames
+         * are scored, so its time is included.
+         *
+         * @param frameShift the shift of the frames in seconds, usually 0.01
+         * @return the real-time factor, zero if no frames were searched
+         */
+        public double getRealTimeFactor(double frameShift) {
+            long frames = getCounter(FRAMES);
+            if (frames == 0)
+                return 0;
+            long time = 0;
+            for (String name : new String[] {SCORE, PRUNE, GROW}) {
+                HistogramSnapshot histogram = histograms.get(name);
+                if (histogram != null)
+                    time += histogram.getSum();
+            }
+            return time / 1e9 / (frames * frameShift);
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            counters.forEach((name, value) -> sb.append(name).append(' ').append(value).append('\n'));
+            histograms.forEach((name, histogram) -> sb.append(name).append(' ').append(histogram).append('\n'));
+            return sb.toString();
+        }
+    }
+}
@@ -496,6 +496,28 @@ public class ConfigurationManager implements Cloneable {
     	  return 1; // any arbitrary constant will do
     }
 
+    /**
+     * Creates a copy of this configuration manager to run another instance of the configured system next to this one.
+     * Components that are already instantiated in this configuration manager, like models looked up before the
+     * copy is made, are shared with the copy. All other components are instantiated separately by the copy when
+     * they are looked up. Shared components are used concurrently by both systems, so they must be thread safe.
+     *
+     * @return the copy
+     */
+    public ConfigurationManager copy() {
+        ConfigurationManager copy = new ConfigurationManager();
+        copy.configURL = configURL;
+        copy.showCreations = showCreations;
+        copy.globalProperties = new HashMap<>(globalProperties);
+        copy.rawPropertyMap = new HashMap<>(rawPropertyMap);
+        for (Map.Entry<String, PropertySheet> entry : symbolTable.entrySet()) {
+            PropertySheet ps = entry.getValue();
+            copy.symbolTable.put(entry.getKey(), ps.instanced() ? ps : ps.copy(copy));
+        }
+        return copy;
+    }
+
+
     /** Creates a deep copy of the given CM instance. */
     // This is not tested yet !!!
     @Override
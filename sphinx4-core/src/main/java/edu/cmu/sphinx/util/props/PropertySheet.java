@@ -875,6 +875,24 @@ public class PropertySheet implements Cloneable {
         return instanceName + "; isInstantiated=" + instanced() + "; props=" + rawProps.keySet();
     }
         
+    /**
+     * Creates an uninstantiated copy of this property sheet that resolves its components in another configuration
+     * manager.
+     *
+     * @param cm the configuration manager of the copy
+     * @return the copy
+     */
+    PropertySheet copy(ConfigurationManager cm) {
+        try {
+            PropertySheet ps = clone();
+            ps.cm = cm;
+            return ps;
+        } catch (CloneNotSupportedException e) {
+            throw new Error(e);
+        }
+    }
+
+
     @Override
     protected PropertySheet clone() throws CloneNotSupportedException {
         PropertySheet ps = (PropertySheet)super.clone();
@@ -10,6 +10,9 @@ import java.util.Random;
 
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.lessThan;
 
 public class TextAlignerLargeTest {
 
@@ -35,9 +38,83 @@ public class TextAlignerLargeTest {
         assertThat(Utilities.asList(aligner.align(query)), contains(ids));
     }
 
+    @Test(timeOut = 10000)
+    public void alignLongNoisySequence() {
+        Random rng = new Random(42);
+        List<String> transcript = new ArrayList<>();
+        for (int i = 0; i < 100000; ++i)
+            transcript.add("w" + rng.nextInt(5000));
+        // drop a tenth of the words and insert as many unknown ones
+        List<String> query = new ArrayList<>();
+        List<Integer> positions = new ArrayList<>();
+        for (int i = 0; i < transcript.size(); ++i) {
+            double r = rng.nextDouble();
+            if (r < 0.1)
+                continue;
+            if (r < 0.2) {
+                query.add("x");
+                positions.add(-1);
+            }
+            query.add(transcript.get(i));
+            positions.add(i);
+        }
+        // and skip a long stretch
+        query.subList(40000, 50000).clear();
+        positions.subList(40000, 50000).clear();
+
+        int[] alignment = new LongTextAligner(transcript, 3).align(query);
+        int correct = 0;
+        int wrong = 0;
+        for (int i = 0; i < alignment.length; ++i) {
+            if (alignment[i] == positions.get(i))
+                correct++;
+            else if (alignment[i] != -1)
+                wrong++;
+        }
+        assertThat(correct, greaterThan(query.size() * 3 / 4));
+        assertThat(wrong, lessThan(10));
+    }
+
     @Test(invocationTimeOut = 10000, invocationCount = 1, enabled = false)
     public void alignLongSequence() {
         List<String> query = database.subList(1999, 8777);
         assertThat(Utilities.asList(aligner.align(query)), contains(1));
     }
+
+    @Test
+    public void bandFollowsNoisySequence() {
+        Random rng = new Random(7);
+        List<String> transcript = new ArrayList<>();
+        for (int i = 0; i < 2000; ++i)
+            transcript.add("w" + rng.nextInt(300));
+        List<String> query = new ArrayList<>();
+        List<Integer> positions = new ArrayList<>();
+        for (int i = 0; i < transcript.size(); ++i) {
+            double r = rng.nextDouble();
+            if (r < 0.1)
+                continue;
+            if (r < 0.2) {
+                query.add("x");
+                positions.add(-1);
+            }
+            query.add(transcript.get(i));
+            positions.add(i);
+        }
+
+        // a band as wide as the text searches the whole matrix
+        int[] alignment = new LongTextAligner(transcript, 3).align(query);
+        int[] fullAlignment = new LongTextAligner(transcript, 3, transcript.size()).align(query);
+        assertThat(Utilities.asList(alignment), equalTo(Utilities.asList(fullAlignment)));
+
+        int correct = 0;
+        int wrong = 0;
+        for (int i = 0; i < alignment.length; ++i) {
+            if (alignment[i] == positions.get(i))
+                correct++;
+            else if (alignment[i] != -1)
+                wrong++;
+        }
+        assertThat(correct, greaterThan(query.size() * 9 / 10));
+        assertThat(wrong, lessThan(10));
+    }
 }
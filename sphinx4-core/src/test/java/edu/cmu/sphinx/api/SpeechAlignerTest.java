@@ -0,0 +1,63 @@
+package edu.cmu.sphinx.api;
+
+import edu.cmu.sphinx.result.WordResult;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class SpeechAlignerTest {
+
+    private static final String ACOUSTIC_MODEL_PATH = "resource:/edu/cmu/sphinx/models/en-us/en-us";
+    private static final String DICTIONARY_PATH = "resource:/edu/cmu/sphinx/models/en-us/cmudict-en-us.dict";
+    private static final String TEXT = "one zero zero zero one nine oh two one oh zero one eight zero three";
+
+    private static List<WordResult> align(int numThreads, long chunkLength) throws IOException {
+        SpeechAligner aligner = new SpeechAligner(ACOUSTIC_MODEL_PATH, DICTIONARY_PATH, null, numThreads);
+        aligner.setChunkLength(chunkLength);
+        URL audioUrl = SpeechAlignerTest.class.getResource("/edu/cmu/sphinx/tools/bandwidth/10001-90210-01803.wav");
+        return aligner.align(audioUrl, TEXT);
+    }
+
+    private static List<String> getWords(List<WordResult> results) {
+        List<String> words = new ArrayList<>();
+        for (WordResult result : results)
+            words.add(result.word.spelling);
+        return words;
+    }
+
+    private static List<String> describe(List<WordResult> results) {
+        List<String> descriptions = new ArrayList<>();
+        for (WordResult result : results)
+            descriptions.add(result.toString());
+        return descriptions;
+    }
+
+    @Test
+    public void parallelAlignmentMatchesSingleThreadedAlignment() throws IOException {
+        List<WordResult> single = align(1, SpeechAligner.DEFAULT_CHUNK_LENGTH);
+        assertThat(getWords(single), contains(TEXT.split(" ")));
+
+        // the audio is shorter than a chunk, so only the later passes run in parallel
+        assertThat(describe(align(3, SpeechAligner.DEFAULT_CHUNK_LENGTH)), equalTo(describe(single)));
+    }
+
+    @Test
+    public void chunkedAlignmentMatchesSingleThreadedAlignment() throws IOException {
+        List<WordResult> single = align(1, SpeechAligner.DEFAULT_CHUNK_LENGTH);
+
+        // the words cut at the chunk boundaries are aligned again in the later passes
+        List<WordResult> chunked = align(3, 1500);
+        assertThat(getWords(chunked), equalTo(getWords(single)));
+        for (int i = 0; i < single.size(); i++) {
+            assertThat((double) chunked.get(i).timeFrame.start,
+                    closeTo(single.get(i).timeFrame.start, 100));
+            assertThat((double) chunked.get(i).timeFrame.end, closeTo(single.get(i).timeFrame.end, 100));
+        }
+    }
+}
@@ -6,6 +6,11 @@ import edu.cmu.sphinx.frontend.*;
 import edu.cmu.sphinx.frontend.databranch.DataBufferProcessor;
 import edu.cmu.sphinx.frontend.endpoint.SpeechEndSignal;
 import edu.cmu.sphinx.frontend.endpoint.SpeechStartSignal;
+import edu.cmu.sphinx.linguist.acoustic.HMMPosition;
+import edu.cmu.sphinx.linguist.acoustic.UnitManager;
+import edu.cmu.sphinx.linguist.acoustic.tiedstate.*;
+import edu.cmu.sphinx.linguist.flat.HMMStateState;
+import edu.cmu.sphinx.util.LogMath;
 import edu.cmu.sphinx.util.props.ConfigurationManager;
 import edu.cmu.sphinx.util.props.ConfigurationManagerUtils;
 import org.testng.Assert;
@@ -13,9 +18,11 @@ import org.testng.annotations.BeforeClass;
 import org.testng.annotations.Test;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -74,6 +81,141 @@ public class ScorerTests {
     }
 
 
+    @Test
+    public void lookAheadKeepsFrameOrder() {
+        Assert.assertEquals(scoreAll(4), scoreAll(1));
+    }
+
+
+    /**
+     * Scores a dummy utterance and records the first sample number of every scored frame and the class of every
+     * returned signal.
+     */
+    private static List<Object> scoreAll(int lookAheadFrames) {
+        final List<Object> trace = new ArrayList<>();
+        Token recordingToken = new Token(null, 0.f, 0.f, 0.f, 0.f) {
+
+            @Override
+            public float calculateScore(Data feature) {
+                trace.add(((FloatData) feature).firstSampleNumber);
+                return -1;
+            }
+        };
+
+        Map<String, Object> props = new HashMap<>();
+        props.put(SimpleAcousticScorer.FEATURE_FRONTEND, createDummyFrontEnd());
+        props.put(SimpleAcousticScorer.LOOKAHEAD_FRAMES, lookAheadFrames);
+        AcousticScorer scorer = ConfigurationManager.getInstance(SimpleAcousticScorer.class, props);
+
+        scorer.allocate();
+        scorer.startRecognition();
+
+        SimpleActiveList dummyTokens = new SimpleActiveList(0, 0);
+        dummyTokens.add(recordingToken);
+        Data data;
+        while ((data = scorer.calculateScores(dummyTokens)) != null) {
+            if (data instanceof Signal)
+                trace.add(data.getClass());
+        }
+
+        scorer.stopRecognition();
+        scorer.deallocate();
+        return trace;
+    }
+
+
+    @Test
+    public void lookAheadScoresAlignedBlocks() {
+        int[] evaluations = {0};
+        GaussianWeights weights = new GaussianWeights("weights", 3, 2, 1);
+        Senone[] senones = new Senone[3];
+        Random random = new Random(42);
+        for (int i = 0; i < senones.length; i++) {
+            weights.put(i, 0, new float[] {LogMath.linearToLog(0.3), LogMath.linearToLog(0.7)});
+            MixtureComponent[] components = new MixtureComponent[2];
+            for (int j = 0; j < components.length; j++) {
+                float[] mean = new float[39];
+                float[] variance = new float[39];
+                for (int d = 0; d < mean.length; d++) {
+                    mean[d] = (float) random.nextGaussian();
+                    variance[d] = 1 + random.nextFloat();
+                }
+                components[j] = new MixtureComponent(mean, variance) {
+
+                    @Override
+                    public float getScore(float[] feature) {
+                        evaluations[0]++;
+                        return super.getScore(feature);
+                    }
+                };
+            }
+            senones[i] = new GaussianMixture(weights, components, i);
+        }
+        float[][] transitionMatrix = new float[senones.length + 1][senones.length + 1];
+        SenoneHMM hmm = new SenoneHMM(new UnitManager().getUnit("AA"), new SenoneSequence(senones),
+                transitionMatrix, HMMPosition.UNDEFINED);
+
+        List<float[]> blockScores = new ArrayList<>();
+        List<Integer> blockEvaluations = new ArrayList<>();
+        for (int lookAheadFrames : new int[] {4, 1}) {
+            Map<String, Object> props = new HashMap<>();
+            props.put(SimpleAcousticScorer.FEATURE_FRONTEND, createSeededFrontEnd(10));
+            props.put(SimpleAcousticScorer.LOOKAHEAD_FRAMES, lookAheadFrames);
+            AcousticScorer scorer = ConfigurationManager.getInstance(SimpleAcousticScorer.class, props);
+            scorer.allocate();
+            scorer.startRecognition();
+
+            Token[] tokens = new Token[senones.length];
+            SimpleActiveList activeList = new SimpleActiveList(0, 0);
+            for (int i = 0; i < tokens.length; i++) {
+                tokens[i] = new Token(new HMMStateState(null, hmm.state(i)), 0);
+                activeList.add(tokens[i]);
+            }
+            Data data;
+            int evaluated = evaluations[0];
+            while ((data = scorer.calculateScores(activeList)) != null) {
+                if (data instanceof Signal)
+                    continue;
+                float[] scores = new float[tokens.length];
+                for (int i = 0; i < tokens.length; i++)
+                    scores[i] = tokens[i].getAcousticScore();
+                if (lookAheadFrames > 1) {
+                    blockScores.add(scores);
+                    blockEvaluations.add(evaluations[0] - evaluated);
+                } else {
+                    Assert.assertEquals(scores, blockScores.get(0));
+                    blockScores.remove(0);
+                }
+                evaluated = evaluations[0];
+            }
+            scorer.stopRecognition();
+            scorer.deallocate();
+        }
+        Assert.assertTrue(blockScores.isEmpty());
+
+        // blocks of 4, 4 and 2 frames, 3 senones of 2 components each
+        Assert.assertEquals(blockEvaluations, Arrays.asList(24, 0, 0, 0, 24, 0, 0, 0, 12, 0));
+    }
+
+
+    /** Creates a front end with the given number of speech frames, the same ones on every call */
+    private static DataBufferProcessor createSeededFrontEnd(int numFrames) {
+        DataBufferProcessor bufferProc = ConfigurationManager.getInstance(DataBufferProcessor.class);
+        bufferProc.processDataFrame(new DataStartSignal(16000));
+        bufferProc.processDataFrame(new SpeechStartSignal());
+        Random random = new Random(7);
+        for (int i = 0; i < numFrames; i++) {
+            float[] values = new float[39];
+            for (int d = 0; d < values.length; d++)
+                values[d] = (float) random.nextGaussian();
+            bufferProc.processDataFrame(new FloatData(values, 16000, i * 160));
+        }
+        bufferProc.processDataFrame(new SpeechEndSignal());
+        bufferProc.processDataFrame(new DataEndSignal(123));
+        return bufferProc;
+    }
+
+
     private static DataBufferProcessor createDummyFrontEnd() {
         DataBufferProcessor bufferProc = ConfigurationManager.getInstance(DataBufferProcessor.class);
         bufferProc.processDataFrame(new DataStartSignal(16000));
@@ -0,0 +1,71 @@
+package edu.cmu.sphinx.decoder.search;
+
+import org.testng.annotations.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class AdaptiveBeamControllerTest {
+
+    /** Searches frames of 10 ms that need 10000 tokens without a cap, each costing the given time */
+    private static void search(AdaptiveBeamController controller, int frames, long fixedCost, long tokenCost) {
+        for (int i = 0; i < frames; i++) {
+            int tokens = Math.min(controller.getMaxActiveTokens(), 10000);
+            controller.adapt(fixedCost + tokens * tokenCost, 10, tokens, 0);
+        }
+    }
+
+    @Test
+    public void holdsTargetWithinBounds() {
+        AdaptiveBeamController controller = new AdaptiveBeamController(0.5, 0, 1000, 0.5);
+        // 8 ms per 10 ms frame, above the target
+        assertThat(controller.adapt(8000000, 0, 10000, 0), is(false));
+        assertThat(controller.adapt(8000000, 10, 10000, 0), is(true));
+        assertThat(controller.getRealTimeFactor(), closeTo(0.8, 1e-9));
+        assertThat(controller.getMaxActiveTokens(), is(6250));
+        assertThat((double) controller.getRelativeBeamScale(), closeTo(0.9, 1e-6));
+
+        // 1 ms per 1000 tokens, twice the target without a cap
+        search(controller, 1000, 0, 1000);
+        assertThat(controller.getRealTimeFactor(), both(greaterThan(0.35)).and(lessThan(0.55)));
+        assertThat(controller.getMaxActiveTokens(), both(greaterThan(3000)).and(lessThan(6000)));
+
+        // too slow at any beam
+        search(controller, 100, 8000000, 1000);
+        assertThat(controller.getMaxActiveTokens(), is(1000));
+        assertThat(controller.getRelativeBeamScale(), is(0.5f));
+
+        // well below the target
+        search(controller, 1000, 0, 10);
+        assertThat(controller.getMaxActiveTokens(), is(Integer.MAX_VALUE));
+        assertThat(controller.getRelativeBeamScale(), is(1f));
+    }
+
+    @Test
+    public void narrowsWhenLate() {
+        AdaptiveBeamController controller = new AdaptiveBeamController(0.5, 200, 100, 0.5);
+        controller.adapt(1000000, 10, 1000, 0);
+        assertThat(controller.adapt(1000000, 10, 1000, 300), is(true));
+        assertThat(controller.getMaxActiveTokens(), is(900));
+        // in time but not yet enough to widen
+        assertThat(controller.adapt(1000000, 10, 1000, 150), is(false));
+    }
+
+    @Test
+    public void factoryKeepsConfiguredBeams() {
+        SimpleActiveListFactory factory = new SimpleActiveListFactory(2000, 1e-60);
+        float relativeBeamWidth = factory.getLogRelativeBeamWidth();
+        factory.adaptBeams(500, 0.5f);
+        assertThat(factory.getAbsoluteBeamWidth(), is(500));
+        assertThat(factory.getLogRelativeBeamWidth(), is(relativeBeamWidth * 0.5f));
+        factory.adaptBeams(Integer.MAX_VALUE, 1);
+        assertThat(factory.getAbsoluteBeamWidth(), is(2000));
+        assertThat(factory.getLogRelativeBeamWidth(), is(relativeBeamWidth));
+
+        SimpleActiveListFactory unlimited = new SimpleActiveListFactory(-1, 1e-60);
+        unlimited.adaptBeams(500, 1);
+        assertThat(unlimited.getAbsoluteBeamWidth(), is(500));
+        unlimited.adaptBeams(Integer.MAX_VALUE, 1);
+        assertThat(unlimited.getAbsoluteBeamWidth(), is(-1));
+    }
+}
@@ -0,0 +1,105 @@
+package edu.cmu.sphinx.decoder.search;
+
+import edu.cmu.sphinx.linguist.WordSequence;
+import edu.cmu.sphinx.linguist.dictionary.Dictionary;
+import edu.cmu.sphinx.linguist.language.ngram.LanguageModel;
+import edu.cmu.sphinx.util.props.ConfigurationManager;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static edu.cmu.sphinx.linguist.WordSequence.asWordSequence;
+import static edu.cmu.sphinx.util.props.ConfigurationManagerUtils.resourceToURL;
+import static edu.cmu.sphinx.util.props.ConfigurationManagerUtils.setProperty;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class FrameTelemetryTest {
+
+    @Test
+    public void dropsRecordsWhenFull() {
+        FrameTelemetry telemetry = new FrameTelemetry(3);
+        assertThat(telemetry.getCapacity(), is(4));
+        telemetry.startUtterance();
+        for (int frame = 1; frame <= 6; frame++)
+            telemetry.record(frame, frame * 10, 100, 200, -5, 1, 1000, 100, 500, frame * 2, frame);
+
+        List<FrameTelemetry.Frame> frames = new ArrayList<>();
+        assertThat(telemetry.drain(frames::add), is(4));
+        assertThat(telemetry.getDropped(), is(2L));
+        assertThat(frames.get(0).getFrame(), is(1));
+        assertThat(frames.get(3).getFrame(), is(4));
+        // the cache counts are per frame
+        assertThat(frames.get(0).getLmCacheHits(), is(0L));
+        assertThat(frames.get(1).getLmCacheHits(), is(2L));
+        assertThat(frames.get(1).getLmCacheMisses(), is(1L));
+        // audio runs 10 ms per frame, far ahead of the wall clock
+        assertThat(frames.get(3).getLatency(), lessThan(0L));
+        assertThat(frames.get(0).toJson("s"), startsWith("{\"stream\":\"s\",\"frame\":1,\"time\":10,\"active\":100"));
+
+        telemetry.record(7, 70, 100, 200, -5, 1, 1000, 100, 500, 14, 7);
+        frames.clear();
+        assertThat(telemetry.drain(frames::add), is(1));
+        assertThat(frames.get(0).getFrame(), is(7));
+    }
+
+    @Test(timeOut = 10000)
+    public void drainsWhileRecording() throws InterruptedException {
+        FrameTelemetry telemetry = new FrameTelemetry(64);
+        int numFrames = 200000;
+        Thread writer = new Thread(() -> {
+            for (int frame = 0; frame < numFrames; frame++)
+                telemetry.record(frame, frame, frame, frame, 0, 0, frame, frame, frame, 0, 0);
+        });
+        writer.start();
+        int[] last = {-1};
+        int[] read = {0};
+        while (writer.isAlive() || read[0] + telemetry.getDropped() < numFrames) {
+            telemetry.drain(frame -> {
+                assertThat(frame.getFrame(), greaterThan(last[0]));
+                assertThat(frame.getActiveTokens(), is(frame.getFrame()));
+                assertThat(frame.getGrowTime(), is((long) frame.getFrame()));
+                last[0] = frame.getFrame();
+                read[0]++;
+            });
+        }
+        writer.join();
+        assertThat(read[0] + telemetry.getDropped(), is((long) numFrames));
+    }
+
+    @Test
+    public void recordsCacheOfSharedLanguageModel() throws IOException {
+        ConfigurationManager cm = new ConfigurationManager(
+                resourceToURL("resource:/edu/cmu/sphinx/api/default.config.xml"));
+        setProperty(cm, "dictionary", "dictionaryPath",
+                "resource:/edu/cmu/sphinx/linguist/language/ngram/large/100.dict");
+        setProperty(cm, "dictionary", "fillerPath", "resource:/edu/cmu/sphinx/models/en-us/en-us/noisedict");
+        setProperty(cm, "largeTrigramModel", "location",
+                "resource:/edu/cmu/sphinx/linguist/language/ngram/large/100.arpa.dmp");
+        assertThat(cm.getPropertySheet("trieNgramModel").getRaw("metrics"), is((Object) "metrics"));
+
+        Dictionary dictionary = cm.lookup("dictionary");
+        dictionary.allocate();
+        LanguageModel languageModel = cm.lookup("largeTrigramModel");
+        languageModel.allocate();
+        WordPruningBreadthFirstSearchManager searchManager = new WordPruningBreadthFirstSearchManager();
+        searchManager.metrics = cm.lookup("metrics");
+        searchManager.setTelemetry(new FrameTelemetry(4));
+        searchManager.startFrames();
+        searchManager.endFrame(0, 0, 1, 0, 0);
+        WordSequence trigram = asWordSequence(dictionary, "huggins", "daines", "david");
+        languageModel.getProbability(trigram);
+        languageModel.getProbability(trigram);
+        languageModel.getProbability(trigram);
+        searchManager.endFrame(1, 10, 1, 0, 0);
+
+        List<FrameTelemetry.Frame> frames = new ArrayList<>();
+        searchManager.getTelemetry().drain(frames::add);
+        assertThat(frames, hasSize(2));
+        assertThat(frames.get(1).getLmCacheMisses(), is(1L));
+        assertThat(frames.get(1).getLmCacheHits(), is(2L));
+    }
+}
@@ -0,0 +1,234 @@
+package edu.cmu.sphinx.decoder.search;
+
+import edu.cmu.sphinx.decoder.pruner.SimplePruner;
+import edu.cmu.sphinx.decoder.scorer.SimpleAcousticScorer;
+import edu.cmu.sphinx.frontend.DataEndSignal;
+import edu.cmu.sphinx.frontend.DataStartSignal;
+import edu.cmu.sphinx.frontend.FloatData;
+import edu.cmu.sphinx.frontend.databranch.DataBufferProcessor;
+import edu.cmu.sphinx.linguist.SearchStateArc;
+import edu.cmu.sphinx.linguist.WordSearchState;
+import edu.cmu.sphinx.linguist.WordSequence;
+import edu.cmu.sphinx.linguist.acoustic.AcousticModel;
+import edu.cmu.sphinx.linguist.acoustic.Unit;
+import edu.cmu.sphinx.linguist.acoustic.UnitManager;
+import edu.cmu.sphinx.linguist.acoustic.tiedstate.ToyLoader;
+import edu.cmu.sphinx.linguist.allphone.AllphoneLinguist;
+import edu.cmu.sphinx.linguist.dictionary.Pronunciation;
+import edu.cmu.sphinx.linguist.dictionary.TextDictionary;
+import edu.cmu.sphinx.linguist.dictionary.Word;
+import edu.cmu.sphinx.linguist.language.ngram.SimpleNGramModel;
+import edu.cmu.sphinx.linguist.lextree.LexTreeLinguist;
+import edu.cmu.sphinx.result.Edge;
+import edu.cmu.sphinx.result.Lattice;
+import edu.cmu.sphinx.result.Node;
+import edu.cmu.sphinx.result.Result;
+import edu.cmu.sphinx.util.props.ConfigurationManager;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class LatticeArcStoreTest {
+
+    private final WordState start = new WordState("<s>");
+    private final WordState a = new WordState("a");
+    private final WordState b = new WordState("b");
+    private final WordState end = new WordState("</s>");
+
+    @Test
+    public void collectsArcsBetweenWords() {
+        LatticeArcStore store = new LatticeArcStore(10);
+        Token startToken = new Token(start, 0);
+        Token aToken = wordToken(startToken, a, -8, 10);
+        Token bToken = wordToken(startToken, b, -9, 10);
+        Token endToken = wordToken(aToken, end, -20, 30);
+        store.addArc(aToken, aToken.predecessor(), aToken.score(), true);
+        store.addArc(bToken, bToken.predecessor(), bToken.score(), true);
+        store.addArc(endToken, endToken.predecessor(), endToken.score(), true);
+        store.addArc(endToken, new Token(bToken, -1, -3, -1, -2), -25, false);
+
+        assertThat(store.getNumNodes(), is(4));
+        assertThat(store.getNumArcs(), is(4));
+        assertThat(store.getWord(store.getInitialNode()).toString(), is("<s>"));
+        int arc = store.getFirstArc(store.getNode(aToken));
+        assertThat(store.getArcSource(arc), is(store.getInitialNode()));
+        assertThat(store.getArcAcousticScore(arc), is(-6.0f));
+        assertThat(store.getArcLanguageScore(arc), is(-2.5f));
+        assertThat(store.getNextArc(arc), is(-1));
+        assertThat(store.getEndTime(store.getNode(aToken)), is(10L));
+
+        Result result = new Result(store, null, Collections.singletonList(endToken), 30, true, false, true);
+        Lattice lattice = new Lattice(result);
+        assertThat(lattice.getNodes(), hasSize(4));
+        assertThat(lattice.getEdges(), hasSize(4));
+        assertThat(lattice.getInitialNode().getWord().toString(), is("<s>"));
+        assertThat(lattice.getTerminalNode().getWord().toString(), is("</s>"));
+        for (Edge edge : lattice.getEdges()) {
+            Node from = edge.getFromNode();
+            if (from.getWord().toString().equals("b"))
+                assertThat(edge.getAcousticScore(), is(-4.0));
+        }
+    }
+
+    @Test
+    public void keepsBestArcs() {
+        LatticeArcStore store = new LatticeArcStore(1);
+        Token startToken = new Token(start, 0);
+        Token aToken = wordToken(startToken, a, -8, 10);
+        Token bToken = wordToken(startToken, b, -9, 10);
+        Token endToken = wordToken(aToken, end, -20, 30);
+        store.addArc(endToken, endToken.predecessor(), -20, true);
+        store.addArc(endToken, new Token(bToken, -1, 0, 0, 0), -25, false);
+        int node = store.getNode(endToken);
+        assertThat(store.getArcSource(store.getFirstArc(node)), is(store.getNode(aToken)));
+
+        store.addArc(endToken, new Token(bToken, -1, 0, 0, 0), -15, false);
+        assertThat(store.getArcSource(store.getFirstArc(node)), is(store.getNode(bToken)));
+        store.addArc(endToken, new Token(bToken, -1, -7, 0, 0), -10, false);
+        assertThat(store.getArcAcousticScore(store.getFirstArc(node)), is(-7.0f));
+        assertThat(store.getNextArc(store.getFirstArc(node)), is(-1));
+        assertThat(store.getNumArcs(), is(1));
+    }
+
+    /** Creates the lex tree of the toy language model on the given model of the toy phones */
+    private static LexTreeLinguist createLinguist(UnitManager unitManager, AcousticModel acousticModel)
+            throws IOException {
+        URL base = LatticeArcStoreTest.class.getResource("/edu/cmu/sphinx/linguist/toy/");
+        TextDictionary dictionary = new TextDictionary(new URL(base, "toy.dict"), new URL(base, "filler.dict"),
+                null, null, unitManager);
+        SimpleNGramModel languageModel = new SimpleNGramModel(new URL(base, "toy.lm"), dictionary, 0.7f, 3);
+        LexTreeLinguist linguist = new LexTreeLinguist(acousticModel, unitManager, languageModel, dictionary, false,
+                false, 0.1, 0.1, 1e-2, 1, 8, false, false, 1, 1000);
+        linguist.allocate();
+        return linguist;
+    }
+
+    /**
+     * Decodes frames at the means of the given phones and returns the lattice of the result, with the phone loop
+     * lookahead if asked for. The scores of the toy model are so steep that the search needs wide beams to keep the
+     * right words.
+     */
+    private static Lattice decodeLattice(LexTreeLinguist linguist, AcousticModel acousticModel,
+            boolean streamLattice, boolean lookahead, String... phones) {
+        DataBufferProcessor frontEnd = ConfigurationManager.getInstance(DataBufferProcessor.class);
+        frontEnd.processDataFrame(new DataStartSignal(16000));
+        int frame = 0;
+        for (String phone : phones) {
+            for (int state = 0; state < ToyLoader.STATES; state++) {
+                for (int i = 0; i < 3; i++, frame++) {
+                    float[] values = new float[39];
+                    Arrays.fill(values, ToyLoader.mean(phone, state));
+                    frontEnd.processDataFrame(new FloatData(values, 16000, frame * 160));
+                }
+            }
+        }
+        frontEnd.processDataFrame(new DataEndSignal(frame * 10));
+
+        List<ActiveListFactory> activeListFactories = new ArrayList<>();
+        for (int i = 0; i < linguist.getSearchGraph().getNumStateOrder(); i++)
+            activeListFactories.add(new SortingActiveListFactory(100000, 0));
+        ActiveListManager activeListManager = new SimpleActiveListManager(activeListFactories);
+        WordPruningBreadthFirstSearchManager searchManager;
+        if (lookahead) {
+            Map<String, Object> props = new HashMap<>();
+            props.put(AllphoneLinguist.PROP_ACOUSTIC_MODEL, acousticModel);
+            AllphoneLinguist fastmatchLinguist = ConfigurationManager.getInstance(AllphoneLinguist.class, props);
+            searchManager = new WordPruningBreadthFirstLookaheadSearchManager(linguist, fastmatchLinguist, null,
+                    new SimplePruner(), new SimpleAcousticScorer(frontEnd, null), activeListManager,
+                    new SortingActiveListFactory(100000, 0), false, 0, 0, false, true, 5, 1, 1000, 0, true,
+                    streamLattice);
+        } else {
+            searchManager = new WordPruningBreadthFirstSearchManager(linguist, new SimplePruner(),
+                    new SimpleAcousticScorer(frontEnd, null), activeListManager, false, 0, 0, false, true, 1000, 0,
+                    true, streamLattice);
+        }
+        searchManager.allocate();
+        searchManager.startRecognition();
+        Result result = searchManager.recognize(1000);
+        searchManager.stopRecognition();
+
+        assertThat(result.getBestFinalResultNoFiller(), is("yes one"));
+        assertThat(result.getLatticeArcStore() != null, is(streamLattice));
+        return new Lattice(result);
+    }
+
+    /** Returns the pairs of words joined by an edge of the lattice */
+    private static Set<String> getWordPairs(Lattice lattice) {
+        Set<String> pairs = new TreeSet<>();
+        for (Edge edge : lattice.getEdges())
+            pairs.add(edge.getFromNode().getWord() + " " + edge.getToNode().getWord());
+        return pairs;
+    }
+
+    /**
+     * Both lattices give the word tokens of equal states one node, but the token tree lattice only follows the first
+     * token of a node it meets and its alternate predecessors, while the streamed lattice keeps the best arc from
+     * every node a word was entered from. So the streamed lattice joins at least the words the token tree lattice
+     * joins, the scores and times of their edges may differ.
+     */
+    @Test
+    public void streamedLatticeCoversTokenTreeLattice() throws IOException {
+        String[] phones = {"SIL", "Y", "EH", "S", "W", "AH", "N"};
+        UnitManager unitManager = new UnitManager();
+        AcousticModel acousticModel = ToyLoader.createModel(unitManager);
+        LexTreeLinguist linguist = createLinguist(unitManager, acousticModel);
+        Set<String> tokenTree = getWordPairs(decodeLattice(linguist, acousticModel, false, false, phones));
+        Set<String> streamed = getWordPairs(decodeLattice(linguist, acousticModel, true, false, phones));
+
+        assertThat(tokenTree, hasItems("<s> <sil>", "<sil> yes", "yes one", "one </s>"));
+        assertThat(tokenTree.size(), greaterThan(10));
+        assertThat(streamed, hasItems(tokenTree.toArray(new String[0])));
+    }
+
+    @Test
+    public void lookaheadSearchStreamsLattice() throws IOException {
+        String[] phones = {"SIL", "Y", "EH", "S", "W", "AH", "N"};
+        UnitManager unitManager = new UnitManager();
+        AcousticModel acousticModel = ToyLoader.createModel(unitManager);
+        LexTreeLinguist linguist = createLinguist(unitManager, acousticModel);
+        Set<String> tokenTree = getWordPairs(decodeLattice(linguist, acousticModel, false, true, phones));
+        Set<String> streamed = getWordPairs(decodeLattice(linguist, acousticModel, true, true, phones));
+
+        assertThat(tokenTree, hasItems("<sil> yes", "yes one", "one </s>"));
+        assertThat(streamed, hasItems(tokenTree.toArray(new String[0])));
+    }
+
+    /** A word token reached from a previous word through a token holding the scores in between */
+    private static Token wordToken(Token previousWord, WordState state, float score, long time) {
+        Token scores = new Token(previousWord, score, -5, -1, -2);
+        return new Token(scores, state, score, 0, -0.5f, time);
+    }
+
+    private static class WordState implements WordSearchState {
+
+        private final Pronunciation pronunciation;
+
+        WordState(String spelling) {
+            pronunciation = new Pronunciation(new Unit[0], null, 1);
+            pronunciation.setWord(new Word(spelling, new Pronunciation[] {pronunciation}, false));
+        }
+
+        public Pronunciation getPronunciation() { return pronunciation; }
+        public boolean isWordStart() { return false; }
+        public SearchStateArc[] getSuccessors() { return new SearchStateArc[0]; }
+        public boolean isEmitting() { return false; }
+        public boolean isFinal() { return false; }
+        public String toPrettyString() { return pronunciation.getWord().toString(); }
+        public String getSignature() { return toPrettyString(); }
+        public WordSequence getWordHistory() { return null; }
+        public Object getLexState() { return null; }
+        public int getOrder() { return 0; }
+    }
+}
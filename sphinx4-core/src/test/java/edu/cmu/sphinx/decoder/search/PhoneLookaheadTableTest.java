@@ -0,0 +1,57 @@
+package edu.cmu.sphinx.decoder.search;
+
+import org.testng.annotations.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class PhoneLookaheadTableTest {
+
+    @Test
+    public void keepsBestDifferenceOverWindow() {
+        PhoneLookaheadTable table = new PhoneLookaheadTable(2);
+        assertThat(table.getPenalty(3), is(0.0f));
+
+        table.addScore(1, -10.0f);
+        table.addScore(2, -30.0f);
+        table.addScore(2, -25.0f);
+        table.endFrame();
+        assertThat(table.getPenalty(1), is(0.0f));
+        assertThat(table.getPenalty(2), is(-15.0f));
+
+        table.addScore(1, -50.0f);
+        table.addScore(2, -40.0f);
+        table.endFrame();
+        assertThat(table.getPenalty(1), is(0.0f));
+        assertThat(table.getPenalty(2), is(0.0f));
+
+        table.removeFirstFrame();
+        assertThat(table.getFrameCount(), is(1));
+        assertThat(table.getPenalty(1), is(-10.0f));
+        assertThat(table.getPenalty(2), is(0.0f));
+        assertThat(table.getPenalty(500), lessThan(-1e30f));
+
+        table.removeFirstFrame();
+        assertThat(table.getPenalty(2), is(0.0f));
+    }
+
+    @Test
+    public void growsAndDropsOldestFrame() {
+        PhoneLookaheadTable table = new PhoneLookaheadTable(2);
+        table.addScore(5, -1.0f);
+        table.addScore(6, -3.0f);
+        table.endFrame();
+        table.addScore(200, -2.0f);
+        table.addScore(6, -2.0f);
+        table.endFrame();
+        assertThat(table.getPenalty(5), is(0.0f));
+        assertThat(table.getPenalty(200), is(0.0f));
+        assertThat(table.getPenalty(6), is(0.0f));
+
+        table.addScore(7, -4.0f);
+        table.endFrame();
+        assertThat(table.getFrameCount(), is(2));
+        assertThat(table.getPenalty(5), lessThan(-1e30f));
+        assertThat(table.getPenalty(6), is(0.0f));
+    }
+}
@@ -0,0 +1,74 @@
+package edu.cmu.sphinx.decoder.search;
+
+import edu.cmu.sphinx.frontend.DataEndSignal;
+import edu.cmu.sphinx.frontend.DataStartSignal;
+import edu.cmu.sphinx.frontend.FloatData;
+import edu.cmu.sphinx.frontend.databranch.DataBufferProcessor;
+import edu.cmu.sphinx.linguist.acoustic.AcousticModel;
+import edu.cmu.sphinx.linguist.acoustic.UnitManager;
+import edu.cmu.sphinx.linguist.acoustic.tiedstate.ToyLoader;
+import edu.cmu.sphinx.linguist.dictionary.TextDictionary;
+import edu.cmu.sphinx.linguist.language.ngram.SimpleNGramModel;
+import edu.cmu.sphinx.linguist.wfst.WFSTLinguist;
+import edu.cmu.sphinx.result.Result;
+import edu.cmu.sphinx.util.props.ConfigurationManager;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.Arrays;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class WFSTSearchManagerTest {
+
+    /** Buffers three frames at the mean of each state of each of the given phones */
+    private static DataBufferProcessor createFrontEnd(String... phones) {
+        DataBufferProcessor frontEnd = ConfigurationManager.getInstance(DataBufferProcessor.class);
+        frontEnd.processDataFrame(new DataStartSignal(16000));
+        int frame = 0;
+        for (String phone : phones) {
+            for (int state = 0; state < ToyLoader.STATES; state++) {
+                for (int i = 0; i < 3; i++, frame++) {
+                    float[] values = new float[39];
+                    Arrays.fill(values, ToyLoader.mean(phone, state));
+                    frontEnd.processDataFrame(new FloatData(values, 16000, frame * 160));
+                }
+            }
+        }
+        frontEnd.processDataFrame(new DataEndSignal(frame * 10));
+        return frontEnd;
+    }
+
+    private static String decode(String... phones) throws IOException {
+        URL base = WFSTSearchManagerTest.class.getResource("/edu/cmu/sphinx/linguist/toy/");
+        UnitManager unitManager = new UnitManager();
+        TextDictionary dictionary = new TextDictionary(new URL(base, "toy.dict"), new URL(base, "filler.dict"),
+                null, null, unitManager);
+        AcousticModel acousticModel = ToyLoader.createModel(unitManager);
+        SimpleNGramModel languageModel = new SimpleNGramModel(new URL(base, "toy.lm"), dictionary, 0.7f, 3);
+        WFSTLinguist linguist = new WFSTLinguist(acousticModel, unitManager, languageModel, dictionary, 0.1, 0.1,
+                1e-2, 8, false);
+        WFSTSearchManager searchManager = new WFSTSearchManager(linguist, createFrontEnd(phones), 0, 1e-80);
+        searchManager.allocate();
+        searchManager.startRecognition();
+        Result result = searchManager.recognize(1000);
+        searchManager.stopRecognition();
+
+        assertThat(result.isFinal(), is(true));
+        return result.getBestFinalResultNoFiller();
+    }
+
+    @Test
+    public void decodesWords() throws IOException {
+        assertThat(decode("SIL", "Y", "EH", "S", "Z", "IH", "R", "OW", "W", "AH", "N", "SIL"),
+                is("yes zero one"));
+        assertThat(decode("N", "OW", "SIL", "W", "AH", "N", "T", "UW", "TH", "R", "IY"), is("no one two three"));
+    }
+
+    @Test
+    public void decodesAlternativePronunciation() throws IOException {
+        assertThat(decode("Y", "EH", "S", "Z", "IY", "R", "OW"), is("yes zero"));
+    }
+}
@@ -44,6 +44,9 @@ public class FrontendElementTest {
                 "after-cmn.dump"},
             {
                 "feTest",
+                "after-feature.dump"},
+            {
+                "feFloatTest",
                 "after-feature.dump"}};
     }
 
@@ -60,6 +63,40 @@ public class FrontendElementTest {
         compareDump(frontend, name);
     }
 
+    @Test
+    public void testBlock() throws IOException {
+        URL url = getClass().getResource("frontend.xml");
+        ConfigurationManager frameCm = new ConfigurationManager(url);
+        ConfigurationManager blockCm = new ConfigurationManager(url);
+        frameCm.<AudioFileDataSource>lookup("audioFileDataSource")
+               .setAudioFile(getClass().getResource("test-feat.wav"), null);
+        blockCm.<AudioFileDataSource>lookup("audioFileDataSource")
+               .setAudioFile(getClass().getResource("test-feat.wav"), null);
+        FrontEnd frameFrontend = frameCm.lookup("feTest");
+        FrontEnd blockFrontend = blockCm.lookup("feTest");
+
+        DataBlock block = new DataBlock();
+        int frames = 0;
+        while (blockFrontend.getData(block, 7) > 0 || !block.isEmpty()) {
+            int signal = 0;
+            for (int i = 0; i <= block.size(); i++) {
+                while (signal < block.getSignals().size()
+                        && block.getSignalPosition(signal) == i) {
+                    Signal expected = block.getSignals().get(signal++);
+                    assertThat(frameFrontend.getData(), instanceOf(expected.getClass()));
+                }
+                if (i == block.size())
+                    break;
+                FloatData data = (FloatData) frameFrontend.getData();
+                assertThat(block.getFrame(i).values, equalTo(data.values));
+                assertThat(block.getFirstSampleNumber(i), equalTo(data.firstSampleNumber));
+                frames++;
+            }
+        }
+        assertThat(frameFrontend.getData(), nullValue());
+        assertThat(frames, greaterThan(0));
+    }
+
     private void compareDump(FrontEnd frontend, String name)
             throws NumberFormatException, DataProcessingException, IOException {
         InputStream stream = getClass().getResource(name).openStream();
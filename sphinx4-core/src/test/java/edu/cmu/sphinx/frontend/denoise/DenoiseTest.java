@@ -0,0 +1,73 @@
+package edu.cmu.sphinx.frontend.denoise;
+
+import edu.cmu.sphinx.frontend.*;
+import edu.cmu.sphinx.frontend.databranch.DataBufferProcessor;
+import edu.cmu.sphinx.util.props.ConfigurationManager;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class DenoiseTest {
+
+    /** Two utterances of random power spectra, the same on every call */
+    private static Denoise createDenoise() {
+        DataBufferProcessor source = ConfigurationManager.getInstance(DataBufferProcessor.class);
+        Random random = new Random(11);
+        for (int utterance = 0; utterance < 2; utterance++) {
+            source.processDataFrame(new DataStartSignal(16000));
+            for (int frame = 0; frame < 50; frame++) {
+                float[] values = new float[40];
+                for (int i = 0; i < values.length; i++)
+                    values[i] = (float) (random.nextDouble() * (frame % 10 < 5 ? 1e3 : 1e6));
+                source.processDataFrame(new FloatData(values, 16000, frame * 160));
+            }
+            source.processDataFrame(new DataEndSignal(500));
+        }
+
+        Denoise denoise = ConfigurationManager.getInstance(Denoise.class);
+        denoise.setPredecessor(source);
+        denoise.initialize();
+        return denoise;
+    }
+
+    @Test
+    public void blocksMatchFrames() {
+        Denoise frameDenoise = createDenoise();
+        List<float[]> frames = new ArrayList<>();
+        List<Class<?>> frameSignals = new ArrayList<>();
+        Data data;
+        while ((data = frameDenoise.getData()) != null) {
+            if (data instanceof FloatData)
+                frames.add(((FloatData) data).values);
+            else
+                frameSignals.add(data.getClass());
+        }
+
+        Denoise blockDenoise = createDenoise();
+        List<float[]> blockFrames = new ArrayList<>();
+        List<Class<?>> blockSignals = new ArrayList<>();
+        DataBlock block = new DataBlock();
+        while (blockDenoise.getData(block, 7) > 0 || !block.isEmpty()) {
+            for (int i = 0; i < block.size(); i++)
+                blockFrames.add(block.getFrame(i).values);
+            for (Signal signal : block.getSignals())
+                blockSignals.add(signal.getClass());
+            block.clear();
+        }
+
+        assertThat(frames.size(), is(100));
+        assertThat(blockSignals, equalTo(frameSignals));
+        assertThat(blockFrames.size(), is(frames.size()));
+        for (int i = 0; i < frames.size(); i++)
+            assertThat(blockFrames.get(i), equalTo(frames.get(i)));
+
+        // the frames were denoised, not passed through
+        Random random = new Random(11);
+        assertThat((double) frames.get(0)[0], not(closeTo(random.nextDouble() * 1e3, 1e-3)));
+    }
+}
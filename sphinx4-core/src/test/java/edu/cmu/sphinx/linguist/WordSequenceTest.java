@@ -74,6 +74,14 @@ public class WordSequenceTest {
                 .getNewest()));
     }
 
+    @Test
+    public void empty() {
+        WordSequence ws = asWordSequence(dictionary, "one");
+        assertThat(ws.getOldest(), equalTo(WordSequence.EMPTY));
+        assertThat(ws.getNewest(), equalTo(WordSequence.EMPTY));
+        assertThat(ws.getOldest().hashCode(), is(WordSequence.EMPTY.hashCode()));
+    }
+
     @Test
     public void unknownWords() {
         assertThat(new WordSequence(Word.UNKNOWN), equalTo(new WordSequence(
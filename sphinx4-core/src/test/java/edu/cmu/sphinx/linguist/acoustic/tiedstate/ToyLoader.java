@@ -0,0 +1,190 @@
+package edu.cmu.sphinx.linguist.acoustic.tiedstate;
+
+import edu.cmu.sphinx.decoder.adaptation.ClusteredDensityFileData;
+import edu.cmu.sphinx.decoder.adaptation.Transform;
+import edu.cmu.sphinx.linguist.acoustic.HMMPosition;
+import edu.cmu.sphinx.linguist.acoustic.Unit;
+import edu.cmu.sphinx.linguist.acoustic.UnitManager;
+import edu.cmu.sphinx.util.LogMath;
+import edu.cmu.sphinx.util.props.PropertySheet;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * A tiny in-memory acoustic model for linguist tests: three-state left-to-right context independent HMMs with one
+ * single Gaussian senone per state. The mean of the senone of state <code>s</code> of the <code>p</code>-th phone is
+ * <code>3 * p + s</code> in every dimension, so every senone scores best on its own constant frame.
+ */
+public class ToyLoader implements Loader {
+
+    /** The phones of the model besides silence */
+    public static final String[] PHONES = {"AH", "EH", "EY", "IH", "IY", "K", "N", "OW", "R", "S", "T", "TH",
+            "UW", "W", "Y", "Z"};
+
+    public static final int STATES = 3;
+
+    private final UnitManager unitManager;
+    private final int dimension;
+    private final Map<String, Unit> ciUnits = new LinkedHashMap<>();
+    private final HMMManager hmmManager = new HMMManager();
+    private final Pool<Senone> senonePool = new Pool<>("senones");
+    private final GaussianWeights weights = new GaussianWeights("weights", (PHONES.length + 1) * STATES, 1, 1);
+
+    public ToyLoader(UnitManager unitManager, int dimension) {
+        this.unitManager = unitManager;
+        this.dimension = dimension;
+    }
+
+    /**
+     * Creates an allocated acoustic model over a toy loader.
+     *
+     * @param unitManager the unit manager shared with the dictionary
+     * @return the acoustic model
+     */
+    public static TiedStateAcousticModel createModel(UnitManager unitManager) {
+        TiedStateAcousticModel model = new TiedStateAcousticModel(new ToyLoader(unitManager, 39), unitManager, false);
+        try {
+            model.allocate();
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+        return model;
+    }
+
+    /**
+     * Returns the mean of the senone of the given state of the given phone.
+     *
+     * @param phone the phone name
+     * @param state the emitting state
+     * @return the value of the mean in every dimension
+     */
+    public static float mean(String phone, int state) {
+        int index = UnitManager.SILENCE_NAME.equals(phone) ? PHONES.length : Arrays.asList(PHONES).indexOf(phone);
+        return STATES * index + state;
+    }
+
+    @Override
+    public void newProperties(PropertySheet ps) {
+    }
+
+    @Override
+    public void load() {
+        if (!ciUnits.isEmpty())
+            return;
+        addPhone(UnitManager.SILENCE);
+        for (String phone : PHONES)
+            addPhone(unitManager.getUnit(phone, false));
+    }
+
+    private void addPhone(Unit unit) {
+        ciUnits.put(unit.name, unit);
+
+        float[][] transitionMatrix = new float[STATES + 1][STATES + 1];
+        for (float[] row : transitionMatrix)
+            Arrays.fill(row, LogMath.LOG_ZERO);
+        for (int i = 0; i < STATES; i++) {
+            transitionMatrix[i][i] = LogMath.linearToLog(0.5);
+            transitionMatrix[i][i + 1] = LogMath.linearToLog(0.5);
+        }
+
+        Senone[] senones = new Senone[STATES];
+        for (int i = 0; i < STATES; i++) {
+            float[] mean = new float[dimension];
+            float[] variance = new float[dimension];
+            Arrays.fill(mean, mean(unit.name, i));
+            Arrays.fill(variance, 1);
+            int id = senonePool.size();
+            weights.put(id, 0, new float[] {LogMath.LOG_ONE});
+            senones[i] = new GaussianMixture(weights, new MixtureComponent[] {new MixtureComponent(mean, variance)}, id);
+            senonePool.put(id, senones[i]);
+        }
+        hmmManager.put(new SenoneHMM(unit, new SenoneSequence(senones), transitionMatrix, HMMPosition.UNDEFINED));
+    }
+
+    @Override
+    public Pool<float[]> getMeansPool() {
+        return null;
+    }
+
+    @Override
+    public Pool<float[][]> getMeansTransformationMatrixPool() {
+        return null;
+    }
+
+    @Override
+    public Pool<float[]> getMeansTransformationVectorPool() {
+        return null;
+    }
+
+    @Override
+    public Pool<float[]> getVariancePool() {
+        return null;
+    }
+
+    @Override
+    public Pool<float[][]> getVarianceTransformationMatrixPool() {
+        return null;
+    }
+
+    @Override
+    public Pool<float[]> getVarianceTransformationVectorPool() {
+        return null;
+    }
+
+    @Override
+    public GaussianWeights getMixtureWeights() {
+        return weights;
+    }
+
+    @Override
+    public Pool<float[][]> getTransitionMatrixPool() {
+        return null;
+    }
+
+    @Override
+    public float[][] getTransformMatrix() {
+        return null;
+    }
+
+    @Override
+    public Pool<Senone> getSenonePool() {
+        return senonePool;
+    }
+
+    @Override
+    public HMMManager getHMMManager() {
+        return hmmManager;
+    }
+
+    @Override
+    public Map<String, Unit> getContextIndependentUnits() {
+        return ciUnits;
+    }
+
+    @Override
+    public void logInfo() {
+    }
+
+    @Override
+    public int getLeftContextSize() {
+        return 1;
+    }
+
+    @Override
+    public int getRightContextSize() {
+        return 1;
+    }
+
+    @Override
+    public Properties getProperties() {
+        return new Properties();
+    }
+
+    @Override
+    public void update(Transform transform, ClusteredDensityFileData clusters) {
+    }
+}
@@ -0,0 +1,58 @@
+package edu.cmu.sphinx.linguist.flat;
+
+import edu.cmu.sphinx.jsgf.JSGFGrammar;
+import edu.cmu.sphinx.linguist.acoustic.AcousticModel;
+import edu.cmu.sphinx.linguist.acoustic.UnitManager;
+import edu.cmu.sphinx.linguist.acoustic.tiedstate.ToyLoader;
+import edu.cmu.sphinx.linguist.dictionary.TextDictionary;
+import org.testng.annotations.Test;
+
+import java.net.URL;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class FlatLinguistTest {
+
+    private JSGFGrammar grammar;
+
+    private FlatLinguist createLinguist(String grammarName, boolean incrementalCompilation) throws Exception {
+        URL base = FlatLinguistTest.class.getResource("/edu/cmu/sphinx/linguist/toy/");
+        UnitManager unitManager = new UnitManager();
+        TextDictionary dictionary = new TextDictionary(new URL(base, "toy.dict"), new URL(base, "filler.dict"),
+                null, null, unitManager);
+        AcousticModel acousticModel = ToyLoader.createModel(unitManager);
+        grammar = new JSGFGrammar(base, grammarName, false, false, true, false, dictionary);
+        FlatLinguist linguist = new FlatLinguist(acousticModel, grammar, unitManager, 0.1, 0.1, 1e-2, 1, 8, false,
+                false, false, false, 1, 1, null, null, incrementalCompilation);
+        linguist.allocate();
+        return linguist;
+    }
+
+    private static Set<SentenceHMMState> collectStates(FlatLinguist linguist) {
+        Set<SentenceHMMState> states = Collections.newSetFromMap(new IdentityHashMap<>());
+        states.addAll(SentenceHMMState.collectStates(
+                (SentenceHMMState) linguist.getSearchGraph().getInitialState()));
+        return states;
+    }
+
+    @Test
+    public void incrementalCompilationMatchesFullCompilation() throws Exception {
+        FlatLinguist linguist = createLinguist("toy", true);
+        Set<SentenceHMMState> before = collectStates(linguist);
+
+        grammar.loadJSGF("toy2");
+        linguist.startRecognition();
+        Set<SentenceHMMState> after = collectStates(linguist);
+
+        assertThat(SearchGraphCacheTest.describe(linguist, false),
+                equalTo(SearchGraphCacheTest.describe(createLinguist("toy2", false), false)));
+
+        // the expansions of the words that kept their contexts were taken over
+        after.retainAll(before);
+        assertThat(after.size(), greaterThan(100));
+    }
+}
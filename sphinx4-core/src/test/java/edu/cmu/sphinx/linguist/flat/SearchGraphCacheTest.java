@@ -0,0 +1,115 @@
+package edu.cmu.sphinx.linguist.flat;
+
+import edu.cmu.sphinx.jsgf.JSGFGrammar;
+import edu.cmu.sphinx.linguist.SearchStateArc;
+import edu.cmu.sphinx.linguist.acoustic.AcousticModel;
+import edu.cmu.sphinx.linguist.acoustic.UnitManager;
+import edu.cmu.sphinx.linguist.acoustic.tiedstate.ToyLoader;
+import edu.cmu.sphinx.linguist.dictionary.TextDictionary;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.URL;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class SearchGraphCacheTest {
+
+    /** Compiles the toy grammar, reading and writing the graph in the given directory if it is not null */
+    static FlatLinguist createLinguist(File cacheDirectory, boolean outOfGrammarBranch) throws IOException {
+        URL base = SearchGraphCacheTest.class.getResource("/edu/cmu/sphinx/linguist/toy/");
+        UnitManager unitManager = new UnitManager();
+        TextDictionary dictionary = new TextDictionary(new URL(base, "toy.dict"), new URL(base, "filler.dict"),
+                null, null, unitManager);
+        AcousticModel acousticModel = ToyLoader.createModel(unitManager);
+        JSGFGrammar grammar = new JSGFGrammar(base, "toy", false, false, true, false, dictionary);
+        FlatLinguist linguist = new FlatLinguist(acousticModel, grammar, unitManager, 0.1, 0.1, 1e-2, 1, 8, false,
+                false, false, outOfGrammarBranch, 1e-10, 0.5, acousticModel, cacheDirectory);
+        linguist.allocate();
+        return linguist;
+    }
+
+    /**
+     * Describes every state of the graph with its successors. Two compilations may order the successors of a state
+     * differently, a graph read back keeps the order it was written in.
+     */
+    static List<String> describe(FlatLinguist linguist, boolean keepOrder) {
+        SentenceHMMState initialState = (SentenceHMMState) linguist.getSearchGraph().getInitialState();
+        List<String> states = new ArrayList<>();
+        for (SentenceHMMState state : SentenceHMMState.collectStates(initialState)) {
+            List<String> successors = new ArrayList<>();
+            for (SearchStateArc arc : state.getSuccessors()) {
+                successors.add(((SentenceHMMState) arc.getState()).getSignature() + ' '
+                        + arc.getLanguageProbability() + ' ' + arc.getInsertionProbability());
+            }
+            if (!keepOrder)
+                Collections.sort(successors);
+            states.add(state.getSignature() + ' ' + state.isFinal() + " -> " + successors);
+        }
+        Collections.sort(states);
+        return states;
+    }
+
+    private static void assertRoundTrip(boolean outOfGrammarBranch) throws IOException {
+        File directory = Files.createTempDirectory("graphs").toFile();
+        try {
+            FlatLinguist compiled = createLinguist(null, outOfGrammarBranch);
+            FlatLinguist written = createLinguist(directory, outOfGrammarBranch);
+            File[] files = directory.listFiles();
+            assertThat(files, arrayWithSize(1));
+            long modified = files[0].lastModified();
+            FlatLinguist read = createLinguist(directory, outOfGrammarBranch);
+
+            assertThat(describe(compiled, false).size(), greaterThan(100));
+            assertThat(describe(written, false), equalTo(describe(compiled, false)));
+            // the phone loop of the out-of-grammar branch is built anew each time
+            assertThat(describe(read, !outOfGrammarBranch), equalTo(describe(written, !outOfGrammarBranch)));
+            assertThat(files[0].lastModified(), is(modified));
+        } finally {
+            deleteDirectory(directory);
+        }
+    }
+
+    @Test
+    public void roundTrip() throws IOException {
+        assertRoundTrip(false);
+    }
+
+    @Test
+    public void roundTripWithOutOfGrammarBranch() throws IOException {
+        assertRoundTrip(true);
+    }
+
+    @Test
+    public void recompilesCorruptGraph() throws IOException {
+        File directory = Files.createTempDirectory("graphs").toFile();
+        try {
+            List<String> compiled = describe(createLinguist(directory, false), false);
+            File file = directory.listFiles()[0];
+            try (RandomAccessFile out = new RandomAccessFile(file, "rw")) {
+                out.setLength(out.length() / 2);
+            }
+
+            assertThat(describe(createLinguist(directory, false), false), equalTo(compiled));
+            assertThat(directory.listFiles(), arrayWithSize(1));
+            assertThat(describe(createLinguist(directory, false), false), equalTo(compiled));
+        } finally {
+            deleteDirectory(directory);
+        }
+    }
+
+    private static void deleteDirectory(File directory) {
+        File[] files = directory.listFiles();
+        if (files != null)
+            for (File file : files)
+                file.delete();
+        directory.delete();
+    }
+}
@@ -0,0 +1,94 @@
+package edu.cmu.sphinx.linguist.language.ngram.large;
+
+import edu.cmu.sphinx.linguist.WordSequence;
+import edu.cmu.sphinx.linguist.acoustic.UnitManager;
+import edu.cmu.sphinx.linguist.dictionary.Dictionary;
+import edu.cmu.sphinx.linguist.dictionary.TextDictionary;
+import edu.cmu.sphinx.linguist.dictionary.Word;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.net.URL;
+import java.util.Arrays;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class SmearTableTest {
+
+    @Test
+    public void savedTableMatchesComputedTable() throws Exception {
+        URL lm = getClass().getResource("100.arpa.dmp");
+        File file = File.createTempFile("smear", SmearTable.EXTENSION);
+        file.deleteOnExit();
+        SmearTable.main(new String[] {new File(lm.toURI()).getPath(), file.getPath()});
+        SmearTable saved = SmearTable.load(file);
+
+        Dictionary dictionary = new TextDictionary(getClass().getResource("100.dict"),
+                getClass().getResource("/edu/cmu/sphinx/models/en-us/en-us/noisedict"), null, null,
+                new UnitManager());
+        LargeNGramModel model = new LargeNGramModel("", lm, null, 100, false, 3, dictionary, false, 1.0f, 1.0f,
+                1.0f, true);
+        dictionary.allocate();
+        model.allocate();
+        SmearTable computed = model.computeSmearTable();
+
+        assertThat(saved.getFingerprint(), is(computed.getFingerprint()));
+        assertThat(saved.getNumWords(), is(computed.getNumWords()));
+        assertThat(saved.getNumBigrams(), is(computed.getNumBigrams()));
+        assertThat(saved.getNumBigrams(), greaterThan(0));
+        int bigrams = 0;
+        for (int i = 0; i < computed.getNumWords(); i++) {
+            assertThat(saved.getUnigramSmear(i), is(computed.getUnigramSmear(i)));
+            for (int j = 0; j < computed.getNumWords(); j++) {
+                assertThat(saved.hasBigram(i, j), is(computed.hasBigram(i, j)));
+                assertThat(saved.getSmear(i, j), is(computed.getSmear(i, j)));
+                if (computed.hasBigram(i, j))
+                    bigrams++;
+            }
+        }
+        assertThat(bigrams, is(computed.getNumBigrams()));
+
+        Word huggins = new Word("huggins", null, false);
+        Word daines = new Word("daines", null, false);
+        int hugginsID = model.getWordID(huggins);
+        int dainesID = model.getWordID(daines);
+        assertThat(model.getSmear(new WordSequence(huggins, daines)), is(computed.getSmear(hugginsID, dainesID)));
+        assertThat(model.getSmear(new WordSequence(daines)), is(computed.getUnigramSmear(dainesID)));
+    }
+
+    private LargeNGramModel loadModel(float unigramWeight, File smearFile) throws Exception {
+        Dictionary dictionary = new TextDictionary(getClass().getResource("100.dict"),
+                getClass().getResource("/edu/cmu/sphinx/models/en-us/en-us/noisedict"), null, null,
+                new UnitManager());
+        LargeNGramModel model = new LargeNGramModel("", getClass().getResource("100.arpa.dmp"), null, 100, false, 3,
+                dictionary, false, 1.0f, 1.0f, unigramWeight, true);
+        model.smearFile = smearFile.getPath();
+        dictionary.allocate();
+        model.allocate();
+        return model;
+    }
+
+    @Test
+    public void ignoresTableOfAnotherModel() throws Exception {
+        File file = File.createTempFile("smear", SmearTable.EXTENSION);
+        file.deleteOnExit();
+        file.delete();
+        LargeNGramModel model = loadModel(0.7f, file);
+        assertThat(model.getFingerprint(), is(model.computeSmearTable().getFingerprint()));
+        assertThat(loadModel(1.0f, file).getFingerprint(), not(model.getFingerprint()));
+
+        // terms that can't have been computed, saved for the model with a unigram weight of 0.7
+        float[] unigramSmear = new float[model.computeSmearTable().getNumWords()];
+        Arrays.fill(unigramSmear, 42);
+        new SmearTable(model.getFingerprint(), unigramSmear, new int[unigramSmear.length + 1], new int[0],
+                new float[0]).save(file);
+
+        Word daines = new Word("daines", null, false);
+        assertThat(loadModel(0.7f, file).getSmear(new WordSequence(daines)), is(42f));
+        LargeNGramModel other = loadModel(1.0f, file);
+        assertThat(other.getSmear(new WordSequence(daines)),
+                is(other.computeSmearTable().getUnigramSmear(other.getWordID(daines))));
+        assertThat(other.getSmear(new WordSequence(daines)), not(42f));
+    }
+}
@@ -0,0 +1,134 @@
+package edu.cmu.sphinx.linguist.lextree;
+
+import edu.cmu.sphinx.linguist.acoustic.AcousticModel;
+import edu.cmu.sphinx.linguist.acoustic.HMMPool;
+import edu.cmu.sphinx.linguist.acoustic.Unit;
+import edu.cmu.sphinx.linguist.acoustic.UnitManager;
+import edu.cmu.sphinx.linguist.acoustic.tiedstate.ToyLoader;
+import edu.cmu.sphinx.linguist.dictionary.Dictionary;
+import edu.cmu.sphinx.linguist.dictionary.Pronunciation;
+import edu.cmu.sphinx.linguist.dictionary.TextDictionary;
+import edu.cmu.sphinx.linguist.language.ngram.SimpleNGramModel;
+import org.testng.annotations.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+
+public class HMMTreeTest {
+
+    /** The units the words start and end with, the tree forgets its vocabulary once it is frozen */
+    private final Set<Unit> entryUnits = new TreeSet<>((a, b) -> a.name.compareTo(b.name));
+    private final Set<Unit> exitUnits = new TreeSet<>((a, b) -> a.name.compareTo(b.name));
+
+    private Dictionary dictionary;
+    private SimpleNGramModel languageModel;
+    private HMMPool hmmPool;
+
+    /**
+     * Builds the lex tree of the toy dictionary and language model on the given number of threads. All trees share
+     * the dictionary, the language model and the hmms, so the successors of equal trees come in the same order.
+     */
+    private HMMTree createTree(int numThreads) throws IOException {
+        if (hmmPool == null) {
+            URL base = HMMTreeTest.class.getResource("/edu/cmu/sphinx/linguist/toy/");
+            UnitManager unitManager = new UnitManager();
+            dictionary = new TextDictionary(new URL(base, "toy.dict"), new URL(base, "filler.dict"),
+                    null, null, unitManager);
+            dictionary.allocate();
+            AcousticModel acousticModel = ToyLoader.createModel(unitManager);
+            languageModel = new SimpleNGramModel(new URL(base, "toy.lm"), dictionary, 0.7f, 3);
+            languageModel.allocate();
+            hmmPool = new HMMPool(acousticModel, Logger.getLogger(HMMTreeTest.class.getName()), unitManager);
+
+            for (String word : languageModel.getVocabulary()) {
+                for (Pronunciation pronunciation : dictionary.word(word).pronunciations) {
+                    entryUnits.add(pronunciation.units[0]);
+                    exitUnits.add(pronunciation.units[pronunciation.units.length - 1]);
+                }
+            }
+        }
+        return new HMMTree(hmmPool, dictionary, languageModel, false, 1, numThreads);
+    }
+
+    /**
+     * Describes the tree below every entry point and the successors of the word ending hmms of every end node. If the
+     * successors of each node are sorted, the description only depends on the shape of the tree.
+     */
+    private String describe(HMMTree tree, boolean sorted) {
+        StringBuilder description = new StringBuilder();
+        description.append(tree.toString(tree.getInitialNode())).append('\n');
+        description.append(tree.toString(tree.getSentenceEndWordNode())).append('\n');
+        for (Unit base : entryUnits) {
+            for (Unit lc : exitUnits) {
+                description.append("entry ").append(base).append(" lc ").append(lc).append('\n');
+                for (String entryPoint : describeSuccessors(tree, tree.getEntryPoint(lc, base), "  ", sorted))
+                    description.append(entryPoint);
+            }
+        }
+        return description.toString();
+    }
+
+    private static List<String> describeSuccessors(HMMTree tree, int node, String indent, boolean sorted) {
+        List<String> successors = new ArrayList<>();
+        for (int i = 0; i < tree.getSuccessorCount(node); i++)
+            successors.add(describe(tree, tree.getSuccessor(node, i), indent, sorted));
+        if (tree.isEnd(node)) {
+            for (int hmmNode : tree.getHMMNodes(node))
+                successors.add(describe(tree, hmmNode, indent, sorted));
+        }
+        if (sorted)
+            Collections.sort(successors);
+        return successors;
+    }
+
+    private static String describe(HMMTree tree, int node, String indent, boolean sorted) {
+        StringBuilder description = new StringBuilder(indent).append(tree.toString(node));
+        if (tree.isHMM(node) && tree.getRC(node) != null) {
+            description.append(" rc ").append(Arrays.stream(tree.getRC(node))
+                    .map(unit -> unit.name).sorted().collect(Collectors.toList()));
+        }
+        description.append('\n');
+        for (String successor : describeSuccessors(tree, node, indent + "  ", sorted))
+            description.append(successor);
+        return description.toString();
+    }
+
+    /** Reads the description of the toy tree as built when every node was an object with its own successor array */
+    private static String readListBasedTree() throws IOException {
+        StringBuilder description = new StringBuilder();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                HMMTreeTest.class.getResourceAsStream("HMMTreeTest.tree"), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null)
+                description.append(line).append('\n');
+        }
+        return description.toString();
+    }
+
+    @Test
+    public void frozenRecordsMatchListBasedTree() throws IOException {
+        HMMTree tree = createTree(1);
+        assertThat(describe(tree, true), equalTo(readListBasedTree()));
+    }
+
+    @Test
+    public void parallelBuildMatchesSequentialBuild() throws IOException {
+        String sequential = describe(createTree(1), false);
+        for (int numThreads = 2; numThreads <= 4; numThreads++)
+            assertThat(describe(createTree(numThreads), false), equalTo(sequential));
+    }
+}
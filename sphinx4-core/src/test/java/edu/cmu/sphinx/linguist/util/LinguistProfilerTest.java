@@ -0,0 +1,77 @@
+package edu.cmu.sphinx.linguist.util;
+
+import edu.cmu.sphinx.linguist.Linguist;
+import edu.cmu.sphinx.linguist.SearchGraph;
+import edu.cmu.sphinx.linguist.SearchState;
+import edu.cmu.sphinx.linguist.SearchStateArc;
+import edu.cmu.sphinx.linguist.WordSequence;
+import edu.cmu.sphinx.util.props.PropertySheet;
+import org.testng.annotations.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class LinguistProfilerTest {
+
+    @Test
+    public void countsExpansionsPerUtterance() {
+        LinguistProfiler profiler = new LinguistProfiler(new StubLinguist(), 1, null);
+        State leaf = new State("leaf");
+        State root = new State("root", leaf, leaf);
+
+        profiler.startUtterance();
+        assertThat(profiler.getSuccessors(root).length, is(2));
+        profiler.getSuccessors(leaf);
+        profiler.getSuccessors(leaf);
+        String report = profiler.endUtterance();
+
+        assertThat(report, startsWith("{\"utterance\":1,"));
+        assertThat(report, containsString("\"expansions\":3,\"arcs\":2,"));
+        assertThat(report, containsString("\"topStates\":[{\"state\":\"leaf\","));
+        assertThat(report, not(containsString("\"root\"")));
+        assertThat(report, not(containsString("arcCache")));
+
+        profiler.startUtterance();
+        profiler.getSuccessors(root);
+        assertThat(profiler.endUtterance(), containsString("\"utterance\":2,"));
+        assertThat(profiler.getLastReport(), containsString("\"topStates\":[{\"state\":\"root\","));
+    }
+
+    private static class State implements SearchState, SearchStateArc {
+
+        private final String name;
+        private final SearchStateArc[] successors;
+
+        State(String name, SearchStateArc... successors) {
+            this.name = name;
+            this.successors = successors;
+        }
+
+        public SearchStateArc[] getSuccessors() { return successors; }
+        public boolean isEmitting() { return false; }
+        public boolean isFinal() { return false; }
+        public String toPrettyString() { return name; }
+        public String getSignature() { return name; }
+        public WordSequence getWordHistory() { return null; }
+        public Object getLexState() { return null; }
+        public int getOrder() { return 0; }
+        public SearchState getState() { return this; }
+        public float getProbability() { return 0; }
+        public float getLanguageProbability() { return 0; }
+        public float getInsertionProbability() { return 0; }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    private static class StubLinguist implements Linguist {
+        public SearchGraph getSearchGraph() { return null; }
+        public void startRecognition() {}
+        public void stopRecognition() {}
+        public void allocate() {}
+        public void deallocate() {}
+        public void newProperties(PropertySheet ps) {}
+    }
+}
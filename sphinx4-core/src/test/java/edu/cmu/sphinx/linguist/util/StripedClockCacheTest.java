@@ -0,0 +1,77 @@
+package edu.cmu.sphinx.linguist.util;
+
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class StripedClockCacheTest {
+
+    @Test
+    public void evictsUnreferencedEntries() {
+        StripedClockCache<Integer, String> cache = new StripedClockCache<>(3);
+        cache.put(1, "one");
+        cache.put(2, "two");
+        cache.put(3, "three");
+        assertThat(cache.get(1), is("one"));
+        assertThat(cache.get(3), is("three"));
+
+        cache.put(4, "four");
+        assertThat(cache.size(), is(3));
+        assertThat(cache.getEvictions(), is(1L));
+        assertThat(cache.get(2), nullValue());
+        assertThat(cache.get(1), is("one"));
+        assertThat(cache.get(4), is("four"));
+
+        assertThat(cache.getHits(), is(4L));
+        assertThat(cache.getMisses(), is(1L));
+    }
+
+    @Test
+    public void keepsFirstValue() {
+        StripedClockCache<String, String> cache = new StripedClockCache<>(10);
+        cache.put("a", "first");
+        cache.put("a", "second");
+        assertThat(cache.get("a"), is("first"));
+        assertThat(cache.size(), is(1));
+    }
+
+    @Test
+    public void disabledCacheStoresNothing() {
+        StripedClockCache<Integer, Integer> cache = new StripedClockCache<>(0);
+        cache.put(1, 1);
+        assertThat(cache.get(1), nullValue());
+        assertThat(cache.size(), is(0));
+    }
+
+    @Test
+    public void sharedBetweenThreads() throws InterruptedException {
+        final StripedClockCache<Integer, Integer> cache = new StripedClockCache<>(1000);
+        final AtomicInteger wrongValues = new AtomicInteger();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            threads.add(new Thread(() -> {
+                for (int i = 0; i < 100000; i++) {
+                    int key = i % 2000;
+                    Integer value = cache.get(key);
+                    if (value == null)
+                        cache.put(key, key);
+                    else if (value != key)
+                        wrongValues.incrementAndGet();
+                }
+            }));
+        }
+        for (Thread thread : threads)
+            thread.start();
+        for (Thread thread : threads)
+            thread.join();
+
+        assertThat(wrongValues.get(), is(0));
+        assertThat(cache.size(), lessThanOrEqualTo(1000));
+        assertThat(cache.getHits() + cache.getMisses(), is(400000L));
+    }
+}
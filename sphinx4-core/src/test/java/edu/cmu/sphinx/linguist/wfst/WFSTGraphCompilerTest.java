@@ -0,0 +1,192 @@
+package edu.cmu.sphinx.linguist.wfst;
+
+import edu.cmu.sphinx.linguist.WordSequence;
+import edu.cmu.sphinx.linguist.acoustic.HMMPool;
+import edu.cmu.sphinx.linguist.acoustic.HMMState;
+import edu.cmu.sphinx.linguist.acoustic.Unit;
+import edu.cmu.sphinx.linguist.acoustic.UnitManager;
+import edu.cmu.sphinx.linguist.acoustic.tiedstate.ToyLoader;
+import edu.cmu.sphinx.linguist.dictionary.Dictionary;
+import edu.cmu.sphinx.linguist.dictionary.Pronunciation;
+import edu.cmu.sphinx.linguist.dictionary.TextDictionary;
+import edu.cmu.sphinx.linguist.language.ngram.SimpleNGramModel;
+import edu.cmu.sphinx.util.LogMath;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.logging.Logger;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class WFSTGraphCompilerTest {
+
+    private static final float LANGUAGE_WEIGHT = 8;
+    private static final float LOG_WIP = LogMath.linearToLog(0.1);
+
+    private Dictionary dictionary;
+    private SimpleNGramModel languageModel;
+
+    /** Compiles the given language model of the toy words with silence between words */
+    private WFSTGraph compile(URL location) throws IOException {
+        URL base = WFSTGraphCompilerTest.class.getResource("/edu/cmu/sphinx/linguist/toy/");
+        UnitManager unitManager = new UnitManager();
+        dictionary = new TextDictionary(new URL(base, "toy.dict"), new URL(base, "filler.dict"), null, null,
+                unitManager);
+        dictionary.allocate();
+        languageModel = new SimpleNGramModel(location, dictionary, 0.7f, 3);
+        languageModel.allocate();
+        HMMPool hmmPool = new HMMPool(ToyLoader.createModel(unitManager),
+                Logger.getLogger(WFSTGraphCompilerTest.class.getName()), unitManager);
+        WFSTGraph graph = new WFSTGraphCompiler(dictionary, hmmPool, languageModel, LANGUAGE_WEIGHT, LOG_WIP,
+                LogMath.linearToLog(0.1), LogMath.linearToLog(1e-2), false).compile();
+        assertConsistent(graph);
+        return graph;
+    }
+
+    /**
+     * Checks that the arcs are well formed, that the input of every emitting arc is the input of its target and
+     * that every state lies on a path from the initial state to a final state.
+     */
+    private static void assertConsistent(WFSTGraph graph) {
+        int numStates = graph.getNumStates();
+        int[] offsets = graph.getArcOffsets();
+        int[] targets = graph.getArcTargets();
+        int[] inputs = graph.getArcInputs();
+        int[] outputs = graph.getArcOutputs();
+        assertThat(offsets.length, is(numStates + 1));
+        assertThat(offsets[numStates], is(graph.getNumArcs()));
+        for (int state = 0; state < numStates; state++) {
+            assertThat(offsets[state + 1], greaterThanOrEqualTo(offsets[state]));
+            for (int arc = offsets[state]; arc < offsets[state + 1]; arc++) {
+                assertThat(targets[arc], both(greaterThanOrEqualTo(0)).and(lessThan(numStates)));
+                assertThat(inputs[arc], both(greaterThanOrEqualTo(0)).and(lessThan(graph.getNumTransitionIds())));
+                assertThat(graph.getStateInput(targets[arc]), is(inputs[arc]));
+                if (outputs[arc] != 0) {
+                    assertThat(inputs[arc], is(0));
+                    assertThat(graph.getPronunciation(outputs[arc]), notNullValue());
+                }
+            }
+        }
+
+        boolean[] reachable = new boolean[numStates];
+        List<Integer> queue = new ArrayList<>();
+        queue.add(graph.getInitialState());
+        reachable[graph.getInitialState()] = true;
+        for (int i = 0; i < queue.size(); i++) {
+            int state = queue.get(i);
+            for (int arc = offsets[state]; arc < offsets[state + 1]; arc++) {
+                if (!reachable[targets[arc]]) {
+                    reachable[targets[arc]] = true;
+                    queue.add(targets[arc]);
+                }
+            }
+        }
+
+        boolean[] coreachable = new boolean[numStates];
+        for (int state = 0; state < numStates; state++)
+            coreachable[state] = graph.isFinal(state);
+        for (boolean changed = true; changed; ) {
+            changed = false;
+            for (int state = 0; state < numStates; state++) {
+                for (int arc = offsets[state]; arc < offsets[state + 1] && !coreachable[state]; arc++)
+                    changed |= coreachable[state] = coreachable[targets[arc]];
+            }
+        }
+
+        for (int state = 0; state < numStates; state++) {
+            assertThat("state " + state + " is reachable", reachable[state], is(true));
+            assertThat("state " + state + " reaches a final state", coreachable[state], is(true));
+        }
+    }
+
+    /**
+     * Returns the language weight pushed along the path of a pronunciation from the given state, that is the
+     * weights of the arcs entering the first state of an HMM and of the arc emitting the word.
+     */
+    private static float getPathWeight(WFSTGraph graph, int state, Pronunciation pronunciation) {
+        int[] offsets = graph.getArcOffsets();
+        float weight = 0;
+        for (Unit unit : pronunciation.units) {
+            int arc = findArc(graph, state, unit, 0);
+            weight += graph.getArcWeights()[arc];
+            state = graph.getArcTargets()[arc];
+            for (int i = 1; i < ToyLoader.STATES; i++)
+                state = graph.getArcTargets()[findArc(graph, state, unit, i)];
+            for (int i = offsets[state]; i < offsets[state + 1]; i++) {
+                if (graph.getArcInputs()[i] == 0)
+                    state = graph.getArcTargets()[i];
+            }
+        }
+        for (int arc = offsets[state]; arc < offsets[state + 1]; arc++) {
+            if (graph.getPronunciation(graph.getArcOutputs()[arc]) == pronunciation)
+                return weight + graph.getArcWeights()[arc];
+        }
+        throw new AssertionError("No arc emits " + pronunciation);
+    }
+
+    /** Returns the arc of a state that enters the given state of the HMM of the given unit */
+    private static int findArc(WFSTGraph graph, int state, Unit unit, int hmmState) {
+        int[] offsets = graph.getArcOffsets();
+        for (int arc = offsets[state]; arc < offsets[state + 1]; arc++) {
+            int input = graph.getArcInputs()[arc];
+            if (input == 0)
+                continue;
+            HMMState next = graph.getTransitionState(input);
+            if (next.getHMM().getBaseUnit().equals(unit) && next.getState() == hmmState)
+                return arc;
+        }
+        throw new AssertionError("No arc enters state " + hmmState + " of " + unit);
+    }
+
+    private float getWordWeight(String word) {
+        return LANGUAGE_WEIGHT * languageModel.getProbability(new WordSequence(dictionary.word(word))) + LOG_WIP;
+    }
+
+    @Test
+    public void compilesUnigramModel() throws IOException {
+        WFSTGraph graph = compile(WFSTGraphCompilerTest.class.getResource("WFSTGraphCompilerTest.lm"));
+
+        // a single history state and a chain of four states per HMM of W AH N, T UW and silence
+        assertThat(graph.getNumStates(), is(1 + 6 * (ToyLoader.STATES + 1)));
+        // two arcs per emitting state, an arc from each HMM to the next one or to the word, three roots
+        assertThat(graph.getNumArcs(), is(6 * (2 * ToyLoader.STATES + 1) + 3));
+        assertThat(graph.getNumTransitionIds(), is(1 + 6 * ToyLoader.STATES));
+        assertThat(graph.getInitialState(), is(0));
+        assertThat(graph.isFinal(0), is(true));
+        assertThat(graph.getFinalWeights()[0], is(LANGUAGE_WEIGHT * languageModel.getProbability(
+                new WordSequence(dictionary.getSentenceEndWord()))));
+
+        for (String word : new String[] {"one", "two"}) {
+            Pronunciation pronunciation = dictionary.word(word).pronunciations[0];
+            assertThat((double) getPathWeight(graph, 0, pronunciation), closeTo(getWordWeight(word), 1e-3));
+        }
+    }
+
+    @Test
+    public void compilesTrigramModel() throws IOException {
+        URL base = WFSTGraphCompilerTest.class.getResource("/edu/cmu/sphinx/linguist/toy/");
+        WFSTGraph graph = compile(new URL(base, "toy.lm"));
+
+        int finalStates = 0;
+        Set<String> words = new HashSet<>();
+        for (int state = 0; state < graph.getNumStates(); state++) {
+            if (graph.isFinal(state))
+                finalStates++;
+            for (int arc = graph.getArcOffsets()[state]; arc < graph.getArcOffsets()[state + 1]; arc++) {
+                if (graph.getArcOutputs()[arc] != 0)
+                    words.add(graph.getPronunciation(graph.getArcOutputs()[arc]).getWord().spelling);
+            }
+        }
+        // the empty history and the histories no, three, two, yes, zero and two three end a sentence
+        assertThat(finalStates, is(7));
+        assertThat(words, containsInAnyOrder("no", "one", "two", "three", "yes", "zero", "<sil>"));
+        assertThat(graph.getStateInput(graph.getInitialState()), is(0));
+        assertThat(graph.isFinal(graph.getInitialState()), is(false));
+    }
+}
@@ -0,0 +1,93 @@
+package edu.cmu.sphinx.result;
+
+import edu.cmu.sphinx.util.LogMath;
+import org.testng.annotations.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class CompactLatticeTest {
+
+    @Test
+    public void sortsNodesAndComputesScores() {
+        Lattice lattice = new Lattice();
+        // added out of order on purpose
+        Node d = lattice.addNode("D", "D", 0, 0);
+        Node b = lattice.addNode("B", "B", 0, 0);
+        Node c = lattice.addNode("C", "C", 0, 0);
+        Node a = lattice.addNode("A", "A", 0, 0);
+        lattice.setInitialNode(a);
+        lattice.setTerminalNode(d);
+        lattice.addEdge(b, d, LogMath.linearToLog(5), 0);
+        lattice.addEdge(a, b, LogMath.linearToLog(4), 0);
+        lattice.addEdge(c, d, LogMath.linearToLog(2), 0);
+        lattice.addEdge(a, c, LogMath.linearToLog(6), 0);
+        lattice.addEdge(c, b, LogMath.linearToLog(1), LogMath.linearToLog(0.5));
+
+        CompactLattice compact = lattice.compact();
+        assertThat(compact.getNumNodes(), is(4));
+        assertThat(compact.getNumEdges(), is(5));
+        assertThat(compact.getNode(compact.getInitialNode()), sameInstance(a));
+        assertThat(compact.getNode(compact.getTerminalNode()), sameInstance(d));
+        for (int n = 0; n < compact.getNumNodes(); n++) {
+            for (int e = compact.getEdgesBegin(n); e < compact.getEdgesEnd(n); e++) {
+                assertThat(compact.getEdgeSource(e), is(n));
+                assertThat(compact.getEdgeTarget(e), greaterThan(n));
+                assertThat(compact.getEdge(e).getFromNode(), sameInstance(compact.getNode(n)));
+            }
+        }
+
+        // the language score of C-B halves the path A-C-B-D unless ignored
+        double abd = 4 * 5;
+        double acbd = 6 * 1 * 5;
+        double acd = 6 * 2;
+        double delta = 1e-4;
+        for (int run = 0; run < 2; run++) {
+            compact.computeNodePosteriors(1.0f, true);
+            int nb = indexOf(compact, b);
+            assertThat((double) LogMath.logToLinear((float) compact.getPosterior(nb)),
+                    closeTo((abd + acbd) / (abd + acbd + acd), delta));
+            assertThat(compact.getNode(compact.getBestPredecessor(nb)), sameInstance(c));
+        }
+        compact.computeNodePosteriors(1.0f);
+        int nb = indexOf(compact, b);
+        assertThat((double) LogMath.logToLinear((float) compact.getPosterior(nb)),
+                closeTo((abd + acbd / 2) / (abd + acbd / 2 + acd), delta));
+        assertThat(compact.getNode(compact.getBestPredecessor(nb)), sameInstance(a));
+        assertThat(compact.getBestPredecessor(compact.getInitialNode()), is(-1));
+
+        compact.storeScores();
+        assertThat(b.getPosterior(), is(compact.getPosterior(nb)));
+        assertThat(d.getBestPredecessor(), sameInstance(b));
+        assertThat(a.getBestPredecessor(), nullValue());
+    }
+
+    @Test
+    public void ignoresEdgesBackInCycles() {
+        Lattice lattice = new Lattice();
+        Node a = lattice.addNode("A", "A", 0, 0);
+        Node sil = lattice.addNode("B", "<sil>", 0, 0);
+        Node c = lattice.addNode("C", "C", 0, 0);
+        lattice.setInitialNode(a);
+        lattice.setTerminalNode(c);
+        lattice.addEdge(a, sil, LogMath.linearToLog(0.5), 0);
+        lattice.addEdge(sil, sil, LogMath.linearToLog(0.5), 0);
+        lattice.addEdge(sil, a, LogMath.linearToLog(0.5), 0);
+        lattice.addEdge(sil, c, LogMath.linearToLog(0.5), 0);
+
+        CompactLattice compact = lattice.compact();
+        assertThat(compact.getNode(compact.getInitialNode()), sameInstance(a));
+        compact.computeNodePosteriors(1.0f);
+        int nc = indexOf(compact, c);
+        assertThat((double) LogMath.logToLinear((float) compact.getForwardScore(nc)), closeTo(0.25, 1e-4));
+        assertThat(compact.getNode(compact.getBestPredecessor(compact.getBestPredecessor(nc))), sameInstance(a));
+    }
+
+    private static int indexOf(CompactLattice compact, Node node) {
+        for (int n = 0; n < compact.getNumNodes(); n++) {
+            if (compact.getNode(n) == node)
+                return n;
+        }
+        return -1;
+    }
+}
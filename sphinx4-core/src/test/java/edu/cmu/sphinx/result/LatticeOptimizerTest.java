@@ -0,0 +1,50 @@
+package edu.cmu.sphinx.result;
+
+import org.testng.annotations.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class LatticeOptimizerTest {
+
+    @Test
+    public void mergesEquivalentNodes() {
+        Lattice lattice = new Lattice();
+        Node start = lattice.addNode("0", "<s>", 0, 0);
+        Node a1 = lattice.addNode("1", "a", 1, 2);
+        Node a2 = lattice.addNode("2", "a", 1, 2);
+        Node b1 = lattice.addNode("3", "b", 3, 4);
+        Node b2 = lattice.addNode("4", "b", 3, 4);
+        Node c = lattice.addNode("5", "c", 1, 4);
+        Node d1 = lattice.addNode("6", "d", 5, 6);
+        Node d2 = lattice.addNode("7", "d", 5, 6);
+        Node end = lattice.addNode("8", "</s>", 7, 7);
+        lattice.setInitialNode(start);
+        lattice.setTerminalNode(end);
+
+        // a1 and a2 are equivalent forward, once merged so are b1 and b2
+        lattice.addEdge(start, a1, -10, -1);
+        lattice.addEdge(start, a2, -20, -2);
+        lattice.addEdge(a1, b1, -30, -3);
+        lattice.addEdge(a2, b2, -40, -4);
+        lattice.addEdge(start, c, -50, -5);
+        // b and c lead to equivalent d nodes, which are merged backward
+        lattice.addEdge(b1, d1, -60, -6);
+        lattice.addEdge(b2, d1, -70, -7);
+        lattice.addEdge(c, d2, -80, -8);
+        lattice.addEdge(d1, end, -90, -9);
+        lattice.addEdge(d2, end, -100, -10);
+
+        new LatticeOptimizer(lattice).optimize();
+
+        assertThat(lattice.getNodes(), containsInAnyOrder(start, a1, b1, c, d1, end));
+        assertThat(lattice.getEdges(), hasSize(6));
+        assertThat(start.getEdgeToNode(a1).getAcousticScore(), is(-10.0));
+        assertThat(a1.getEdgeToNode(b1).getLMScore(), is(-3.0));
+        assertThat(b1.getEdgeToNode(d1).getAcousticScore(), is(-60.0));
+        assertThat(c.getEdgeToNode(d1).getAcousticScore(), is(-80.0));
+        assertThat(d1.getEdgeToNode(end).getAcousticScore(), is(-90.0));
+        assertThat(lattice.getInitialNode(), sameInstance(start));
+        assertThat(lattice.getTerminalNode(), sameInstance(end));
+    }
+}
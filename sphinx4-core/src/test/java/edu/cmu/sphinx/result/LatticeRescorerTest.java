@@ -0,0 +1,93 @@
+package edu.cmu.sphinx.result;
+
+import edu.cmu.sphinx.linguist.WordSequence;
+import edu.cmu.sphinx.linguist.dictionary.Word;
+import edu.cmu.sphinx.linguist.language.ngram.LanguageModel;
+import edu.cmu.sphinx.util.LogMath;
+import edu.cmu.sphinx.util.props.PropertySheet;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class LatticeRescorerTest {
+
+    @Test
+    public void scoresEdgesByBestHistory() {
+        for (boolean concurrent : new boolean[] {false, true}) {
+            Lattice lattice = new Lattice();
+            Node start = lattice.addNode("0", "<s>", 0, 0);
+            Node a = lattice.addNode("1", "a", 0, 0);
+            Node b = lattice.addNode("2", "b", 0, 0);
+            Node sil = lattice.addNode("3", new Word("<sil>", null, true), 0, 0);
+            Node c = lattice.addNode("4", "c", 0, 0);
+            Node c2 = lattice.addNode("5", "c", 0, 0);
+            Node end = lattice.addNode("6", "</s>", 0, 0);
+            lattice.setInitialNode(start);
+            lattice.setTerminalNode(end);
+            Edge startA = lattice.addEdge(start, a, 0, 0);
+            Edge aSil = lattice.addEdge(a, sil, 0, 0);
+            Edge silC = lattice.addEdge(sil, c, 0, 0);
+            Edge aC2 = lattice.addEdge(a, c2, 0, 0);
+            lattice.addEdge(start, b, 0, 0);
+            Edge bC = lattice.addEdge(b, c, 0, 0);
+            Edge cEnd = lattice.addEdge(c, end, 0, 0);
+            Edge c2End = lattice.addEdge(c2, end, 0, 0);
+
+            StubModel model = new StubModel();
+            LatticeRescorer rescorer = new LatticeRescorer(lattice, model, new ForkJoinPool(4), concurrent);
+            rescorer.rescore();
+
+            assertThat(startA.getLMScore(), is(expected("<s>", "a")));
+            assertThat(aSil.getLMScore(), is((double) LogMath.LOG_ZERO));
+            // the filler is skipped in the history
+            assertThat(silC.getLMScore(), is(expected("<s>", "a", "c")));
+            assertThat(bC.getLMScore(), is(expected("<s>", "b", "c")));
+            assertThat(aC2.getLMScore(), is(expected("<s>", "a", "c")));
+            assertThat(cEnd.getLMScore(),
+                    is(Math.max(expected("a", "c", "</s>"), expected("b", "c", "</s>"))));
+            assertThat(c2End.getLMScore(), is(expected("a", "c", "</s>")));
+
+            // every n-gram is looked up once
+            assertThat(rescorer.getNumQueries(), is(6));
+            assertThat(model.queries, hasSize(6));
+            assertThat(new HashSet<>(model.queries), hasSize(6));
+        }
+    }
+
+    private static double expected(String... spellings) {
+        Word[] words = new Word[spellings.length];
+        for (int i = 0; i < words.length; i++)
+            words[i] = new Word(spellings[i], null, false);
+        return StubModel.probability(new WordSequence(words)) * LatticeRescorer.LANGUAGE_WEIGHT;
+    }
+
+    private static class StubModel implements LanguageModel {
+
+        final List<WordSequence> queries = Collections.synchronizedList(new ArrayList<WordSequence>());
+
+        static float probability(WordSequence wordSequence) {
+            return -1 - Math.abs(wordSequence.toString().hashCode() % 97);
+        }
+
+        public float getProbability(WordSequence wordSequence) {
+            queries.add(wordSequence);
+            return probability(wordSequence);
+        }
+
+        public void newProperties(PropertySheet ps) {}
+        public void allocate() {}
+        public void deallocate() {}
+        public float getSmear(WordSequence wordSequence) { return 0; }
+        public Set<String> getVocabulary() { return Collections.emptySet(); }
+        public int getMaxDepth() { return 3; }
+        public void onUtteranceEnd() {}
+    }
+}
@@ -0,0 +1,65 @@
+package edu.cmu.sphinx.result;
+
+import edu.cmu.sphinx.linguist.dictionary.Pronunciation;
+import edu.cmu.sphinx.linguist.dictionary.Word;
+import org.testng.annotations.Test;
+
+import java.util.*;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class NbestTest {
+
+    @Test
+    public void matchesExhaustiveSearch() {
+        Random random = new Random(42);
+        Lattice lattice = new Lattice();
+        int numNodes = 30;
+        Node[] nodes = new Node[numNodes];
+        nodes[0] = lattice.addNode("0", "<s>", 0, 0);
+        for (int i = 1; i < numNodes - 1; i++) {
+            int w = random.nextInt(5);
+            nodes[i] = w == 4 ? addFiller(lattice, Integer.toString(i)) : lattice.addNode(Integer.toString(i), "w" + w, i, i);
+        }
+        nodes[numNodes - 1] = lattice.addNode(Integer.toString(numNodes - 1), "</s>", numNodes, numNodes);
+        lattice.setInitialNode(nodes[0]);
+        lattice.setTerminalNode(nodes[numNodes - 1]);
+        for (int i = 1; i < numNodes; i++) {
+            for (int j = Math.max(0, i - 4); j < i; j++) {
+                if (j == i - 1 || random.nextBoolean())
+                    lattice.addEdge(nodes[j], nodes[i], -random.nextInt(1000), -random.nextInt(100));
+            }
+        }
+
+        Map<String, Double> best = new HashMap<>();
+        enumerate(nodes[0], "<s>", 0, lattice.getTerminalNode(), best);
+        List<Map.Entry<String, Double>> expected = new ArrayList<>(best.entrySet());
+        expected.sort((e1, e2) -> Double.compare(e2.getValue(), e1.getValue()));
+
+        List<Nbest.Hypothesis> hypotheses = new Nbest(lattice).getNbestHypotheses(50);
+        assertThat(hypotheses, hasSize(Math.min(50, expected.size())));
+        for (int i = 0; i < hypotheses.size(); i++) {
+            assertThat(hypotheses.get(i).getScore(), is(expected.get(i).getValue()));
+            assertThat(best.get(hypotheses.get(i).toString()), is(hypotheses.get(i).getScore()));
+        }
+        assertThat(new Nbest(lattice).getNbest(3), contains(hypotheses.get(0).toString(),
+                hypotheses.get(1).toString(), hypotheses.get(2).toString()));
+    }
+
+    private static Node addFiller(Lattice lattice, String id) {
+        return lattice.addNode(id, new Word("<sil>", new Pronunciation[0], true), 0, 0);
+    }
+
+    private static void enumerate(Node node, String words, double score, Node terminal, Map<String, Double> best) {
+        if (node == terminal) {
+            best.merge(words, score, Math::max);
+            return;
+        }
+        for (Edge edge : node.getLeavingEdges()) {
+            Node next = edge.getToNode();
+            String nextWords = next.getWord().filler ? words : words + ' ' + next.getWord();
+            enumerate(next, nextWords, score + edge.getAcousticScore() + edge.getLMScore(), terminal, best);
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package edu.cmu.sphinx.tools.batch;
+
+import org.testng.annotations.Test;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class ParallelBatchRecognizerTest {
+
+    @Test
+    public void schedulesLongestFirst() {
+        List<Deque<Integer>> queues = ParallelBatchRecognizer.schedule(new long[] {5, 50, 10, 40, 30, 20}, 2);
+        assertThat(queues, hasSize(2));
+        assertThat(new ArrayList<>(queues.get(0)), contains(1, 4, 2));
+        assertThat(new ArrayList<>(queues.get(1)), contains(3, 5, 0));
+    }
+
+    @Test
+    public void stealsShortestItemOfFullestQueue() {
+        List<Deque<Integer>> queues = ParallelBatchRecognizer.schedule(new long[] {60, 50, 40, 30, 20, 10}, 3);
+        // 0 3 | 1 4 | 2 5
+        assertThat(ParallelBatchRecognizer.nextItem(queues, 0), is(0));
+        assertThat(ParallelBatchRecognizer.nextItem(queues, 0), is(3));
+        assertThat(ParallelBatchRecognizer.nextItem(queues, 2), is(2));
+        // the second queue is the fullest, its last item is the shortest
+        assertThat(ParallelBatchRecognizer.nextItem(queues, 0), is(4));
+        assertThat(ParallelBatchRecognizer.nextItem(queues, 0), is(1));
+        assertThat(ParallelBatchRecognizer.nextItem(queues, 1), is(5));
+        assertThat(ParallelBatchRecognizer.nextItem(queues, 1), nullValue());
+        assertThat(ParallelBatchRecognizer.nextItem(queues, 2), nullValue());
+    }
+
+    @Test
+    public void writesHypothesesInBatchOrder() {
+        StringWriter out = new StringWriter();
+        ParallelBatchRecognizer.HypothesisWriter writer =
+                new ParallelBatchRecognizer.HypothesisWriter(new PrintWriter(out), 4);
+        writer.add(2, "c");
+        writer.add(1, "b");
+        assertThat(out.toString(), isEmptyString());
+        writer.add(0, "a");
+        assertThat(out.toString().split("\\R"), arrayContaining("a", "b", "c"));
+        writer.add(3, "d");
+        assertThat(out.toString().split("\\R"), arrayContaining("a", "b", "c", "d"));
+    }
+
+    @Test
+    public void processesEveryItemOnceWithManyWorkers() throws InterruptedException {
+        int numItems = 1000;
+        int numThreads = 4;
+        long[] lengths = new long[numItems];
+        for (int i = 0; i < numItems; i++)
+            lengths[i] = (i * 7919) % 1000;
+        List<Deque<Integer>> queues = ParallelBatchRecognizer.schedule(lengths, numThreads);
+        StringWriter out = new StringWriter();
+        ParallelBatchRecognizer.HypothesisWriter writer =
+                new ParallelBatchRecognizer.HypothesisWriter(new PrintWriter(out), numItems);
+
+        // the first worker is slow, the others steal its items
+        ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+        CountDownLatch done = new CountDownLatch(numThreads);
+        List<Integer> counts = Collections.synchronizedList(new ArrayList<>());
+        for (int i = 0; i < numThreads; i++) {
+            int worker = i;
+            executor.execute(() -> {
+                int count = 0;
+                Integer index;
+                while ((index = ParallelBatchRecognizer.nextItem(queues, worker)) != null) {
+                    if (worker == 0)
+                        Thread.yield();
+                    writer.add(index, "item " + index);
+                    count++;
+                }
+                counts.add(count);
+                done.countDown();
+            });
+        }
+        assertThat(done.await(10, TimeUnit.SECONDS), is(true));
+        executor.shutdown();
+
+        String[] lines = out.toString().split("\\R");
+        assertThat(lines.length, is(numItems));
+        for (int i = 0; i < numItems; i++)
+            assertThat(lines[i], is("item " + i));
+        assertThat(counts.stream().mapToInt(Integer::intValue).sum(), is(numItems));
+    }
+}
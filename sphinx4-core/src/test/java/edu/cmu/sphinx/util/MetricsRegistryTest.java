@@ -0,0 +1,60 @@
+package edu.cmu.sphinx.util;
+
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class MetricsRegistryTest {
+
+    @Test
+    public void bucketsCoverValues() {
+        long previous = -1;
+        for (long value : new long[] {0, 1, 31, 32, 33, 63, 64, 65, 1000, 123456789, Long.MAX_VALUE}) {
+            int bucket = MetricsRegistry.Histogram.bucket(value);
+            assertThat(MetricsRegistry.Histogram.lowestValue(bucket), lessThanOrEqualTo(value));
+            assertThat(MetricsRegistry.Histogram.highestValue(bucket), greaterThanOrEqualTo(value));
+            assertThat((long) bucket, greaterThanOrEqualTo(previous));
+            previous = bucket;
+        }
+        for (int bucket = 0; bucket < 200; bucket++)
+            assertThat(MetricsRegistry.Histogram.bucket(MetricsRegistry.Histogram.lowestValue(bucket)), is(bucket));
+    }
+
+    @Test
+    public void countsAndQuantiles() throws InterruptedException {
+        MetricsRegistry metrics = new MetricsRegistry();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            threads.add(new Thread(() -> {
+                for (int i = 1; i <= 1000; i++) {
+                    metrics.counter(MetricsRegistry.FRAMES).increment();
+                    metrics.histogram(MetricsRegistry.SCORE).record(i * 1000);
+                }
+            }));
+        }
+        threads.forEach(Thread::start);
+        for (Thread thread : threads)
+            thread.join();
+
+        MetricsRegistry.Snapshot snapshot = metrics.snapshot();
+        assertThat(snapshot.getCounter(MetricsRegistry.FRAMES), is(4000L));
+        assertThat(snapshot.getCounter(MetricsRegistry.TOKENS_SCORED), is(0L));
+        MetricsRegistry.HistogramSnapshot score = snapshot.getHistogram(MetricsRegistry.SCORE);
+        assertThat(score.getCount(), is(4000L));
+        assertThat(score.getMax(), is(1000000L));
+        assertThat(score.getMean(), closeTo(500500, 1));
+        assertThat((double) score.getQuantile(0.5), closeTo(500000, 500000 / 32.0));
+        assertThat((double) score.getQuantile(0.99), closeTo(990000, 990000 / 32.0));
+        assertThat(score.getQuantile(1), is(1000000L));
+        // 4000 frames of 10 ms took 2.002 s
+        assertThat(snapshot.getRealTimeFactor(0.01), closeTo(2.002 / 40, 1e-6));
+
+        metrics.reset();
+        assertThat(metrics.snapshot().getHistogram(MetricsRegistry.SCORE).getCount(), is(0L));
+        assertThat(metrics.snapshot().getCounter(MetricsRegistry.FRAMES), is(0L));
+    }
+}
@@ -125,6 +125,25 @@ public class ConfigurationManagerTest {
                    equalTo("opencards"));
     }
 
+    @Test
+    public void testCopySharesInstantiatedComponents() {
+        URL url = getClass()
+                .getResource("ConfigurationManagerTest.testconfig.sxl");
+        ConfigurationManager cm = new ConfigurationManager(url);
+
+        DummyFrontEnd frontEnd = cm.lookup("aDummyFrontEnd");
+        cm.getPropertySheet("duco").setDouble("alpha", 11);
+        ConfigurationManager copy = cm.copy();
+
+        DummyComp duco = cm.lookup("duco");
+        DummyComp ducoCopy = copy.lookup("duco");
+        assertThat(ducoCopy, not(sameInstance(duco)));
+        assertThat(ducoCopy.getAlpha(), closeTo(11, MIN_VALUE));
+        assertThat(ducoCopy.getFrontEnd(), sameInstance(frontEnd));
+        assertThat(duco.getFrontEnd(), sameInstance(frontEnd));
+        assertThat(copy.lookup("processor"), sameInstance(cm.lookup("processor")));
+    }
+
     @Test
     public void testGetComponentClass() {
         URL url = getClass().getResource("ConfigurationManagerTest.sxl");